@@ -40,6 +40,30 @@ class ApolloStoreTests {
     concurrentReadWrites(cacheFactory)
   }
 
+  /**
+   * Reads only, to track the time and allocations of converting records to the generated models
+   */
+  @Test
+  fun readMemory() {
+    read(MemoryCacheFactory())
+  }
+
+  @Test
+  fun readSql() {
+    Utils.dbFile.delete()
+    read(SqlNormalizedCacheFactory(dbName))
+  }
+
+  private fun read(cacheFactory: NormalizedCacheFactory) {
+    val apolloStore = createApolloStore(cacheFactory)
+    val query = operationBasedQuery
+    val data = query.parseJsonResponse(resource(R.raw.calendar_response_simple).jsonReader()).data!!
+    apolloStore.writeOperationSync(query, data)
+    benchmarkRule.measureRepeated {
+      apolloStore.readOperation(query)
+    }
+  }
+
   private fun concurrentReadWrites(cacheFactory: NormalizedCacheFactory) {
     val apolloStore = createApolloStore(cacheFactory)
     val query = operationBasedQuery
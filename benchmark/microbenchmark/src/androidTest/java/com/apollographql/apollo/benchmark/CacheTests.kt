@@ -15,6 +15,7 @@ import com.apollographql.apollo.benchmark.Utils.responseBasedQuery
 import com.apollographql.apollo.benchmark.test.R
 import com.apollographql.apollo.cache.normalized.ApolloStore
 import com.apollographql.apollo.cache.normalized.api.MemoryCacheFactory
+import com.apollographql.apollo.cache.normalized.sql.RecordFormat
 import com.apollographql.apollo.cache.normalized.sql.SqlNormalizedCacheFactory
 import kotlinx.coroutines.runBlocking
 import org.junit.Rule
@@ -34,6 +35,11 @@ class CacheTests {
     readFromCache("cacheOperationSql", operationBasedQuery, R.raw.calendar_response, sql = true, Utils::checkOperationBased)
   }
 
+  @Test
+  fun cacheOperationSqlBinary() {
+    readFromCache("cacheOperationSqlBinary", operationBasedQuery, R.raw.calendar_response, sql = true, Utils::checkOperationBased, RecordFormat.Binary)
+  }
+
   @Test
   fun cacheResponseMemory() {
     readFromCache("cacheResponseMemory", responseBasedQuery, R.raw.calendar_response, sql = false, Utils::checkResponseBased)
@@ -44,6 +50,11 @@ class CacheTests {
     readFromCache("cacheResponseSql", responseBasedQuery, R.raw.calendar_response, sql = true, Utils::checkResponseBased)
   }
 
+  @Test
+  fun cacheResponseSqlBinary() {
+    readFromCache("cacheResponseSqlBinary", responseBasedQuery, R.raw.calendar_response, sql = true, Utils::checkResponseBased, RecordFormat.Binary)
+  }
+
   @Test
   fun cacheLargeListMemory() {
     readFromCache("cacheLargeListMemory", largeListQuery, R.raw.tracks_playlist_response, sql = false, Utils::checkLargeList)
@@ -54,11 +65,42 @@ class CacheTests {
     readFromCache("cacheLargeListSql", largeListQuery, R.raw.tracks_playlist_response, sql = true, Utils::checkLargeList)
   }
 
-  private fun <D : Query.Data> readFromCache(testName: String, query: Query<D>, jsonResponseResId: Int, sql: Boolean, check: (D) -> Unit) {
+  @Test
+  fun cacheLargeListSqlBinary() {
+    readFromCache("cacheLargeListSqlBinary", largeListQuery, R.raw.tracks_playlist_response, sql = true, Utils::checkLargeList, RecordFormat.Binary)
+  }
+
+  /**
+   * Writes a large list to an empty store. Every field of every record is a changed key.
+   */
+  @Test
+  fun writeLargeListMemory() {
+    writeToCache(largeListQuery, R.raw.tracks_playlist_response)
+  }
+
+  private fun <D : Query.Data> writeToCache(query: Query<D>, jsonResponseResId: Int) {
+    val data = query.parseJsonResponse(resource(jsonResponseResId).jsonReader()).data!!
+
+    benchmarkRule.measureRepeated {
+      val store = runWithTimingDisabled {
+        ApolloStore(MemoryCacheFactory())
+      }
+      store.writeOperationSync(query, data)
+    }
+  }
+
+  private fun <D : Query.Data> readFromCache(
+      testName: String,
+      query: Query<D>,
+      jsonResponseResId: Int,
+      sql: Boolean,
+      check: (D) -> Unit,
+      recordFormat: RecordFormat = RecordFormat.Json,
+  ) {
     val store = ApolloStore(
         if (sql) {
           dbFile.delete()
-          SqlNormalizedCacheFactory(name = dbName)
+          SqlNormalizedCacheFactory(name = dbName).recordFormat(recordFormat)
         } else {
           MemoryCacheFactory()
         }
@@ -0,0 +1,74 @@
+package com.apollographql.apollo.benchmark
+
+import androidx.benchmark.junit4.BenchmarkRule
+import androidx.benchmark.junit4.measureRepeated
+import com.apollographql.apollo.annotations.ApolloInternal
+import com.apollographql.apollo.api.CustomScalarAdapters
+import com.apollographql.apollo.api.json.jsonReader
+import com.apollographql.apollo.api.parseJsonResponse
+import com.apollographql.apollo.benchmark.Utils.operationBasedQuery
+import com.apollographql.apollo.benchmark.Utils.registerCacheSize
+import com.apollographql.apollo.benchmark.Utils.resource
+import com.apollographql.apollo.benchmark.test.R
+import com.apollographql.apollo.cache.normalized.api.Record
+import com.apollographql.apollo.cache.normalized.api.TypePolicyCacheKeyGenerator
+import com.apollographql.apollo.cache.normalized.api.internal.CompactRecordSerializer
+import com.apollographql.apollo.cache.normalized.api.internal.FieldNameTable
+import com.apollographql.apollo.cache.normalized.api.internal.JsonRecordSerializer
+import com.apollographql.apollo.cache.normalized.api.normalize
+import org.junit.Rule
+import org.junit.Test
+
+/**
+ * Compares the size and decode time of the record formats used by SqlNormalizedCache
+ */
+@OptIn(ApolloInternal::class)
+class RecordSerializerTests {
+  @get:Rule
+  val benchmarkRule = BenchmarkRule()
+
+  @Test
+  fun decodeJson() {
+    val serialized = records.map { it.key to JsonRecordSerializer.serialize(it) }
+    registerCacheSize("RecordSerializerTests", "decodeJson", serialized.sumOf { it.second.encodeToByteArray().size.toLong() })
+
+    benchmarkRule.measureRepeated {
+      serialized.forEach { (key, json) ->
+        JsonRecordSerializer.deserialize(key, json)
+      }
+    }
+  }
+
+  @Test
+  fun decodeCompact() {
+    val serializer = CompactRecordSerializer(FieldNameTable())
+    val serialized = records.map { it.key to serializer.serialize(it) }
+    registerCacheSize("RecordSerializerTests", "decodeCompact", serialized.sumOf { it.second.size.toLong() })
+
+    benchmarkRule.measureRepeated {
+      serialized.forEach { (key, bytes) ->
+        // Fields are decoded lazily, force decoding all of them
+        serializer.deserialize(key, bytes).fields.entries
+      }
+    }
+  }
+
+  @Test
+  fun decodeCompactSingleField() {
+    val serializer = CompactRecordSerializer(FieldNameTable())
+    val serialized = records.map { it.key to serializer.serialize(it) }
+
+    benchmarkRule.measureRepeated {
+      serialized.forEach { (key, bytes) ->
+        serializer.deserialize(key, bytes)["__typename"]
+      }
+    }
+  }
+
+  companion object {
+    private val records: Collection<Record> by lazy {
+      val data = operationBasedQuery.parseJsonResponse(resource(R.raw.calendar_response).jsonReader()).data!!
+      operationBasedQuery.normalize(data, CustomScalarAdapters.Empty, TypePolicyCacheKeyGenerator).values
+    }
+  }
+}
@@ -7,6 +7,8 @@ import com.apollographql.apollo.api.CustomScalarAdapters
 import com.apollographql.apollo.api.Operation
 import com.apollographql.apollo.api.Subscription
 import com.apollographql.apollo.api.Upload
+import com.apollographql.apollo.api.http.internal.compressingSink
+import com.apollographql.apollo.api.http.internal.compressionSupported
 import com.apollographql.apollo.api.http.internal.urlEncode
 import com.apollographql.apollo.api.json.JsonWriter
 import com.apollographql.apollo.api.json.buildJsonByteString
@@ -22,6 +24,8 @@ import okio.ByteString
 import okio.Sink
 import okio.blackholeSink
 import okio.buffer
+import okio.use
+import kotlin.concurrent.Volatile
 
 /**
  * An [HttpRequestComposer] that handles:
@@ -29,10 +33,32 @@ import okio.buffer
  * - FileUpload by intercepting the Upload custom scalars and sending them as multipart if needed
  * - Automatic Persisted Queries
  * - Adding the default Apollo headers
+ * - Compressing the POST bodies
+ *
+ * The parts of the POST bodies that don't depend on the variables (operation name, document and extensions) are encoded
+ * once per operation and reused, so that only the variables are serialized for each request.
+ *
+ * @param bodyEncoding the encoding used to compress the POST bodies, or null to send them uncompressed. Multipart bodies
+ * are never compressed. The server must support the encoding.
+ * @throws UnsupportedOperationException if [bodyEncoding] is not null and compression is not supported on this platform
  */
 class DefaultHttpRequestComposer(
     private val serverUrl: String,
+    private val bodyEncoding: HttpBodyEncoding?,
 ) : HttpRequestComposer {
+  constructor(serverUrl: String) : this(serverUrl, null)
+
+  init {
+    if (bodyEncoding != null && !compressionSupported) {
+      throw UnsupportedOperationException("Apollo: request body compression is not supported on this platform")
+    }
+  }
+
+  /**
+   * Replaced as a whole when a template is added so that it can be read without locking
+   */
+  @Volatile
+  private var postBodyTemplates = emptyMap<PostBodyTemplateKey, PostBodyTemplate>()
 
   override fun <D : Operation.Data> compose(apolloRequest: ApolloRequest<D>): HttpRequest {
     val operation = apolloRequest.operation
@@ -62,20 +88,26 @@ class DefaultHttpRequestComposer(
       }
 
       HttpMethod.Post -> {
-        val query = if (sendDocument) operation.document() else null
-        val body =
+        val template = postBodyTemplate(operation, sendDocument, sendApqExtensions, sendEnhancedClientAwarenessExtensions)
+        val body = buildTemplatedPostBody(operation, customScalarAdapters, template) {
+          val query = if (sendDocument) operation.document() else null
           buildPostBody(operation, customScalarAdapters, query, extensionsWriter(operation.id(), sendApqExtensions, sendEnhancedClientAwarenessExtensions))
-        HttpRequest.Builder(
+        }
+        val builder = HttpRequest.Builder(
             method = HttpMethod.Post,
             url = serverUrl,
-        ).body(body)
-            .let {
-              if (body.contentType.startsWith("multipart/form-data")) {
-                it.addHeader(HEADER_APOLLO_REQUIRE_PREFLIGHT, "true")
-              } else {
-                it
-              }
-            }
+        )
+        when {
+          body.contentType.startsWith("multipart/form-data") -> {
+            builder.body(body).addHeader(HEADER_APOLLO_REQUIRE_PREFLIGHT, "true")
+          }
+
+          bodyEncoding != null -> {
+            builder.body(CompressedHttpBody(body, bodyEncoding)).addHeader(HEADER_CONTENT_ENCODING, bodyEncoding.headerValue())
+          }
+
+          else -> builder.body(body)
+        }
       }
     }
 
@@ -85,6 +117,96 @@ class DefaultHttpRequestComposer(
         .build()
   }
 
+  private fun <D : Operation.Data> postBodyTemplate(
+      operation: Operation<D>,
+      sendDocument: Boolean,
+      sendApqExtensions: Boolean,
+      sendEnhancedClientAwarenessExtensions: Boolean,
+  ): PostBodyTemplate {
+    val query = if (sendDocument) operation.document() else null
+    val key = PostBodyTemplateKey(operation.name(), query, operation.id(), sendApqExtensions, sendEnhancedClientAwarenessExtensions)
+    postBodyTemplates[key]?.let { return it }
+
+    // {"operationName":"..."} becomes {"operationName":"...","variables":
+    val head = buildJsonByteString(indent = null) {
+      writeObject {
+        name("operationName")
+        value(operation.name())
+      }
+    }
+    // {"query":"...","extensions":{...}} becomes ,"query":"...","extensions":{...}}
+    val tail = buildJsonByteString(indent = null) {
+      writeObject {
+        if (query != null) {
+          name("query")
+          value(query)
+        }
+        extensionsWriter(operation.id(), sendApqExtensions, sendEnhancedClientAwarenessExtensions)()
+      }
+    }
+    val template = PostBodyTemplate(
+        prefix = Buffer().write(head, 0, head.size - 1).writeUtf8(",\"variables\":").readByteString(),
+        suffix = if (tail.size == 2) {
+          tail.substring(1)
+        } else {
+          Buffer().writeUtf8(",").write(tail, 1, tail.size - 1).readByteString()
+        }
+    )
+    if (postBodyTemplates.size < MAX_POST_BODY_TEMPLATES) {
+      postBodyTemplates = postBodyTemplates + (key to template)
+    }
+    return template
+  }
+
+  /**
+   * Builds the POST body of [operation] from [template], serializing only the variables.
+   *
+   * Variables with uploads are sent as multipart: the body is built with [buildPostBody] instead because the uploads
+   * are identified by their path in the whole body.
+   */
+  private fun <D : Operation.Data> buildTemplatedPostBody(
+      operation: Operation<D>,
+      customScalarAdapters: CustomScalarAdapters,
+      template: PostBodyTemplate,
+      buildMultipartBody: () -> HttpBody,
+  ): HttpBody {
+    val uploads: Map<String, Upload>
+    val variables = buildJsonByteString(indent = null) {
+      val uploadAwareWriter = FileUploadAwareJsonWriter(this)
+      uploadAwareWriter.writeObject {
+        operation.serializeVariables(this, customScalarAdapters, false)
+      }
+      uploads = uploadAwareWriter.collectedUploads()
+    }
+    if (uploads.isNotEmpty()) {
+      return buildMultipartBody()
+    }
+
+    return object : HttpBody {
+      override val contentType = "application/json"
+      override val contentLength = (template.prefix.size + variables.size + template.suffix.size).toLong()
+
+      override fun writeTo(bufferedSink: BufferedSink) {
+        bufferedSink.write(template.prefix)
+        bufferedSink.write(variables)
+        bufferedSink.write(template.suffix)
+      }
+    }
+  }
+
+  private data class PostBodyTemplateKey(
+      val operationName: String,
+      val query: String?,
+      val operationId: String,
+      val sendApqExtensions: Boolean,
+      val sendEnhancedClientAwarenessExtensions: Boolean,
+  )
+
+  /**
+   * The bytes of a POST body before and after the variables
+   */
+  private class PostBodyTemplate(val prefix: ByteString, val suffix: ByteString)
+
   companion object {
     // Note: Apollo Server's CSRF prevention feature (introduced in AS3.7 and intended to be
     // the default in AS4) includes this in the set of headers that indicate
@@ -96,6 +218,14 @@ class DefaultHttpRequestComposer(
 
     val HEADER_ACCEPT_NAME = "Accept"
 
+    private const val HEADER_CONTENT_ENCODING = "Content-Encoding"
+
+    /**
+     * Templates are cached for the operations known at build time. This bounds the cache if operations are created
+     * dynamically.
+     */
+    private const val MAX_POST_BODY_TEMPLATES = 1000
+
     // TODO The deferSpec=20220824 part is a temporary measure so early backend implementations of the @defer directive
     // can recognize early client implementations and potentially reply in a compatible way.
     // This should be removed in later versions.
@@ -309,6 +439,13 @@ class DefaultHttpRequestComposer(
       }
     }
 
+    private fun HttpBodyEncoding.headerValue(): String {
+      return when (this) {
+        HttpBodyEncoding.Gzip -> "gzip"
+        HttpBodyEncoding.Deflate -> "deflate"
+      }
+    }
+
     @Deprecated("Use new function with additional parameters instead.", ReplaceWith("buildParamsMap(operation = operation, customScalarAdapters = customScalarAdapters, autoPersistQueries = autoPersistQueries, sendDocument = sendDocument, sendEnhancedClientAwarenessExtensions = true)"))
     fun <D : Operation.Data> buildParamsMap(
         operation: Operation<D>,
@@ -420,6 +557,35 @@ class UploadsHttpBody(
   }
 }
 
+/**
+ * An [HttpBody] compressing [body] while it is written
+ */
+private class CompressedHttpBody(
+    private val body: HttpBody,
+    private val encoding: HttpBodyEncoding,
+) : HttpBody {
+  override val contentType: String
+    get() = body.contentType
+
+  // The compressed size is only known once written
+  override val contentLength = -1L
+
+  override fun writeTo(bufferedSink: BufferedSink) {
+    // Closing the compressing sink writes the end of the compressed stream but bufferedSink is owned by the caller
+    compressingSink(NonClosingSink(bufferedSink), encoding).buffer().use {
+      body.writeTo(it)
+    }
+  }
+}
+
+private class NonClosingSink(
+    private val delegate: Sink,
+) : Sink by delegate {
+  override fun close() {
+    delegate.flush()
+  }
+}
+
 private class CountingSink(
     private val delegate: Sink,
 ) : Sink by delegate {
@@ -0,0 +1,24 @@
+package com.apollographql.apollo.api.http
+
+/**
+ * An encoding used to compress request bodies.
+ *
+ * The body is compressed while it is written, without buffering the uncompressed or the compressed bytes. Because the
+ * compressed size is unknown before writing, compressed bodies have a contentLength of -1 and are sent with chunked
+ * encoding.
+ *
+ * Compression is supported on the JVM, Android and native. It is not supported on JS and wasm.
+ *
+ * @see DefaultHttpRequestComposer
+ */
+enum class HttpBodyEncoding {
+  /**
+   * `Content-Encoding: gzip`
+   */
+  Gzip,
+
+  /**
+   * `Content-Encoding: deflate`, the zlib format
+   */
+  Deflate,
+}
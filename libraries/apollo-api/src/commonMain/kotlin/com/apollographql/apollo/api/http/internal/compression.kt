@@ -0,0 +1,16 @@
+package com.apollographql.apollo.api.http.internal
+
+import com.apollographql.apollo.api.http.HttpBodyEncoding
+import okio.Sink
+
+/**
+ * Whether [compressingSink] is implemented on this platform.
+ */
+internal expect val compressionSupported: Boolean
+
+/**
+ * Returns a [Sink] that compresses the bytes written to it with [encoding] and writes them to [sink].
+ *
+ * Closing the returned [Sink] writes the end of the compressed stream and closes [sink].
+ */
+internal expect fun compressingSink(sink: Sink, encoding: HttpBodyEncoding): Sink
@@ -1,5 +1,6 @@
 package com.apollographql.apollo.api.json
 
+import com.apollographql.apollo.annotations.ApolloInternal
 import com.apollographql.apollo.api.json.BufferedSourceJsonReader.Companion.INITIAL_STACK_SIZE
 import com.apollographql.apollo.api.json.MapJsonReader.Companion.buffer
 import com.apollographql.apollo.api.json.internal.toDoubleExact
@@ -51,11 +52,34 @@ constructor(
 
   private var ignoreUnknownKeys = true
 
+  /**
+   * The resolveValue hook of the secondary constructor
+   */
+  private var valueResolver: (MapJsonReader.(value: Any?) -> Any?)? = null
+
   init {
     peekedToken = anyToToken(root)
     peekedData = root
   }
 
+  /**
+   * @param resolveValue called with every field value and list item, except [root], before it is read. Returns the value
+   * to read instead. [getPath] returns the path of the value.
+   */
+  @ApolloInternal
+  constructor(
+      root: Any?,
+      pathRoot: List<Any>,
+      resolveValue: MapJsonReader.(value: Any?) -> Any?,
+  ) : this(root, pathRoot) {
+    valueResolver = resolveValue
+  }
+
+  private fun resolveValue(value: Any?): Any? {
+    val resolver = valueResolver ?: return value
+    return resolver(value)
+  }
+
   private fun anyToToken(any: Any?) = when (any) {
     null -> JsonReader.Token.NULL
     is List<*> -> JsonReader.Token.BEGIN_ARRAY
@@ -88,11 +112,12 @@ constructor(
 
     if (currentIterator.hasNext()) {
       val next = currentIterator.next()
-      peekedData = next
-
-      peekedToken = when (next) {
-        is Map.Entry<*, *> -> JsonReader.Token.NAME
-        else -> anyToToken(next)
+      if (next is Map.Entry<*, *>) {
+        peekedData = next
+        peekedToken = JsonReader.Token.NAME
+      } else {
+        peekedData = resolveValue(next)
+        peekedToken = anyToToken(peekedData)
       }
     } else {
       peekedToken = if (path[stackSize - 1] is Int) {
@@ -183,8 +208,8 @@ constructor(
     val data = peekedData as Map.Entry<String, Any?>
 
     path[stackSize - 1] = data.key
-    peekedData = data.value
-    peekedToken = anyToToken(data.value)
+    peekedData = resolveValue(data.value)
+    peekedToken = anyToToken(peekedData)
     return data.key
   }
 
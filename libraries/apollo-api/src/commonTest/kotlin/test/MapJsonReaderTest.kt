@@ -3,6 +3,7 @@ package test
 import com.apollographql.apollo.api.json.JsonNumber
 import com.apollographql.apollo.api.json.JsonReader
 import com.apollographql.apollo.api.json.MapJsonReader
+import com.apollographql.apollo.api.json.readAny
 import kotlin.test.Test
 import kotlin.test.assertEquals
 import kotlin.test.assertTrue
@@ -98,4 +99,31 @@ class MapJsonReaderTest {
       endObject()
     }
   }
-}
\ No newline at end of file
+
+  @Test
+  fun valuesAreResolvedBeforeBeingRead() {
+    val map = mapOf(
+        "key1" to "ref",
+        "key2" to listOf("ref", "value"),
+    )
+
+    val paths = mutableListOf<List<Any>>()
+    val jsonReader = MapJsonReader(map, emptyList()) { value ->
+      if (value == "ref") {
+        paths.add(getPath())
+        mapOf("resolved" to true)
+      } else {
+        value
+      }
+    }
+
+    assertEquals(
+        mapOf(
+            "key1" to mapOf("resolved" to true),
+            "key2" to listOf(mapOf("resolved" to true), "value"),
+        ),
+        jsonReader.readAny()
+    )
+    assertEquals(listOf<List<Any>>(listOf("key1"), listOf("key2", 0)), paths)
+  }
+}
@@ -0,0 +1,16 @@
+package com.apollographql.apollo.api.http.internal
+
+import com.apollographql.apollo.api.http.HttpBodyEncoding
+import okio.Sink
+import okio.deflate
+import okio.gzip
+
+internal actual val compressionSupported: Boolean
+  get() = true
+
+internal actual fun compressingSink(sink: Sink, encoding: HttpBodyEncoding): Sink {
+  return when (encoding) {
+    HttpBodyEncoding.Gzip -> sink.gzip()
+    HttpBodyEncoding.Deflate -> sink.deflate()
+  }
+}
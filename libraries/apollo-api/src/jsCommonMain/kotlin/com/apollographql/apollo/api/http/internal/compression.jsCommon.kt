@@ -0,0 +1,11 @@
+package com.apollographql.apollo.api.http.internal
+
+import com.apollographql.apollo.api.http.HttpBodyEncoding
+import okio.Sink
+
+internal actual val compressionSupported: Boolean
+  get() = false
+
+internal actual fun compressingSink(sink: Sink, encoding: HttpBodyEncoding): Sink {
+  throw UnsupportedOperationException("Apollo: request body compression is not supported on JS")
+}
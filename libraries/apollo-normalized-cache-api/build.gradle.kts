@@ -17,5 +17,12 @@ kotlin {
         api(libs.uuid)
       }
     }
+    findByName("appleMain")?.apply {
+      dependencies {
+        implementation(libs.atomicfu.library.get().toString()) {
+          because("Use of ReentrantLock in CacheLock (we don't use the gradle plugin rewrite)")
+        }
+      }
+    }
   }
 }
@@ -1,5 +1,13 @@
 package com.apollographql.apollo.cache.normalized.api.internal
 
+import kotlinx.atomicfu.locks.ReentrantLock
+import kotlinx.atomicfu.locks.reentrantLock
+import kotlinx.atomicfu.locks.withLock
+
 internal actual class CacheLock actual constructor() {
-  actual fun <T> lock(block: () -> T): T = block()
-}
\ No newline at end of file
+  private val lock: ReentrantLock = reentrantLock()
+
+  actual fun <T> lock(block: () -> T): T {
+    return lock.withLock(block)
+  }
+}
@@ -0,0 +1,314 @@
+package com.apollographql.apollo.cache.normalized.api
+
+import com.apollographql.apollo.cache.normalized.api.internal.CacheEntry
+import com.apollographql.apollo.cache.normalized.api.internal.CacheLock
+import com.apollographql.apollo.cache.normalized.api.internal.ChangedKeys
+import com.apollographql.apollo.cache.normalized.api.internal.LruCache
+import com.apollographql.apollo.cache.normalized.api.internal.NamespaceIndex
+import com.apollographql.apollo.cache.normalized.api.internal.reachableKeys
+import com.apollographql.apollo.cache.normalized.api.internal.utf8Length
+import com.apollographql.apollo.mpp.currentTimeMillis
+import kotlin.jvm.JvmOverloads
+import kotlin.reflect.KClass
+
+/**
+ * Memory (multiplatform) cache implementation for highly concurrent workloads.
+ *
+ * Keys are spread over a fixed number of segments, each segment being an independent LRU cache guarded by its own lock.
+ * Reads and writes of keys that live in different segments never contend, at the price of an approximate LRU order: each
+ * segment evicts its own least recently used entries once it goes over its share of [maxSizeBytes].
+ *
+ * [maxSizeBytes] - the maximum size in bytes the cache may occupy. Each segment may occupy up to `maxSizeBytes / segmentCount`.
+ * [expireAfterMillis] - after what timeout each entry in the cache treated as expired. By default there is no timeout.
+ * [concurrencyLevel] - the expected number of threads accessing the cache concurrently. It is rounded up to the next
+ * power of two to compute the number of segments.
+ *
+ * Like [MemoryCache], expired entries are removed from the cache only on cache miss.
+ *
+ * Unlike [MemoryCache], the segment lock is not held while loading records from [nextCache], so a slow downstream cache
+ * doesn't block readers of other keys.
+ */
+class ConcurrentMemoryCache(
+    private val maxSizeBytes: Int = Int.MAX_VALUE,
+    private val expireAfterMillis: Long = -1,
+    concurrencyLevel: Int = DEFAULT_CONCURRENCY_LEVEL,
+) : NormalizedCache() {
+  private val segments: Array<Segment>
+
+  init {
+    require(concurrencyLevel > 0) {
+      "Apollo: concurrencyLevel must be > 0 (found '$concurrencyLevel')"
+    }
+    var segmentCount = 1
+    while (segmentCount < concurrencyLevel) {
+      segmentCount = segmentCount shl 1
+    }
+    segments = Array(segmentCount) { Segment(maxSizeBytes / segmentCount) }
+  }
+
+  val size: Int
+    get() = segments.sumOf { segment -> segment.lock.lock { segment.lruCache.size() } }
+
+  /**
+   * Called with the key and size of every record evicted because its segment is over its share of [maxSizeBytes], while
+   * holding the lock of the segment.
+   */
+  internal var evictionListener: ((key: String, sizeInBytes: Int) -> Unit)? = null
+    set(value) {
+      field = value
+      for (segment in segments) {
+        segment.lock.lock { segment.lruCache.onEvict = value }
+      }
+    }
+
+  override fun loadRecord(key: String, cacheHeaders: CacheHeaders): Record? {
+    return internalLoadRecordOrNext(key, cacheHeaders, now())
+  }
+
+  override fun loadRecords(keys: Collection<String>, cacheHeaders: CacheHeaders): Collection<Record> {
+    val nowMillis = now()
+    val records = mutableListOf<Record>()
+    val missingKeys = mutableListOf<String>()
+    for ((segment, segmentKeys) in keys.groupBy { segmentFor(it) }) {
+      segment.lock.lock {
+        for (key in segmentKeys) {
+          val record = internalLoadRecord(key, cacheHeaders, nowMillis)
+          if (record != null) {
+            records.add(record)
+          } else {
+            missingKeys.add(key)
+          }
+        }
+      }
+    }
+
+    if (missingKeys.isEmpty()) {
+      return records
+    }
+
+    val nextCachedRecords = nextCache?.loadRecords(missingKeys, cacheHeaders).orEmpty()
+    for (record in nextCachedRecords) {
+      put(record, nowMillis)
+    }
+    return records + nextCachedRecords
+  }
+
+  /**
+   * Returns the current time if entries can expire, so that the clock is read once per operation and never if there is
+   * no [expireAfterMillis].
+   */
+  private fun now(): Long {
+    return if (expireAfterMillis < 0) 0 else currentTimeMillis()
+  }
+
+  private fun internalLoadRecordOrNext(key: String, cacheHeaders: CacheHeaders, nowMillis: Long): Record? {
+    val record = segmentFor(key).lock.lock { internalLoadRecord(key, cacheHeaders, nowMillis) }
+    return record ?: nextCache?.loadRecord(key, cacheHeaders)?.also { nextCachedRecord ->
+      put(nextCachedRecord, nowMillis)
+    }
+  }
+
+  /**
+   * Must be called while holding the lock of the segment for [key]
+   */
+  private fun Segment.internalLoadRecord(key: String, cacheHeaders: CacheHeaders, nowMillis: Long): Record? {
+    val cacheEntry = lruCache[key] ?: return null
+    val isExpired = cacheEntry.isExpired(nowMillis)
+    if (isExpired || cacheHeaders.hasHeader(ApolloCacheHeaders.EVICT_AFTER_READ)) {
+      lruCache.remove(key)
+    }
+    return if (isExpired) null else cacheEntry.record
+  }
+
+  private fun put(record: Record, nowMillis: Long) {
+    val segment = segmentFor(record.key)
+    segment.lock.lock { segment.internalPut(record, nowMillis) }
+  }
+
+  /**
+   * Must be called while holding the lock of the segment for [record]
+   */
+  private fun Segment.internalPut(record: Record, nowMillis: Long) {
+    namespaceIndex.add(record.key)
+    lruCache[record.key] = CacheEntry(
+        record = record,
+        expireAfterMillis = expireAfterMillis,
+        nowMillis = nowMillis,
+    )
+  }
+
+  override fun clearAll() {
+    clearCurrentCache()
+    nextCache?.clearAll()
+  }
+
+  override fun remove(cacheKey: CacheKey, cascade: Boolean): Boolean {
+    val segment = segmentFor(cacheKey.key)
+    val cacheEntry = segment.lock.lock { segment.lruCache.remove(cacheKey.key) }
+
+    if (cascade && cacheEntry != null) {
+      for (cacheReference in cacheEntry.record.referencedFields()) {
+        remove(CacheKey(cacheReference.key), true)
+      }
+    }
+
+    val chainRemoved = nextCache?.remove(cacheKey, cascade) ?: false
+    return cacheEntry != null || chainRemoved
+  }
+
+  override fun remove(pattern: String): Int {
+    val regex = patternToRegex(pattern)
+    var total = 0
+    for (segment in segments) {
+      segment.lock.lock {
+        val keys = HashSet(segment.lruCache.keys()) // local copy to avoid concurrent modification
+        keys.forEach {
+          if (regex.matches(it)) {
+            segment.lruCache.remove(it)
+            total++
+          }
+        }
+      }
+    }
+
+    val chainRemoved = nextCache?.remove(pattern) ?: 0
+    return total + chainRemoved
+  }
+
+  override fun removeByPrefix(prefix: String): Int {
+    var total = 0
+    for (segment in segments) {
+      segment.lock.lock {
+        val keys = segment.namespaceIndex.keysWithPrefix(prefix)
+        segment.lruCache.remove(keys)
+        total += keys.size
+      }
+    }
+
+    val chainRemoved = nextCache?.removeByPrefix(prefix) ?: 0
+    return total + chainRemoved
+  }
+
+  override fun garbageCollect(): Int {
+    val records = mutableMapOf<String, Record>()
+    for (segment in segments) {
+      segment.lock.lock {
+        segment.lruCache.dump().forEach { (key, entry) -> records[key] = entry.record }
+      }
+    }
+    val reachableKeys = reachableKeys(nextCache) { records[it] }
+
+    var total = 0
+    if (reachableKeys != null) {
+      for (segment in segments) {
+        segment.lock.lock {
+          val unreachableKeys = segment.lruCache.keys().filter { it in records && it !in reachableKeys }
+          segment.lruCache.remove(unreachableKeys)
+          total += unreachableKeys.size
+        }
+      }
+    }
+
+    val chainRemoved = nextCache?.garbageCollect() ?: 0
+    return total + chainRemoved
+  }
+
+  override fun merge(record: Record, cacheHeaders: CacheHeaders): Set<String> {
+    if (cacheHeaders.hasHeader(ApolloCacheHeaders.DO_NOT_STORE)) {
+      return emptySet()
+    }
+
+    val changedKeys = ChangedKeys()
+    changedKeys.addAll(internalMerge(record, cacheHeaders, now()))
+    nextCache?.let { changedKeys.addAll(it.merge(record, cacheHeaders)) }
+    return changedKeys
+  }
+
+  override fun merge(records: Collection<Record>, cacheHeaders: CacheHeaders): Set<String> {
+    if (cacheHeaders.hasHeader(ApolloCacheHeaders.DO_NOT_STORE)) {
+      return emptySet()
+    }
+    val changedKeys = ChangedKeys()
+    val nowMillis = now()
+    for (record in records) {
+      changedKeys.addAll(internalMerge(record, cacheHeaders, nowMillis))
+    }
+    nextCache?.let { changedKeys.addAll(it.merge(records, cacheHeaders)) }
+    return changedKeys
+  }
+
+  /**
+   * Reads, merges and writes the record under a single hold of the segment lock so that concurrent merges of the same key
+   * don't lose updates. If the record isn't cached, it is loaded from [nextCache] beforehand, outside of the lock.
+   */
+  private fun internalMerge(record: Record, cacheHeaders: CacheHeaders, nowMillis: Long): Set<String> {
+    val segment = segmentFor(record.key)
+    val isCached = segment.lock.lock { segment.lruCache.peek(record.key)?.isExpired(nowMillis) == false }
+    val nextCachedRecord = if (isCached) null else nextCache?.loadRecord(record.key, cacheHeaders)
+
+    return segment.lock.lock {
+      // Another merge may have written the record since it was looked up: prefer it to the one of nextCache
+      val oldRecord = segment.internalLoadRecord(record.key, cacheHeaders, nowMillis) ?: nextCachedRecord
+      if (oldRecord == null) {
+        segment.internalPut(record, nowMillis)
+        record.fieldKeys()
+      } else {
+        val (mergedRecord, changedKeys) = oldRecord.mergeWith(record)
+        segment.internalPut(mergedRecord, nowMillis)
+        changedKeys
+      }
+    }
+  }
+
+  override fun dump(): Map<KClass<*>, Map<String, Record>> {
+    val records = mutableMapOf<String, Record>()
+    for (segment in segments) {
+      segment.lock.lock {
+        segment.lruCache.dump().forEach { (key, entry) -> records[key] = entry.record }
+      }
+    }
+    return mapOf(this::class to records) + nextCache?.dump().orEmpty()
+  }
+
+  internal fun clearCurrentCache() {
+    for (segment in segments) {
+      segment.lock.lock {
+        segment.lruCache.clear()
+        segment.namespaceIndex.clear()
+      }
+    }
+  }
+
+  private fun segmentFor(key: String): Segment {
+    val hash = key.hashCode()
+    // Spread the high bits so that keys sharing a long common prefix still end up in different segments
+    return segments[(hash xor (hash ushr 16)) and (segments.size - 1)]
+  }
+
+  private class Segment(maxSizeBytes: Int) {
+    val lock = CacheLock()
+
+    val namespaceIndex = NamespaceIndex()
+
+    val lruCache = LruCache<String, CacheEntry>(maxSize = maxSizeBytes, onRemove = namespaceIndex::remove) { key, cacheEntry ->
+      key.utf8Length() + (cacheEntry?.sizeInBytes ?: 0)
+    }
+  }
+}
+
+private const val DEFAULT_CONCURRENCY_LEVEL = 16
+
+class ConcurrentMemoryCacheFactory @JvmOverloads constructor(
+    private val maxSizeBytes: Int = Int.MAX_VALUE,
+    private val expireAfterMillis: Long = -1,
+    private val concurrencyLevel: Int = DEFAULT_CONCURRENCY_LEVEL,
+) : NormalizedCacheFactory() {
+
+  override fun create(): ConcurrentMemoryCache {
+    return ConcurrentMemoryCache(
+        maxSizeBytes = maxSizeBytes,
+        expireAfterMillis = expireAfterMillis,
+        concurrencyLevel = concurrencyLevel,
+    )
+  }
+}
@@ -0,0 +1,127 @@
+package com.apollographql.apollo.cache.normalized.api
+
+import com.apollographql.apollo.annotations.ApolloExperimental
+import com.apollographql.apollo.cache.normalized.api.internal.CacheLock
+import kotlin.reflect.KClass
+import kotlin.time.TimeSource
+
+/**
+ * A [NormalizedCacheFactory] that reports the activity of the caches created by [wrapped] to [metrics].
+ *
+ * To get per layer metrics, instrument every layer of the chain:
+ * ```
+ * val metrics = MyMetrics()
+ * val factory = InstrumentedNormalizedCacheFactory(MemoryCacheFactory(), metrics, "memory")
+ *     .chain(InstrumentedNormalizedCacheFactory(SqlNormalizedCacheFactory(), metrics, "sql"))
+ * ```
+ *
+ * @param name the name passed to [metrics]. Defaults to the simple name of the class of the created cache.
+ */
+@ApolloExperimental
+class InstrumentedNormalizedCacheFactory(
+    private val wrapped: NormalizedCacheFactory,
+    private val metrics: NormalizedCacheMetrics,
+    private val name: String? = null,
+) : NormalizedCacheFactory() {
+  override fun create(): NormalizedCache {
+    val cache = wrapped.createChain()
+    val cacheName = name ?: cache::class.simpleName ?: "NormalizedCache"
+    when (cache) {
+      is MemoryCache -> cache.evictionListener = { key, sizeInBytes -> metrics.onRecordEvicted(cacheName, key, sizeInBytes) }
+      is ConcurrentMemoryCache -> cache.evictionListener = { key, sizeInBytes -> metrics.onRecordEvicted(cacheName, key, sizeInBytes) }
+      else -> Unit
+    }
+    return InstrumentedNormalizedCache(cache, metrics, cacheName)
+  }
+}
+
+/**
+ * Delegates to [wrapped] and measures the loads and merges.
+ *
+ * [NormalizedCache.chain] cannot be overridden so [wrapped] is chained to [nextCache] on first use. [wrapped] then
+ * accesses the next caches itself.
+ */
+private class InstrumentedNormalizedCache(
+    private val wrapped: NormalizedCache,
+    private val metrics: NormalizedCacheMetrics,
+    private val cacheName: String,
+) : NormalizedCache() {
+  private val lock = CacheLock()
+  private var linkedCache: NormalizedCache? = null
+
+  fun wrapped(): NormalizedCache {
+    val next = nextCache ?: return wrapped
+    lock.lock {
+      if (linkedCache == null) {
+        wrapped.chain(next)
+        linkedCache = next
+      }
+    }
+    return wrapped
+  }
+
+  override fun loadRecord(key: String, cacheHeaders: CacheHeaders): Record? {
+    val mark = TimeSource.Monotonic.markNow()
+    val record = wrapped().loadRecord(key, cacheHeaders)
+    metrics.onRecordsLoaded(cacheName, 1, if (record != null) 1 else 0, mark.elapsedNow().inWholeNanoseconds)
+    return record
+  }
+
+  override fun loadRecords(keys: Collection<String>, cacheHeaders: CacheHeaders): Collection<Record> {
+    val mark = TimeSource.Monotonic.markNow()
+    val records = wrapped().loadRecords(keys, cacheHeaders)
+    metrics.onRecordsLoaded(cacheName, keys.size, records.size, mark.elapsedNow().inWholeNanoseconds)
+    return records
+  }
+
+  override fun merge(record: Record, cacheHeaders: CacheHeaders): Set<String> {
+    val mark = TimeSource.Monotonic.markNow()
+    val changedKeys = wrapped().merge(record, cacheHeaders)
+    metrics.onRecordsMerged(cacheName, 1, record.sizeInBytes.toLong(), changedKeys.size, mark.elapsedNow().inWholeNanoseconds)
+    return changedKeys
+  }
+
+  override fun merge(records: Collection<Record>, cacheHeaders: CacheHeaders): Set<String> {
+    val mark = TimeSource.Monotonic.markNow()
+    val changedKeys = wrapped().merge(records, cacheHeaders)
+    val durationNanos = mark.elapsedNow().inWholeNanoseconds
+    metrics.onRecordsMerged(cacheName, records.size, records.sumOf { it.sizeInBytes.toLong() }, changedKeys.size, durationNanos)
+    return changedKeys
+  }
+
+  override fun clearAll() {
+    wrapped().clearAll()
+  }
+
+  override fun remove(cacheKey: CacheKey, cascade: Boolean): Boolean {
+    return wrapped().remove(cacheKey, cascade)
+  }
+
+  override fun remove(pattern: String): Int {
+    return wrapped().remove(pattern)
+  }
+
+  override fun removeByPrefix(prefix: String): Int {
+    return wrapped().removeByPrefix(prefix)
+  }
+
+  override fun garbageCollect(): Int {
+    return wrapped().garbageCollect()
+  }
+
+  override fun dump(): Map<KClass<*>, Map<String, Record>> {
+    return wrapped().dump()
+  }
+}
+
+/**
+ * Returns the cache wrapped by an [InstrumentedNormalizedCacheFactory], linked to the next caches, or this cache if it
+ * is not instrumented
+ */
+internal fun NormalizedCache.unwrapInstrumented(): NormalizedCache {
+  var cache = this
+  while (cache is InstrumentedNormalizedCache) {
+    cache = cache.wrapped()
+  }
+  return cache
+}
@@ -1,9 +1,16 @@
 package com.apollographql.apollo.cache.normalized.api
 
+import com.apollographql.apollo.annotations.ApolloExperimental
+import com.apollographql.apollo.annotations.ApolloInternal
+import com.apollographql.apollo.cache.normalized.api.internal.CacheEntry
 import com.apollographql.apollo.cache.normalized.api.internal.CacheLock
+import com.apollographql.apollo.cache.normalized.api.internal.ChangedKeys
+import com.apollographql.apollo.cache.normalized.api.internal.ExpirationQueue
 import com.apollographql.apollo.cache.normalized.api.internal.LruCache
+import com.apollographql.apollo.cache.normalized.api.internal.NamespaceIndex
+import com.apollographql.apollo.cache.normalized.api.internal.reachableKeys
+import com.apollographql.apollo.cache.normalized.api.internal.utf8Length
 import com.apollographql.apollo.mpp.currentTimeMillis
-import okio.internal.commonAsUtf8ToByteArray
 import kotlin.jvm.JvmOverloads
 import kotlin.reflect.KClass
 
@@ -12,69 +19,229 @@ import kotlin.reflect.KClass
  *
  * [maxSizeBytes] - the maximum size in bytes the cache may occupy.
  * [expireAfterMillis] - after what timeout each entry in the cache treated as expired. By default there is no timeout.
+ * [evictExpiredEagerly] - whether to evict all the expired entries on every access of the cache.
  *
- * Expired entries removed from the cache only on cache miss ([loadRecord] operation) and not removed from the cache automatically
- * (there is no any sort of GC that runs in the background).
+ * By default, expired entries are removed from the cache only when they are read ([loadRecord] operation) and otherwise
+ * keep occupying [maxSizeBytes] until the LRU policy evicts them. There is no background job.
+ *
+ * If [evictExpiredEagerly] is true, the cache also keeps its entries in expiration order and evicts all the expired ones
+ * every time it is read or written, in O(1) amortized time per entry. This costs one queue slot per write.
+ *
+ * The current time is read at most once per operation, and never if there is no [expireAfterMillis].
+ *
+ * Warm start: if [snapshot] is set, [saveSnapshot] saves the keys of the [snapshotMaxRecords] most recently used records
+ * and [preloadSnapshot] loads them from the next cache when the application restarts. The ApolloStore
+ * does both: it preloads the snapshot in the background when it creates the cache, and saves it when it is disposed.
  */
-class MemoryCache(
+class MemoryCache @JvmOverloads constructor(
     private val maxSizeBytes: Int = Int.MAX_VALUE,
     private val expireAfterMillis: Long = -1,
+    evictExpiredEagerly: Boolean = false,
+    @property:ApolloExperimental
+    val snapshot: MemoryCacheSnapshot? = null,
+    private val snapshotMaxRecords: Int = DEFAULT_SNAPSHOT_MAX_RECORDS,
 ) : NormalizedCache() {
   /**
-   * A lock that is only used during read accesses on the JVM because
+   * A lock that guards [lruCache] on the JVM. It is needed during read accesses because
    * reads also write in order to:
    * - maintain the LRU order
    * - update the memory cache from the downstream caches
    *
-   * write accesses are already locked by a higher level ReadWrite lock
+   * write accesses are usually already locked by a higher level ReadWrite lock but may happen concurrently for different
+   * keys when the store locks at the record level. They are then serialized by this lock: use [ConcurrentMemoryCache] for
+   * such writes to proceed in parallel.
    */
   private val lock = CacheLock()
 
-  private val lruCache = LruCache<String, CacheEntry>(maxSize = maxSizeBytes) { key, cacheEntry ->
-    key.commonAsUtf8ToByteArray().size + (cacheEntry?.sizeInBytes ?: 0)
+  /**
+   * The keys of [lruCache], used by [removeByPrefix]. Guarded by [lock] like [lruCache].
+   */
+  private val namespaceIndex = NamespaceIndex()
+
+  private val lruCache = LruCache<String, CacheEntry>(maxSize = maxSizeBytes, onRemove = namespaceIndex::remove) { key, cacheEntry ->
+    key.utf8Length() + (cacheEntry?.sizeInBytes ?: 0)
   }
 
+  /**
+   * The entries of [lruCache] in expiration order if [evictExpiredEagerly]. Guarded by [lock] like [lruCache].
+   */
+  private val expirationQueue = if (evictExpiredEagerly && expireAfterMillis >= 0) ExpirationQueue() else null
+
+  /**
+   * Incremented every time records are added, replaced or removed, except by [preloadSnapshot]. Additions include the
+   * evictions they cause. Guarded by [lock] like [lruCache].
+   *
+   * Used by [preloadSnapshot] to not add stale records, or records removed while it was reading them from the next cache.
+   */
+  private var generation = 0
+
   val size: Int
     get() = lruCache.size()
 
-  override fun loadRecord(key: String, cacheHeaders: CacheHeaders): Record? = lock.lock {
-    val record = internalLoadRecord(key, cacheHeaders)
-    record ?: nextCache?.loadRecord(key, cacheHeaders)?.also { nextCachedRecord ->
-      lruCache[key] = CacheEntry(
-          record = nextCachedRecord,
-          expireAfterMillis = expireAfterMillis
-      )
+  /**
+   * Called with the key and size of every record evicted because the cache is over [maxSizeBytes], while holding [lock].
+   */
+  internal var evictionListener: ((key: String, sizeInBytes: Int) -> Unit)?
+    get() = lock.lock { lruCache.onEvict }
+    set(value) {
+      lock.lock { lruCache.onEvict = value }
     }
+
+  override fun loadRecord(key: String, cacheHeaders: CacheHeaders): Record? = lock.lock {
+    internalLoadRecordOrNext(key, cacheHeaders, now())
   }
 
   override fun loadRecords(keys: Collection<String>, cacheHeaders: CacheHeaders): Collection<Record> = lock.lock {
-    val recordsByKey: Map<String, Record?> = keys.associateWith { key -> internalLoadRecord(key, cacheHeaders) }
+    val nowMillis = now()
+    val recordsByKey: Map<String, Record?> = keys.associateWith { key -> internalLoadRecord(key, cacheHeaders, nowMillis) }
     val missingKeys = recordsByKey.filterValues { it == null }.keys
     val nextCachedRecords = nextCache?.loadRecords(missingKeys, cacheHeaders).orEmpty()
     for (record in nextCachedRecords) {
-      lruCache[record.key] = CacheEntry(
-          record = record,
-          expireAfterMillis = expireAfterMillis
-      )
+      put(record, nowMillis)
     }
     recordsByKey.values.filterNotNull() + nextCachedRecords
   }
 
-  private fun internalLoadRecord(key: String, cacheHeaders: CacheHeaders): Record? {
-    return lruCache[key]?.also { cacheEntry ->
-      if (cacheEntry.isExpired || cacheHeaders.hasHeader(ApolloCacheHeaders.EVICT_AFTER_READ)) {
-        lruCache.remove(key)
+  /**
+   * Returns the current time if entries can expire. Evicts the expired entries if [expirationQueue] is set.
+   *
+   * Must be called while holding [lock]
+   */
+  private fun now(): Long {
+    if (expireAfterMillis < 0) {
+      return 0
+    }
+    val nowMillis = currentTimeMillis()
+    expirationQueue?.evictExpired(lruCache, nowMillis)
+    return nowMillis
+  }
+
+  private fun internalLoadRecordOrNext(key: String, cacheHeaders: CacheHeaders, nowMillis: Long): Record? {
+    val record = internalLoadRecord(key, cacheHeaders, nowMillis)
+    return record ?: nextCache?.loadRecord(key, cacheHeaders)?.also { nextCachedRecord ->
+      put(nextCachedRecord, nowMillis)
+    }
+  }
+
+  private fun internalLoadRecord(key: String, cacheHeaders: CacheHeaders, nowMillis: Long): Record? {
+    val cacheEntry = lruCache[key] ?: return null
+    val isExpired = cacheEntry.isExpired(nowMillis)
+    if (isExpired || cacheHeaders.hasHeader(ApolloCacheHeaders.EVICT_AFTER_READ)) {
+      lruCache.remove(key)
+      generation++
+    }
+    return if (isExpired) null else cacheEntry.record
+  }
+
+  /**
+   * Must be called while holding [lock]
+   */
+  private fun put(record: Record, nowMillis: Long) {
+    generation++
+    namespaceIndex.add(record.key)
+    val cacheEntry = CacheEntry(
+        record = record,
+        expireAfterMillis = expireAfterMillis,
+        nowMillis = nowMillis,
+    )
+    lruCache[record.key] = cacheEntry
+    expirationQueue?.add(cacheEntry, lruCache)
+  }
+
+  /**
+   * Adds [record] as the least recently used record if it isn't in the cache and fits without evicting anything.
+   *
+   * Must be called while holding [lock]
+   */
+  private fun putLeastRecent(record: Record, nowMillis: Long): Boolean {
+    val cacheEntry = CacheEntry(
+        record = record,
+        expireAfterMillis = expireAfterMillis,
+        nowMillis = nowMillis,
+    )
+    if (!lruCache.addLeastRecent(record.key, cacheEntry)) {
+      return false
+    }
+    namespaceIndex.add(record.key)
+    expirationQueue?.add(cacheEntry, lruCache)
+    return true
+  }
+
+  /**
+   * Saves the keys of the [snapshotMaxRecords] most recently used records to [snapshot]. Does nothing if there is no
+   * [snapshot].
+   */
+  @ApolloExperimental
+  fun saveSnapshot() {
+    val snapshot = snapshot ?: return
+    snapshot.writeKeys(lock.lock { lruCache.keysByRecency(snapshotMaxRecords) })
+  }
+
+  /**
+   * Loads the records of [snapshot] from the next cache, in batches of [PRELOAD_BATCH_SIZE] keys.
+   *
+   * The preloaded records are added as less recently used than the records already in the cache, and never replace them
+   * or evict them. The lock of the cache is only held while adding the records of a batch, not while reading from the
+   * next cache, so that the cache can be used during a preload. A batch is dropped if the cache was written while it was
+   * read.
+   *
+   * This is a synchronous operation that blocks while the next cache is doing IO.
+   *
+   * @return the number of records added to the cache
+   */
+  @ApolloExperimental
+  fun preloadSnapshot(): Int = preloadSnapshot { batch -> batch() }
+
+  /**
+   * Same as [preloadSnapshot] but every batch is run by [runBatch]. The ApolloStore runs the batches under its write lock
+   * so that they never race with the store writes.
+   */
+  @ApolloInternal
+  fun preloadSnapshot(runBatch: (batch: () -> Int) -> Int): Int {
+    val snapshot = snapshot ?: return 0
+    val nextCache = nextCache ?: return 0
+    var preloaded = 0
+    for (keys in snapshot.readKeys().chunked(PRELOAD_BATCH_SIZE)) {
+      preloaded += runBatch { preloadBatch(nextCache, keys) }
+    }
+    return preloaded
+  }
+
+  private fun preloadBatch(nextCache: NormalizedCache, keys: List<String>): Int {
+    val (missingKeys, generationBefore) = lock.lock {
+      keys.filter { lruCache.peek(it) == null } to generation
+    }
+    if (missingKeys.isEmpty()) {
+      return 0
+    }
+    val recordsByKey = nextCache.loadRecords(missingKeys, CacheHeaders.NONE).associateBy { it.key }
+    return lock.lock {
+      if (generation != generationBefore) {
+        // Some of these records may have been written or removed in the meantime, skip this batch
+        return@lock 0
+      }
+      val nowMillis = now()
+      var preloaded = 0
+      for (key in missingKeys) {
+        val record = recordsByKey[key] ?: continue
+        if (putLeastRecent(record, nowMillis)) {
+          preloaded++
+        }
       }
-    }?.takeUnless { it.isExpired }?.record
+      preloaded
+    }
   }
 
   override fun clearAll() {
-    lruCache.clear()
+    lock.lock { clearCurrentCache() }
     nextCache?.clearAll()
   }
 
   override fun remove(cacheKey: CacheKey, cascade: Boolean): Boolean {
-    val cacheEntry = lruCache.remove(cacheKey.key)
+    val cacheEntry = lock.lock {
+      generation++
+      lruCache.remove(cacheKey.key)
+    }
 
     if (cascade && cacheEntry != null) {
       for (cacheReference in cacheEntry.record.referencedFields()) {
@@ -89,11 +256,14 @@ class MemoryCache(
   override fun remove(pattern: String): Int {
     val regex = patternToRegex(pattern)
     var total = 0
-    val keys = HashSet(lruCache.keys()) // local copy to avoid concurrent modification
-    keys.forEach {
-      if (regex.matches(it)) {
-        lruCache.remove(it)
-        total++
+    lock.lock {
+      generation++
+      val keys = HashSet(lruCache.keys()) // local copy to avoid concurrent modification
+      keys.forEach {
+        if (regex.matches(it)) {
+          lruCache.remove(it)
+          total++
+        }
       }
     }
 
@@ -101,37 +271,71 @@ class MemoryCache(
     return total + chainRemoved
   }
 
+  override fun removeByPrefix(prefix: String): Int {
+    val removed = lock.lock {
+      generation++
+      val keys = namespaceIndex.keysWithPrefix(prefix)
+      lruCache.remove(keys)
+      keys.size
+    }
+
+    val chainRemoved = nextCache?.removeByPrefix(prefix) ?: 0
+    return removed + chainRemoved
+  }
+
+  override fun garbageCollect(): Int {
+    val entries = lock.lock { lruCache.dump() }
+    // Trace outside the lock as evicted records are looked up in nextCache
+    val reachableKeys = reachableKeys(nextCache) { entries[it]?.record }
+    val removed = if (reachableKeys == null) {
+      0
+    } else {
+      lock.lock {
+        generation++
+        val unreachableKeys = entries.keys - reachableKeys
+        lruCache.remove(unreachableKeys)
+        unreachableKeys.size
+      }
+    }
+
+    val chainRemoved = nextCache?.garbageCollect() ?: 0
+    return removed + chainRemoved
+  }
+
   override fun merge(record: Record, cacheHeaders: CacheHeaders): Set<String> {
     if (cacheHeaders.hasHeader(ApolloCacheHeaders.DO_NOT_STORE)) {
       return emptySet()
     }
 
-    val changedKeys = internalMerge(record, cacheHeaders)
-    return changedKeys + nextCache?.merge(record, cacheHeaders).orEmpty()
+    val changedKeys = ChangedKeys()
+    changedKeys.addAll(lock.lock { internalMerge(record, cacheHeaders, now()) })
+    nextCache?.let { changedKeys.addAll(it.merge(record, cacheHeaders)) }
+    return changedKeys
   }
 
   override fun merge(records: Collection<Record>, cacheHeaders: CacheHeaders): Set<String> {
     if (cacheHeaders.hasHeader(ApolloCacheHeaders.DO_NOT_STORE)) {
       return emptySet()
     }
-    val changedKeys = records.flatMap { record -> internalMerge(record, cacheHeaders) }.toSet()
-    return changedKeys + nextCache?.merge(records, cacheHeaders).orEmpty()
+    val changedKeys = ChangedKeys()
+    lock.lock {
+      val nowMillis = now()
+      for (record in records) {
+        changedKeys.addAll(internalMerge(record, cacheHeaders, nowMillis))
+      }
+    }
+    nextCache?.let { changedKeys.addAll(it.merge(records, cacheHeaders)) }
+    return changedKeys
   }
 
-  private fun internalMerge(record: Record, cacheHeaders: CacheHeaders): Set<String> {
-    val oldRecord = loadRecord(record.key, cacheHeaders)
+  private fun internalMerge(record: Record, cacheHeaders: CacheHeaders, nowMillis: Long): Set<String> {
+    val oldRecord = internalLoadRecordOrNext(record.key, cacheHeaders, nowMillis)
     val changedKeys = if (oldRecord == null) {
-      lruCache[record.key] = CacheEntry(
-          record = record,
-          expireAfterMillis = expireAfterMillis
-      )
+      put(record, nowMillis)
       record.fieldKeys()
     } else {
       val (mergedRecord, changedKeys) = oldRecord.mergeWith(record)
-      lruCache[record.key] = CacheEntry(
-          record = mergedRecord,
-          expireAfterMillis = expireAfterMillis
-      )
+      put(mergedRecord, nowMillis)
       changedKeys
     }
     return changedKeys
@@ -144,37 +348,34 @@ class MemoryCache(
   }
 
   internal fun clearCurrentCache() {
+    generation++
     lruCache.clear()
-  }
-
-  private class CacheEntry(
-      val record: Record,
-      val expireAfterMillis: Long,
-  ) {
-    val cachedAtMillis: Long = currentTimeMillis()
-
-    val sizeInBytes: Int = record.sizeInBytes + 8
-
-    val isExpired: Boolean
-      get() {
-        return if (expireAfterMillis < 0) {
-          false
-        } else {
-          currentTimeMillis() - cachedAtMillis >= expireAfterMillis
-        }
-      }
+    namespaceIndex.clear()
+    expirationQueue?.clear()
   }
 }
 
+private const val DEFAULT_SNAPSHOT_MAX_RECORDS = 1000
+private const val PRELOAD_BATCH_SIZE = 100
+
+/**
+ * @see MemoryCache
+ */
 class MemoryCacheFactory @JvmOverloads constructor(
     private val maxSizeBytes: Int = Int.MAX_VALUE,
     private val expireAfterMillis: Long = -1,
+    private val evictExpiredEagerly: Boolean = false,
+    private val snapshot: MemoryCacheSnapshot? = null,
+    private val snapshotMaxRecords: Int = DEFAULT_SNAPSHOT_MAX_RECORDS,
 ) : NormalizedCacheFactory() {
 
   override fun create(): MemoryCache {
     return MemoryCache(
         maxSizeBytes = maxSizeBytes,
         expireAfterMillis = expireAfterMillis,
+        evictExpiredEagerly = evictExpiredEagerly,
+        snapshot = snapshot,
+        snapshotMaxRecords = snapshotMaxRecords,
     )
   }
 }
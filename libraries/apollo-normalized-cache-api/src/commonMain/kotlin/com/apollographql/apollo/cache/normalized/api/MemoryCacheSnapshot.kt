@@ -0,0 +1,23 @@
+package com.apollographql.apollo.cache.normalized.api
+
+import com.apollographql.apollo.annotations.ApolloExperimental
+
+/**
+ * Where a [MemoryCache] saves the keys of its most recently used records, so that it can load them from the next cache
+ * when the application restarts instead of starting empty.
+ *
+ * @see MemoryCache.saveSnapshot
+ * @see MemoryCache.preloadSnapshot
+ */
+@ApolloExperimental
+interface MemoryCacheSnapshot {
+  /**
+   * Returns the keys passed to the last [writeKeys], or an empty list if there are none
+   */
+  fun readKeys(): List<String>
+
+  /**
+   * Replaces the saved keys with [keys], the most recently used first
+   */
+  fun writeKeys(keys: List<String>)
+}
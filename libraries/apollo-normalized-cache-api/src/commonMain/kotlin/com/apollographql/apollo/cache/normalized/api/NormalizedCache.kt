@@ -1,5 +1,6 @@
 package com.apollographql.apollo.cache.normalized.api
 
+import com.apollographql.apollo.annotations.ApolloInternal
 import kotlin.jvm.JvmStatic
 import kotlin.jvm.JvmSuppressWildcards
 import kotlin.reflect.KClass
@@ -66,6 +67,51 @@ abstract class NormalizedCache : ReadOnlyNormalizedCache {
    */
   abstract fun remove(pattern: String): Int
 
+  /**
+   * Remove records whose key starts with [prefix] from this cache and all chained caches
+   *
+   * Unlike [remove], [prefix] has no special characters and the matching is case-sensitive.
+   *
+   * The default implementation calls [remove] with the equivalent pattern, which matches case-insensitively.
+   * Implementations should override this method if they can look up keys by prefix without scanning all of them.
+   *
+   * @return the number of records deleted across all caches
+   */
+  open fun removeByPrefix(prefix: String): Int {
+    return remove(prefixToPattern(prefix))
+  }
+
+  /**
+   * Remove records whose key was built with `CacheKey(typename, values)` from this cache and all chained caches.
+   *
+   * This is the same as `removeByPrefix("$typename:")`. Records identified by their path, like `QUERY_ROOT.hero`, are not
+   * removed.
+   *
+   * @return the number of records deleted across all caches
+   */
+  fun removeByTypename(typename: String): Int {
+    return removeByPrefix("$typename:")
+  }
+
+  /**
+   * Remove the records that cannot be reached from [CacheKey.rootKey] by following [CacheKey] references, from this
+   * cache and all chained caches.
+   *
+   * Every cache collects its own records. The memory caches ([MemoryCache], [ConcurrentMemoryCache] and the off-heap
+   * cache) look the records they don't hold up in [nextCache], so that a record reachable through an evicted record is
+   * kept. The SQLite and mmap caches only follow their own records.
+   *
+   * A cache that cannot find the [CacheKey.rootKey] record doesn't remove anything: without it, every record would be
+   * unreachable.
+   *
+   * The default implementation doesn't remove anything from this cache and only calls the chained caches.
+   *
+   * @return the number of records deleted across all caches
+   */
+  open fun garbageCollect(): Int {
+    return nextCache?.garbageCollect() ?: 0
+  }
+
   fun chain(cache: NormalizedCache) = apply {
     var leafCache = this
     while (leafCache.nextCache != null) {
@@ -144,7 +190,32 @@ abstract class NormalizedCache : ReadOnlyNormalizedCache {
       return Regex(regex, option = RegexOption.IGNORE_CASE)
     }
 
+    /**
+     * Escapes [prefix] to be used in a pattern passed to [remove]
+     */
+    private fun prefixToPattern(prefix: String): String {
+      return buildString {
+        for (c in prefix) {
+          if (c == '%' || c == '_' || c == '\\') {
+            append('\\')
+          }
+          append(c)
+        }
+        append('%')
+      }
+    }
+
     private val specialChars = "()^$.*?+{}"
   }
 }
 
+/**
+ * Returns the caches of this chain, starting with this one.
+ *
+ * The caches created by an [InstrumentedNormalizedCacheFactory] are returned instead of the instrumentation wrappers so
+ * that their type can be checked.
+ */
+@ApolloInternal
+fun NormalizedCache.layers(): Sequence<NormalizedCache> {
+  return generateSequence(unwrapInstrumented()) { it.nextCache?.unwrapInstrumented() }
+}
@@ -0,0 +1,59 @@
+package com.apollographql.apollo.cache.normalized.api
+
+import com.apollographql.apollo.annotations.ApolloExperimental
+import kotlin.jvm.JvmField
+
+/**
+ * A listener of the activity of the normalized cache.
+ *
+ * Use [InstrumentedNormalizedCacheFactory] to report the activity of a [NormalizedCache] and pass the same instance to
+ * `ApolloStore()` to report the time spent waiting for the store lock.
+ *
+ * The callbacks are called synchronously from the thread accessing the cache, sometimes while holding its locks.
+ * Implementations must be thread safe and return quickly, typically by incrementing counters.
+ *
+ * All the methods do nothing by default.
+ */
+@ApolloExperimental
+interface NormalizedCacheMetrics {
+  /**
+   * Called after [cacheName] loaded records.
+   *
+   * A cache looks up its misses in the chained caches, so [found] includes the records found by the chained caches.
+   * The records found by a given cache are its [found] minus the [found] of the next instrumented cache.
+   *
+   * @param requested the number of keys requested
+   * @param found the number of records returned
+   */
+  fun onRecordsLoaded(cacheName: String, requested: Int, found: Int, durationNanos: Long) {}
+
+  /**
+   * Called after [records] records were merged into [cacheName] and its chained caches.
+   *
+   * @param sizeInBytes the sum of the [Record.sizeInBytes] of the merged records
+   * @param changedKeys the number of changed field keys
+   */
+  fun onRecordsMerged(cacheName: String, records: Int, sizeInBytes: Long, changedKeys: Int, durationNanos: Long) {}
+
+  /**
+   * Called when [cacheName] evicts a record to stay under its maximum size.
+   *
+   * Only [MemoryCache] and [ConcurrentMemoryCache] report evictions.
+   */
+  fun onRecordEvicted(cacheName: String, key: String, sizeInBytes: Int) {}
+
+  /**
+   * Called when the store acquired its lock after waiting [waitNanos] nanoseconds.
+   *
+   * @param write whether the lock was acquired for writing
+   */
+  fun onStoreLockAcquired(write: Boolean, waitNanos: Long) {}
+
+  companion object {
+    /**
+     * A [NormalizedCacheMetrics] that doesn't report anything. The store doesn't measure anything when using it.
+     */
+    @JvmField
+    val None: NormalizedCacheMetrics = object : NormalizedCacheMetrics {}
+  }
+}
@@ -10,7 +10,9 @@ import com.apollographql.apollo.api.json.MapJsonReader
 import com.apollographql.apollo.api.json.MapJsonWriter
 import com.apollographql.apollo.api.variables
 import com.apollographql.apollo.cache.normalized.api.internal.CacheBatchReader
+import com.apollographql.apollo.cache.normalized.api.internal.ChangedKeys
 import com.apollographql.apollo.cache.normalized.api.internal.Normalizer
+import com.apollographql.apollo.cache.normalized.api.internal.ReadPlanCache
 
 fun <D : Operation.Data> Operation<D>.normalize(
     data: D,
@@ -65,33 +67,43 @@ fun <D : Fragment.Data> Fragment<D>.readDataFromCache(
   ).toData(adapter(), customScalarAdapters, variables)
 }
 
+/**
+ * @param readPlanCache where to reuse the read plans of previous reads from, if any
+ */
 @ApolloInternal
 fun <D : Executable.Data> Executable<D>.readDataFromCacheInternal(
     cache: ReadOnlyNormalizedCache,
     cacheResolver: CacheResolver,
     cacheHeaders: CacheHeaders,
     variables: Executable.Variables,
+    readPlanCache: ReadPlanCache? = null,
 ): CacheData = readInternal(
     cacheKey = CacheKey.rootKey(),
     cache = cache,
     cacheResolver = cacheResolver,
     cacheHeaders = cacheHeaders,
-    variables = variables
+    variables = variables,
+    readPlanCache = readPlanCache,
 )
 
+/**
+ * @param readPlanCache where to reuse the read plans of previous reads from, if any
+ */
 @ApolloInternal
 fun <D : Fragment.Data> Fragment<D>.readDataFromCacheInternal(
     cacheKey: CacheKey,
     cache: ReadOnlyNormalizedCache,
     cacheResolver: CacheResolver,
     cacheHeaders: CacheHeaders,
-    variables: Executable.Variables
+    variables: Executable.Variables,
+    readPlanCache: ReadPlanCache? = null,
 ): CacheData = readInternal(
     cacheKey = cacheKey,
     cache = cache,
     cacheResolver = cacheResolver,
     cacheHeaders = cacheHeaders,
     variables = variables,
+    readPlanCache = readPlanCache,
 )
 
 private fun <D : Executable.Data> Executable<D>.readInternal(
@@ -100,6 +112,7 @@ private fun <D : Executable.Data> Executable<D>.readInternal(
     cacheResolver: CacheResolver,
     cacheHeaders: CacheHeaders,
     variables: Executable.Variables,
+    readPlanCache: ReadPlanCache? = null,
 ): CacheData {
   return CacheBatchReader(
       cache = cache,
@@ -108,14 +121,20 @@ private fun <D : Executable.Data> Executable<D>.readInternal(
       variables = variables,
       rootKey = cacheKey.key,
       rootSelections = rootField().selections,
-      rootTypename = rootField().type.rawType().name
+      rootTypename = rootField().type.rawType().name,
+      readPlanCache = readPlanCache,
   ).collectData()
 }
 
 fun Collection<Record>?.dependentKeys(): Set<String> {
-  return this?.flatMap {
-    it.fieldKeys()
-  }?.toSet() ?: emptySet()
+  if (this == null) {
+    return emptySet()
+  }
+  val keys = ChangedKeys()
+  for (record in this) {
+    keys.addAll(record.key, record.fields.keys)
+  }
+  return keys
 }
 
 @ApolloInternal
@@ -124,9 +143,14 @@ fun <D: Executable.Data> CacheData.toData(
     customScalarAdapters: CustomScalarAdapters,
     variables: Executable.Variables,
 ): D {
-  val reader = MapJsonReader(
-      root = toMap(),
-  )
+  val reader = if (this is CacheBatchReader.CacheBatchReaderData) {
+    // Read the records directly instead of building the nested map
+    jsonReader()
+  } else {
+    MapJsonReader(
+        root = toMap(),
+    )
+  }
 
   return adapter.fromJson(reader, customScalarAdapters.newBuilder().falseVariables(variables.valueMap.filter { it.value == false }.keys).build())
 }
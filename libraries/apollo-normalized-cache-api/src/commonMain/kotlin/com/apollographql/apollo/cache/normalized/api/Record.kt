@@ -2,7 +2,8 @@ package com.apollographql.apollo.cache.normalized.api
 
 import com.apollographql.apollo.annotations.ApolloExperimental
 import com.apollographql.apollo.annotations.ApolloInternal
-import com.apollographql.apollo.cache.normalized.api.internal.RecordWeigher.calculateBytes
+import com.apollographql.apollo.cache.normalized.api.internal.ChangedKeys
+import com.apollographql.apollo.cache.normalized.api.internal.RecordWeigher
 import com.benasher44.uuid.Uuid
 
 /**
@@ -41,28 +42,53 @@ class Record(
     this.date = date
   }
 
+  /**
+   * The cached value of [sizeInBytes] or -1 if it is not computed yet. Computing it concurrently is harmless as all the
+   * threads compute the same value.
+   */
+  private var cachedSizeInBytes = -1
+
+  /**
+   * An estimate of the size of this record in memory.
+   *
+   * It is computed the first time it is read and cached. [mergeWith] computes the size of the merged record from this
+   * size and the changed fields, so merging into a record that was weighed doesn't weigh all the fields again.
+   */
   val sizeInBytes: Int
     get() {
-      val datesSize = date?.size?.times(8) ?: 0
-      return calculateBytes(this) + datesSize
+      if (cachedSizeInBytes < 0) {
+        cachedSizeInBytes = RecordWeigher.calculateBytes(this) + datesSize()
+      }
+      return cachedSizeInBytes
     }
 
+  private fun datesSize(): Int = date?.size?.times(8) ?: 0
+
   /**
    * Returns a merge result record and a set of field keys which have changed, or were added.
    * A field key incorporates any GraphQL arguments in addition to the field name.
    */
   @ApolloExperimental
   fun mergeWith(newRecord: Record, newDate: Long?): Pair<Record, Set<String>> {
-    val changedKeys = mutableSetOf<String>()
+    val changedKeys = ChangedKeys()
     val mergedFields = fields.toMutableMap()
     val date = this.date?.toMutableMap() ?: mutableMapOf()
+    // Only the size of the fields, the size of the dates is added at the end
+    var mergedSize = if (cachedSizeInBytes >= 0) cachedSizeInBytes - datesSize() else -1
 
     for ((fieldKey, newFieldValue) in newRecord.fields) {
       val hasOldFieldValue = fields.containsKey(fieldKey)
       val oldFieldValue = fields[fieldKey]
       if (!hasOldFieldValue || oldFieldValue != newFieldValue) {
         mergedFields[fieldKey] = newFieldValue
-        changedKeys.add("$key.$fieldKey")
+        changedKeys.add(key, fieldKey)
+        if (mergedSize >= 0) {
+          mergedSize += if (hasOldFieldValue) {
+            RecordWeigher.byteChange(newFieldValue, oldFieldValue)
+          } else {
+            RecordWeigher.fieldBytes(fieldKey, newFieldValue)
+          }
+        }
       }
       // Even if the value did not change update date
       if (newDate != null) {
@@ -75,7 +101,11 @@ class Record(
         fields = mergedFields,
         mutationId = newRecord.mutationId,
         date = date
-    ) to changedKeys
+    ).also { mergedRecord ->
+      if (mergedSize >= 0) {
+        mergedRecord.cachedSizeInBytes = mergedSize + mergedRecord.datesSize()
+      }
+    } to changedKeys
   }
 
   fun mergeWith(newRecord: Record): Pair<Record, Set<String>> {
@@ -88,7 +118,7 @@ class Record(
    * A field key incorporates any GraphQL arguments in addition to the field name.
    */
   fun fieldKeys(): Set<String> {
-    return fields.keys.map { "$key.$it" }.toSet()
+    return ChangedKeys().apply { addAll(key, fields.keys) }
   }
 
   /**
@@ -120,7 +150,7 @@ class Record(
         record1.fields[it] != record2.fields[it]
       }
 
-      return changed.map { "${record1.key}.$it" }.toSet()
+      return ChangedKeys().apply { addAll(record1.key, changed) }
     }
   }
 }
@@ -1,9 +1,9 @@
 package com.apollographql.apollo.cache.normalized.api.internal
 
 import com.apollographql.apollo.api.CompiledField
-import com.apollographql.apollo.api.CompiledFragment
 import com.apollographql.apollo.api.CompiledSelection
 import com.apollographql.apollo.api.Executable
+import com.apollographql.apollo.api.json.JsonReader
 import com.apollographql.apollo.cache.normalized.api.CacheData
 import com.apollographql.apollo.cache.normalized.api.CacheHeaders
 import com.apollographql.apollo.cache.normalized.api.CacheKey
@@ -27,6 +27,7 @@ internal class CacheBatchReader(
     private val cacheHeaders: CacheHeaders,
     private val rootSelections: List<CompiledSelection>,
     private val rootTypename: String,
+    readPlanCache: ReadPlanCache?,
 ) {
   /**
    * @param key: the key of the record we need to fetch
@@ -47,41 +48,7 @@ internal class CacheBatchReader(
 
   private val pendingReferences = mutableListOf<PendingReference>()
 
-  private class CollectState(val variables: Executable.Variables) {
-    val fields = mutableListOf<CompiledField>()
-  }
-
-  /**
-   *
-   */
-  private fun collect(selections: List<CompiledSelection>, parentType: String, typename: String?, state: CollectState) {
-    selections.forEach { compiledSelection ->
-      when (compiledSelection) {
-        is CompiledField -> {
-          state.fields.add(compiledSelection)
-        }
-
-        is CompiledFragment -> {
-          if ((typename in compiledSelection.possibleTypes || compiledSelection.typeCondition == parentType) && !compiledSelection.shouldSkip(state.variables.valueMap)) {
-            collect(compiledSelection.selections, parentType, typename, state)
-          }
-        }
-      }
-    }
-  }
-
-  private fun collectAndMergeSameDirectives(
-      selections: List<CompiledSelection>,
-      parentType: String,
-      variables: Executable.Variables,
-      typename: String?,
-  ): List<CompiledField> {
-    val state = CollectState(variables)
-    collect(selections, parentType, typename, state)
-    return state.fields.groupBy { (it.responseName) to it.condition }.values.map {
-      it.first().newBuilder().selections(it.flatMap { it.selections }).build()
-    }
-  }
+  private val readPlan = readPlanCache?.get(rootSelections, rootTypename, variables) ?: ReadPlan(variables)
 
   fun collectData(): CacheData {
     pendingReferences.add(
@@ -109,7 +76,7 @@ internal class CacheBatchReader(
           }
         }
 
-        val collectedFields = collectAndMergeSameDirectives(pendingReference.selections, pendingReference.parentType, variables, record["__typename"] as? String)
+        val collectedFields = readPlan.fields(pendingReference.selections, pendingReference.parentType, record["__typename"] as? String)
 
         val map = collectedFields.mapNotNull {
           if (it.shouldSkip(variables.valueMap)) {
@@ -155,7 +122,7 @@ internal class CacheBatchReader(
       is Map<*, *> -> {
         @Suppress("UNCHECKED_CAST")
         this as Map<String, @JvmSuppressWildcards Any?>
-        val collectedFields = collectAndMergeSameDirectives(selections, parentType, variables, get("__typename") as? String)
+        val collectedFields = readPlan.fields(selections, parentType, get("__typename") as? String)
         collectedFields.mapNotNull {
           if (it.shouldSkip(variables.valueMap)) {
             return@mapNotNull null
@@ -171,9 +138,17 @@ internal class CacheBatchReader(
     }
   }
 
-  private data class CacheBatchReaderData(
+  internal data class CacheBatchReaderData(
       private val data: Map<List<Any>, Map<String, Any?>>,
   ) : CacheData {
+    /**
+     * Returns a [JsonReader] that reads the data without building the map returned by [toMap]
+     */
+    fun jsonReader(): JsonReader {
+      return cacheDataJsonReader(data)
+    }
+
+
     @Suppress("UNCHECKED_CAST")
     override fun toMap(): Map<String, Any?> {
       return data[emptyList()].replaceCacheKeys(emptyList()) as Map<String, Any?>
@@ -0,0 +1,21 @@
+package com.apollographql.apollo.cache.normalized.api.internal
+
+import com.apollographql.apollo.api.json.JsonReader
+import com.apollographql.apollo.api.json.MapJsonReader
+import com.apollographql.apollo.cache.normalized.api.CacheKey
+
+/**
+ * Returns a [JsonReader] that reads the objects collected by [CacheBatchReader] without building the nested map first.
+ *
+ * [objects] contains the objects read from the cache by path. Their values may contain [CacheKey]s, which are replaced by
+ * the object at the same path when the reader reaches them.
+ */
+internal fun cacheDataJsonReader(objects: Map<List<Any>, Map<String, Any?>>): JsonReader {
+  return MapJsonReader(root = objects[emptyList()], pathRoot = emptyList()) { value ->
+    if (value is CacheKey) {
+      objects[getPath()]
+    } else {
+      value
+    }
+  }
+}
@@ -0,0 +1,26 @@
+package com.apollographql.apollo.cache.normalized.api.internal
+
+import com.apollographql.apollo.cache.normalized.api.Record
+
+/**
+ * An entry of the in-memory caches, wrapping a [Record] together with the time it expires at.
+ *
+ * The current time is passed by the caller so that it is read once per cache operation instead of once per entry.
+ */
+internal class CacheEntry(
+    val record: Record,
+    expireAfterMillis: Long,
+    nowMillis: Long,
+) {
+  val expiresAtMillis: Long = if (expireAfterMillis < 0 || nowMillis > Long.MAX_VALUE - expireAfterMillis) {
+    Long.MAX_VALUE
+  } else {
+    nowMillis + expireAfterMillis
+  }
+
+  val sizeInBytes: Int = record.sizeInBytes + 8
+
+  fun isExpired(nowMillis: Long): Boolean {
+    return nowMillis >= expiresAtMillis
+  }
+}
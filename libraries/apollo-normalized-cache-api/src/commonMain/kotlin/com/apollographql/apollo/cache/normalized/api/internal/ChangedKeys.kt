@@ -0,0 +1,137 @@
+package com.apollographql.apollo.cache.normalized.api.internal
+
+import com.apollographql.apollo.annotations.ApolloInternal
+
+/**
+ * A set of record field keys (`"recordKey.fieldKey"`) that doesn't build the strings.
+ *
+ * Field keys are grouped by record key. The field keys of a record are usually the keys of its [com.apollographql.apollo.cache.normalized.api.Record.fields]
+ * and are shared instead of being copied. The `"recordKey.fieldKey"` strings are only built when iterating, for
+ * compatibility with the code that expects a `Set<String>`. [forEachRecord] doesn't allocate them.
+ *
+ * Keys added as plain strings, for example by `ApolloStore.publish()`, are kept as is.
+ */
+@ApolloInternal
+class ChangedKeys : AbstractSet<String>() {
+  private class Entry(var fieldKeys: Set<String>, var owned: Boolean)
+
+  private val entries = LinkedHashMap<String, Entry>()
+  private val plainKeys = LinkedHashSet<String>()
+
+  fun add(recordKey: String, fieldKey: String) {
+    val entry = entries[recordKey]
+    if (entry == null) {
+      entries[recordKey] = Entry(mutableSetOf(fieldKey), true)
+    } else {
+      entry.mutableFieldKeys().add(fieldKey)
+    }
+  }
+
+  /**
+   * Adds [fieldKeys] to the field keys of [recordKey]. [fieldKeys] must not be modified afterwards.
+   *
+   * The field keys of [recordKey] are only copied if [fieldKeys] adds new keys to them.
+   */
+  fun addAll(recordKey: String, fieldKeys: Set<String>) {
+    if (fieldKeys.isEmpty()) {
+      return
+    }
+    val entry = entries[recordKey]
+    when {
+      entry == null -> entries[recordKey] = Entry(fieldKeys, false)
+      entry.fieldKeys === fieldKeys || entry.fieldKeys.containsAll(fieldKeys) -> Unit
+      else -> entry.mutableFieldKeys().addAll(fieldKeys)
+    }
+  }
+
+  /**
+   * Adds all the keys of [keys]. If [keys] is a [ChangedKeys], no string is allocated.
+   */
+  fun addAll(keys: Set<String>) {
+    if (keys is ChangedKeys) {
+      for ((recordKey, entry) in keys.entries) {
+        addAll(recordKey, entry.fieldKeys)
+      }
+      plainKeys.addAll(keys.plainKeys)
+    } else {
+      plainKeys.addAll(keys)
+    }
+  }
+
+  /**
+   * Calls [block] for every record key and its field keys
+   */
+  fun forEachRecord(block: (recordKey: String, fieldKeys: Set<String>) -> Unit) {
+    for ((recordKey, entry) in entries) {
+      block(recordKey, entry.fieldKeys)
+    }
+  }
+
+  /**
+   * Calls [block] for every key added as a plain `"recordKey.fieldKey"` string
+   */
+  fun forEachPlainKey(block: (key: String) -> Unit) {
+    plainKeys.forEach(block)
+  }
+
+  private fun Entry.mutableFieldKeys(): MutableSet<String> {
+    if (!owned) {
+      fieldKeys = LinkedHashSet(fieldKeys)
+      owned = true
+    }
+    @Suppress("UNCHECKED_CAST")
+    return fieldKeys as MutableSet<String>
+  }
+
+  /**
+   * Whether [key] is in [entries]. Record keys may contain '.' so every split is tried.
+   */
+  private fun containsRecordField(key: String): Boolean {
+    var index = key.indexOf('.')
+    while (index >= 0) {
+      val fieldKeys = entries[key.substring(0, index)]?.fieldKeys
+      if (fieldKeys != null && fieldKeys.contains(key.substring(index + 1))) {
+        return true
+      }
+      index = key.indexOf('.', index + 1)
+    }
+    return false
+  }
+
+  override val size: Int
+    get() {
+      var size = 0
+      for (entry in entries.values) {
+        size += entry.fieldKeys.size
+      }
+      for (key in plainKeys) {
+        if (!containsRecordField(key)) {
+          size++
+        }
+      }
+      return size
+    }
+
+  override fun isEmpty(): Boolean {
+    return entries.isEmpty() && plainKeys.isEmpty()
+  }
+
+  override fun contains(element: String): Boolean {
+    return plainKeys.contains(element) || containsRecordField(element)
+  }
+
+  override fun iterator(): Iterator<String> {
+    return iterator {
+      for ((recordKey, entry) in entries) {
+        for (fieldKey in entry.fieldKeys) {
+          yield("$recordKey.$fieldKey")
+        }
+      }
+      for (key in plainKeys) {
+        if (!containsRecordField(key)) {
+          yield(key)
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,103 @@
+package com.apollographql.apollo.cache.normalized.api.internal
+
+/**
+ * The fields of a [com.apollographql.apollo.cache.normalized.api.Record] read by [CompactRecordSerializer].
+ *
+ * Values are decoded from [bytes] on first access and then kept. Looking up a single field only decodes that field so
+ * that reading a few fields of a wide record doesn't allocate the whole record.
+ *
+ * Iterating [entries] or [values] decodes all the fields. [sizeInBytes] doesn't decode anything.
+ *
+ * Fields are looked up by the hash code of their name, with a binary search, so that a lookup is O(log(fields)) and
+ * doesn't lock [fieldNames].
+ *
+ * @param nameIds the [FieldNameTable] ids of the fields, in record order
+ * @param offsets the offsets of the values in [bytes]. `offsets[i + 1]` is the end of value `i`.
+ */
+internal class CompactRecordFields(
+    private val bytes: ByteArray,
+    private val nameIds: IntArray,
+    private val offsets: IntArray,
+    private val fieldNames: FieldNameTable,
+) : AbstractMap<String, Any?>() {
+  private val lock = CacheLock()
+  private val decodedValues = arrayOfNulls<Any?>(nameIds.size)
+  private val decoded = BooleanArray(nameIds.size)
+
+  override val size: Int
+    get() = nameIds.size
+
+  /**
+   * An estimate of the size of the fields in memory: the encoded size of the values and of the field name ids. It is
+   * used to weigh the record instead of decoding every field.
+   */
+  val sizeInBytes: Int = offsets[nameIds.size] - offsets[0] + nameIds.size * 2 * SIZE_OF_INT
+
+  override fun containsKey(key: String): Boolean {
+    return indexOf(key) >= 0
+  }
+
+  override fun get(key: String): Any? {
+    val index = indexOf(key)
+    if (index < 0) {
+      return null
+    }
+    return valueAt(index)
+  }
+
+  override val keys: Set<String> by lazy {
+    nameIds.mapTo(LinkedHashSet(nameIds.size)) { fieldNames.nameOf(it) }
+  }
+
+  override val entries: Set<Map.Entry<String, Any?>> by lazy {
+    val map = LinkedHashMap<String, Any?>(nameIds.size)
+    for (i in nameIds.indices) {
+      map[fieldNames.nameOf(nameIds[i])] = valueAt(i)
+    }
+    map.entries
+  }
+
+  /**
+   * The hash codes of the field names in the high 32 bits and the indices of the fields in the low 32 bits, sorted
+   */
+  private val sortedHashes: LongArray by lazy {
+    LongArray(nameIds.size) { index ->
+      (fieldNames.nameOf(nameIds[index]).hashCode().toLong() shl 32) or index.toLong()
+    }.apply { sort() }
+  }
+
+  private fun indexOf(key: String): Int {
+    val hash = key.hashCode()
+    val sortedHashes = sortedHashes
+    // Find the first entry with this hash code
+    var low = 0
+    var high = sortedHashes.size
+    while (low < high) {
+      val mid = (low + high) ushr 1
+      if ((sortedHashes[mid] shr 32).toInt() < hash) {
+        low = mid + 1
+      } else {
+        high = mid
+      }
+    }
+    // Names may share a hash code
+    while (low < sortedHashes.size && (sortedHashes[low] shr 32).toInt() == hash) {
+      val index = sortedHashes[low].toInt()
+      if (fieldNames.nameOf(nameIds[index]) == key) {
+        return index
+      }
+      low++
+    }
+    return -1
+  }
+
+  private fun valueAt(index: Int): Any? = lock.lock {
+    if (!decoded[index]) {
+      decodedValues[index] = ByteArrayReader(bytes, offsets[index]).readValue()
+      decoded[index] = true
+    }
+    decodedValues[index]
+  }
+}
+
+private const val SIZE_OF_INT = 4
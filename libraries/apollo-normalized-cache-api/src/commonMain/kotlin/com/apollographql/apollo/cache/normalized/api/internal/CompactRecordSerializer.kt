@@ -0,0 +1,258 @@
+package com.apollographql.apollo.cache.normalized.api.internal
+
+import com.apollographql.apollo.annotations.ApolloInternal
+import com.apollographql.apollo.api.json.JsonNumber
+import com.apollographql.apollo.cache.normalized.api.CacheKey
+import com.apollographql.apollo.cache.normalized.api.Record
+import okio.Buffer
+import okio.utf8Size
+
+/**
+ * A serializer that serializes/deserializes a [Record] to a compact binary [ByteArray].
+ *
+ * Compared to [JsonRecordSerializer]:
+ * - field names are written as ids from a [FieldNameTable] instead of strings
+ * - lengths and integers are written as varints
+ * - [CacheKey]s have a dedicated tag and don't need to be parsed from a string
+ * - the record dates are preserved
+ * - fields are decoded lazily, on first access (see [CompactRecordFields])
+ *
+ * Format (version 2):
+ *
+ * ```
+ * record := version:u8 flags:u8 fieldCount:varint (fieldNameId:varint valueSize:varint)* value* date*
+ * date   := value (a Long or null, one per field, in the same order as the fields, only if flags has HAS_DATES)
+ * value  := tag:u8 payload
+ * ```
+ *
+ * The sizes make it possible to compute the offset of any value without decoding the values before it.
+ *
+ * Map keys of custom scalars are written as strings and are not part of the [FieldNameTable].
+ */
+@ApolloInternal
+class CompactRecordSerializer(private val fieldNames: FieldNameTable) {
+
+  fun serialize(record: Record): ByteArray {
+    val buffer = Buffer()
+    val values = Buffer()
+    val dates = record.date
+
+    buffer.writeByte(VERSION)
+    buffer.writeByte(if (dates != null) FLAG_HAS_DATES else 0)
+    buffer.writeVarLong(record.fields.size.toLong())
+    for ((name, value) in record.fields) {
+      val before = values.size
+      values.writeValue(value)
+      buffer.writeVarLong(fieldNames.idOf(name).toLong())
+      buffer.writeVarLong(values.size - before)
+    }
+    buffer.writeAll(values)
+    if (dates != null) {
+      for (name in record.fields.keys) {
+        buffer.writeValue(dates[name])
+      }
+    }
+
+    return buffer.readByteArray()
+  }
+
+  /**
+   * returns the [Record] for the given bytes
+   *
+   * The returned [Record] keeps a reference to [bytes], which must not be modified afterwards.
+   *
+   * @throws Exception if the [Record] cannot be deserialized
+   */
+  fun deserialize(key: String, bytes: ByteArray): Record {
+    val reader = ByteArrayReader(bytes)
+
+    val version = reader.readByte()
+    val flags = reader.readByte()
+    val size = reader.readVarLong().toInt()
+
+    check(version == VERSION) {
+      "Apollo: unsupported record format version: '$version'"
+    }
+    return readLazily(key, reader, flags, size)
+  }
+
+  private fun readLazily(key: String, reader: ByteArrayReader, flags: Int, size: Int): Record {
+    val nameIds = IntArray(size)
+    val offsets = IntArray(size + 1)
+    var valueSizes = 0
+    for (i in 0 until size) {
+      nameIds[i] = reader.readVarLong().toInt()
+      offsets[i] = valueSizes
+      valueSizes += reader.readVarLong().toInt()
+    }
+    val valuesStart = reader.position
+    for (i in 0 until size) {
+      offsets[i] += valuesStart
+    }
+    offsets[size] = valuesStart + valueSizes
+
+    val fields = CompactRecordFields(reader.bytes, nameIds, offsets, fieldNames)
+    if ((flags and FLAG_HAS_DATES) == 0) {
+      return Record(key, fields)
+    }
+
+    reader.position = offsets[size]
+    val dates = LinkedHashMap<String, Long?>(size)
+    for (i in 0 until size) {
+      dates[fieldNames.nameOf(nameIds[i])] = reader.readValue() as Long?
+    }
+    return Record(key, fields, null, dates)
+  }
+
+  private fun Buffer.writeValue(value: Any?) {
+    when (value) {
+      null -> writeByte(NULL)
+      is Boolean -> writeByte(if (value) TRUE else FALSE)
+      is Int -> {
+        writeByte(INT)
+        writeVarLong(value.toLong().zigZag())
+      }
+      is Long -> {
+        writeByte(LONG)
+        writeVarLong(value.zigZag())
+      }
+      is Double -> {
+        writeByte(DOUBLE)
+        writeLong(value.toRawBits())
+      }
+      is String -> {
+        writeByte(STRING)
+        writeString(value)
+      }
+      is JsonNumber -> {
+        writeByte(JSON_NUMBER)
+        writeString(value.value)
+      }
+      is CacheKey -> {
+        writeByte(CACHE_KEY)
+        writeString(value.key)
+      }
+      is List<*> -> {
+        writeByte(LIST)
+        writeVarLong(value.size.toLong())
+        for (item in value) {
+          writeValue(item)
+        }
+      }
+      is Map<*, *> -> {
+        writeByte(MAP)
+        writeVarLong(value.size.toLong())
+        for ((entryKey, entryValue) in value) {
+          writeString(entryKey as String)
+          writeValue(entryValue)
+        }
+      }
+      else -> error("Trying to write unsupported Record value: $value")
+    }
+  }
+
+  private fun Buffer.writeString(value: String) {
+    writeVarLong(value.utf8Size())
+    writeUtf8(value)
+  }
+
+  private fun Buffer.writeVarLong(value: Long) {
+    var remaining = value
+    while ((remaining and 0x7FL.inv()) != 0L) {
+      writeByte(((remaining and 0x7F) or 0x80).toInt())
+      remaining = remaining ushr 7
+    }
+    writeByte(remaining.toInt())
+  }
+
+  private fun Long.zigZag(): Long = (this shl 1) xor (this shr 63)
+}
+
+/**
+ * Reads the [CompactRecordSerializer] format directly from a [ByteArray], without copying it
+ */
+internal class ByteArrayReader(val bytes: ByteArray, var position: Int = 0) {
+  fun readByte(): Int {
+    return bytes[position++].toInt() and 0xFF
+  }
+
+  private fun readLong(): Long {
+    var result = 0L
+    repeat(8) {
+      result = (result shl 8) or readByte().toLong()
+    }
+    return result
+  }
+
+  fun readVarLong(): Long {
+    var result = 0L
+    var shift = 0
+    while (true) {
+      val byte = readByte().toLong()
+      result = result or ((byte and 0x7F) shl shift)
+      if ((byte and 0x80) == 0L) {
+        return result
+      }
+      shift += 7
+      check(shift < 64) {
+        "Apollo: malformed varint"
+      }
+    }
+  }
+
+  private fun readString(): String {
+    val size = readVarLong().toInt()
+    val string = bytes.decodeToString(position, position + size)
+    position += size
+    return string
+  }
+
+  fun readValue(): Any? {
+    return when (val tag = readByte()) {
+      NULL -> null
+      FALSE -> false
+      TRUE -> true
+      INT -> readVarLong().unZigZag().toInt()
+      LONG -> readVarLong().unZigZag()
+      DOUBLE -> Double.fromBits(readLong())
+      STRING -> readString()
+      JSON_NUMBER -> JsonNumber(readString())
+      CACHE_KEY -> CacheKey(readString())
+      LIST -> {
+        val size = readVarLong().toInt()
+        val list = ArrayList<Any?>(size)
+        repeat(size) {
+          list.add(readValue())
+        }
+        list
+      }
+      MAP -> {
+        val size = readVarLong().toInt()
+        val map = LinkedHashMap<String, Any?>(size)
+        repeat(size) {
+          map[readString()] = readValue()
+        }
+        map
+      }
+      else -> error("Trying to read unsupported Record value tag: $tag")
+    }
+  }
+
+  private fun Long.unZigZag(): Long = (this ushr 1) xor -(this and 1)
+}
+
+private const val VERSION = 2
+
+private const val FLAG_HAS_DATES = 1
+
+private const val NULL = 0
+private const val FALSE = 1
+private const val TRUE = 2
+private const val INT = 3
+private const val LONG = 4
+private const val DOUBLE = 5
+private const val STRING = 6
+private const val JSON_NUMBER = 7
+private const val CACHE_KEY = 8
+private const val LIST = 9
+private const val MAP = 10
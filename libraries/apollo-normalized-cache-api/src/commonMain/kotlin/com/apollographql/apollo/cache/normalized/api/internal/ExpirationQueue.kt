@@ -0,0 +1,52 @@
+package com.apollographql.apollo.cache.normalized.api.internal
+
+/**
+ * The entries of an in-memory cache in the order they expire, used to evict expired entries without waiting for a read.
+ *
+ * All the entries of a cache have the same time to live, so they expire in the order they are added and a FIFO queue is
+ * enough: evicting an expired entry is O(1) and checking that there is nothing to evict only looks at the head.
+ *
+ * Entries that are replaced or removed from the cache stay in the queue until they expire. They are skipped because they
+ * are not the current entry of their key anymore. The queue is compacted once it holds more than twice the number of
+ * entries of the cache, which keeps the cost amortized O(1) per added entry.
+ *
+ * Not thread safe. Must be guarded by the same lock as the [LruCache].
+ */
+internal class ExpirationQueue {
+  private val entries = ArrayDeque<CacheEntry>()
+
+  fun add(entry: CacheEntry, lruCache: LruCache<String, CacheEntry>) {
+    entries.addLast(entry)
+    if (entries.size > 2 * lruCache.keys().size + MIN_COMPACTION_SIZE) {
+      compact(lruCache)
+    }
+  }
+
+  /**
+   * Removes the entries expired at [nowMillis] from [lruCache]
+   *
+   * @return the number of entries removed
+   */
+  fun evictExpired(lruCache: LruCache<String, CacheEntry>, nowMillis: Long): Int {
+    var removed = 0
+    while (entries.isNotEmpty() && entries.first().isExpired(nowMillis)) {
+      val entry = entries.removeFirst()
+      val key = entry.record.key
+      if (lruCache.peek(key) === entry) {
+        lruCache.remove(key)
+        removed++
+      }
+    }
+    return removed
+  }
+
+  fun clear() {
+    entries.clear()
+  }
+
+  private fun compact(lruCache: LruCache<String, CacheEntry>) {
+    entries.retainAll { lruCache.peek(it.record.key) === it }
+  }
+}
+
+private const val MIN_COMPACTION_SIZE = 64
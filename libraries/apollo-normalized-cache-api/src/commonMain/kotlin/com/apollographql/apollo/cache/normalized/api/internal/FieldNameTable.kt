@@ -0,0 +1,96 @@
+package com.apollographql.apollo.cache.normalized.api.internal
+
+import com.apollographql.apollo.annotations.ApolloInternal
+import kotlin.concurrent.Volatile
+
+/**
+ * A dictionary of field names used by [CompactRecordSerializer] to encode field names as small integer ids.
+ *
+ * Ids are allocated sequentially starting at 0. [onNewName] is called every time a new id is allocated so that the table
+ * can be persisted alongside the records. If [onNewName] throws, the id is not allocated. If the name is persisted in a
+ * transaction that is rolled back later, call [rollback] to forget it.
+ */
+@ApolloInternal
+class FieldNameTable(
+    private val onNewName: (id: Int, name: String) -> Unit = { _, _ -> },
+) {
+  /**
+   * Guards [ids] and the writes to [names]
+   */
+  private val lock = CacheLock()
+  private val ids = HashMap<String, Int>()
+
+  /**
+   * The names by id, replaced as a whole after every change so that [nameOf] can read them without locking. The array is
+   * only appended to: a reader never sees a name change below the size it read.
+   */
+  @Volatile
+  private var names = Names(arrayOfNulls(INITIAL_CAPACITY), 0)
+
+  private class Names(val array: Array<String?>, val size: Int)
+
+  /**
+   * Replaces the content of the table, for an example after reading it from disk
+   */
+  fun load(entries: Map<Int, String>) = lock.lock {
+    ids.clear()
+    val size = (entries.keys.maxOrNull() ?: -1) + 1
+    val array = arrayOfNulls<String>(maxOf(size, INITIAL_CAPACITY))
+    for ((id, name) in entries) {
+      array[id] = name
+      ids[name] = id
+    }
+    names = Names(array, size)
+  }
+
+  /**
+   * Returns the id of [name], allocating a new one if needed
+   */
+  fun idOf(name: String): Int = lock.lock {
+    ids[name] ?: names.size.also { id ->
+      onNewName(id, name)
+      val current = names
+      val array = if (id < current.array.size) current.array else current.array.copyOf(current.array.size * 2)
+      array[id] = name
+      names = Names(array, id + 1)
+      ids[name] = id
+    }
+  }
+
+  /**
+   * Forgets the names with an id greater than or equal to [fromId], for an example because the transaction that persisted
+   * them was rolled back
+   */
+  fun rollback(fromId: Int) = lock.lock {
+    val current = names
+    if (current.size <= fromId) {
+      return@lock
+    }
+    // Copy the array: readers of the previous size may still read the forgotten names
+    val array = current.array.copyOf()
+    for (id in fromId until current.size) {
+      array[id]?.let { ids.remove(it) }
+      array[id] = null
+    }
+    names = Names(array, fromId)
+  }
+
+  /**
+   * Returns the id of [name] or null if [name] has no id yet
+   */
+  fun idOrNull(name: String): Int? = lock.lock {
+    ids[name]
+  }
+
+  /**
+   * Returns the name for [id]. This doesn't lock.
+   *
+   * @throws IllegalStateException if [id] is unknown
+   */
+  fun nameOf(id: Int): String {
+    val current = names
+    return (if (id in 0 until current.size) current.array[id] else null) ?: error("Unknown field name id: '$id'")
+  }
+}
+
+private const val INITIAL_CAPACITY = 64
@@ -9,13 +9,17 @@ internal typealias Weigher<Key, Value> = (Key, Value?) -> Int
  * double linked queue to track LRU property.
  *
  * [maxSize] - maximum size of the cache, can be anything bytes, number of entries etc. By default is number o entries.
+ * [onRemove] - to be called with the key of every entry removed from the cache, including trimmed entries but not
+ *              entries removed by [clear].
  * [weigher] - to be called to calculate the estimated size (weight) of the cache entry defined by its [Key] and [Value].
  *             By default it returns 1.
+ * [onEvict] - if set, to be called with the key and weight of every entry removed by a trim.
  *
  * Cache trim performed only on new entry insertion.
  */
 internal class LruCache<Key, Value>(
     private val maxSize: Int,
+    private val onRemove: (Key) -> Unit = {},
     private val weigher: Weigher<Key, Value> = { _, _ -> 1 },
 ) {
   private val cache = LinkedHashMap<Key, Node<Key, Value>>(0, 0.75f)
@@ -23,6 +27,8 @@ internal class LruCache<Key, Value>(
   private var tailNode: Node<Key, Value>? = null
   private var size: Int = 0
 
+  var onEvict: ((Key, Int) -> Unit)? = null
+
   operator fun get(key: Key): Value? {
     val node = cache[key]
     if (node != null) {
@@ -31,11 +37,19 @@ internal class LruCache<Key, Value>(
     return node?.value
   }
 
+  /**
+   * Returns the value of [key] without changing the LRU order
+   */
+  fun peek(key: Key): Value? {
+    return cache[key]?.value
+  }
+
   operator fun set(key: Key, value: Value) {
     val node = cache[key]
     if (node == null) {
       cache[key] = addNode(key, value)
     } else {
+      size += weigher(key, value) - weigher(key, node.value)
       node.value = value
       moveNodeToHead(node)
     }
@@ -43,17 +57,57 @@ internal class LruCache<Key, Value>(
     trim()
   }
 
+  /**
+   * Adds [key] as the least recently used entry if it is not in the cache and fits without evicting anything
+   *
+   * @return whether [key] was added
+   */
+  fun addLeastRecent(key: Key, value: Value): Boolean {
+    if (cache.containsKey(key) || size + weigher(key, value) > maxSize) {
+      return false
+    }
+    val node = Node(
+        key = key,
+        value = value,
+        next = null,
+        prev = tailNode,
+    )
+    if (tailNode == null) {
+      headNode = node
+    } else {
+      tailNode?.next = node
+    }
+    tailNode = node
+    cache[key] = node
+    size += weigher(key, value)
+    return true
+  }
+
   fun remove(key: Key): Value? {
     return removeUnsafe(key)
   }
 
   fun keys() = cache.keys
 
+  /**
+   * Returns up to [maxCount] keys, the most recently used first
+   */
+  fun keysByRecency(maxCount: Int): List<Key> {
+    val keys = ArrayList<Key>(minOf(maxCount, cache.size))
+    var node = headNode
+    while (node != null && keys.size < maxCount) {
+      keys.add(node.key!!)
+      node = node.next
+    }
+    return keys
+  }
+
   private fun removeUnsafe(key: Key): Value? {
     val nodeToRemove = cache.remove(key)
     val value = nodeToRemove?.value
     if (nodeToRemove != null) {
       unlinkNode(nodeToRemove)
+      onRemove(key)
     }
     return value
   }
@@ -83,8 +137,12 @@ internal class LruCache<Key, Value>(
   private fun trim() {
     var nodeToRemove = tailNode
     while (nodeToRemove != null && size > maxSize) {
-      cache.remove(nodeToRemove.key)
+      val key = nodeToRemove.key!!
+      val weight = if (onEvict != null) weigher(key, nodeToRemove.value) else 0
+      cache.remove(key)
       unlinkNode(nodeToRemove)
+      onRemove(key)
+      onEvict?.invoke(key, weight)
       nodeToRemove = tailNode
     }
   }
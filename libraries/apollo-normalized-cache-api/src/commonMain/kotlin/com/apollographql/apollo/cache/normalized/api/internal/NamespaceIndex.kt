@@ -0,0 +1,67 @@
+package com.apollographql.apollo.cache.normalized.api.internal
+
+/**
+ * An index of cache keys by namespace: the part of the key before the first ':'. For keys built with
+ * `CacheKey(typename, values)`, the namespace is the typename.
+ *
+ * It is used to find the keys starting with a given prefix by looking at a single namespace instead of all the keys.
+ *
+ * This class is not thread safe.
+ */
+internal class NamespaceIndex {
+  private val keysByNamespace = HashMap<String, MutableSet<String>>()
+
+  /**
+   * The keys without a ':'. They are usually path based keys like `QUERY_ROOT.hero`
+   */
+  private val keysWithoutNamespace = HashSet<String>()
+
+  fun add(key: String) {
+    val separator = key.indexOf(':')
+    if (separator < 0) {
+      keysWithoutNamespace.add(key)
+    } else {
+      keysByNamespace.getOrPut(key.substring(0, separator)) { HashSet() }.add(key)
+    }
+  }
+
+  fun remove(key: String) {
+    val separator = key.indexOf(':')
+    if (separator < 0) {
+      keysWithoutNamespace.remove(key)
+    } else {
+      val namespace = key.substring(0, separator)
+      val keys = keysByNamespace[namespace] ?: return
+      keys.remove(key)
+      if (keys.isEmpty()) {
+        keysByNamespace.remove(namespace)
+      }
+    }
+  }
+
+  fun clear() {
+    keysByNamespace.clear()
+    keysWithoutNamespace.clear()
+  }
+
+  /**
+   * Returns the keys that start with [prefix].
+   *
+   * If [prefix] contains a ':', only the keys of its namespace are scanned. Else, the keys without a namespace and the
+   * namespace names are scanned.
+   */
+  fun keysWithPrefix(prefix: String): List<String> {
+    val separator = prefix.indexOf(':')
+    if (separator >= 0) {
+      return keysByNamespace[prefix.substring(0, separator)].orEmpty().filter { it.startsWith(prefix) }
+    }
+
+    val keys = keysWithoutNamespace.filter { it.startsWith(prefix) }.toMutableList()
+    for ((namespace, namespaceKeys) in keysByNamespace) {
+      if (namespace.startsWith(prefix)) {
+        keys.addAll(namespaceKeys)
+      }
+    }
+    return keys
+  }
+}
@@ -46,47 +46,31 @@ internal class Normalizer(
   ): CacheKey {
 
     val typename = obj["__typename"] as? String
-    val allFields = collectFields(selections, parentType, typename)
+    val fields = fieldsFor(selections, parentType, typename)
 
+    val base = if (key == CacheKey.rootKey().key) {
+      // If we're at the root level, skip `QUERY_ROOT` altogether to save a few bytes
+      null
+    } else {
+      key
+    }
+
+    val recordFields = LinkedHashMap<String, Any?>(obj.size)
+    for (entry in obj.entries) {
+      // If the field is not found, `obj` contains more data than the CompiledSelections can understand
+      // (see https://github.com/apollographql/apollo-kotlin/pull/3636) or the field is skipped.
+      // For all cache purposes, this is not part of the response and we therefore do not include this in the record
+      val field = fields[entry.key] ?: continue
+      recordFields[field.fieldKey] = replaceObjects(
+          entry.value,
+          field.compiledField,
+          field.compiledField.type,
+          base.append(field.fieldKey),
+      )
+    }
     val record = Record(
         key = key,
-        fields = obj.entries.mapNotNull { entry ->
-          val compiledFields = allFields.filter { it.responseName == entry.key }
-          if (compiledFields.isEmpty()) {
-            // If we come here, `obj` contains more data than the CompiledSelections can understand
-            // This happened previously (see https://github.com/apollographql/apollo-kotlin/pull/3636)
-            // It also happens if there's an always false @include directive (see https://github.com/apollographql/apollo-kotlin/issues/4772)
-            // For all cache purposes, this is not part of the response and we therefore do not include this in the response
-            return@mapNotNull null
-          }
-          val includedFields = compiledFields.filter {
-            !it.shouldSkip(variableValues = variables.valueMap)
-          }
-          if (includedFields.isEmpty()) {
-            // If the field is absent, we don't want to serialize "null" to the cache, do not include this field in the record.
-            return@mapNotNull null
-          }
-          val mergedField = includedFields.first().newBuilder()
-              .selections(includedFields.flatMap { it.selections })
-              .condition(emptyList())
-              .build()
-
-          val fieldKey = mergedField.nameWithArguments(variables)
-
-          val base = if (key == CacheKey.rootKey().key) {
-            // If we're at the root level, skip `QUERY_ROOT` altogether to save a few bytes
-            null
-          } else {
-            key
-          }
-
-          fieldKey to replaceObjects(
-              entry.value,
-              mergedField,
-              mergedField.type,
-              base.append(fieldKey),
-          )
-        }.toMap()
+        fields = recordFields
     )
 
     val existingRecord = records[key]
@@ -153,6 +137,63 @@ internal class Normalizer(
     }
   }
 
+  /**
+   * A field of a selection set, with the fields of the same response name merged
+   */
+  internal class NormalizedField(
+      val compiledField: CompiledField,
+      val fieldKey: String,
+  )
+
+  /**
+   * [selections] is compared by identity like the selections of [ReadPlan]: the objects of a field all share the
+   * selections of that field, and hashing them structurally would cost about as much as collecting the fields again.
+   */
+  private class FieldsKey(
+      val selections: List<CompiledSelection>,
+      val parentType: String,
+      val typename: String?,
+  ) {
+    override fun equals(other: Any?): Boolean {
+      return other is FieldsKey && other.selections === selections && other.parentType == parentType && other.typename == typename
+    }
+
+    override fun hashCode(): Int {
+      return 31 * (31 * selections.size + parentType.hashCode()) + typename.hashCode()
+    }
+  }
+
+  /**
+   * The fields of every selection set seen by this [Normalizer]. These only depend on the selections, the typename and the
+   * variables, which don't change during a normalization, so that objects of large lists don't compute them again.
+   */
+  private val fieldsCache = HashMap<FieldsKey, Map<String, NormalizedField>>()
+
+  /**
+   * Returns the fields to write for an object, by response name
+   */
+  internal fun fieldsFor(selections: List<CompiledSelection>, parentType: String, typename: String?): Map<String, NormalizedField> {
+    return fieldsCache.getOrPut(FieldsKey(selections, parentType, typename)) {
+      val result = LinkedHashMap<String, NormalizedField>()
+      collectFields(selections, parentType, typename).groupBy { it.responseName }.forEach { (responseName, compiledFields) ->
+        val includedFields = compiledFields.filter {
+          !it.shouldSkip(variableValues = variables.valueMap)
+        }
+        if (includedFields.isEmpty()) {
+          // If the field is absent, we don't want to serialize "null" to the cache, do not include this field in the record.
+          // This also happens if there's an always false @include directive (see https://github.com/apollographql/apollo-kotlin/issues/4772)
+          return@forEach
+        }
+        val mergedField = includedFields.first().newBuilder()
+            .selections(includedFields.flatMap { it.selections })
+            .condition(emptyList())
+            .build()
+        result[responseName] = NormalizedField(mergedField, mergedField.nameWithArguments(variables))
+      }
+      result
+    }
+  }
+
   private class CollectState {
     val fields = mutableListOf<CompiledField>()
   }
@@ -75,10 +75,27 @@ class OptimisticCache : NormalizedCache() {
     return total + chainRemoved
   }
 
+  override fun removeByPrefix(prefix: String): Int {
+    var total = 0
+    val iterator = recordJournals.iterator()
+    while(iterator.hasNext()) {
+      val entry = iterator.next()
+      if (entry.key.startsWith(prefix)) {
+        iterator.remove()
+        total++
+      }
+    }
+
+    val chainRemoved = nextCache?.removeByPrefix(prefix) ?: 0
+    return total + chainRemoved
+  }
+
   fun addOptimisticUpdates(recordSet: Collection<Record>): Set<String> {
-    return recordSet.flatMap {
-      addOptimisticUpdate(it)
-    }.toSet()
+    val changedKeys = ChangedKeys()
+    for (record in recordSet) {
+      changedKeys.addAll(addOptimisticUpdate(record))
+    }
+    return changedKeys
   }
 
   fun addOptimisticUpdate(record: Record): Set<String> {
@@ -92,7 +109,7 @@ class OptimisticCache : NormalizedCache() {
   }
 
   fun removeOptimisticUpdates(mutationId: Uuid): Set<String> {
-    val changedCacheKeys = mutableSetOf<String>()
+    val changedCacheKeys = ChangedKeys()
 
     val iterator = recordJournals.iterator()
     while(iterator.hasNext()) {
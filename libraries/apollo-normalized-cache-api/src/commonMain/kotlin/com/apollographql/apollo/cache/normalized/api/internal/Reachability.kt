@@ -0,0 +1,52 @@
+package com.apollographql.apollo.cache.normalized.api.internal
+
+import com.apollographql.apollo.cache.normalized.api.CacheHeaders
+import com.apollographql.apollo.cache.normalized.api.CacheKey
+import com.apollographql.apollo.cache.normalized.api.NormalizedCache
+import com.apollographql.apollo.cache.normalized.api.Record
+
+/**
+ * Returns the keys of the records that can be reached from [rootKey] by following the references returned by
+ * [Record.referencedFields]
+ *
+ * @param loadRecord returns the record for the given key or null if it is not present. Keys of missing records are
+ * not part of the result.
+ */
+internal fun reachableKeys(rootKey: String, loadRecord: (String) -> Record?): Set<String> {
+  val reachable = HashSet<String>()
+  val stack = ArrayList<String>()
+  stack.add(rootKey)
+  while (stack.isNotEmpty()) {
+    val key = stack.removeAt(stack.size - 1)
+    if (key in reachable) {
+      continue
+    }
+    val record = loadRecord(key) ?: continue
+    reachable.add(key)
+    for (reference in record.referencedFields()) {
+      if (reference.key !in reachable) {
+        stack.add(reference.key)
+      }
+    }
+  }
+  return reachable
+}
+
+/**
+ * Returns the keys of the records of a cache layer that can be reached from the root record, or null if the root record
+ * cannot be found.
+ *
+ * Records that are not in the layer, for instance because they have been evicted, are looked up in [nextCache] so
+ * that evicting the root record or an intermediate record doesn't make the records below it unreachable.
+ *
+ * @param loadRecord returns the record of the layer for the given key or null if it is not present.
+ */
+internal fun reachableKeys(nextCache: NormalizedCache?, loadRecord: (String) -> Record?): Set<String>? {
+  val lookup = { key: String -> loadRecord(key) ?: nextCache?.loadRecord(key, CacheHeaders.NONE) }
+  val rootKey = CacheKey.rootKey().key
+  if (lookup(rootKey) == null) {
+    // Without the root record, everything would be unreachable
+    return null
+  }
+  return reachableKeys(rootKey, lookup)
+}
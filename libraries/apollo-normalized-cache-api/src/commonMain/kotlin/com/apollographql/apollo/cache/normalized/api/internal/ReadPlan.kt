@@ -0,0 +1,123 @@
+package com.apollographql.apollo.cache.normalized.api.internal
+
+import com.apollographql.apollo.annotations.ApolloInternal
+import com.apollographql.apollo.api.CompiledField
+import com.apollographql.apollo.api.CompiledFragment
+import com.apollographql.apollo.api.CompiledSelection
+import com.apollographql.apollo.api.Executable
+
+/**
+ * The fields read by [CacheBatchReader] for a given root selection set and variables.
+ *
+ * For every object, [CacheBatchReader] needs the fields of its selection set that apply to its typename, with the fields
+ * of the same response name and condition merged. These only depend on the selection set, the parent type, the typename
+ * and the variables used by the fragments `@skip`/`@include` directives. They are computed the first time they are
+ * needed and reused by the next reads of the same operation with the same variables if the plan comes from a
+ * [ReadPlanCache], so that repeated reads, like the ones of a watcher, only look up records and copy values.
+ *
+ * Field level `@skip`/`@include` directives are still evaluated on every read.
+ */
+internal class ReadPlan(private val variables: Executable.Variables) {
+  private val lock = CacheLock()
+  private val fieldsBySelections = HashMap<FieldsKey, List<CompiledField>>()
+
+  /**
+   * [selections] is compared by identity: the selection lists are allocated once per operation by the codegen, and the
+   * selections of the merged fields once per plan. This avoids hashing and comparing the selections on every lookup.
+   */
+  private class FieldsKey(
+      val selections: List<CompiledSelection>,
+      val parentType: String,
+      val typename: String?,
+  ) {
+    override fun equals(other: Any?): Boolean {
+      return other is FieldsKey && other.selections === selections && other.parentType == parentType && other.typename == typename
+    }
+
+    override fun hashCode(): Int {
+      return 31 * (31 * selections.size + parentType.hashCode()) + typename.hashCode()
+    }
+  }
+
+  fun fields(selections: List<CompiledSelection>, parentType: String, typename: String?): List<CompiledField> {
+    val key = FieldsKey(selections, parentType, typename)
+    val cached = lock.lock { fieldsBySelections[key] }
+    if (cached != null) {
+      return cached
+    }
+
+    // Computed outside the lock: concurrent readers may compute the same fields twice but the result is the same
+    val fields = collectAndMergeSameDirectives(selections, parentType, typename)
+    lock.lock {
+      fieldsBySelections[key] = fields
+    }
+    return fields
+  }
+
+  private fun collect(selections: List<CompiledSelection>, parentType: String, typename: String?, fields: MutableList<CompiledField>) {
+    selections.forEach { compiledSelection ->
+      when (compiledSelection) {
+        is CompiledField -> {
+          fields.add(compiledSelection)
+        }
+
+        is CompiledFragment -> {
+          if ((typename in compiledSelection.possibleTypes || compiledSelection.typeCondition == parentType) && !compiledSelection.shouldSkip(variables.valueMap)) {
+            collect(compiledSelection.selections, parentType, typename, fields)
+          }
+        }
+      }
+    }
+  }
+
+  private fun collectAndMergeSameDirectives(
+      selections: List<CompiledSelection>,
+      parentType: String,
+      typename: String?,
+  ): List<CompiledField> {
+    val fields = mutableListOf<CompiledField>()
+    collect(selections, parentType, typename, fields)
+    return fields.groupBy { (it.responseName) to it.condition }.values.map {
+      it.first().newBuilder().selections(it.flatMap { it.selections }).build()
+    }
+  }
+}
+
+/**
+ * The [ReadPlan]s of the last reads, so that they can be reused by the next reads of the same operations.
+ *
+ * Each ApolloStore has its own cache so that the plans, and the variables they hold, are released with the store.
+ *
+ * @param maxPlans the number of plans to keep. Each operation and set of variables has its own plan.
+ */
+@ApolloInternal
+class ReadPlanCache(maxPlans: Int = 100) {
+  /**
+   * [rootSelections] is compared by identity like the selections of [ReadPlan]
+   */
+  private class PlanKey(
+      val rootSelections: List<CompiledSelection>,
+      val rootTypename: String,
+      val variables: Map<String, Any?>,
+  ) {
+    override fun equals(other: Any?): Boolean {
+      return other is PlanKey && other.rootSelections === rootSelections && other.rootTypename == rootTypename && other.variables == variables
+    }
+
+    override fun hashCode(): Int {
+      return 31 * (31 * rootSelections.size + rootTypename.hashCode()) + variables.hashCode()
+    }
+  }
+
+  private val lock = CacheLock()
+  private val plans = LruCache<PlanKey, ReadPlan>(maxPlans)
+
+  internal fun get(rootSelections: List<CompiledSelection>, rootTypename: String, variables: Executable.Variables): ReadPlan {
+    val key = PlanKey(rootSelections, rootTypename, variables.valueMap)
+    return lock.lock {
+      plans[key] ?: ReadPlan(variables).also {
+        plans[key] = it
+      }
+    }
+  }
+}
@@ -4,7 +4,7 @@ import com.apollographql.apollo.api.json.JsonNumber
 import com.apollographql.apollo.cache.normalized.api.CacheKey
 import com.apollographql.apollo.cache.normalized.api.Record
 import com.apollographql.apollo.cache.normalized.api.RecordValue
-import okio.internal.commonAsUtf8ToByteArray
+import okio.utf8Size
 import kotlin.jvm.JvmStatic
 
 internal object RecordWeigher {
@@ -18,16 +18,32 @@ internal object RecordWeigher {
   private const val SIZE_OF_CACHE_KEY_OVERHEAD = 16
   private const val SIZE_OF_NULL = 4
 
+  /**
+   * Returns the change in size of a record when the value of one of its fields changes from [oldValue] to [newValue]
+   */
   @JvmStatic
   fun byteChange(newValue: Any?, oldValue: Any?): Int {
     return weighField(newValue) - weighField(oldValue)
   }
 
+  /**
+   * Returns the size of a field, including its key
+   */
+  @JvmStatic
+  fun fieldBytes(key: String, value: Any?): Int {
+    return key.utf8Length() + weighField(value)
+  }
+
   @JvmStatic
   fun calculateBytes(record: Record): Int {
-    var size = SIZE_OF_RECORD_OVERHEAD + record.key.commonAsUtf8ToByteArray().size
-    for ((key, value) in record.fields) {
-      size += key.commonAsUtf8ToByteArray().size + weighField(value)
+    var size = SIZE_OF_RECORD_OVERHEAD + record.key.utf8Length()
+    val fields = record.fields
+    if (fields is CompactRecordFields) {
+      // Weighing the values would decode all of them
+      return size + fields.sizeInBytes
+    }
+    for ((key, value) in fields) {
+      size += fieldBytes(key, value)
     }
     return size
   }
@@ -35,12 +51,12 @@ internal object RecordWeigher {
   private fun weighField(field: RecordValue): Int {
     return when (field) {
       null -> SIZE_OF_NULL
-      is String -> field.commonAsUtf8ToByteArray().size
+      is String -> field.utf8Length()
       is Boolean -> SIZE_OF_BOOLEAN
       is Int -> SIZE_OF_INT
       is Long -> SIZE_OF_LONG // Might happen with LongDataAdapter
       is Double -> SIZE_OF_DOUBLE
-      is JsonNumber -> field.value.commonAsUtf8ToByteArray().size + SIZE_OF_LONG
+      is JsonNumber -> field.value.utf8Length() + SIZE_OF_LONG
       /**
        * Custom scalars with a json object representation are stored directly in the record
        */
@@ -53,10 +69,15 @@ internal object RecordWeigher {
       }
 
       is CacheKey -> {
-        SIZE_OF_CACHE_KEY_OVERHEAD + field.key.commonAsUtf8ToByteArray().size
+        SIZE_OF_CACHE_KEY_OVERHEAD + field.key.utf8Length()
       }
 
       else -> error("Unknown field type in Record: '$field'")
     }
   }
 }
+
+/**
+ * Returns the length of the UTF-8 encoding of this string, without encoding it
+ */
+internal fun String.utf8Length(): Int = utf8Size().toInt()
@@ -0,0 +1,149 @@
+package com.apollographql.apollo.cache.normalized
+
+import com.apollographql.apollo.api.json.JsonNumber
+import com.apollographql.apollo.cache.normalized.api.CacheKey
+import com.apollographql.apollo.cache.normalized.api.Record
+import com.apollographql.apollo.cache.normalized.api.internal.CompactRecordSerializer
+import com.apollographql.apollo.cache.normalized.api.internal.FieldNameTable
+import com.apollographql.apollo.cache.normalized.api.internal.JsonRecordSerializer
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertFalse
+import kotlin.test.assertTrue
+
+class CompactRecordSerializerTest {
+  private val record = Record(
+      key = "root",
+      fields = mapOf(
+          "double" to 1.23,
+          "string" to "StringValue",
+          "unicode" to "é中😀",
+          "boolean" to true,
+          "int" to -42,
+          "long" to Long.MAX_VALUE,
+          "cacheReference" to CacheKey("foo"),
+          "referenceList" to listOf(CacheKey("bar"), CacheKey("baz")),
+          "nullValue" to null,
+          "listOfScalarList" to listOf(listOf("scalarOne", "scalarTwo")),
+          "map" to mapOf("foo" to "bar", "nested" to mapOf("baz" to CacheKey("qux"))),
+      )
+  )
+
+  @Test
+  fun roundTrip() {
+    val serializer = CompactRecordSerializer(FieldNameTable())
+
+    val deserialized = serializer.deserialize(record.key, serializer.serialize(record))
+
+    // Unlike JsonRecordSerializer, the exact types are preserved
+    assertEquals(record.fields, deserialized.fields)
+    assertEquals(record.key, deserialized.key)
+  }
+
+  @Test
+  fun jsonNumber() {
+    val serializer = CompactRecordSerializer(FieldNameTable())
+    val bytes = serializer.serialize(Record(key = "root", fields = mapOf("jsonNumber" to JsonNumber("12345678901234567890"))))
+
+    val deserialized = serializer.deserialize("root", bytes)
+
+    assertEquals("12345678901234567890", (deserialized["jsonNumber"] as JsonNumber).value)
+  }
+
+  @Test
+  fun datesArePreserved() {
+    val serializer = CompactRecordSerializer(FieldNameTable())
+    val recordWithDates = Record(
+        key = "root",
+        fields = mapOf("a" to 1, "b" to 2),
+        mutationId = null,
+        date = mapOf("a" to 12L, "b" to null),
+    )
+
+    val deserialized = serializer.deserialize(recordWithDates.key, serializer.serialize(recordWithDates))
+
+    assertEquals(recordWithDates.date, deserialized.date)
+  }
+
+  @Test
+  fun fieldNamesAreShared() {
+    val newNames = mutableMapOf<Int, String>()
+    val serializer = CompactRecordSerializer(FieldNameTable { id, name -> newNames[id] = name })
+
+    serializer.serialize(record)
+    val size = newNames.size
+    serializer.serialize(Record(key = "other", fields = mapOf("string" to "otherValue")))
+
+    assertEquals(record.fields.size, size)
+    assertEquals(size, newNames.size)
+
+    // A new table loaded from the persisted names can read the bytes
+    val bytes = serializer.serialize(record)
+    val otherSerializer = CompactRecordSerializer(FieldNameTable().apply { load(newNames) })
+    assertEquals(record.fields, otherSerializer.deserialize(record.key, bytes).fields)
+  }
+
+  @Test
+  fun fieldsAreDecodedLazily() {
+    val serializer = CompactRecordSerializer(FieldNameTable().apply { load(mapOf(0 to "a", 1 to "b")) })
+    val bytes = byteArrayOf(
+        2, // version
+        0, // flags
+        2, // field count
+        0, 3, // "a", 3 bytes
+        1, 1, // "b", 1 byte
+        6, 1, 'x'.code.toByte(), // "x"
+        99, // invalid tag
+    )
+
+    val record = serializer.deserialize("root", bytes)
+
+    assertEquals(setOf("a", "b"), record.keys)
+    assertTrue(record.containsKey("b"))
+    // Weighing the record doesn't decode the values either
+    assertTrue(record.sizeInBytes > 0)
+    assertEquals("x", record["a"])
+    assertFailsWith<IllegalStateException> {
+      record["b"]
+    }
+  }
+
+  @Test
+  fun wideRecordLookups() {
+    val serializer = CompactRecordSerializer(FieldNameTable())
+    // "Aa", "BB" and "C#" have the same hash code
+    val fields = (0 until 200).associate { "field$it" to it } + mapOf("Aa" to "a", "BB" to "b")
+
+    val deserialized = serializer.deserialize("root", serializer.serialize(Record(key = "root", fields = fields)))
+
+    for ((name, value) in fields) {
+      assertEquals(value, deserialized[name])
+    }
+    assertFalse(deserialized.containsKey("field200"))
+    assertFalse(deserialized.containsKey("C#"))
+  }
+
+  @Test
+  fun unsupportedVersion() {
+    val serializer = CompactRecordSerializer(FieldNameTable().apply { load(mapOf(0 to "a")) })
+    val bytes = byteArrayOf(
+        1, // version
+        0, // flags
+        1, // field count
+        0, 6, 1, 'x'.code.toByte(), // "a": "x"
+    )
+
+    assertFailsWith<IllegalStateException> {
+      serializer.deserialize("root", bytes)
+    }
+  }
+
+  @Test
+  fun smallerThanJson() {
+    val serializer = CompactRecordSerializer(FieldNameTable())
+    val bytes = serializer.serialize(record)
+
+    assertTrue(bytes.size < JsonRecordSerializer.serialize(record).encodeToByteArray().size)
+  }
+}
@@ -0,0 +1,236 @@
+package com.apollographql.apollo.cache.normalized
+
+import com.apollographql.apollo.cache.normalized.api.ApolloCacheHeaders
+import com.apollographql.apollo.cache.normalized.api.CacheHeaders
+import com.apollographql.apollo.cache.normalized.api.CacheKey
+import com.apollographql.apollo.cache.normalized.api.ConcurrentMemoryCache
+import com.apollographql.apollo.cache.normalized.api.MemoryCache
+import com.apollographql.apollo.cache.normalized.api.Record
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertNotNull
+import kotlin.test.assertNull
+import kotlin.test.assertTrue
+
+class ConcurrentMemoryCacheTest {
+  @Test
+  fun testSaveAndLoad_multipleRecord_readMultiple() {
+    val cache = createCache()
+    val records = (0 until 100).map { createTestRecord("$it") }
+    cache.merge(records, CacheHeaders.NONE)
+
+    val readRecords = cache.loadRecords(records.map { it.key }, CacheHeaders.NONE)
+    assertEquals(records.size, readRecords.size)
+    assertTrue(readRecords.containsAll(records))
+    assertEquals(records.size, cache.recordCount())
+  }
+
+  @Test
+  fun testLoad_recordNotPresent() {
+    val cache = createCache()
+    assertNull(cache.loadRecord("key1", CacheHeaders.NONE))
+    assertTrue(cache.loadRecords(listOf("key1", "key2"), CacheHeaders.NONE).isEmpty())
+  }
+
+  @Test
+  fun testMerge_changedKeys() {
+    val cache = createCache()
+    val testRecord = createTestRecord("1")
+    assertEquals(setOf("key1.field1", "key1.field2"), cache.merge(testRecord, CacheHeaders.NONE))
+
+    val updatedRecord = Record(
+        key = testRecord.key,
+        fields = testRecord.fields + ("field2" to "newValue")
+    )
+    assertEquals(setOf("key1.field2"), cache.merge(updatedRecord, CacheHeaders.NONE))
+    assertEquals("newValue", cache.loadRecord(testRecord.key, CacheHeaders.NONE)?.get("field2"))
+  }
+
+  @Test
+  fun testEviction_singleSegment() {
+    val testRecord1 = createTestRecord("1")
+    val testRecord2 = createTestRecord("2")
+    val testRecord3 = createTestRecord("3")
+
+    // With a single segment, eviction is strictly LRU
+    val cache = createCache(maxSizeBytes = 200, concurrencyLevel = 1)
+    cache.merge(listOf(testRecord1, testRecord2, testRecord3), CacheHeaders.NONE)
+
+    assertNull(cache.loadRecord(testRecord1.key, CacheHeaders.NONE))
+    assertNotNull(cache.loadRecord(testRecord3.key, CacheHeaders.NONE))
+  }
+
+  @Test
+  fun testExpiresImmediately() {
+    val testRecord = createTestRecord("")
+    val cache = createCache(expireAfterMillis = 0)
+    cache.merge(testRecord, CacheHeaders.NONE)
+
+    assertNull(cache.loadRecord(testRecord.key, CacheHeaders.NONE))
+  }
+
+  @Test
+  fun testDualCache_readFromNext() {
+    val secondaryCache = MemoryCache()
+    val primaryCache = createCache().chain(secondaryCache) as ConcurrentMemoryCache
+
+    val testRecord1 = createTestRecord("1")
+    val testRecord2 = createTestRecord("2")
+    primaryCache.merge(listOf(testRecord1, testRecord2), CacheHeaders.NONE)
+    assertEquals(2, secondaryCache.dump()[MemoryCache::class]!!.size)
+
+    primaryCache.clearCurrentCache()
+    assertEquals(0, primaryCache.size)
+
+    assertEquals(testRecord1.fields, primaryCache.loadRecord(testRecord1.key, CacheHeaders.NONE)?.fields)
+    assertEquals(2, primaryCache.loadRecords(listOf(testRecord1.key, testRecord2.key), CacheHeaders.NONE).size)
+    assertEquals(2, primaryCache.recordCount())
+  }
+
+  @Test
+  fun testHeader_evictAfterRead() {
+    val cache = createCache()
+    val testRecord = createTestRecord("1")
+
+    cache.merge(testRecord, CacheHeaders.NONE)
+
+    val headers = CacheHeaders.builder().addHeader(ApolloCacheHeaders.EVICT_AFTER_READ, "true").build()
+
+    assertNotNull(cache.loadRecord(testRecord.key, headers))
+    assertNull(cache.loadRecord(testRecord.key, headers))
+  }
+
+  @Test
+  fun testHeader_noCache() {
+    val cache = createCache()
+    val testRecord = createTestRecord("1")
+
+    val headers = CacheHeaders.builder().addHeader(ApolloCacheHeaders.DO_NOT_STORE, "true").build()
+
+    cache.merge(testRecord, headers)
+
+    assertNull(cache.loadRecord(testRecord.key, headers))
+  }
+
+  @Test
+  fun testDump() {
+    val cache = createCache()
+    val records = (0 until 10).map { createTestRecord("$it") }
+    cache.merge(records, CacheHeaders.NONE)
+
+    val dump = cache.dump()[ConcurrentMemoryCache::class]!!
+    assertEquals(records.associateBy { it.key }, dump)
+  }
+
+  @Test
+  fun testRemove_cascadeTrue() {
+    val cache = createCache()
+
+    val record1 = Record(
+        key = "id_1",
+        fields = mapOf(
+            "a" to "stringValueA",
+            "b" to "stringValueB"
+        )
+    )
+
+    val record2 = Record(
+        key = "id_2",
+        fields = mapOf(
+            "a" to CacheKey("id_1"),
+        )
+    )
+
+    cache.merge(listOf(record1, record2), CacheHeaders.NONE)
+
+    assertTrue(cache.remove(CacheKey(record2.key), cascade = true))
+    assertNull(cache.loadRecord(record1.key, CacheHeaders.NONE))
+  }
+
+  @Test
+  fun testRemove_pattern() {
+    val cache = createCache()
+    cache.merge((0 until 20).map { createTestRecord("$it") }, CacheHeaders.NONE)
+
+    assertEquals(11, cache.remove("key1%"))
+    assertEquals(9, cache.recordCount())
+  }
+
+  @Test
+  fun testInvalidConcurrencyLevel() {
+    assertFailsWith<IllegalArgumentException> {
+      createCache(concurrencyLevel = 0)
+    }
+  }
+
+  @Test
+  fun testGarbageCollect() {
+    val cache = createCache()
+    cache.merge(
+        listOf(
+            Record(CacheKey.rootKey().key, mapOf("hero" to CacheKey("hero"))),
+            Record("hero", mapOf("friends" to listOf(CacheKey("friend")))),
+            Record("friend", mapOf("friends" to listOf(CacheKey("hero")))),
+            Record("orphan", mapOf("friends" to listOf(CacheKey("hero")))),
+        ),
+        CacheHeaders.NONE
+    )
+
+    assertEquals(1, cache.garbageCollect())
+    assertNull(cache.loadRecord("orphan", CacheHeaders.NONE))
+    assertNotNull(cache.loadRecord("hero", CacheHeaders.NONE))
+    assertNotNull(cache.loadRecord("friend", CacheHeaders.NONE))
+    assertEquals(0, cache.garbageCollect())
+  }
+
+  @Test
+  fun testRemoveByPrefix() {
+    val cache = createCache()
+    cache.merge(
+        listOf(
+            Record("Product:1", mapOf("name" to "a")),
+            Record("Product:2", mapOf("name" to "b")),
+            Record("product:3", mapOf("name" to "c")),
+            Record("ProductList:1", mapOf("name" to "d")),
+            Record("Products", mapOf("name" to "e")),
+        ),
+        CacheHeaders.NONE
+    )
+
+    assertEquals(2, cache.removeByTypename("Product"))
+    assertNull(cache.loadRecord("Product:1", CacheHeaders.NONE))
+    assertNull(cache.loadRecord("Product:2", CacheHeaders.NONE))
+    assertNotNull(cache.loadRecord("product:3", CacheHeaders.NONE))
+
+    assertEquals(2, cache.removeByPrefix("Product"))
+    assertNull(cache.loadRecord("ProductList:1", CacheHeaders.NONE))
+    assertNull(cache.loadRecord("Products", CacheHeaders.NONE))
+
+    // Removed records can be added again
+    cache.merge(Record("Product:1", mapOf("name" to "a")), CacheHeaders.NONE)
+    assertEquals(1, cache.removeByPrefix("Product:"))
+  }
+
+  private fun createCache(
+      maxSizeBytes: Int = 100 * 1024,
+      expireAfterMillis: Long = -1,
+      concurrencyLevel: Int = 4,
+  ): ConcurrentMemoryCache {
+    return ConcurrentMemoryCache(maxSizeBytes = maxSizeBytes, expireAfterMillis = expireAfterMillis, concurrencyLevel = concurrencyLevel)
+  }
+
+  private fun ConcurrentMemoryCache.recordCount(): Int {
+    return dump()[ConcurrentMemoryCache::class]!!.size
+  }
+
+  private fun createTestRecord(id: String): Record {
+    return Record(
+        key = "key$id",
+        fields = mapOf(
+            "field1" to "stringValueA$id",
+            "field2" to "stringValueB$id"
+        )
+    )
+  }
+}
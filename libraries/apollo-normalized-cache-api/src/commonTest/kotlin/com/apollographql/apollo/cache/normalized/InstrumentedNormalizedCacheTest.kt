@@ -0,0 +1,94 @@
+package com.apollographql.apollo.cache.normalized
+
+import com.apollographql.apollo.cache.normalized.api.CacheHeaders
+import com.apollographql.apollo.cache.normalized.api.InstrumentedNormalizedCacheFactory
+import com.apollographql.apollo.cache.normalized.api.MemoryCache
+import com.apollographql.apollo.cache.normalized.api.MemoryCacheFactory
+import com.apollographql.apollo.cache.normalized.api.NormalizedCacheMetrics
+import com.apollographql.apollo.cache.normalized.api.Record
+import com.apollographql.apollo.cache.normalized.api.layers
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertNotNull
+import kotlin.test.assertTrue
+
+class InstrumentedNormalizedCacheTest {
+  private class CountingMetrics : NormalizedCacheMetrics {
+    val requested = mutableMapOf<String, Int>()
+    val found = mutableMapOf<String, Int>()
+    val merged = mutableMapOf<String, Int>()
+    val evicted = mutableListOf<String>()
+
+    override fun onRecordsLoaded(cacheName: String, requested: Int, found: Int, durationNanos: Long) {
+      this.requested[cacheName] = this.requested.getOrElse(cacheName) { 0 } + requested
+      this.found[cacheName] = this.found.getOrElse(cacheName) { 0 } + found
+    }
+
+    override fun onRecordsMerged(cacheName: String, records: Int, sizeInBytes: Long, changedKeys: Int, durationNanos: Long) {
+      merged[cacheName] = merged.getOrElse(cacheName) { 0 } + records
+    }
+
+    override fun onRecordEvicted(cacheName: String, key: String, sizeInBytes: Int) {
+      evicted.add("$cacheName:$key")
+    }
+  }
+
+  private fun record(id: String) = Record("key$id", mapOf("field1" to "stringValueA$id", "field2" to "stringValueB$id"))
+
+  @Test
+  fun eachLayerReportsItsLoads() {
+    val metrics = CountingMetrics()
+    val cache = InstrumentedNormalizedCacheFactory(MemoryCacheFactory(), metrics, "memory")
+        .chain(InstrumentedNormalizedCacheFactory(MemoryCacheFactory(), metrics, "second"))
+        .createChain()
+
+    cache.merge(listOf(record("1"), record("2")), CacheHeaders.NONE)
+    assertEquals(2, metrics.merged["memory"])
+    assertEquals(2, metrics.merged["second"])
+
+    // Only in the second layer
+    cache.nextCache!!.merge(record("3"), CacheHeaders.NONE)
+    // Merges load the existing records
+    metrics.requested.clear()
+    metrics.found.clear()
+
+    val records = cache.loadRecords(listOf("key1", "key3", "key4"), CacheHeaders.NONE)
+    assertEquals(setOf("key1", "key3"), records.map { it.key }.toSet())
+
+    assertEquals(3, metrics.requested["memory"])
+    assertEquals(2, metrics.found["memory"])
+    // The second layer is only asked for the misses of the first one
+    assertEquals(2, metrics.requested["second"])
+    assertEquals(1, metrics.found["second"])
+
+    // key3 was copied to the first layer
+    assertNotNull(cache.loadRecord("key3", CacheHeaders.NONE))
+    assertEquals(2, metrics.requested["second"])
+  }
+
+  @Test
+  fun evictionsAreReported() {
+    val metrics = CountingMetrics()
+    val cache = InstrumentedNormalizedCacheFactory(MemoryCacheFactory(maxSizeBytes = 200), metrics).createChain()
+
+    cache.merge(listOf(record("1"), record("2"), record("3")), CacheHeaders.NONE)
+
+    assertEquals("MemoryCache:key1", metrics.evicted.first())
+  }
+
+  @Test
+  fun layersAreUnwrapped() {
+    val metrics = CountingMetrics()
+    val cache = InstrumentedNormalizedCacheFactory(MemoryCacheFactory(), metrics, "memory")
+        .chain(InstrumentedNormalizedCacheFactory(MemoryCacheFactory(), metrics, "second"))
+        .createChain()
+
+    val layers = cache.layers().toList()
+    assertEquals(2, layers.size)
+    assertTrue(layers.all { it is MemoryCache })
+
+    // The layers are linked to each other
+    cache.merge(record("1"), CacheHeaders.NONE)
+    assertNotNull(layers[1].loadRecord("key1", CacheHeaders.NONE))
+  }
+}
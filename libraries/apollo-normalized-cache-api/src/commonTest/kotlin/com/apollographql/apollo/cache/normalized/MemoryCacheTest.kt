@@ -4,8 +4,10 @@ import com.apollographql.apollo.cache.normalized.api.ApolloCacheHeaders
 import com.apollographql.apollo.cache.normalized.api.CacheHeaders
 import com.apollographql.apollo.cache.normalized.api.CacheKey
 import com.apollographql.apollo.cache.normalized.api.MemoryCache
+import com.apollographql.apollo.cache.normalized.api.MemoryCacheSnapshot
 import com.apollographql.apollo.cache.normalized.api.NormalizedCache
 import com.apollographql.apollo.cache.normalized.api.Record
+import kotlin.reflect.KClass
 import kotlin.test.Test
 import kotlin.test.assertEquals
 import kotlin.test.assertNotNull
@@ -284,11 +286,168 @@ class MemoryCacheTest {
     assertNull(lruCache.loadRecord(record1.key, CacheHeaders.NONE))
   }
 
+  @Test
+  fun testGarbageCollect() {
+    val cache = createCache()
+    cache.merge(
+        listOf(
+            Record(CacheKey.rootKey().key, mapOf("hero" to CacheKey("hero"))),
+            Record("hero", mapOf("friends" to listOf(CacheKey("friend")))),
+            Record("friend", mapOf("friends" to listOf(CacheKey("hero")))),
+            Record("orphan", mapOf("friends" to listOf(CacheKey("hero")))),
+        ),
+        CacheHeaders.NONE
+    )
+
+    assertEquals(1, cache.garbageCollect())
+    assertNull(cache.loadRecord("orphan", CacheHeaders.NONE))
+    assertNotNull(cache.loadRecord("hero", CacheHeaders.NONE))
+    assertNotNull(cache.loadRecord("friend", CacheHeaders.NONE))
+    assertEquals(0, cache.garbageCollect())
+  }
+
+  @Test
+  fun testGarbageCollectWithoutTheRootRecord() {
+    val records = listOf(
+        Record("hero", mapOf("friends" to listOf(CacheKey("friend")))),
+        Record("friend", mapOf("friends" to listOf(CacheKey("hero")))),
+        Record("orphan", mapOf("friends" to listOf(CacheKey("hero")))),
+    )
+    val root = Record(CacheKey.rootKey().key, mapOf("hero" to CacheKey("hero")))
+
+    // The root record is nowhere: nothing can be traced, nothing is removed
+    val cache = createCache()
+    cache.merge(records, CacheHeaders.NONE)
+    assertEquals(0, cache.garbageCollect())
+    assertNotNull(cache.loadRecord("orphan", CacheHeaders.NONE))
+
+    // The root record is only in the next cache, e.g. after it has been evicted from the memory cache
+    val nextCache = MemoryCache()
+    val chainedCache = createCache().chain(nextCache)
+    chainedCache.merge(records, CacheHeaders.NONE)
+    nextCache.merge(root, CacheHeaders.NONE)
+    assertEquals(2, chainedCache.garbageCollect())
+    assertNotNull(chainedCache.loadRecord("hero", CacheHeaders.NONE))
+    assertNotNull(chainedCache.loadRecord("friend", CacheHeaders.NONE))
+    assertNull(chainedCache.loadRecord("orphan", CacheHeaders.NONE))
+  }
+
+  @Test
+  fun testRemoveByPrefix() {
+    val cache = createCache()
+    cache.merge(
+        listOf(
+            Record("Product:1", mapOf("name" to "a")),
+            Record("Product:2", mapOf("name" to "b")),
+            Record("product:3", mapOf("name" to "c")),
+            Record("ProductList:1", mapOf("name" to "d")),
+            Record("Products", mapOf("name" to "e")),
+        ),
+        CacheHeaders.NONE
+    )
+
+    assertEquals(2, cache.removeByTypename("Product"))
+    assertNull(cache.loadRecord("Product:1", CacheHeaders.NONE))
+    assertNull(cache.loadRecord("Product:2", CacheHeaders.NONE))
+    assertNotNull(cache.loadRecord("product:3", CacheHeaders.NONE))
+
+    assertEquals(2, cache.removeByPrefix("Product"))
+    assertNull(cache.loadRecord("ProductList:1", CacheHeaders.NONE))
+    assertNull(cache.loadRecord("Products", CacheHeaders.NONE))
+
+    // Removed records can be added again
+    cache.merge(Record("Product:1", mapOf("name" to "a")), CacheHeaders.NONE)
+    assertEquals(1, cache.removeByPrefix("Product:"))
+  }
+
+  @Test
+  fun testEvictExpiredEagerly() {
+    val lazyCache = createCache(expireAfterMillis = 0)
+    val eagerCache = createCache(expireAfterMillis = 0, evictExpiredEagerly = true)
+    for (cache in listOf(lazyCache, eagerCache)) {
+      cache.merge(createTestRecord("1"), CacheHeaders.NONE)
+      cache.merge(createTestRecord("2"), CacheHeaders.NONE)
+    }
+
+    // Expired entries are only removed when read
+    assertEquals(setOf("key1", "key2"), lazyCache.dump().values.single().keys)
+    // The second merge evicted the first record
+    assertEquals(setOf("key2"), eagerCache.dump().values.single().keys)
+  }
+
+  @Test
+  fun testSnapshot() {
+    val snapshot = object : MemoryCacheSnapshot {
+      var keys = emptyList<String>()
+      override fun readKeys() = keys
+      override fun writeKeys(keys: List<String>) {
+        this.keys = keys
+      }
+    }
+    val cache = MemoryCache(snapshot = snapshot, snapshotMaxRecords = 2)
+    cache.merge(listOf(createTestRecord("1"), createTestRecord("2"), createTestRecord("3")), CacheHeaders.NONE)
+    cache.loadRecord("key1", CacheHeaders.NONE)
+    cache.saveSnapshot()
+    // The most recently used first
+    assertEquals(listOf("key1", "key3"), snapshot.keys)
+
+    // After a restart
+    val persistentCache = MemoryCache()
+    persistentCache.merge(listOf(createTestRecord("1"), createTestRecord("2"), createTestRecord("3")), CacheHeaders.NONE)
+    val restartedCache = MemoryCache(snapshot = snapshot).chain(persistentCache) as MemoryCache
+    restartedCache.merge(createTestRecord("4"), CacheHeaders.NONE)
+
+    assertEquals(2, restartedCache.preloadSnapshot())
+    restartedCache.saveSnapshot()
+    // The preloaded records are less recently used than the records used since the restart
+    assertEquals(listOf("key4", "key1", "key3"), snapshot.keys)
+  }
+
+  @Test
+  fun testPreloadSkipsTheRecordsWrittenWhileTheyAreRead() {
+    val snapshot = object : MemoryCacheSnapshot {
+      override fun readKeys() = listOf("key1")
+      override fun writeKeys(keys: List<String>) {}
+    }
+    val oldRecord = Record(key = "key1", fields = mapOf("field" to "a"))
+    val newRecord = Record(key = "key1", fields = mapOf("field" to "b".repeat(100)))
+    val otherRecord = Record(key = "key2", fields = mapOf("field" to "c".repeat(50)))
+    // Fits oldRecord and otherRecord but not newRecord and otherRecord
+    val maxSizeBytes = MemoryCache().apply { merge(listOf(oldRecord, otherRecord), CacheHeaders.NONE) }.size
+
+    lateinit var cache: MemoryCache
+    val nextCache = SnapshotNormalizedCache(listOf(oldRecord)) {
+      // key1 is updated then evicted while the batch is read
+      cache.merge(newRecord, CacheHeaders.NONE)
+      cache.merge(otherRecord, CacheHeaders.NONE)
+    }
+    cache = MemoryCache(maxSizeBytes = maxSizeBytes, snapshot = snapshot).chain(nextCache) as MemoryCache
+
+    // Without the check, the stale oldRecord would be added back
+    assertEquals(0, cache.preloadSnapshot())
+    assertNull(cache.loadRecord("key1", CacheHeaders.NONE))
+  }
+
+  /**
+   * A next cache that returns [records] from [loadRecords], after calling [onLoad], and is otherwise empty
+   */
+  private class SnapshotNormalizedCache(private val records: List<Record>, private val onLoad: () -> Unit) : NormalizedCache() {
+    override fun loadRecord(key: String, cacheHeaders: CacheHeaders): Record? = null
+    override fun loadRecords(keys: Collection<String>, cacheHeaders: CacheHeaders): Collection<Record> = records.also { onLoad() }
+    override fun merge(record: Record, cacheHeaders: CacheHeaders): Set<String> = emptySet()
+    override fun merge(records: Collection<Record>, cacheHeaders: CacheHeaders): Set<String> = emptySet()
+    override fun clearAll() {}
+    override fun remove(cacheKey: CacheKey, cascade: Boolean): Boolean = false
+    override fun remove(pattern: String): Int = 0
+    override fun dump(): Map<KClass<*>, Map<String, Record>> = emptyMap()
+  }
+
   private fun createCache(
       maxSizeBytes: Int = 10 * 1024,
       expireAfterMillis: Long = -1,
+      evictExpiredEagerly: Boolean = false,
   ): MemoryCache {
-    return MemoryCache(maxSizeBytes = maxSizeBytes, expireAfterMillis = expireAfterMillis)
+    return MemoryCache(maxSizeBytes = maxSizeBytes, expireAfterMillis = expireAfterMillis, evictExpiredEagerly = evictExpiredEagerly)
   }
 
   private fun assertTestRecordPresentAndAccurate(testRecord: Record, store: NormalizedCache) {
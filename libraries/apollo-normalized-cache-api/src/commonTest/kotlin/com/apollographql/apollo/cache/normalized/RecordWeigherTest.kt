@@ -4,6 +4,7 @@ import com.apollographql.apollo.api.json.JsonNumber
 import com.apollographql.apollo.cache.normalized.api.CacheKey
 import com.apollographql.apollo.cache.normalized.api.Record
 import kotlin.test.Test
+import kotlin.test.assertEquals
 import kotlin.test.assertTrue
 
 class RecordWeigherTest {
@@ -35,4 +36,32 @@ class RecordWeigherTest {
     assertTrue(record.sizeInBytes <= 246)
     assertTrue(record.sizeInBytes >= 242) // JS takes less space, maybe for strings?
   }
+
+  @Test
+  fun testMergedRecordWeight() {
+    val record = Record(
+        key = "root",
+        fields = mapOf(
+            "string" to "StringValue",
+            "list" to listOf("é", CacheKey("foo")),
+            "null" to null,
+        )
+    )
+    // Weigh the record so that the merge computes the size of the merged record incrementally
+    assertTrue(record.sizeInBytes > 0)
+    val (mergedRecord, _) = record.mergeWith(
+        Record(
+            key = "root",
+            fields = mapOf(
+                "string" to "Another value with a multi-byte character: ü",
+                "null" to 42,
+                "new" to mapOf("a" to 1.5),
+            )
+        ),
+        newDate = 1000L
+    )
+
+    val freshRecord = Record(mergedRecord.key, mergedRecord.fields, mergedRecord.mutationId, mergedRecord.date!!)
+    assertEquals(freshRecord.sizeInBytes, mergedRecord.sizeInBytes)
+  }
 }
@@ -0,0 +1,65 @@
+package com.apollographql.apollo.cache.normalized.internal
+
+import com.apollographql.apollo.api.json.JsonReader
+import com.apollographql.apollo.api.json.readAny
+import com.apollographql.apollo.cache.normalized.api.CacheKey
+import com.apollographql.apollo.cache.normalized.api.internal.cacheDataJsonReader
+import kotlin.test.Test
+import kotlin.test.assertEquals
+
+class CacheDataJsonReaderTest {
+  private val objects = mapOf(
+      emptyList<Any>() to mapOf(
+          "hero" to CacheKey("Character:1"),
+      ),
+      listOf("hero") to mapOf(
+          "name" to "R2-D2",
+          "appearsIn" to listOf("NEWHOPE", "EMPIRE"),
+          "friends" to listOf(CacheKey("Character:2"), null),
+          "location" to mapOf("planet" to CacheKey("Planet:1")),
+      ),
+      listOf("hero", "friends", 0) to mapOf(
+          "name" to "Luke",
+          "height" to 1.72,
+      ),
+      listOf("hero", "location", "planet") to mapOf(
+          "name" to "Tatooine",
+      ),
+  )
+
+  @Test
+  fun cacheKeysAreReplacedByTheirObject() {
+    assertEquals(
+        mapOf(
+            "hero" to mapOf(
+                "name" to "R2-D2",
+                "appearsIn" to listOf("NEWHOPE", "EMPIRE"),
+                "friends" to listOf(mapOf("name" to "Luke", "height" to 1.72), null),
+                "location" to mapOf("planet" to mapOf("name" to "Tatooine")),
+            ),
+        ),
+        cacheDataJsonReader(objects).readAny()
+    )
+  }
+
+  @Test
+  fun rewindAndPath() {
+    val reader = cacheDataJsonReader(objects)
+    reader.beginObject()
+    assertEquals("hero", reader.nextName())
+    reader.beginObject()
+    assertEquals(1, reader.selectName(listOf("appearsIn", "name")))
+    assertEquals("R2-D2", reader.nextString())
+    reader.rewind()
+    assertEquals(0, reader.selectName(listOf("friends")))
+    reader.beginArray()
+    reader.beginObject()
+    assertEquals(listOf<Any>("hero", "friends", 0), reader.getPath())
+    assertEquals("name", reader.nextName())
+    reader.skipValue()
+    assertEquals("height", reader.nextName())
+    assertEquals(1.72, reader.nextDouble())
+    reader.endObject()
+    assertEquals(JsonReader.Token.NULL, reader.peek())
+  }
+}
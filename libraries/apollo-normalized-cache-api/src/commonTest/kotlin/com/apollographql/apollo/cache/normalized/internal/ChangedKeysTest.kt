@@ -0,0 +1,69 @@
+package com.apollographql.apollo.cache.normalized.internal
+
+import com.apollographql.apollo.cache.normalized.api.Record
+import com.apollographql.apollo.cache.normalized.api.internal.ChangedKeys
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertSame
+import kotlin.test.assertTrue
+
+class ChangedKeysTest {
+  @Test
+  fun fieldKeys() {
+    val record = Record("hero.friends.0", mapOf("name" to "Luke", "age" to 42))
+    val keys = record.fieldKeys()
+
+    assertEquals(setOf("hero.friends.0.name", "hero.friends.0.age"), keys)
+    assertTrue(keys.contains("hero.friends.0.name"))
+    assertFalse(keys.contains("hero.friends.name"))
+    assertFalse(keys.contains("hero.friends.0"))
+  }
+
+  @Test
+  fun addAll() {
+    val keys = ChangedKeys()
+    val fields = setOf("name")
+    keys.addAll("1", fields)
+    keys.add("1", "age")
+    keys.addAll(setOf("2.name", "1.name"))
+    keys.addAll(Record("3", mapOf("name" to "Leia")).fieldKeys())
+
+    assertEquals(setOf("1.name", "1.age", "2.name", "3.name"), keys)
+    assertEquals(4, keys.size)
+    // The added sets are not modified
+    assertEquals(setOf("name"), fields)
+  }
+
+  @Test
+  fun addingKnownFieldKeysDoesNotCopy() {
+    val keys = ChangedKeys()
+    val fields = setOf("name", "age")
+    keys.addAll("1", fields)
+    keys.addAll("1", fields)
+    keys.addAll("1", setOf("age"))
+    keys.addAll(ChangedKeys().apply { addAll("1", fields) })
+
+    var fieldKeys: Set<String>? = null
+    keys.forEachRecord { _, recordFieldKeys -> fieldKeys = recordFieldKeys }
+    assertSame(fields, fieldKeys)
+    assertEquals(setOf("1.name", "1.age"), keys)
+  }
+
+  @Test
+  fun mergeWith() {
+    val record = Record("1", mapOf("name" to "Luke", "age" to 42))
+    val (_, changedKeys) = record.mergeWith(Record("1", mapOf("name" to "Luke", "age" to 43, "height" to 1.72)))
+
+    assertEquals(setOf("1.age", "1.height"), changedKeys)
+  }
+
+  @Test
+  fun empty() {
+    val keys = ChangedKeys()
+    keys.addAll("1", emptySet())
+
+    assertTrue(keys.isEmpty())
+    assertEquals(emptySet(), keys)
+  }
+}
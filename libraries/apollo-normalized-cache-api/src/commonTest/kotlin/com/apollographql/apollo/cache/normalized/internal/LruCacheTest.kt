@@ -133,6 +133,23 @@ class LruCacheTest {
     assertEquals(10, cache.size())
   }
 
+  @Test
+  fun replaceItemInCacheWithCustomWeigher() {
+    val cache = LruCache<String, String?>(12) { key, value ->
+      key.length + (value?.length ?: 0)
+    }
+
+    cache["key1"] = "value1"
+    cache["key1"] = "v"
+    assertEquals(5, cache.size())
+
+    // Replacing with a bigger value trims the cache
+    cache["key2"] = "v"
+    cache["key1"] = "value1"
+    assertEquals(10, cache.size())
+    assertEquals(mapOf<String, String?>("key1" to "value1"), cache.dump())
+  }
+
   @Test
   fun trimCacheWithCustomWeigher() {
     val cache = LruCache<String, String?>(12) { key, value ->
@@ -180,4 +197,18 @@ class LruCacheTest {
         cache.dump()
     )
   }
+
+  @Test
+  fun onRemove() {
+    val removed = mutableListOf<String>()
+    val cache = LruCache<String, String?>(2, onRemove = { removed.add(it) })
+
+    cache["key1"] = "value1"
+    cache["key2"] = "value2"
+    cache["key3"] = "value3"
+    cache.remove("key2")
+    cache.remove("unknown")
+
+    assertEquals(listOf("key1", "key2"), removed)
+  }
 }
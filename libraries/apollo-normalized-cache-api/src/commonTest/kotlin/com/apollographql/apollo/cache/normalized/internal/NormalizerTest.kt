@@ -0,0 +1,72 @@
+package com.apollographql.apollo.cache.normalized.internal
+
+import com.apollographql.apollo.api.CompiledField
+import com.apollographql.apollo.api.CustomScalarType
+import com.apollographql.apollo.api.Executable
+import com.apollographql.apollo.api.ObjectType
+import com.apollographql.apollo.api.list
+import com.apollographql.apollo.cache.normalized.api.CacheKey
+import com.apollographql.apollo.cache.normalized.api.CacheKeyGenerator
+import com.apollographql.apollo.cache.normalized.api.CacheKeyGeneratorContext
+import com.apollographql.apollo.cache.normalized.api.internal.Normalizer
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertNotSame
+import kotlin.test.assertSame
+
+class NormalizerTest {
+  private val stringType = CustomScalarType("String", "kotlin.String")
+  private val heroType = ObjectType.Builder(name = "Hero").build()
+  private val selections = listOf(
+      CompiledField.Builder(name = "heroes", type = heroType.list())
+          .selections(
+              listOf(
+                  CompiledField.Builder(name = "id", type = stringType).build(),
+                  CompiledField.Builder(name = "name", type = stringType).build(),
+              )
+          )
+          .build()
+  )
+
+  private val data = mapOf(
+      "heroes" to listOf(
+          mapOf("id" to "1", "name" to "Luke"),
+          mapOf("id" to "2", "name" to "Leia"),
+      )
+  )
+
+  private val cacheKeyGenerator = object : CacheKeyGenerator {
+    override fun cacheKeyForObject(obj: Map<String, Any?>, context: CacheKeyGeneratorContext): CacheKey {
+      return CacheKey("Hero", obj["id"] as String)
+    }
+  }
+
+  private fun normalizer() = Normalizer(Executable.Variables(emptyMap()), CacheKey.rootKey().key, cacheKeyGenerator)
+
+  @Test
+  fun fieldsAreReused() {
+    val normalizer = normalizer()
+    normalizer.normalize(data, selections, "Query")
+
+    val rootFields = normalizer.fieldsFor(selections, "Query", null)
+    assertSame(rootFields, normalizer.fieldsFor(selections, "Query", null))
+    // The objects of a list share the selections of their field
+    val heroSelections = rootFields.getValue("heroes").compiledField.selections
+    assertSame(normalizer.fieldsFor(heroSelections, "Hero", null), normalizer.fieldsFor(heroSelections, "Hero", null))
+    // Selections are compared by identity
+    assertNotSame(rootFields, normalizer.fieldsFor(selections.toList(), "Query", null))
+  }
+
+  @Test
+  fun reusedFieldsGiveTheSameRecords() {
+    val normalizer = normalizer()
+    normalizer.normalize(data, selections, "Query")
+
+    val records = normalizer.normalize(data, selections, "Query")
+
+    assertEquals(normalizer().normalize(data, selections, "Query").mapValues { it.value.fields }, records.mapValues { it.value.fields })
+    assertEquals(mapOf("heroes" to listOf(CacheKey("Hero:1"), CacheKey("Hero:2"))), records.getValue(CacheKey.rootKey().key).fields)
+    assertEquals(mapOf("id" to "1", "name" to "Luke"), records.getValue("Hero:1").fields)
+    assertEquals(mapOf("id" to "2", "name" to "Leia"), records.getValue("Hero:2").fields)
+  }
+}
@@ -0,0 +1,55 @@
+package com.apollographql.apollo.cache.normalized.internal
+
+import com.apollographql.apollo.api.CompiledCondition
+import com.apollographql.apollo.api.CompiledField
+import com.apollographql.apollo.api.CompiledFragment
+import com.apollographql.apollo.api.Executable
+import com.apollographql.apollo.api.ObjectType
+import com.apollographql.apollo.cache.normalized.api.internal.ReadPlanCache
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertNotSame
+import kotlin.test.assertSame
+
+class ReadPlanTest {
+  private val heroType = ObjectType.Builder(name = "Hero").build()
+  private val nameField = CompiledField.Builder(name = "name", type = heroType).build()
+  private val idField = CompiledField.Builder(name = "id", type = heroType).build()
+
+  private val selections = listOf(
+      CompiledField.Builder(name = "hero", type = heroType).selections(listOf(nameField)).build(),
+      CompiledFragment.Builder(typeCondition = "Droid", possibleTypes = listOf("Droid"))
+          .selections(listOf(CompiledField.Builder(name = "hero", type = heroType).selections(listOf(idField)).build()))
+          .build(),
+      CompiledFragment.Builder(typeCondition = "Human", possibleTypes = listOf("Human"))
+          .condition(listOf(CompiledCondition("withHuman", false)))
+          .selections(listOf(CompiledField.Builder(name = "human", type = heroType).build()))
+          .build(),
+  )
+
+  private val readPlanCache = ReadPlanCache()
+
+  @Test
+  fun fieldsAreMergedAndReused() {
+    val plan = readPlanCache.get(selections, "Query", Executable.Variables(emptyMap()))
+
+    val fields = plan.fields(selections, "Query", "Droid")
+    assertEquals(listOf("hero"), fields.map { it.responseName })
+    assertEquals(listOf(nameField, idField), fields.single().selections)
+
+    assertSame(fields, plan.fields(selections, "Query", "Droid"))
+    assertSame(plan, readPlanCache.get(selections, "Query", Executable.Variables(emptyMap())))
+    // Selections are compared by identity
+    assertNotSame(fields, plan.fields(selections.toList(), "Query", "Droid"))
+    assertNotSame(plan, readPlanCache.get(selections.toList(), "Query", Executable.Variables(emptyMap())))
+  }
+
+  @Test
+  fun variablesHaveTheirOwnPlan() {
+    val included = readPlanCache.get(selections, "Query", Executable.Variables(mapOf("withHuman" to true)))
+    val skipped = readPlanCache.get(selections, "Query", Executable.Variables(mapOf("withHuman" to false)))
+
+    assertEquals(listOf("hero", "human"), included.fields(selections, "Query", "Human").map { it.responseName })
+    assertEquals(listOf("hero"), skipped.fields(selections, "Query", "Human").map { it.responseName })
+  }
+}
@@ -0,0 +1,77 @@
+package com.apollographql.apollo.cache.normalized.api
+
+import com.apollographql.apollo.annotations.ApolloExperimental
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.IOException
+import java.nio.file.Files
+import java.nio.file.StandardCopyOption
+
+/**
+ * A [MemoryCacheSnapshot] stored in [file].
+ *
+ * The file is replaced atomically so that a crash while writing keeps the previous snapshot. A missing or unreadable file
+ * is an empty snapshot.
+ */
+@ApolloExperimental
+class FileMemoryCacheSnapshot(private val file: File) : MemoryCacheSnapshot {
+  override fun readKeys(): List<String> {
+    if (!file.exists()) {
+      return emptyList()
+    }
+    val fileSize = file.length()
+    return try {
+      DataInputStream(file.inputStream().buffered()).use { input ->
+        check(input.readInt() == VERSION) {
+          "Apollo: unknown snapshot version"
+        }
+        // Check the sizes against the file size so that a corrupted file doesn't allocate huge or negative arrays
+        val count = input.readInt()
+        check(count >= 0 && count <= (fileSize - HEADER_SIZE) / KEY_SIZE_SIZE) {
+          "Apollo: invalid snapshot key count '$count'"
+        }
+        List(count) {
+          val size = input.readInt()
+          check(size >= 0 && size <= fileSize) {
+            "Apollo: invalid snapshot key size '$size'"
+          }
+          val bytes = ByteArray(size)
+          input.readFully(bytes)
+          String(bytes, Charsets.UTF_8)
+        }
+      }
+    } catch (e: IOException) {
+      emptyList()
+    } catch (e: IllegalStateException) {
+      emptyList()
+    }
+  }
+
+  override fun writeKeys(keys: List<String>) {
+    file.parentFile?.mkdirs()
+    val tmp = File(file.path + ".tmp")
+    DataOutputStream(tmp.outputStream().buffered()).use { output ->
+      output.writeInt(VERSION)
+      output.writeInt(keys.size)
+      for (key in keys) {
+        val bytes = key.toByteArray(Charsets.UTF_8)
+        output.writeInt(bytes.size)
+        output.write(bytes)
+      }
+    }
+    Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING)
+  }
+}
+
+private const val VERSION = 1
+
+/**
+ * The version and the key count
+ */
+private const val HEADER_SIZE = 8
+
+/**
+ * The size of each key is written before the key
+ */
+private const val KEY_SIZE_SIZE = 4
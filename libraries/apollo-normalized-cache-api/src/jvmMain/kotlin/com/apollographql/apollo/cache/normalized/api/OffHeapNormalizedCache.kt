@@ -0,0 +1,309 @@
+package com.apollographql.apollo.cache.normalized.api
+
+import com.apollographql.apollo.annotations.ApolloExperimental
+import com.apollographql.apollo.cache.normalized.api.internal.CacheLock
+import com.apollographql.apollo.cache.normalized.api.internal.ChangedKeys
+import com.apollographql.apollo.cache.normalized.api.internal.CompactRecordSerializer
+import com.apollographql.apollo.cache.normalized.api.internal.FieldNameTable
+import com.apollographql.apollo.cache.normalized.api.internal.NamespaceIndex
+import com.apollographql.apollo.cache.normalized.api.internal.OffHeapChunks
+import com.apollographql.apollo.cache.normalized.api.internal.reachableKeys
+import kotlin.reflect.KClass
+
+/**
+ * A [NormalizedCache] that stores its records outside of the Java heap, in direct [java.nio.ByteBuffer]s.
+ *
+ * It is meant to sit between a [MemoryCache] and a persistent cache, to keep a large number of records in memory
+ * without the garbage collector having to scan them:
+ *
+ * ```
+ * MemoryCacheFactory(maxSizeBytes = 10 * 1024 * 1024)
+ *     .chain(OffHeapNormalizedCacheFactory(maxSizeBytes = 1024L * 1024 * 1024))
+ *     .chain(SqlNormalizedCacheFactory("apollo.db"))
+ * ```
+ *
+ * Records are encoded in the compact binary record format and stored in chunks of [chunkSize] bytes. Only the keys and
+ * the chunk indices are kept on the heap. Records are decoded on every read, so the hottest records should be kept in a
+ * [MemoryCache] in front of this cache.
+ *
+ * When the records don't fit in [maxSizeBytes], the least recently used ones are evicted. The off-heap memory is
+ * allocated as needed, in slabs of up to 64MB, and is released when the cache is garbage collected.
+ *
+ * The field names, including their arguments, are kept on the heap in a table shared by all the records. The records
+ * reference the table so when it grows over 65536 names, all the records are evicted and a new, empty, table is used.
+ * The records already returned keep the previous table.
+ *
+ * [maxSizeBytes] - the maximum size in bytes of the off-heap memory.
+ * [chunkSize] - the allocation unit in bytes. A record occupies its encoded size rounded up to a multiple of [chunkSize].
+ */
+@ApolloExperimental
+class OffHeapNormalizedCache(
+    maxSizeBytes: Long,
+    chunkSize: Int = DEFAULT_CHUNK_SIZE,
+) : NormalizedCache() {
+  init {
+    require(maxSizeBytes > 0) {
+      "Apollo: maxSizeBytes must be > 0 (found '$maxSizeBytes')"
+    }
+    require(chunkSize > 0) {
+      "Apollo: chunkSize must be > 0 (found '$chunkSize')"
+    }
+  }
+
+  private class Entry(val chunks: IntArray, val size: Int)
+
+  /**
+   * Guards [chunks], [entries], [namespaceIndex], [fieldNameCount] and [serializer]
+   */
+  private val lock = CacheLock()
+
+  private val chunks = OffHeapChunks(maxSizeBytes, chunkSize)
+
+  /**
+   * The entries in LRU order, the least recently used first
+   */
+  private val entries = LinkedHashMap<String, Entry>(16, 0.75f, true)
+
+  private val namespaceIndex = NamespaceIndex()
+
+  /**
+   * The number of names in the field name table of [serializer]
+   */
+  internal var fieldNameCount = 0
+    private set
+
+  /**
+   * When the field name table has more than [maxFieldNames] names, the cache is cleared before adding a new record
+   */
+  internal var maxFieldNames = DEFAULT_MAX_FIELD_NAMES
+
+  /**
+   * The records returned by this cache are decoded lazily and keep a reference to the field name table. The table is
+   * never modified after a reset: [clearEntries] replaces the serializer and its table.
+   */
+  private var serializer = newSerializer()
+
+  private fun newSerializer(): CompactRecordSerializer {
+    return CompactRecordSerializer(FieldNameTable { _, _ -> fieldNameCount++ })
+  }
+
+  /**
+   * The number of records in the cache
+   */
+  val size: Int
+    get() = lock.lock { entries.size }
+
+  override fun loadRecord(key: String, cacheHeaders: CacheHeaders): Record? {
+    val record = lock.lock { internalLoadRecord(key, cacheHeaders) }
+    return record ?: nextCache?.loadRecord(key, cacheHeaders)?.also { nextCachedRecord ->
+      put(nextCachedRecord)
+    }
+  }
+
+  override fun loadRecords(keys: Collection<String>, cacheHeaders: CacheHeaders): Collection<Record> {
+    val records = ArrayList<Record>(keys.size)
+    val missingKeys = ArrayList<String>()
+    lock.lock {
+      for (key in keys) {
+        val record = internalLoadRecord(key, cacheHeaders)
+        if (record != null) {
+          records.add(record)
+        } else {
+          missingKeys.add(key)
+        }
+      }
+    }
+
+    if (missingKeys.isEmpty()) {
+      return records
+    }
+
+    val nextCachedRecords = nextCache?.loadRecords(missingKeys, cacheHeaders).orEmpty()
+    for (record in nextCachedRecords) {
+      put(record)
+    }
+    return records + nextCachedRecords
+  }
+
+  /**
+   * Must be called while holding [lock]
+   */
+  private fun internalLoadRecord(key: String, cacheHeaders: CacheHeaders): Record? {
+    val entry = entries[key] ?: return null
+    val bytes = chunks.read(entry.chunks, entry.size)
+    if (cacheHeaders.hasHeader(ApolloCacheHeaders.EVICT_AFTER_READ)) {
+      removeEntry(key)
+    }
+    return serializer.deserialize(key, bytes)
+  }
+
+  private fun put(record: Record) {
+    lock.lock {
+      if (fieldNameCount > maxFieldNames) {
+        // The entries reference the field names by id so they are cleared with the table
+        clearEntries()
+      }
+      val bytes = serializer.serialize(record)
+      removeEntry(record.key)
+      val neededChunks = chunks.chunksFor(bytes.size)
+      if (neededChunks > chunks.chunkCount) {
+        // Would not fit even in an empty cache
+        return@lock
+      }
+      while (chunks.availableChunks < neededChunks) {
+        removeEntry(entries.keys.first())
+      }
+      entries[record.key] = Entry(chunks.write(bytes), bytes.size)
+      namespaceIndex.add(record.key)
+    }
+  }
+
+  /**
+   * Must be called while holding [lock]
+   */
+  private fun removeEntry(key: String): Boolean {
+    val entry = entries.remove(key) ?: return false
+    chunks.release(entry.chunks)
+    namespaceIndex.remove(key)
+    return true
+  }
+
+  /**
+   * Must be called while holding [lock]
+   */
+  private fun clearEntries() {
+    entries.clear()
+    namespaceIndex.clear()
+    chunks.clear()
+    serializer = newSerializer()
+    fieldNameCount = 0
+  }
+
+  override fun clearAll() {
+    lock.lock {
+      clearEntries()
+    }
+    nextCache?.clearAll()
+  }
+
+  override fun remove(cacheKey: CacheKey, cascade: Boolean): Boolean {
+    val record = lock.lock {
+      val entry = entries[cacheKey.key]
+      if (entry == null) {
+        null
+      } else {
+        val bytes = chunks.read(entry.chunks, entry.size)
+        removeEntry(cacheKey.key)
+        serializer.deserialize(cacheKey.key, bytes)
+      }
+    }
+
+    if (cascade && record != null) {
+      for (cacheReference in record.referencedFields()) {
+        remove(CacheKey(cacheReference.key), true)
+      }
+    }
+
+    val chainRemoved = nextCache?.remove(cacheKey, cascade) ?: false
+    return record != null || chainRemoved
+  }
+
+  override fun remove(pattern: String): Int {
+    val regex = patternToRegex(pattern)
+    val removed = lock.lock {
+      val keys = entries.keys.filter { regex.matches(it) }
+      keys.forEach { removeEntry(it) }
+      keys.size
+    }
+
+    val chainRemoved = nextCache?.remove(pattern) ?: 0
+    return removed + chainRemoved
+  }
+
+  override fun removeByPrefix(prefix: String): Int {
+    val removed = lock.lock {
+      val keys = namespaceIndex.keysWithPrefix(prefix)
+      keys.forEach { removeEntry(it) }
+      keys.size
+    }
+
+    val chainRemoved = nextCache?.removeByPrefix(prefix) ?: 0
+    return removed + chainRemoved
+  }
+
+  override fun garbageCollect(): Int {
+    val removed = lock.lock {
+      // Copy the entries so that following the references doesn't change the LRU order
+      val snapshot = HashMap(entries)
+      val reachableKeys = reachableKeys(nextCache) { key ->
+        snapshot[key]?.let { serializer.deserialize(key, chunks.read(it.chunks, it.size)) }
+      } ?: return@lock 0
+      val unreachableKeys = snapshot.keys - reachableKeys
+      unreachableKeys.forEach { removeEntry(it) }
+      unreachableKeys.size
+    }
+
+    val chainRemoved = nextCache?.garbageCollect() ?: 0
+    return removed + chainRemoved
+  }
+
+  override fun merge(record: Record, cacheHeaders: CacheHeaders): Set<String> {
+    if (cacheHeaders.hasHeader(ApolloCacheHeaders.DO_NOT_STORE)) {
+      return emptySet()
+    }
+
+    val changedKeys = ChangedKeys()
+    changedKeys.addAll(internalMerge(record, cacheHeaders))
+    nextCache?.let { changedKeys.addAll(it.merge(record, cacheHeaders)) }
+    return changedKeys
+  }
+
+  override fun merge(records: Collection<Record>, cacheHeaders: CacheHeaders): Set<String> {
+    if (cacheHeaders.hasHeader(ApolloCacheHeaders.DO_NOT_STORE)) {
+      return emptySet()
+    }
+    val changedKeys = ChangedKeys()
+    for (record in records) {
+      changedKeys.addAll(internalMerge(record, cacheHeaders))
+    }
+    nextCache?.let { changedKeys.addAll(it.merge(records, cacheHeaders)) }
+    return changedKeys
+  }
+
+  private fun internalMerge(record: Record, cacheHeaders: CacheHeaders): Set<String> {
+    val oldRecord = loadRecord(record.key, cacheHeaders)
+    return if (oldRecord == null) {
+      put(record)
+      record.fieldKeys()
+    } else {
+      val (mergedRecord, changedKeys) = oldRecord.mergeWith(record)
+      put(mergedRecord)
+      changedKeys
+    }
+  }
+
+  override fun dump(): Map<KClass<*>, Map<String, Record>> {
+    val records = lock.lock {
+      // Iterating doesn't change the LRU order
+      entries.entries.associate { (key, entry) -> key to serializer.deserialize(key, chunks.read(entry.chunks, entry.size)) }
+    }
+    return mapOf(this::class to records) + nextCache?.dump().orEmpty()
+  }
+}
+
+private const val DEFAULT_CHUNK_SIZE = 128
+private const val DEFAULT_MAX_FIELD_NAMES = 65536
+
+@ApolloExperimental
+class OffHeapNormalizedCacheFactory @JvmOverloads constructor(
+    private val maxSizeBytes: Long,
+    private val chunkSize: Int = DEFAULT_CHUNK_SIZE,
+) : NormalizedCacheFactory() {
+
+  override fun create(): OffHeapNormalizedCache {
+    return OffHeapNormalizedCache(
+        maxSizeBytes = maxSizeBytes,
+        chunkSize = chunkSize,
+    )
+  }
+}
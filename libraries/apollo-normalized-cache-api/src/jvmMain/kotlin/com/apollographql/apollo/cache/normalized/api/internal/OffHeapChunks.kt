@@ -0,0 +1,115 @@
+package com.apollographql.apollo.cache.normalized.api.internal
+
+import java.nio.Buffer
+import java.nio.ByteBuffer
+
+/**
+ * Fixed-size chunks of off-heap memory, used by [com.apollographql.apollo.cache.normalized.api.OffHeapNormalizedCache].
+ *
+ * The memory is allocated in direct [ByteBuffer] slabs of up to [SLAB_SIZE] bytes, lazily, as chunks are needed. A value
+ * is stored in as many chunks as needed, which don't need to be contiguous. Freed chunks are reused before allocating new
+ * slabs.
+ *
+ * This class is not thread safe.
+ */
+internal class OffHeapChunks(maxSizeBytes: Long, private val chunkSize: Int) {
+  private val chunksPerSlab = (SLAB_SIZE / chunkSize).coerceAtLeast(1)
+
+  /**
+   * The maximum number of chunks
+   */
+  val chunkCount: Int = (maxSizeBytes / chunkSize).coerceAtMost(Int.MAX_VALUE.toLong()).toInt()
+
+  private val slabs = ArrayList<ByteBuffer>()
+
+  /**
+   * The number of chunks backed by a slab
+   */
+  private var allocatedChunks = 0
+  private var freeList = IntArray(0)
+  private var freeListSize = 0
+
+  /**
+   * The number of chunks that can be written without evicting anything
+   */
+  val availableChunks: Int
+    get() = freeListSize + (chunkCount - allocatedChunks)
+
+  fun chunksFor(size: Int): Int {
+    return ((size + chunkSize - 1) / chunkSize).coerceAtLeast(1)
+  }
+
+  /**
+   * Writes [bytes] and returns the chunks they are stored in. There must be at least `chunksFor(bytes.size)`
+   * [availableChunks].
+   */
+  fun write(bytes: ByteArray): IntArray {
+    val chunks = IntArray(chunksFor(bytes.size))
+    var offset = 0
+    for (i in chunks.indices) {
+      val chunk = allocate()
+      chunks[i] = chunk
+      val length = minOf(chunkSize, bytes.size - offset)
+      slice(chunk).put(bytes, offset, length)
+      offset += length
+    }
+    return chunks
+  }
+
+  /**
+   * Reads the [size] bytes stored in [chunks]
+   */
+  fun read(chunks: IntArray, size: Int): ByteArray {
+    val bytes = ByteArray(size)
+    var offset = 0
+    for (chunk in chunks) {
+      val length = minOf(chunkSize, size - offset)
+      slice(chunk).get(bytes, offset, length)
+      offset += length
+    }
+    return bytes
+  }
+
+  fun release(chunks: IntArray) {
+    if (freeList.size < freeListSize + chunks.size) {
+      freeList = freeList.copyOf(maxOf(freeList.size * 2, freeListSize + chunks.size))
+    }
+    chunks.copyInto(freeList, freeListSize)
+    freeListSize += chunks.size
+  }
+
+  /**
+   * Releases all the chunks. The slabs are kept for reuse.
+   */
+  fun clear() {
+    freeList = IntArray(allocatedChunks) { it }
+    freeListSize = allocatedChunks
+  }
+
+  private fun allocate(): Int {
+    if (freeListSize > 0) {
+      return freeList[--freeListSize]
+    }
+    check(allocatedChunks < chunkCount) {
+      "Apollo: no chunk available"
+    }
+    if (allocatedChunks % chunksPerSlab == 0) {
+      val slabChunks = minOf(chunksPerSlab, chunkCount - allocatedChunks)
+      slabs.add(ByteBuffer.allocateDirect(slabChunks * chunkSize))
+    }
+    return allocatedChunks++
+  }
+
+  /**
+   * Returns a view of the slab of [chunk], positioned at its start
+   */
+  private fun slice(chunk: Int): ByteBuffer {
+    val view = slabs[chunk / chunksPerSlab].duplicate()
+    // Call Buffer.position() and not ByteBuffer.position() that doesn't exist before Java 9
+    val buffer: Buffer = view
+    buffer.position((chunk % chunksPerSlab) * chunkSize)
+    return view
+  }
+}
+
+private const val SLAB_SIZE = 64 * 1024 * 1024
@@ -0,0 +1,56 @@
+package com.apollographql.apollo.cache.normalized
+
+import com.apollographql.apollo.cache.normalized.api.CacheHeaders
+import com.apollographql.apollo.cache.normalized.api.CacheKey
+import com.apollographql.apollo.cache.normalized.api.ConcurrentMemoryCache
+import com.apollographql.apollo.cache.normalized.api.NormalizedCache
+import com.apollographql.apollo.cache.normalized.api.Record
+import java.util.concurrent.Callable
+import java.util.concurrent.CyclicBarrier
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import kotlin.reflect.KClass
+import kotlin.test.Test
+import kotlin.test.assertEquals
+
+class ConcurrentMemoryCacheConcurrencyTest {
+  /**
+   * Both merges look the record up in the next cache before either of them writes it: the second write must still see
+   * the first one.
+   */
+  @Test
+  fun concurrentMergesOfTheSameKeyKeepAllTheFields() {
+    val barrier = CyclicBarrier(2)
+    val nextCache = object : NormalizedCache() {
+      override fun loadRecord(key: String, cacheHeaders: CacheHeaders): Record? {
+        barrier.await(5, TimeUnit.SECONDS)
+        return null
+      }
+
+      override fun loadRecords(keys: Collection<String>, cacheHeaders: CacheHeaders): Collection<Record> {
+        return keys.mapNotNull { loadRecord(it, cacheHeaders) }
+      }
+
+      override fun merge(record: Record, cacheHeaders: CacheHeaders): Set<String> = emptySet()
+
+      override fun merge(records: Collection<Record>, cacheHeaders: CacheHeaders): Set<String> = emptySet()
+
+      override fun clearAll() {}
+
+      override fun remove(cacheKey: CacheKey, cascade: Boolean): Boolean = false
+
+      override fun remove(pattern: String): Int = 0
+
+      override fun dump(): Map<KClass<*>, Map<String, Record>> = emptyMap()
+    }
+    val cache = ConcurrentMemoryCache().chain(nextCache)
+    val executor = Executors.newFixedThreadPool(2)
+
+    listOf("a", "b").map { field ->
+      executor.submit(Callable { cache.merge(Record(key = "key", fields = mapOf(field to field)), CacheHeaders.NONE) })
+    }.forEach { it.get() }
+
+    executor.shutdown()
+    assertEquals(mapOf("a" to "a", "b" to "b"), cache.loadRecord("key", CacheHeaders.NONE)?.fields)
+  }
+}
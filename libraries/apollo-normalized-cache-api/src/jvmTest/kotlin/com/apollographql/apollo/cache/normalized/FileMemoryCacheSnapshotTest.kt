@@ -0,0 +1,57 @@
+package com.apollographql.apollo.cache.normalized
+
+import com.apollographql.apollo.cache.normalized.api.FileMemoryCacheSnapshot
+import java.io.DataOutputStream
+import java.io.File
+import java.nio.file.Files
+import kotlin.test.AfterTest
+import kotlin.test.BeforeTest
+import kotlin.test.Test
+import kotlin.test.assertEquals
+
+class FileMemoryCacheSnapshotTest {
+  private lateinit var file: File
+
+  @BeforeTest
+  fun setUp() {
+    file = Files.createTempDirectory("snapshot").toFile().resolve("snapshot")
+  }
+
+  @AfterTest
+  fun tearDown() {
+    file.parentFile.deleteRecursively()
+  }
+
+  @Test
+  fun keysAreReadBack() {
+    val snapshot = FileMemoryCacheSnapshot(file)
+    assertEquals(emptyList(), snapshot.readKeys())
+
+    snapshot.writeKeys(listOf("QUERY_ROOT", "hero", "été"))
+    assertEquals(listOf("QUERY_ROOT", "hero", "été"), snapshot.readKeys())
+  }
+
+  @Test
+  fun corruptedCountsAreAnEmptySnapshot() {
+    for (count in listOf(-1, Int.MAX_VALUE)) {
+      writeFile(count = count, size = 1)
+      assertEquals(emptyList(), FileMemoryCacheSnapshot(file).readKeys())
+    }
+    for (size in listOf(-1, Int.MAX_VALUE)) {
+      writeFile(count = 1, size = size)
+      assertEquals(emptyList(), FileMemoryCacheSnapshot(file).readKeys())
+    }
+  }
+
+  /**
+   * Writes a snapshot with a single key of one byte, declaring [count] keys of [size] bytes
+   */
+  private fun writeFile(count: Int, size: Int) {
+    DataOutputStream(file.outputStream()).use { output ->
+      output.writeInt(1)
+      output.writeInt(count)
+      output.writeInt(size)
+      output.writeByte('a'.code)
+    }
+  }
+}
@@ -0,0 +1,121 @@
+package com.apollographql.apollo.cache.normalized
+
+import com.apollographql.apollo.cache.normalized.api.CacheHeaders
+import com.apollographql.apollo.cache.normalized.api.CacheKey
+import com.apollographql.apollo.cache.normalized.api.MemoryCacheFactory
+import com.apollographql.apollo.cache.normalized.api.OffHeapNormalizedCache
+import com.apollographql.apollo.cache.normalized.api.OffHeapNormalizedCacheFactory
+import com.apollographql.apollo.cache.normalized.api.Record
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertNotNull
+import kotlin.test.assertNull
+
+class OffHeapNormalizedCacheTest {
+  private fun createTestRecord(id: String): Record {
+    return Record(
+        key = "key$id",
+        fields = mapOf(
+            "field1" to "stringValueA$id",
+            "field2" to listOf(CacheKey("ref$id"), 42, 3.5, null, true),
+        )
+    )
+  }
+
+  @Test
+  fun saveAndLoad() {
+    val cache = OffHeapNormalizedCache(maxSizeBytes = 1024 * 1024, chunkSize = 16)
+    val records = (0 until 100).map { createTestRecord("$it") }
+    cache.merge(records, CacheHeaders.NONE)
+
+    assertEquals(100, cache.size)
+    for (record in records) {
+      assertEquals(record.fields, cache.loadRecord(record.key, CacheHeaders.NONE)?.fields)
+    }
+    assertEquals(records.map { it.key }.toSet(), cache.loadRecords(records.map { it.key }, CacheHeaders.NONE).map { it.key }.toSet())
+  }
+
+  @Test
+  fun mergeUpdatesTheRecord() {
+    val cache = OffHeapNormalizedCache(maxSizeBytes = 1024 * 1024)
+    cache.merge(Record("1", mapOf("name" to "Luke")), CacheHeaders.NONE)
+    val changedKeys = cache.merge(Record("1", mapOf("name" to "Leia", "age" to 42)), CacheHeaders.NONE)
+
+    assertEquals(setOf("1.name", "1.age"), changedKeys)
+    assertEquals(mapOf("name" to "Leia", "age" to 42), cache.loadRecord("1", CacheHeaders.NONE)?.fields)
+  }
+
+  @Test
+  fun evictsTheLeastRecentlyUsedRecords() {
+    // Room for a few records only
+    val cache = OffHeapNormalizedCache(maxSizeBytes = 256, chunkSize = 32)
+    cache.merge(createTestRecord("1"), CacheHeaders.NONE)
+    cache.merge(createTestRecord("2"), CacheHeaders.NONE)
+    // Use record 1 so that record 2 is the least recently used
+    assertNotNull(cache.loadRecord("key1", CacheHeaders.NONE))
+    repeat(10) {
+      cache.merge(createTestRecord("new$it"), CacheHeaders.NONE)
+      cache.loadRecord("key1", CacheHeaders.NONE)
+    }
+
+    assertNull(cache.loadRecord("key2", CacheHeaders.NONE))
+    assertNotNull(cache.loadRecord("key1", CacheHeaders.NONE))
+  }
+
+  @Test
+  fun sitsBetweenMemoryCacheAndNextCache() {
+    val cache = MemoryCacheFactory()
+        .chain(OffHeapNormalizedCacheFactory(maxSizeBytes = 1024 * 1024))
+        .chain(MemoryCacheFactory())
+        .createChain()
+    val offHeapCache = cache.nextCache as OffHeapNormalizedCache
+
+    // Only in the last cache
+    offHeapCache.nextCache!!.merge(createTestRecord("1"), CacheHeaders.NONE)
+    assertNotNull(cache.loadRecord("key1", CacheHeaders.NONE))
+    // Loading from the last cache copied the record to the off-heap cache
+    assertEquals(1, offHeapCache.size)
+
+    // Removed from the 3 caches
+    assertEquals(3, cache.removeByPrefix("key"))
+    assertEquals(0, offHeapCache.size)
+  }
+
+  @Test
+  fun fieldNamesAreBounded() {
+    val cache = OffHeapNormalizedCache(maxSizeBytes = 1024 * 1024)
+    cache.maxFieldNames = 10
+    repeat(10) {
+      cache.merge(Record("key$it", mapOf("field$it" to it)), CacheHeaders.NONE)
+    }
+    assertEquals(10, cache.fieldNameCount)
+
+    // Over the limit: the records are evicted with the table
+    cache.merge(Record("key10", mapOf("field10" to 10)), CacheHeaders.NONE)
+    cache.merge(Record("key11", mapOf("field11" to 11)), CacheHeaders.NONE)
+    assertEquals(1, cache.size)
+    assertEquals(1, cache.fieldNameCount)
+    assertNull(cache.loadRecord("key0", CacheHeaders.NONE))
+    assertEquals(mapOf("field11" to 11), cache.loadRecord("key11", CacheHeaders.NONE)?.fields)
+
+    cache.clearAll()
+    assertEquals(0, cache.fieldNameCount)
+  }
+
+  @Test
+  fun recordsOutliveAReset() {
+    val cache = OffHeapNormalizedCache(maxSizeBytes = 1024 * 1024)
+    cache.merge(Record("key0", mapOf("a" to 0, "b" to 1)), CacheHeaders.NONE)
+    // Decoded lazily, e.g. by a MemoryCache in front of this cache
+    val first = cache.loadRecord("key0", CacheHeaders.NONE)!!
+    val second = cache.loadRecord("key0", CacheHeaders.NONE)!!
+
+    cache.clearAll()
+    // The same ids are allocated to other names
+    cache.merge(Record("key1", mapOf("c" to 2, "b" to 3)), CacheHeaders.NONE)
+
+    assertEquals(1, first.fields["b"])
+    assertNull(first.fields["c"])
+    assertEquals(mapOf("a" to 0, "b" to 1), second.fields)
+  }
+}
@@ -0,0 +1,14 @@
+plugins {
+  id("org.jetbrains.kotlin.jvm")
+}
+
+apolloLibrary(
+  namespace = "com.apollographql.apollo.cache.normalized.mmap"
+)
+
+dependencies {
+  api(project(":apollo-api"))
+  api(project(":apollo-normalized-cache-api"))
+
+  testImplementation(libs.kotlin.test.junit)
+}
@@ -0,0 +1,252 @@
+package com.apollographql.apollo.cache.normalized.mmap
+
+import com.apollographql.apollo.annotations.ApolloExperimental
+import com.apollographql.apollo.cache.normalized.api.ApolloCacheHeaders
+import com.apollographql.apollo.cache.normalized.api.CacheHeaders
+import com.apollographql.apollo.cache.normalized.api.CacheKey
+import com.apollographql.apollo.cache.normalized.api.NormalizedCache
+import com.apollographql.apollo.cache.normalized.api.Record
+import com.apollographql.apollo.cache.normalized.api.internal.ChangedKeys
+import com.apollographql.apollo.cache.normalized.api.internal.CompactRecordSerializer
+import com.apollographql.apollo.cache.normalized.api.internal.FieldNameTable
+import com.apollographql.apollo.cache.normalized.mmap.internal.RecordLog
+import com.apollographql.apollo.exception.apolloExceptionHandler
+import java.io.File
+import java.util.concurrent.locks.ReentrantReadWriteLock
+import kotlin.concurrent.read
+import kotlin.concurrent.write
+import kotlin.reflect.KClass
+
+/**
+ * A [NormalizedCache] that stores its records in a memory-mapped, append-only log.
+ *
+ * Records are encoded in the compact binary record format. An in-memory index maps each key to the position of its
+ * latest version in the mapped file, so that a read is a hash lookup and a copy, without SQL or a database driver.
+ *
+ * Writes append new versions of the records at the end of the log. Once more than half of the log is replaced or removed
+ * records, the log is compacted: the live records are written to a new file that atomically replaces the log. Call
+ * [compact] to compact it at other times.
+ *
+ * Crash safety: every entry of the log is checksummed. When the cache is opened, the log is replayed up to the first
+ * incomplete entry, so a crash loses at most the merges that were being written. Writes are durable as soon as they return
+ * if the process dies, but may be lost if the system crashes before the OS writes the pages to disk unless
+ * `syncWrites` is set.
+ *
+ * The log is limited to 2GB.
+ */
+@ApolloExperimental
+class MmapNormalizedCache internal constructor(
+    file: File,
+    syncWrites: Boolean,
+) : NormalizedCache() {
+  private val lock = ReentrantReadWriteLock()
+  private val log = RecordLog(file, syncWrites)
+
+  /**
+   * Must be used while holding the write lock as it may append names to [log]
+   */
+  private val fieldNames = FieldNameTable { id, name -> log.putName(id, name) }.apply { load(log.fieldNames) }
+  private val serializer = CompactRecordSerializer(fieldNames)
+
+  override fun loadRecord(key: String, cacheHeaders: CacheHeaders): Record? {
+    if (cacheHeaders.hasHeader(ApolloCacheHeaders.MEMORY_CACHE_ONLY)) {
+      return null
+    }
+    val record = try {
+      lock.read { internalLoadRecord(key) }
+    } catch (e: Exception) {
+      // Unable to read the record from the log, it is possibly corrupted - treat this as a cache miss
+      apolloExceptionHandler(Exception("Unable to read a record from the log", e))
+      null
+    }
+    if (record != null) {
+      if (cacheHeaders.hasHeader(ApolloCacheHeaders.EVICT_AFTER_READ)) {
+        lock.write { log.delete(key) }
+      }
+      return record
+    }
+    return nextCache?.loadRecord(key, cacheHeaders)
+  }
+
+  override fun loadRecords(keys: Collection<String>, cacheHeaders: CacheHeaders): Collection<Record> {
+    if (cacheHeaders.hasHeader(ApolloCacheHeaders.MEMORY_CACHE_ONLY)) {
+      return emptyList()
+    }
+    val records = try {
+      lock.read { keys.mapNotNull { internalLoadRecord(it) } }
+    } catch (e: Exception) {
+      // Unable to read the records from the log, it is possibly corrupted - treat this as a cache miss
+      apolloExceptionHandler(Exception("Unable to read records from the log", e))
+      emptyList()
+    }
+    if (cacheHeaders.hasHeader(ApolloCacheHeaders.EVICT_AFTER_READ)) {
+      lock.write { records.forEach { log.delete(it.key) } }
+    }
+    if (records.size == keys.size) {
+      return records
+    }
+    val missingKeys = keys - records.mapTo(HashSet()) { it.key }
+    return records + nextCache?.loadRecords(missingKeys, cacheHeaders).orEmpty()
+  }
+
+  private fun internalLoadRecord(key: String): Record? {
+    return log.get(key)?.let { serializer.deserialize(key, it) }
+  }
+
+  override fun merge(record: Record, cacheHeaders: CacheHeaders): Set<String> {
+    return merge(listOf(record), cacheHeaders)
+  }
+
+  override fun merge(records: Collection<Record>, cacheHeaders: CacheHeaders): Set<String> {
+    if (cacheHeaders.hasHeader(ApolloCacheHeaders.DO_NOT_STORE) || cacheHeaders.hasHeader(ApolloCacheHeaders.MEMORY_CACHE_ONLY)) {
+      return emptySet()
+    }
+    val date = cacheHeaders.headerValue(ApolloCacheHeaders.DATE)?.toLong()
+    val changedKeys = ChangedKeys()
+    try {
+      lock.write {
+        for (record in records) {
+          val oldRecord = internalLoadRecord(record.key)
+          if (oldRecord == null) {
+            log.put(record.key, serializer.serialize(record.withDate(date)))
+            changedKeys.addAll(record.key, record.fields.keys)
+          } else {
+            val (mergedRecord, recordChangedKeys) = oldRecord.mergeWith(record, date)
+            if (recordChangedKeys.isNotEmpty()) {
+              log.put(record.key, serializer.serialize(mergedRecord))
+            }
+            changedKeys.addAll(recordChangedKeys)
+          }
+        }
+        log.sync()
+        compactIfNeeded()
+      }
+    } catch (e: Exception) {
+      // Unable to write the records to the log - treat this as a cache miss
+      apolloExceptionHandler(Exception("Unable to merge records into the log", e))
+    }
+    nextCache?.let { changedKeys.addAll(it.merge(records, cacheHeaders)) }
+    return changedKeys
+  }
+
+  override fun clearAll() {
+    nextCache?.clearAll()
+    lock.write {
+      log.clear()
+      fieldNames.load(emptyMap())
+    }
+  }
+
+  override fun remove(cacheKey: CacheKey, cascade: Boolean): Boolean {
+    val selfRemoved = lock.write {
+      internalRemove(cacheKey.key, cascade).also {
+        log.sync()
+        compactIfNeeded()
+      }
+    }
+    val chainRemoved = nextCache?.remove(cacheKey, cascade) ?: false
+    return selfRemoved || chainRemoved
+  }
+
+  /**
+   * Must be called while holding the write lock
+   */
+  private fun internalRemove(key: String, cascade: Boolean): Boolean {
+    val record = if (cascade) internalLoadRecord(key) else null
+    if (!log.delete(key)) {
+      return false
+    }
+    if (record != null) {
+      for (cacheReference in record.referencedFields()) {
+        internalRemove(cacheReference.key, true)
+      }
+    }
+    return true
+  }
+
+  override fun remove(pattern: String): Int {
+    val regex = patternToRegex(pattern)
+    return removeKeys { key -> regex.matches(key) } + (nextCache?.remove(pattern) ?: 0)
+  }
+
+  override fun removeByPrefix(prefix: String): Int {
+    return removeKeys { key -> key.startsWith(prefix) } + (nextCache?.removeByPrefix(prefix) ?: 0)
+  }
+
+  override fun garbageCollect(): Int {
+    val selfRemoved = lock.write {
+      val rootKey = CacheKey.rootKey().key
+      if (log.get(rootKey) == null) {
+        // Without a root record, nothing is reachable: keep the records, e.g. a store that only contains fragments
+        return@write 0
+      }
+      val reachable = HashSet<String>()
+      val stack = ArrayList<String>()
+      stack.add(rootKey)
+      while (stack.isNotEmpty()) {
+        val key = stack.removeAt(stack.size - 1)
+        if (!reachable.add(key)) {
+          continue
+        }
+        internalLoadRecord(key)?.referencedFields()?.forEach { stack.add(it.key) }
+      }
+      val unreachable = log.keys.filter { it !in reachable }
+      unreachable.forEach { log.delete(it) }
+      log.sync()
+      compactIfNeeded()
+      unreachable.size
+    }
+    return selfRemoved + (nextCache?.garbageCollect() ?: 0)
+  }
+
+  private fun removeKeys(predicate: (String) -> Boolean): Int {
+    return lock.write {
+      val keys = log.keys.filter(predicate)
+      keys.forEach { log.delete(it) }
+      log.sync()
+      compactIfNeeded()
+      keys.size
+    }
+  }
+
+  override fun dump(): Map<KClass<*>, Map<String, Record>> {
+    val records = lock.read {
+      log.keys.associateWith { internalLoadRecord(it)!! }
+    }
+    return mapOf(this::class to records) + nextCache?.dump().orEmpty()
+  }
+
+  /**
+   * Rewrites the log with the live records only
+   */
+  fun compact() {
+    lock.write {
+      log.compact()
+    }
+  }
+
+  /**
+   * Closes the underlying file. The cache must not be used afterwards.
+   */
+  fun close() {
+    lock.write {
+      log.close()
+    }
+  }
+
+  /**
+   * Must be called while holding the write lock
+   */
+  private fun compactIfNeeded() {
+    if (log.shouldCompact()) {
+      log.compact()
+    }
+  }
+
+  private fun Record.withDate(date: Long?): Record {
+    if (date == null) {
+      return this
+    }
+    return Record(key, fields, mutationId, fields.mapValues { date })
+  }
+}
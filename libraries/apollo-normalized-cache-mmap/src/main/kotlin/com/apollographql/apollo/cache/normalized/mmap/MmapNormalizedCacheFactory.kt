@@ -0,0 +1,25 @@
+package com.apollographql.apollo.cache.normalized.mmap
+
+import com.apollographql.apollo.annotations.ApolloExperimental
+import com.apollographql.apollo.cache.normalized.api.NormalizedCacheFactory
+import java.io.File
+
+/**
+ * Creates a [MmapNormalizedCache]
+ *
+ * [directory] - the directory where to store the log. It is created if needed.
+ * [name] - the name of the log file in [directory].
+ * [syncWrites] - whether to force every write to the storage device before returning. This protects against losing writes
+ * if the system crashes but makes writes a lot slower.
+ */
+@ApolloExperimental
+class MmapNormalizedCacheFactory @JvmOverloads constructor(
+    private val directory: File,
+    private val name: String = "apollo.log",
+    private val syncWrites: Boolean = false,
+) : NormalizedCacheFactory() {
+
+  override fun create(): MmapNormalizedCache {
+    return MmapNormalizedCache(File(directory, name), syncWrites)
+  }
+}
@@ -0,0 +1,358 @@
+package com.apollographql.apollo.cache.normalized.mmap.internal
+
+import java.io.File
+import java.io.RandomAccessFile
+import java.nio.Buffer
+import java.nio.ByteBuffer
+import java.nio.MappedByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.channels.OverlappingFileLockException
+import java.nio.file.Files
+import java.nio.file.StandardCopyOption
+import java.util.zip.CRC32
+
+/**
+ * An append-only log of key/value entries in a memory-mapped file, with an in-memory index of the live entries.
+ *
+ * Format:
+ *
+ * ```
+ * log   := MAGIC:8 VERSION:i32 entry* 0:u8
+ * entry := type:u8 keySize:i32 valueSize:i32 key:bytes value:bytes crc:i32
+ * ```
+ *
+ * - `crc` is the CRC32 of the entry, from `type` to `value`. Every entry is its own commit: when opening the log, the
+ * entries are replayed until the first one that is truncated or doesn't match its checksum, which is where a crash
+ * happened. The log is truncated there.
+ * - a [TYPE_PUT] entry replaces the value of its key. A [TYPE_DELETE] entry removes it.
+ * - a [TYPE_NAME] entry associates a name with an id (the 4 bytes of its value). Names are never removed.
+ * - the log ends at the first entry whose type is 0. A 0 is written after every entry.
+ *
+ * Replaced and deleted entries stay in the file until [compact] rewrites it with the live entries only.
+ *
+ * The file is mapped in a single [MappedByteBuffer] so it cannot be larger than 2GB. The previous mappings are released
+ * as soon as the file is remapped, compacted or closed, see [unmap].
+ *
+ * The file is locked while it is open so that two logs never write to it, including from different processes.
+ *
+ * This class is not thread safe.
+ */
+internal class RecordLog(private val file: File, private val syncWrites: Boolean) {
+  private class Location(val offset: Int, val size: Int, val entrySize: Int)
+
+  private lateinit var channel: FileChannel
+
+  /**
+   * The current mapping or null once it is released
+   */
+  private var mapped: MappedByteBuffer? = null
+  private val buffer: MappedByteBuffer
+    get() = mapped ?: error("Apollo: '${file.path}' is closed")
+
+  /**
+   * The offset of the next entry
+   */
+  private var end = 0
+  private val index = HashMap<String, Location>()
+  private val names = HashMap<Int, String>()
+
+  /**
+   * The size of the entries in [index] and of the names
+   */
+  private var liveBytes = 0L
+  private val crc = CRC32()
+
+  init {
+    open()
+  }
+
+  val keys: Set<String>
+    get() = index.keys
+
+  /**
+   * The names read from the file, by id
+   */
+  val fieldNames: Map<Int, String>
+    get() = names
+
+  fun contains(key: String): Boolean = index.containsKey(key)
+
+  fun get(key: String): ByteArray? {
+    val location = index[key] ?: return null
+    val bytes = ByteArray(location.size)
+    at(location.offset).get(bytes)
+    return bytes
+  }
+
+  fun put(key: String, value: ByteArray) {
+    val offset = append(TYPE_PUT, key, value)
+    val location = Location(offset, value.size, entrySize(key, value.size))
+    index.put(key, location)?.let { liveBytes -= it.entrySize }
+    liveBytes += location.entrySize
+  }
+
+  fun delete(key: String): Boolean {
+    val location = index.remove(key) ?: return false
+    liveBytes -= location.entrySize
+    append(TYPE_DELETE, key, EMPTY)
+    return true
+  }
+
+  fun putName(id: Int, name: String) {
+    val value = ByteBuffer.allocate(4).putInt(id).array()
+    append(TYPE_NAME, name, value)
+    names[id] = name
+    liveBytes += entrySize(name, value.size)
+  }
+
+  /**
+   * Forces the writes to the storage device if [syncWrites]
+   */
+  fun sync() {
+    if (syncWrites) {
+      buffer.force()
+    }
+  }
+
+  /**
+   * Whether enough of the file is replaced or deleted entries to be worth a [compact]
+   */
+  fun shouldCompact(): Boolean {
+    val garbage = end - HEADER_SIZE - liveBytes
+    return garbage >= MIN_COMPACTION_GARBAGE && garbage > liveBytes
+  }
+
+  /**
+   * Rewrites the file with the live entries only, and replaces it atomically.
+   */
+  fun compact() {
+    rewrite(keepEntries = true)
+  }
+
+  /**
+   * Removes all the entries and the names
+   */
+  fun clear() {
+    rewrite(keepEntries = false)
+  }
+
+  fun close() {
+    release()
+  }
+
+  /**
+   * Unmaps the file and closes [channel], which releases the file lock
+   */
+  private fun release() {
+    mapped?.let { unmap(it) }
+    mapped = null
+    channel.close()
+  }
+
+  private fun rewrite(keepEntries: Boolean) {
+    val tmp = File(file.path + ".tmp")
+    tmp.delete()
+    RandomAccessFile(tmp, "rw").use { raf ->
+      val out = raf.channel
+      val header = ByteBuffer.allocate(HEADER_SIZE).put(MAGIC).putInt(VERSION)
+      out.write(header.flipped())
+      if (keepEntries) {
+        for ((id, name) in names) {
+          out.write(ByteBuffer.wrap(encode(TYPE_NAME, name, ByteBuffer.allocate(4).putInt(id).array())))
+        }
+        for (key in index.keys) {
+          out.write(ByteBuffer.wrap(encode(TYPE_PUT, key, get(key)!!)))
+        }
+      }
+      out.write(ByteBuffer.wrap(byteArrayOf(0)))
+      out.force(true)
+    }
+    // Some platforms can't replace a file that is still mapped
+    release()
+    Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING)
+    index.clear()
+    names.clear()
+    liveBytes = 0
+    open()
+  }
+
+  /**
+   * Maps [file] and replays its entries
+   */
+  private fun open() {
+    file.parentFile?.mkdirs()
+    channel = RandomAccessFile(file, "rw").channel
+    val fileLock = try {
+      channel.tryLock()
+    } catch (e: OverlappingFileLockException) {
+      // Locked by this process
+      null
+    }
+    if (fileLock == null) {
+      channel.close()
+      throw IllegalStateException("Apollo: '${file.path}' is already used by another cache")
+    }
+    val fileSize = channel.size()
+    check(fileSize <= Int.MAX_VALUE) {
+      "Apollo: '${file.path}' is too large"
+    }
+    map(maxOf(INITIAL_CAPACITY, fileSize.toInt()))
+
+    if (fileSize < HEADER_SIZE || !hasValidHeader()) {
+      // New or unreadable file, start over
+      at(0).put(MAGIC).putInt(VERSION).put(0)
+      end = HEADER_SIZE
+      return
+    }
+
+    end = HEADER_SIZE
+    while (true) {
+      val entryEnd = replay(end)
+      if (entryEnd < 0) {
+        break
+      }
+      end = entryEnd
+    }
+    // Discard what is after the last valid entry
+    at(end).put(0)
+  }
+
+  private fun hasValidHeader(): Boolean {
+    val magic = ByteArray(MAGIC.size)
+    val header = at(0)
+    header.get(magic)
+    return magic.contentEquals(MAGIC) && header.getInt() == VERSION
+  }
+
+  /**
+   * Applies the entry at [offset] to the index
+   *
+   * @return the offset of the next entry or -1 if there is no valid entry at [offset]
+   */
+  private fun replay(offset: Int): Int {
+    if (offset + ENTRY_OVERHEAD > buffer.capacity()) {
+      return -1
+    }
+    val entry = at(offset)
+    val type = entry.get().toInt()
+    val keySize = entry.getInt()
+    val valueSize = entry.getInt()
+    if (type !in TYPE_PUT..TYPE_NAME || keySize < 0 || valueSize < 0) {
+      return -1
+    }
+    val entrySize = ENTRY_OVERHEAD.toLong() + keySize + valueSize
+    if (offset + entrySize > buffer.capacity()) {
+      return -1
+    }
+    val entryBytes = ByteArray(entrySize.toInt() - 4)
+    at(offset).get(entryBytes)
+    crc.reset()
+    crc.update(entryBytes)
+    if (crc.value.toInt() != at(offset + entryBytes.size).getInt()) {
+      return -1
+    }
+
+    val key = String(entryBytes, 9, keySize, Charsets.UTF_8)
+    val valueOffset = offset + 9 + keySize
+    when (type) {
+      TYPE_PUT -> {
+        index.put(key, Location(valueOffset, valueSize, entrySize.toInt()))?.let { liveBytes -= it.entrySize }
+        liveBytes += entrySize
+      }
+
+      TYPE_DELETE -> {
+        index.remove(key)?.let { liveBytes -= it.entrySize }
+      }
+
+      TYPE_NAME -> {
+        names[at(valueOffset).getInt()] = key
+        liveBytes += entrySize
+      }
+    }
+    return (offset + entrySize).toInt()
+  }
+
+  /**
+   * Appends an entry followed by the end marker
+   *
+   * @return the offset of the value
+   */
+  private fun append(type: Int, key: String, value: ByteArray): Int {
+    val bytes = encode(type, key, value)
+    val needed = end.toLong() + bytes.size + 1
+    if (needed > buffer.capacity()) {
+      var capacity = buffer.capacity().toLong()
+      while (capacity < needed) {
+        capacity *= 2
+      }
+      check(needed <= Int.MAX_VALUE) {
+        "Apollo: '${file.path}' is too large"
+      }
+      map(capacity.coerceAtMost(Int.MAX_VALUE.toLong()).toInt())
+    }
+    val offset = end
+    // Write the end marker of the next entry first so that a crash never exposes stale bytes
+    at(offset + bytes.size).put(0)
+    at(offset).put(bytes)
+    end = offset + bytes.size
+    return offset + bytes.size - 4 - value.size
+  }
+
+  private fun encode(type: Int, key: String, value: ByteArray): ByteArray {
+    val keyBytes = key.toByteArray(Charsets.UTF_8)
+    val entry = ByteBuffer.allocate(ENTRY_OVERHEAD + keyBytes.size + value.size)
+    entry.put(type.toByte())
+    entry.putInt(keyBytes.size)
+    entry.putInt(value.size)
+    entry.put(keyBytes)
+    entry.put(value)
+    crc.reset()
+    crc.update(entry.array(), 0, entry.position())
+    entry.putInt(crc.value.toInt())
+    return entry.array()
+  }
+
+  private fun entrySize(key: String, valueSize: Int): Int {
+    return ENTRY_OVERHEAD + key.toByteArray(Charsets.UTF_8).size + valueSize
+  }
+
+  private fun map(capacity: Int) {
+    val previous = mapped
+    mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity.toLong())
+    previous?.let { unmap(it) }
+  }
+
+  /**
+   * Returns a view of the mapped file positioned at [offset]
+   */
+  private fun at(offset: Int): ByteBuffer {
+    val view = buffer.duplicate()
+    // Call Buffer.position() and not ByteBuffer.position() that doesn't exist before Java 9
+    val asBuffer: Buffer = view
+    asBuffer.position(offset)
+    return view
+  }
+
+  private fun ByteBuffer.flipped(): ByteBuffer {
+    val asBuffer: Buffer = this
+    asBuffer.flip()
+    return this
+  }
+}
+
+private const val TYPE_PUT = 1
+private const val TYPE_DELETE = 2
+private const val TYPE_NAME = 3
+
+private val MAGIC = "APOLLOLG".toByteArray(Charsets.US_ASCII)
+private const val VERSION = 1
+private const val HEADER_SIZE = 12
+
+/**
+ * type + keySize + valueSize + crc
+ */
+private const val ENTRY_OVERHEAD = 13
+
+private const val INITIAL_CAPACITY = 1024 * 1024
+private const val MIN_COMPACTION_GARBAGE = 1024 * 1024
+private val EMPTY = ByteArray(0)
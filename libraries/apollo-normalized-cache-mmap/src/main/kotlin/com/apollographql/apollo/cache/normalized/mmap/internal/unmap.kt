@@ -0,0 +1,40 @@
+package com.apollographql.apollo.cache.normalized.mmap.internal
+
+import java.nio.ByteBuffer
+import java.nio.MappedByteBuffer
+
+/**
+ * Releases the mapping of [buffer] now instead of when it is garbage collected, so that the address space and the file
+ * are released as soon as possible. [buffer] and its views must not be used afterwards.
+ *
+ * There is no public API for this: it uses `Unsafe.invokeCleaner()` on Java 9+ and the buffer's cleaner on Java 8. If
+ * neither is available, the mapping is released when [buffer] is garbage collected.
+ */
+internal fun unmap(buffer: MappedByteBuffer) {
+  unmapper?.invoke(buffer)
+}
+
+private val unmapper: ((ByteBuffer) -> Unit)? = invokeCleanerUnmapper() ?: cleanerUnmapper()
+
+private fun invokeCleanerUnmapper(): ((ByteBuffer) -> Unit)? {
+  return try {
+    val unsafeClass = Class.forName("sun.misc.Unsafe")
+    val unsafe = unsafeClass.getDeclaredField("theUnsafe").apply { isAccessible = true }.get(null)
+    val invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer::class.java)
+    val release: (ByteBuffer) -> Unit = { buffer -> invokeCleaner.invoke(unsafe, buffer) }
+    release
+  } catch (e: Exception) {
+    null
+  }
+}
+
+private fun cleanerUnmapper(): ((ByteBuffer) -> Unit)? {
+  return try {
+    val cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner")
+    val clean = Class.forName("sun.misc.Cleaner").getMethod("clean")
+    val release: (ByteBuffer) -> Unit = { buffer -> cleaner.invoke(buffer)?.let { clean.invoke(it) } }
+    release
+  } catch (e: Exception) {
+    null
+  }
+}
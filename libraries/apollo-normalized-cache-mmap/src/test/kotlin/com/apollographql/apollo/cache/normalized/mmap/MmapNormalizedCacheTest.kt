@@ -0,0 +1,238 @@
+package com.apollographql.apollo.cache.normalized.mmap
+
+import com.apollographql.apollo.cache.normalized.api.CacheHeaders
+import com.apollographql.apollo.cache.normalized.api.CacheKey
+import com.apollographql.apollo.cache.normalized.api.Record
+import java.io.File
+import java.io.RandomAccessFile
+import java.nio.file.Files
+import kotlin.test.AfterTest
+import kotlin.test.BeforeTest
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertNotNull
+import kotlin.test.assertNull
+import kotlin.test.assertTrue
+
+class MmapNormalizedCacheTest {
+  private lateinit var dir: File
+  private val caches = mutableListOf<MmapNormalizedCache>()
+
+  @BeforeTest
+  fun setUp() {
+    dir = Files.createTempDirectory("mmap-cache").toFile()
+  }
+
+  @AfterTest
+  fun tearDown() {
+    caches.forEach { it.close() }
+    dir.deleteRecursively()
+  }
+
+  private fun open(): MmapNormalizedCache {
+    return MmapNormalizedCacheFactory(dir).create().also { caches.add(it) }
+  }
+
+  private fun createTestRecord(id: String): Record {
+    return Record(
+        key = "key$id",
+        fields = mapOf(
+            "field1" to "stringValueA$id",
+            "field2" to listOf(CacheKey("ref$id"), 42, 3.5, null, true),
+        )
+    )
+  }
+
+  @Test
+  fun saveAndLoad() {
+    val cache = open()
+    val records = (0 until 100).map { createTestRecord("$it") }
+    cache.merge(records, CacheHeaders.NONE)
+
+    for (record in records) {
+      assertEquals(record.fields, cache.loadRecord(record.key, CacheHeaders.NONE)?.fields)
+    }
+    assertEquals(records.map { it.key }.toSet(), cache.loadRecords(records.map { it.key }, CacheHeaders.NONE).map { it.key }.toSet())
+  }
+
+  @Test
+  fun mergeUpdatesTheRecord() {
+    val cache = open()
+    cache.merge(Record("1", mapOf("name" to "Luke")), CacheHeaders.NONE)
+    val changedKeys = cache.merge(Record("1", mapOf("name" to "Leia", "age" to 42)), CacheHeaders.NONE)
+
+    assertEquals(setOf("1.name", "1.age"), changedKeys)
+    assertEquals(mapOf("name" to "Leia", "age" to 42), cache.loadRecord("1", CacheHeaders.NONE)?.fields)
+  }
+
+  @Test
+  fun recordsArePersisted() {
+    val cache = open()
+    cache.merge((0 until 10).map { createTestRecord("$it") }, CacheHeaders.NONE)
+    cache.merge(Record("key3", mapOf("field1" to "updated")), CacheHeaders.NONE)
+    cache.remove(CacheKey("key5"), false)
+    cache.close()
+
+    val reopened = open()
+    assertEquals("updated", reopened.loadRecord("key3", CacheHeaders.NONE)?.get("field1"))
+    assertNull(reopened.loadRecord("key5", CacheHeaders.NONE))
+    assertEquals(createTestRecord("7").fields, reopened.loadRecord("key7", CacheHeaders.NONE)?.fields)
+  }
+
+  @Test
+  fun aTornWriteIsDiscarded() {
+    val cache = open()
+    cache.merge(createTestRecord("1"), CacheHeaders.NONE)
+    cache.merge(createTestRecord("2"), CacheHeaders.NONE)
+    cache.close()
+
+    // Simulate a crash in the middle of the last write: corrupt its last byte
+    val file = File(dir, "apollo.log")
+    val lastEntryEnd = endOfLog(file)
+    RandomAccessFile(file, "rw").use {
+      it.seek(lastEntryEnd - 1)
+      it.write(it.read() xor 0xff)
+    }
+
+    val reopened = open()
+    assertNotNull(reopened.loadRecord("key1", CacheHeaders.NONE))
+    assertNull(reopened.loadRecord("key2", CacheHeaders.NONE))
+
+    // The log is still writable
+    reopened.merge(createTestRecord("3"), CacheHeaders.NONE)
+    reopened.close()
+    assertNotNull(open().loadRecord("key3", CacheHeaders.NONE))
+  }
+
+  @Test
+  fun aLogCanOnlyBeOpenedOnce() {
+    val cache = open()
+    assertFailsWith<IllegalStateException> {
+      open()
+    }
+
+    // Compacting keeps the log locked
+    cache.compact()
+    assertFailsWith<IllegalStateException> {
+      open()
+    }
+
+    cache.close()
+    assertNull(open().loadRecord("key1", CacheHeaders.NONE))
+  }
+
+  @Test
+  fun compactKeepsTheLiveRecords() {
+    val cache = open()
+    repeat(5) { generation ->
+      cache.merge((0 until 10).map { Record("key$it", mapOf("generation" to generation)) }, CacheHeaders.NONE)
+    }
+    cache.remove(CacheKey("key0"), false)
+    val file = File(dir, "apollo.log")
+    val sizeBefore = endOfLog(file)
+    cache.compact()
+
+    assertTrue(endOfLog(file) < sizeBefore)
+    assertNull(cache.loadRecord("key0", CacheHeaders.NONE))
+    assertEquals(4, cache.loadRecord("key1", CacheHeaders.NONE)?.get("generation"))
+    cache.merge(Record("key1", mapOf("generation" to 5)), CacheHeaders.NONE)
+    cache.close()
+
+    val reopened = open()
+    assertEquals(5, reopened.loadRecord("key1", CacheHeaders.NONE)?.get("generation"))
+    assertEquals(9, reopened.dump().values.first().size)
+  }
+
+  @Test
+  fun removeCascade() {
+    val cache = open()
+    cache.merge(
+        listOf(
+            Record("root", mapOf("child" to CacheKey("child"))),
+            Record("child", mapOf("grandChild" to CacheKey("grandChild"))),
+            Record("grandChild", mapOf("name" to "Ben")),
+        ),
+        CacheHeaders.NONE
+    )
+
+    assertTrue(cache.remove(CacheKey("root"), true))
+    assertTrue(cache.dump().values.first().isEmpty())
+  }
+
+  @Test
+  fun garbageCollect() {
+    val cache = open()
+    cache.merge(
+        listOf(
+            Record(CacheKey.rootKey().key, mapOf("hero" to CacheKey("hero"))),
+            Record("hero", mapOf("friend" to CacheKey("friend"))),
+            Record("friend", mapOf("hero" to CacheKey("hero"))),
+            Record("orphan", mapOf("friend" to CacheKey("friend"))),
+        ),
+        CacheHeaders.NONE
+    )
+
+    assertEquals(1, cache.garbageCollect())
+    assertNull(cache.loadRecord("orphan", CacheHeaders.NONE))
+    assertEquals(setOf(CacheKey.rootKey().key, "hero", "friend"), cache.dump().values.first().keys)
+    assertEquals(0, cache.garbageCollect())
+  }
+
+  @Test
+  fun garbageCollectWithoutTheRootRecord() {
+    val cache = open()
+    // A store that only contains fragments
+    cache.merge(
+        listOf(
+            Record("hero", mapOf("friend" to CacheKey("friend"))),
+            Record("friend", mapOf("name" to "Luke")),
+        ),
+        CacheHeaders.NONE
+    )
+
+    assertEquals(0, cache.garbageCollect())
+    assertEquals(setOf("hero", "friend"), cache.dump().values.first().keys)
+  }
+
+  @Test
+  fun removeByPatternAndPrefix() {
+    val cache = open()
+    cache.merge((0 until 10).map { createTestRecord("$it") } + Record("other", mapOf("a" to 1)), CacheHeaders.NONE)
+
+    assertEquals(1, cache.remove("key1"))
+    assertEquals(9, cache.removeByPrefix("key"))
+    assertEquals(setOf("other"), cache.dump().values.first().keys)
+  }
+
+  @Test
+  fun clearAll() {
+    val cache = open()
+    cache.merge(createTestRecord("1"), CacheHeaders.NONE)
+    cache.clearAll()
+    assertNull(cache.loadRecord("key1", CacheHeaders.NONE))
+
+    // Field names are written again after a clear
+    cache.merge(createTestRecord("2"), CacheHeaders.NONE)
+    cache.close()
+    assertEquals(createTestRecord("2").fields, open().loadRecord("key2", CacheHeaders.NONE)?.fields)
+  }
+
+  /**
+   * Returns the offset of the end marker of the log
+   */
+  private fun endOfLog(file: File): Long {
+    RandomAccessFile(file, "r").use {
+      var offset = 12L
+      while (true) {
+        it.seek(offset)
+        if (it.read() == 0) {
+          return offset
+        }
+        val keySize = it.readInt()
+        val valueSize = it.readInt()
+        offset += 13 + keySize + valueSize
+      }
+    }
+  }
+}
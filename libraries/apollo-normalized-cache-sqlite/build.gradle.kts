@@ -27,6 +27,10 @@ kotlin {
         api(project(":apollo-api"))
         api(project(":apollo-normalized-cache-api"))
         api(libs.sqldelight.runtime)
+        implementation(libs.kotlinx.coroutines)
+        implementation(libs.atomicfu.library.get().toString()) {
+          because("Use of ReentrantLock in SqlNormalizedCache (we don't use the gradle plugin rewrite)")
+        }
       }
     }
 
@@ -7,14 +7,18 @@ import androidx.sqlite.db.framework.FrameworkSQLiteOpenHelperFactory
 import com.apollographql.apollo.cache.normalized.api.NormalizedCacheFactory
 import com.apollographql.apollo.cache.normalized.sql.internal.createDriver
 import com.apollographql.apollo.cache.normalized.sql.internal.createRecordDatabase
+import com.apollographql.apollo.cache.normalized.sql.internal.WriteBehind
 import com.apollographql.apollo.cache.normalized.sql.internal.getSchema
 import app.cash.sqldelight.driver.android.AndroidSqliteDriver
 import app.cash.sqldelight.db.SqlDriver
 import com.apollographql.apollo.cache.normalized.api.NormalizedCache
 
-actual class SqlNormalizedCacheFactory actual constructor(
+actual class SqlNormalizedCacheFactory private constructor(
     private val driver: SqlDriver,
+    private val recordFormat: RecordFormat,
+    private val writeBehind: WriteBehind?,
 ) : NormalizedCacheFactory() {
+  actual constructor(driver: SqlDriver) : this(driver, RecordFormat.Json, null)
 
   /**
    * @param [name] Name of the database file, or null for an in-memory database (as per Android framework implementation).
@@ -51,8 +55,18 @@ actual class SqlNormalizedCacheFactory actual constructor(
 
   actual constructor(name: String?): this(createDriver(name, null, getSchema()))
 
+  actual constructor(name: String?, sqliteOptions: SqliteOptions): this(createDriver(name, null, getSchema(), sqliteOptions))
+
+  actual fun recordFormat(recordFormat: RecordFormat): SqlNormalizedCacheFactory {
+    return SqlNormalizedCacheFactory(driver, recordFormat, writeBehind)
+  }
+
+  actual fun writeBehind(windowMillis: Long, maxPendingRecords: Int): SqlNormalizedCacheFactory {
+    return SqlNormalizedCacheFactory(driver, recordFormat, WriteBehind(windowMillis, maxPendingRecords))
+  }
+
   actual override fun create(): NormalizedCache {
-    return SqlNormalizedCache(createRecordDatabase(driver))
+    return SqlNormalizedCache(createRecordDatabase(driver, recordFormat), writeBehind)
   }
 }
 
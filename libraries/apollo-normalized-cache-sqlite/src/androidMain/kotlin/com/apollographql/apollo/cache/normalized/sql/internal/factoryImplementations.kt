@@ -1,14 +1,25 @@
 package com.apollographql.apollo.cache.normalized.sql.internal
 
+import androidx.sqlite.db.SupportSQLiteDatabase
 import androidx.sqlite.db.framework.FrameworkSQLiteOpenHelperFactory
 import app.cash.sqldelight.db.QueryResult
 import com.apollographql.apollo.cache.normalized.sql.ApolloInitializer
 import app.cash.sqldelight.driver.android.AndroidSqliteDriver
 import app.cash.sqldelight.db.SqlDriver
 import app.cash.sqldelight.db.SqlSchema
+import com.apollographql.apollo.cache.normalized.sql.SqliteOptions
 
+/**
+ * The default of [AndroidSqliteDriver]
+ */
+private const val defaultStatementCacheSize = 20
 
-internal actual fun createDriver(name: String?, baseDir: String?, schema: SqlSchema<QueryResult.Value<Unit>>): SqlDriver {
+internal actual fun createDriver(
+    name: String?,
+    baseDir: String?,
+    schema: SqlSchema<QueryResult.Value<Unit>>,
+    options: SqliteOptions,
+): SqlDriver {
   check(baseDir == null) {
     "Apollo: Android SqlNormalizedCacheFactory doesn't support 'baseDir'"
   }
@@ -17,9 +28,28 @@ internal actual fun createDriver(name: String?, baseDir: String?, schema: SqlSch
       ApolloInitializer.context,
       name,
       FrameworkSQLiteOpenHelperFactory(),
+      object : AndroidSqliteDriver.Callback(schema) {
+        override fun onConfigure(db: SupportSQLiteDatabase) {
+          super.onConfigure(db)
+          db.configure(options)
+        }
+      },
+      cacheSize = options.statementCacheSize ?: defaultStatementCacheSize,
   )
 }
 
+private fun SupportSQLiteDatabase.configure(options: SqliteOptions) {
+  when (options.writeAheadLogging) {
+    true -> enableWriteAheadLogging()
+    false -> disableWriteAheadLogging()
+    null -> Unit
+  }
+  for ((pragma, value) in options.connectionPragmas()) {
+    // Some pragmas return a row and cannot be used with execSQL. The query is only run once the cursor is moved.
+    query("PRAGMA $pragma=$value").use { it.moveToFirst() }
+  }
+}
+
 internal actual fun maybeCreateOrMigrateSchema(driver: SqlDriver, schema: SqlSchema<QueryResult.Value<Unit>>) {
   // no-op
-}
\ No newline at end of file
+}
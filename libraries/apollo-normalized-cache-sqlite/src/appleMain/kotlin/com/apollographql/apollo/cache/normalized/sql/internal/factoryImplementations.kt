@@ -6,21 +6,50 @@ import app.cash.sqldelight.db.SqlDriver
 import app.cash.sqldelight.db.SqlSchema
 import app.cash.sqldelight.driver.native.NativeSqliteDriver
 import app.cash.sqldelight.driver.native.wrapConnection
+import co.touchlab.sqliter.JournalMode
+import co.touchlab.sqliter.SynchronousFlag
+import co.touchlab.sqliter.withStatement
+import com.apollographql.apollo.cache.normalized.sql.SqliteOptions
 
 
-internal actual fun createDriver(name: String?, baseDir: String?, schema: SqlSchema<QueryResult.Value<Unit>>): SqlDriver {
+internal actual fun createDriver(
+    name: String?,
+    baseDir: String?,
+    schema: SqlSchema<QueryResult.Value<Unit>>,
+    options: SqliteOptions,
+): SqlDriver {
   val databaseConfiguration = DatabaseConfiguration(
       name = name ?: "memoryDb",
       inMemory = name == null,
       version = schema.version.toInt(),
+      // SQLiter uses WAL by default
+      journalMode = if (options.writeAheadLogging == false) JournalMode.DELETE else JournalMode.WAL,
       create = { connection ->
         wrapConnection(connection) { schema.create(it) }
       },
       upgrade = { connection, oldVersion, newVersion ->
         wrapConnection(connection) { schema.migrate(it, oldVersion.toLong(), newVersion.toLong()) }
       },
+      lifecycleConfig = DatabaseConfiguration.Lifecycle(
+          onCreateConnection = { connection ->
+            for ((pragma, value) in options.connectionPragmas()) {
+              if (pragma == "synchronous") {
+                // Set from extendedConfig
+                continue
+              }
+              // Some pragmas return a row, step through the statement whether it does or not
+              connection.withStatement("PRAGMA $pragma=$value") { query().next() }
+            }
+          }
+      ),
       extendedConfig = DatabaseConfiguration.Extended(
-          basePath = baseDir
+          basePath = baseDir,
+          synchronousFlag = when (options.synchronous) {
+            SqliteOptions.Synchronous.Off -> SynchronousFlag.OFF
+            SqliteOptions.Synchronous.Normal -> SynchronousFlag.NORMAL
+            SqliteOptions.Synchronous.Full -> SynchronousFlag.FULL
+            null -> null
+          }
       )
   )
   return NativeSqliteDriver(databaseConfiguration, 1)
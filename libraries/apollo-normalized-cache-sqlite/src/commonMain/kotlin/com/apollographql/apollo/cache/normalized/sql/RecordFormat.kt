@@ -0,0 +1,21 @@
+package com.apollographql.apollo.cache.normalized.sql
+
+/**
+ * The format used to store records in the database
+ */
+enum class RecordFormat {
+  /**
+   * Records are stored as JSON text. This is the default.
+   */
+  Json,
+
+  /**
+   * Records are stored in a compact binary format where field names are stored once per database and cache keys are
+   * stored without their textual prefix. This takes less space on disk and is faster to decode than [Json].
+   * Fields are decoded lazily, when they are first accessed.
+   *
+   * Records previously stored as [Json] are migrated to [Binary] as they are read or written.
+   * Switching back from [Binary] to [Json] is not supported: records stored as [Binary] won't be read.
+   */
+  Binary,
+}
@@ -6,20 +6,85 @@ import com.apollographql.apollo.cache.normalized.api.CacheHeaders
 import com.apollographql.apollo.cache.normalized.api.CacheKey
 import com.apollographql.apollo.cache.normalized.api.NormalizedCache
 import com.apollographql.apollo.cache.normalized.api.Record
+import com.apollographql.apollo.cache.normalized.api.internal.ChangedKeys
 import com.apollographql.apollo.cache.normalized.sql.internal.RecordDatabase
+import com.apollographql.apollo.cache.normalized.sql.internal.WriteBehind
+import com.apollographql.apollo.cache.normalized.sql.internal.maxKeysPerQuery
 import com.apollographql.apollo.exception.apolloExceptionHandler
+import kotlinx.atomicfu.locks.reentrantLock
+import kotlinx.atomicfu.locks.withLock
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.cancel
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
 import kotlin.reflect.KClass
 
+/**
+ * A [NormalizedCache] backed by SQLite.
+ *
+ * By default, every merge is written to the database synchronously, in its own transaction.
+ *
+ * With [SqlNormalizedCacheFactory.writeBehind], merges are buffered in memory and written later by a background writer,
+ * in a single transaction per batch:
+ * - a batch is written once `windowMillis` have elapsed since the first buffered merge or as soon as
+ * `maxPendingRecords` records are buffered, whatever comes first.
+ * - merges of the same record are coalesced. The last merge wins for each field.
+ * - buffered records are visible to [loadRecord], [loadRecords] and [dump] immediately.
+ * - removals write the buffered records first.
+ *
+ * Crash safety: a batch is written in a single transaction so the database always contains the result of a whole number
+ * of batches, and the records of a single [merge] call are always in the same batch. If the process dies before or
+ * while a batch is written, the merges of that batch are lost and the database contains the state as of the previous
+ * batch. Call [flush] to make sure everything is written, for example before the app goes to the background.
+ *
+ * The background writer and the calling threads never access the database at the same time: transactions don't
+ * interleave on the driver.
+ *
+ * [close] writes the buffered merges and stops the background writer. [com.apollographql.apollo.cache.normalized.ApolloStore.dispose]
+ * calls it.
+ */
 class SqlNormalizedCache internal constructor(
     private val recordDatabase: RecordDatabase,
-) : NormalizedCache() {
+    private val writeBehind: WriteBehind? = null,
+) : NormalizedCache(), AutoCloseable {
+  /**
+   * Serializes the buffered merges with each other and with removals
+   */
+  private val mergeLock = reentrantLock()
+
+  /**
+   * Serializes every access to the database, including the batches written by the background writer
+   */
+  private val databaseLock = reentrantLock()
+
+  /**
+   * Guards [pending], [flushing], [scheduledFlush] and [closed]
+   */
+  private val lock = reentrantLock()
+
+  /**
+   * The records merged since the last batch, fully merged with their previous value
+   */
+  private var pending = LinkedHashMap<String, Record>()
+
+  /**
+   * The records of the batch being written. They stay visible to readers until the transaction is committed.
+   */
+  private var flushing: Map<String, Record> = emptyMap()
+  private var scheduledFlush: Job? = null
+  private var closed = false
+
+  private val scope = writeBehind?.let { CoroutineScope(SupervisorJob() + Dispatchers.Default.limitedParallelism(1)) }
 
   override fun loadRecord(key: String, cacheHeaders: CacheHeaders): Record? {
     if (cacheHeaders.hasHeader(ApolloCacheHeaders.MEMORY_CACHE_ONLY)) {
       return null
     }
     val record = try {
-      recordDatabase.select(key)
+      bufferedRecord(key) ?: databaseLock.withLock { recordDatabase.select(key) }
     } catch (e: Exception) {
       // Unable to read the record from the database, it is possibly corrupted - treat this as a cache miss
       apolloExceptionHandler(Exception("Unable to read a record from the database", e))
@@ -27,7 +92,9 @@ class SqlNormalizedCache internal constructor(
     }
     if (record != null) {
       if (cacheHeaders.hasHeader(EVICT_AFTER_READ)) {
-        recordDatabase.delete(key)
+        withoutPendingWrites {
+          recordDatabase.delete(key)
+        }
       }
       return record
     }
@@ -39,15 +106,17 @@ class SqlNormalizedCache internal constructor(
       return emptyList()
     }
     val records = try {
-      internalGetRecords(keys)
+      internalGetRecordsIncludingBuffered(keys)
     } catch (e: Exception) {
       // Unable to read the records from the database, it is possibly corrupted - treat this as a cache miss
       apolloExceptionHandler(Exception("Unable to read records from the database", e))
       emptyList()
     }
     if (cacheHeaders.hasHeader(EVICT_AFTER_READ)) {
-      records.forEach { record ->
-        recordDatabase.delete(record.key)
+      withoutPendingWrites {
+        records.forEach { record ->
+          recordDatabase.delete(record.key)
+        }
       }
     }
     val missRecordKeys = keys - records.map { it.key }.toSet()
@@ -57,15 +126,19 @@ class SqlNormalizedCache internal constructor(
 
   override fun clearAll() {
     nextCache?.clearAll()
-    recordDatabase.deleteAll()
+    withoutPendingWrites {
+      recordDatabase.deleteAll()
+    }
   }
 
   override fun remove(cacheKey: CacheKey, cascade: Boolean): Boolean {
-    val selfRemoved = recordDatabase.transaction {
-      internalDeleteRecord(
-          key = cacheKey.key,
-          cascade = cascade,
-      )
+    val selfRemoved = withoutPendingWrites {
+      recordDatabase.transaction {
+        internalDeleteRecord(
+            key = cacheKey.key,
+            cascade = cascade,
+        )
+      }
     }
     val chainRemoved = nextCache?.remove(cacheKey, cascade) ?: false
     return selfRemoved || chainRemoved
@@ -73,21 +146,66 @@ class SqlNormalizedCache internal constructor(
 
   override fun remove(pattern: String): Int {
     var selfRemoved = 0
-    recordDatabase.transaction {
-      recordDatabase.deleteMatching(pattern)
-      selfRemoved = recordDatabase.changes().toInt()
+    withoutPendingWrites {
+      recordDatabase.transaction {
+        recordDatabase.deleteMatching(pattern)
+        selfRemoved = recordDatabase.changes().toInt()
+      }
     }
     val chainRemoved = nextCache?.remove(pattern) ?: 0
 
     return selfRemoved + chainRemoved
   }
 
+  override fun removeByPrefix(prefix: String): Int {
+    var selfRemoved = 0
+    withoutPendingWrites {
+      recordDatabase.transaction {
+        recordDatabase.deleteWithPrefix(prefix)
+        selfRemoved = recordDatabase.changes().toInt()
+      }
+    }
+    val chainRemoved = nextCache?.removeByPrefix(prefix) ?: 0
+
+    return selfRemoved + chainRemoved
+  }
+
+  override fun garbageCollect(): Int {
+    val selfRemoved = try {
+      withoutPendingWrites {
+        recordDatabase.transaction {
+          val rootKey = CacheKey.rootKey().key
+          if (recordDatabase.select(rootKey) == null) {
+            // Without a root record, nothing is reachable: keep the records, e.g. a store that only contains fragments
+            0L
+          } else {
+            recordDatabase.deleteUnreachable(rootKey)
+          }
+        }
+      }.toInt()
+    } catch (e: Exception) {
+      apolloExceptionHandler(Exception("Unable to garbage collect the database", e))
+      0
+    }
+    val chainRemoved = nextCache?.garbageCollect() ?: 0
+
+    return selfRemoved + chainRemoved
+  }
+
   override fun merge(records: Collection<Record>, cacheHeaders: CacheHeaders): Set<String> {
     if (cacheHeaders.hasHeader(ApolloCacheHeaders.DO_NOT_STORE) || cacheHeaders.hasHeader(ApolloCacheHeaders.MEMORY_CACHE_ONLY)) {
       return emptySet()
     }
     return try {
-      internalUpdateRecords(records = records, cacheHeaders.date()) + nextCache?.merge(records, cacheHeaders).orEmpty()
+      val changedKeys = if (writeBehind != null) {
+        bufferRecords(records = records, cacheHeaders.date())
+      } else {
+        internalUpdateRecords(records = records, cacheHeaders.date())
+      }
+      ChangedKeys().apply {
+        addAll(changedKeys)
+        nextCache?.let { addAll(it.merge(records, cacheHeaders)) }
+      }
     } catch (e: Exception) {
       // Unable to merge the records in the database, it is possibly corrupted - treat this as a cache miss
       apolloExceptionHandler(Exception("Unable to merge records from the database", e))
@@ -104,7 +222,15 @@ class SqlNormalizedCache internal constructor(
       return emptySet()
     }
     return try {
-      internalUpdateRecord(record, cacheHeaders.date()) + nextCache?.merge(record, cacheHeaders).orEmpty()
+      val changedKeys = if (writeBehind != null) {
+        bufferRecords(records = listOf(record), cacheHeaders.date())
+      } else {
+        internalUpdateRecord(record, cacheHeaders.date())
+      }
+      ChangedKeys().apply {
+        addAll(changedKeys)
+        nextCache?.let { addAll(it.merge(record, cacheHeaders)) }
+      }
     } catch (e: Exception) {
       // Unable to merge the record in the database, it is possibly corrupted - treat this as a cache miss
       apolloExceptionHandler(Exception("Unable to merge a record from the database", e))
@@ -113,29 +239,139 @@ class SqlNormalizedCache internal constructor(
   }
 
   override fun dump(): Map<KClass<*>, Map<String, Record>> {
+    val records = withoutPendingWrites { recordDatabase.selectAll() }
     return mapOf(
-        this@SqlNormalizedCache::class to recordDatabase.selectAll().associateBy { it.key }
+        this@SqlNormalizedCache::class to records.associateBy { it.key }
     ) + nextCache?.dump().orEmpty()
   }
 
+  /**
+   * Writes the buffered merges to the database and returns once they are committed.
+   *
+   * This is a no-op if write-behind is not enabled.
+   */
+  fun flush() {
+    databaseLock.withLock {
+      val records = lock.withLock {
+        scheduledFlush = null
+        flushing = pending
+        pending = LinkedHashMap()
+        flushing
+      }
+      if (records.isEmpty()) {
+        return
+      }
+      try {
+        recordDatabase.transaction {
+          val existingKeys = internalGetRecords(records.keys).mapTo(HashSet()) { it.key }
+          for (record in records.values) {
+            if (record.key in existingKeys) {
+              recordDatabase.update(record)
+            } else {
+              recordDatabase.insert(record)
+            }
+          }
+        }
+      } catch (e: Exception) {
+        // Unable to write the records in the database, it is possibly corrupted - drop the batch
+        apolloExceptionHandler(Exception("Unable to write records to the database", e))
+      } finally {
+        lock.withLock {
+          flushing = emptyMap()
+        }
+      }
+    }
+  }
+
+  /**
+   * Writes the buffered merges to the database and stops the background writer. Subsequent merges are written
+   * synchronously.
+   *
+   * This is a no-op if write-behind is not enabled.
+   */
+  override fun close() {
+    mergeLock.withLock {
+      lock.withLock {
+        closed = true
+      }
+    }
+    flush()
+    scope?.cancel()
+  }
+
+  private fun bufferedRecord(key: String): Record? {
+    if (writeBehind == null) {
+      return null
+    }
+    return lock.withLock { pending[key] ?: flushing[key] }
+  }
+
+  /**
+   * Runs [block] once all the buffered merges are written, making sure no merge is buffered while [block] runs
+   */
+  private fun <T> withoutPendingWrites(block: () -> T): T {
+    if (writeBehind == null) {
+      return databaseLock.withLock(block)
+    }
+    return mergeLock.withLock {
+      databaseLock.withLock {
+        flush()
+        block()
+      }
+    }
+  }
+
+  /**
+   * Merges [records] with their current value and buffers the result
+   */
+  private fun bufferRecords(records: Collection<Record>, date: Long?): Set<String> {
+    val writeBehind = writeBehind!!
+    return mergeLock.withLock {
+      if (lock.withLock { closed }) {
+        return internalUpdateRecords(records, date)
+      }
+      val oldRecords = internalGetRecordsIncludingBuffered(records.map { it.key }).associateByTo(HashMap()) { it.key }
+
+      val changedKeys = ChangedKeys()
+      for (record in records) {
+        val oldRecord = oldRecords[record.key]
+        if (oldRecord == null) {
+          oldRecords[record.key] = record.withDate(date)
+          changedKeys.addAll(record.fieldKeys())
+        } else {
+          val (mergedRecord, recordChangedKeys) = oldRecord.mergeWith(record, date)
+          oldRecords[record.key] = mergedRecord
+          changedKeys.addAll(recordChangedKeys)
+        }
+      }
+
+      lock.withLock {
+        for (record in records) {
+          pending[record.key] = oldRecords[record.key]!!
+        }
+        if (pending.size >= writeBehind.maxPendingRecords) {
+          scheduledFlush?.cancel()
+          scheduledFlush = scope!!.launch { flush() }
+        } else if (scheduledFlush == null) {
+          scheduledFlush = scope!!.launch {
+            delay(writeBehind.windowMillis)
+            flush()
+          }
+        }
+      }
+      changedKeys
+    }
+  }
+
   /**
    * Assume an enclosing transaction
+   *
+   * With [cascade], the records reachable from [key] are found with a single recursive query on the references table,
+   * without loading them.
    */
-  private fun internalDeleteRecord(key: String, cascade: Boolean, visited: MutableSet<String> = mutableSetOf()): Boolean {
+  private fun internalDeleteRecord(key: String, cascade: Boolean): Boolean {
     if (cascade) {
-      // If we've already visited this key, return to prevent infinite loop
-      if (key in visited) return false
-      visited.add(key)
-
-      recordDatabase.select(key)
-          ?.referencedFields()
-          ?.forEach {
-            internalDeleteRecord(
-                key = it.key,
-                cascade = true,
-                visited = visited
-            )
-          }
+      return recordDatabase.deleteReachable(key) > 0
     }
     recordDatabase.delete(key)
     return recordDatabase.changes() > 0
@@ -147,25 +383,27 @@ class SqlNormalizedCache internal constructor(
    * This is an optimization over [internalUpdateRecord]
    */
   private fun internalUpdateRecords(records: Collection<Record>, date: Long?): Set<String> {
-    var updatedRecordKeys: Set<String> = emptySet()
-    recordDatabase.transaction {
-      val oldRecords = internalGetRecords(
-          keys = records.map { it.key },
-      ).associateBy { it.key }
+    val updatedRecordKeys = ChangedKeys()
+    databaseLock.withLock {
+      recordDatabase.transaction {
+        val oldRecords = internalGetRecords(
+            keys = records.map { it.key },
+        ).associateBy { it.key }
 
-      updatedRecordKeys = records.flatMap { record ->
-        val oldRecord = oldRecords[record.key]
-        if (oldRecord == null) {
-          recordDatabase.insert(record.withDate(date))
-          record.fieldKeys()
-        } else {
-          val (mergedRecord, changedKeys) = oldRecord.mergeWith(record, date)
-          if (mergedRecord.isNotEmpty()) {
-            recordDatabase.update(mergedRecord)
+        for (record in records) {
+          val oldRecord = oldRecords[record.key]
+          if (oldRecord == null) {
+            recordDatabase.insert(record.withDate(date))
+            updatedRecordKeys.addAll(record.key, record.fields.keys)
+          } else {
+            val (mergedRecord, changedKeys) = oldRecord.mergeWith(record, date)
+            if (mergedRecord.isNotEmpty()) {
+              recordDatabase.update(mergedRecord)
+            }
+            updatedRecordKeys.addAll(changedKeys)
           }
-          changedKeys
         }
-      }.toSet()
+      }
     }
     return updatedRecordKeys
   }
@@ -187,29 +425,55 @@ class SqlNormalizedCache internal constructor(
    * Update a single [Record], loading the previous one
    */
   private fun internalUpdateRecord(record: Record, date: Long?): Set<String> {
-    return recordDatabase.transaction {
-      val oldRecord = recordDatabase.select(record.key)
+    return databaseLock.withLock {
+      recordDatabase.transaction {
+        val oldRecord = recordDatabase.select(record.key)
 
-      if (oldRecord == null) {
-        recordDatabase.insert(record.withDate(date))
-        record.fieldKeys()
-      } else {
-        val (mergedRecord, changedKeys) = oldRecord.mergeWith(record, date)
-        if (mergedRecord.isNotEmpty()) {
-          recordDatabase.update(mergedRecord)
+        if (oldRecord == null) {
+          recordDatabase.insert(record.withDate(date))
+          record.fieldKeys()
+        } else {
+          val (mergedRecord, changedKeys) = oldRecord.mergeWith(record, date)
+          if (mergedRecord.isNotEmpty()) {
+            recordDatabase.update(mergedRecord)
+          }
+          changedKeys
         }
-        changedKeys
       }
     }
   }
 
   /**
-   * Loads a list of records, making sure to not query more than 999 at a time
+   * Loads a list of records, looking up the buffered merges first
+   */
+  private fun internalGetRecordsIncludingBuffered(keys: Collection<String>): List<Record> {
+    if (writeBehind == null) {
+      return internalGetRecords(keys)
+    }
+    val buffered = mutableListOf<Record>()
+    val missingKeys = mutableListOf<String>()
+    lock.withLock {
+      for (key in keys) {
+        val record = pending[key] ?: flushing[key]
+        if (record != null) {
+          buffered.add(record)
+        } else {
+          missingKeys.add(key)
+        }
+      }
+    }
+    return buffered + internalGetRecords(missingKeys)
+  }
+
+  /**
+   * Loads a list of records, making sure to not query more than [maxKeysPerQuery] at a time
    * to help with the SQLite limitations
    */
   private fun internalGetRecords(keys: Collection<String>): List<Record> {
-    return keys.chunked(999).flatMap { chunkedKeys ->
-      recordDatabase.select(chunkedKeys)
+    return databaseLock.withLock {
+      keys.chunked(maxKeysPerQuery).flatMap { chunkedKeys ->
+        recordDatabase.select(chunkedKeys)
+      }
     }
   }
 }
@@ -17,6 +17,31 @@ import com.apollographql.apollo.cache.normalized.api.NormalizedCacheFactory
  */
 expect class SqlNormalizedCacheFactory(name: String? = "apollo.db") : NormalizedCacheFactory {
   constructor(driver: SqlDriver)
+
+  /**
+   * @param name the name of the database or null for an in-memory database
+   * @param sqliteOptions the options used to open the database
+   */
+  constructor(name: String?, sqliteOptions: SqliteOptions)
+
+  /**
+   * Returns a copy of this factory that stores records using [recordFormat]
+   *
+   * Default: [RecordFormat.Json]
+   */
+  fun recordFormat(recordFormat: RecordFormat): SqlNormalizedCacheFactory
+
+  /**
+   * Returns a copy of this factory that buffers merges in memory and writes them to the database in batches, from a
+   * background writer.
+   *
+   * See [SqlNormalizedCache] for the consistency and crash safety guarantees.
+   *
+   * @param windowMillis the maximum time a merge stays buffered before being written
+   * @param maxPendingRecords the number of buffered records that triggers a write without waiting for [windowMillis]
+   */
+  fun writeBehind(windowMillis: Long = 50, maxPendingRecords: Int = 1000): SqlNormalizedCacheFactory
+
   override fun create(): NormalizedCache
 }
 
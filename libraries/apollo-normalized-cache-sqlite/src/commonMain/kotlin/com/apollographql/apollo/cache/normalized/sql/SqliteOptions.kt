@@ -0,0 +1,104 @@
+package com.apollographql.apollo.cache.normalized.sql
+
+/**
+ * Options used to open the SQLite database of a [SqlNormalizedCacheFactory].
+ *
+ * By default, all options use the SQLite and driver defaults. A configuration that trades some durability for
+ * write throughput is:
+ *
+ * ```
+ * SqliteOptions.Builder()
+ *     .writeAheadLogging(true)
+ *     .synchronous(SqliteOptions.Synchronous.Normal)
+ *     .build()
+ * ```
+ *
+ * Options are applied to every connection opened by the driver. They are ignored when the [SqlNormalizedCacheFactory]
+ * is created from an existing driver.
+ */
+class SqliteOptions private constructor(
+    /**
+     * Whether to use the `WAL` journal mode. Readers do not block writers and commits are cheaper, at the price of
+     * a `-wal` file next to the database.
+     *
+     * This is a no-op for in-memory databases.
+     */
+    val writeAheadLogging: Boolean?,
+    /**
+     * The value of `PRAGMA synchronous`. With [writeAheadLogging], [Synchronous.Normal] keeps the database consistent
+     * but the last commits may be rolled back after a power loss.
+     */
+    val synchronous: Synchronous?,
+    /**
+     * The value of `PRAGMA mmap_size`: the maximum number of bytes of the database file that are memory mapped.
+     */
+    val mmapSizeBytes: Long?,
+    /**
+     * The maximum number of bytes used by the page cache of each connection (`PRAGMA cache_size`).
+     */
+    val pageCacheSizeBytes: Long?,
+    /**
+     * The maximum number of prepared statements kept by each connection.
+     *
+     * Only used on Android. On the JVM, the driver doesn't cache prepared statements. On Apple platforms, the driver
+     * caches all the prepared statements, which are bounded by the number of distinct queries.
+     */
+    val statementCacheSize: Int?,
+) {
+  enum class Synchronous {
+    Off,
+    Normal,
+    Full,
+  }
+
+  class Builder {
+    private var writeAheadLogging: Boolean? = null
+    private var synchronous: Synchronous? = null
+    private var mmapSizeBytes: Long? = null
+    private var pageCacheSizeBytes: Long? = null
+    private var statementCacheSize: Int? = null
+
+    fun writeAheadLogging(writeAheadLogging: Boolean) = apply {
+      this.writeAheadLogging = writeAheadLogging
+    }
+
+    fun synchronous(synchronous: Synchronous) = apply {
+      this.synchronous = synchronous
+    }
+
+    fun mmapSizeBytes(mmapSizeBytes: Long) = apply {
+      require(mmapSizeBytes >= 0) {
+        "Apollo: 'mmapSizeBytes' must be positive"
+      }
+      this.mmapSizeBytes = mmapSizeBytes
+    }
+
+    fun pageCacheSizeBytes(pageCacheSizeBytes: Long) = apply {
+      require(pageCacheSizeBytes >= 0) {
+        "Apollo: 'pageCacheSizeBytes' must be positive"
+      }
+      this.pageCacheSizeBytes = pageCacheSizeBytes
+    }
+
+    fun statementCacheSize(statementCacheSize: Int) = apply {
+      require(statementCacheSize > 0) {
+        "Apollo: 'statementCacheSize' must be strictly positive"
+      }
+      this.statementCacheSize = statementCacheSize
+    }
+
+    fun build(): SqliteOptions {
+      return SqliteOptions(
+          writeAheadLogging = writeAheadLogging,
+          synchronous = synchronous,
+          mmapSizeBytes = mmapSizeBytes,
+          pageCacheSizeBytes = pageCacheSizeBytes,
+          statementCacheSize = statementCacheSize,
+      )
+    }
+  }
+
+  companion object {
+    val Default = Builder().build()
+  }
+}
@@ -0,0 +1,247 @@
+package com.apollographql.apollo.cache.normalized.sql.internal
+
+import app.cash.sqldelight.db.SqlDriver
+import com.apollographql.apollo.cache.normalized.api.Record
+import com.apollographql.apollo.cache.normalized.api.internal.CompactRecordSerializer
+import com.apollographql.apollo.cache.normalized.api.internal.FieldNameTable
+import com.apollographql.apollo.cache.normalized.api.internal.JsonRecordSerializer
+import com.apollographql.apollo.cache.normalized.sql.internal.json.JsonDatabase
+
+/**
+ * A [RecordDatabase] that stores records using [CompactRecordSerializer].
+ *
+ * Field names are stored once in the `field_names` table.
+ *
+ * Records written by [JsonRecordDatabase] are migrated online: every time a record is missing from the `compact_records`
+ * table, it is looked up in the legacy `records` table and moved to `compact_records` if found. Writes and deletes
+ * always remove the legacy row so that both tables never contain the same key for long.
+ */
+internal class CompactRecordDatabase(driver: SqlDriver) : RecordDatabase {
+  private val jsonQueries = JsonDatabase(driver).jsonQueries
+  private val compactRecordsForKeys = RecordsForKeysQuery(driver, "compact_records")
+  private val recordsForKeys = RecordsForKeysQuery(driver, "records")
+  private val references = RecordReferences(jsonQueries)
+
+  private val fieldNames = FieldNameTable(::insertFieldName)
+  private val serializer = CompactRecordSerializer(fieldNames)
+
+  /**
+   * Whether the legacy `records` table may still contain records. Once it is empty, there is no need to look it up.
+   *
+   * @see checkLegacyRecords
+   */
+  private var hasLegacyRecords: Boolean = jsonQueries.hasRecords().executeAsOneOrNull() != null
+
+  /**
+   * The number of rows deleted by the last call to a delete method. A delete may touch both tables so `SELECT changes()`
+   * is not enough.
+   */
+  private var changes = 0L
+
+  init {
+    loadFieldNames()
+  }
+
+  private fun loadFieldNames() {
+    fieldNames.load(jsonQueries.selectFieldNames { id, name -> id.toInt() to name }.executeAsList().toMap())
+  }
+
+  /**
+   * Persists a new field name. The name is inserted in the current transaction, or a new one if there is none, and
+   * forgotten by [fieldNames] if that transaction is rolled back.
+   */
+  private fun insertFieldName(id: Int, name: String) {
+    jsonQueries.transaction {
+      jsonQueries.insertFieldName(id.toLong(), name)
+      afterRollback { fieldNames.rollback(id) }
+    }
+  }
+
+  /**
+   * Clears [hasLegacyRecords] if the legacy `records` table is now empty. If the current transaction is rolled back, the
+   * records are back and so is [hasLegacyRecords].
+   */
+  private fun checkLegacyRecords() {
+    if (!hasLegacyRecords) {
+      return
+    }
+    jsonQueries.transaction {
+      if (jsonQueries.hasRecords().executeAsOneOrNull() == null) {
+        hasLegacyRecords = false
+        afterRollback { hasLegacyRecords = true }
+      }
+    }
+  }
+
+  override fun select(key: String): Record? {
+    val record = jsonQueries.compactRecordForKey(key) { _, bytes -> serializer.deserialize(key, bytes) }.executeAsOneOrNull()
+    if (record != null || !hasLegacyRecords) {
+      return record
+    }
+    return migrate(jsonQueries.recordForKey(key, JsonRecordSerializer::deserialize).executeAsList()).singleOrNull()
+  }
+
+  override fun select(keys: Collection<String>): List<Record> {
+    val records = compactRecordsForKeys.execute(keys) { cursor ->
+      serializer.deserialize(cursor.getString(0)!!, cursor.getBytes(1)!!)
+    }
+    if (!hasLegacyRecords || records.size == keys.size) {
+      return records
+    }
+    val found = records.mapTo(HashSet()) { it.key }
+    val legacyRecords = recordsForKeys.execute(keys.filter { it !in found }) { cursor ->
+      JsonRecordSerializer.deserialize(cursor.getString(0)!!, cursor.getString(1)!!)
+    }
+    return records + migrate(legacyRecords)
+  }
+
+  /**
+   * Moves the given legacy records to the `compact_records` table
+   */
+  private fun migrate(records: List<Record>): List<Record> {
+    if (records.isEmpty()) {
+      return records
+    }
+    return transaction {
+      records.onEach { record ->
+        jsonQueries.insertOrReplaceCompactRecord(record.key, serializer.serialize(record))
+        jsonQueries.delete(record.key)
+      }
+      checkLegacyRecords()
+      records
+    }
+  }
+
+  override fun <T> transaction(noEnclosing: Boolean, body: () -> T): T {
+    return jsonQueries.transactionWithResult(noEnclosing) {
+      body()
+    }
+  }
+
+  /**
+   * Adds the rows deleted from the legacy `records` table to [changes]
+   */
+  private fun legacyRowsDeleted() {
+    val legacyChanges = lastChanges()
+    changes += legacyChanges
+    if (legacyChanges > 0) {
+      checkLegacyRecords()
+    }
+  }
+
+  override fun delete(key: String) {
+    jsonQueries.deleteCompactRecord(key)
+    changes = lastChanges()
+    if (hasLegacyRecords) {
+      jsonQueries.delete(key)
+      legacyRowsDeleted()
+    }
+    references.delete(key)
+  }
+
+  override fun deleteMatching(pattern: String) {
+    jsonQueries.deleteCompactRecordsWithKeyMatching(pattern, "\\")
+    changes = lastChanges()
+    if (hasLegacyRecords) {
+      jsonQueries.deleteRecordsWithKeyMatching(pattern, "\\")
+      legacyRowsDeleted()
+    }
+    references.deleteMatching(pattern)
+  }
+
+  override fun deleteWithPrefix(prefix: String) {
+    val pattern = prefixToGlob(prefix)
+    jsonQueries.deleteCompactRecordsWithKeyPrefix(pattern)
+    changes = lastChanges()
+    if (hasLegacyRecords) {
+      jsonQueries.deleteRecordsWithKeyPrefix(pattern)
+      legacyRowsDeleted()
+    }
+    references.deleteWithPrefix(prefix)
+  }
+
+  override fun deleteAll() {
+    jsonQueries.deleteAllCompactRecords()
+    changes = lastChanges()
+    jsonQueries.deleteAll()
+    legacyRowsDeleted()
+    references.deleteAll()
+  }
+
+  override fun deleteReachable(key: String): Long {
+    backfillReferences()
+    jsonQueries.deleteCompactRecordsReachableFrom(key)
+    changes = lastChanges()
+    if (hasLegacyRecords) {
+      jsonQueries.deleteRecordsReachableFrom(key)
+      legacyRowsDeleted()
+    }
+    jsonQueries.deleteReferencesReachableFrom(key)
+    return changes
+  }
+
+  override fun deleteUnreachable(rootKey: String): Long {
+    backfillReferences()
+    jsonQueries.deleteUnreachableCompactRecords(rootKey)
+    changes = lastChanges()
+    if (hasLegacyRecords) {
+      jsonQueries.deleteUnreachableRecords(rootKey)
+      legacyRowsDeleted()
+    }
+    jsonQueries.deleteUnreachableReferences(rootKey)
+    return changes
+  }
+
+  /**
+   * The legacy records are read after the compact ones. A record is never in both tables for long and references are
+   * inserted with `INSERT OR IGNORE` so reading it twice is harmless.
+   */
+  private fun backfillReferences() {
+    references.backfillIfNeeded {
+      val compactRecords = pagedRecords(::select) { afterKey, limit ->
+        jsonQueries.selectCompactRecordsAfter(afterKey, limit) { key, bytes -> serializer.deserialize(key, bytes) }.executeAsList()
+      }
+      if (!hasLegacyRecords) {
+        compactRecords
+      } else {
+        compactRecords + pagedRecords({ null }) { afterKey, limit ->
+          jsonQueries.selectRecordsAfter(afterKey, limit, JsonRecordSerializer::deserialize).executeAsList()
+        }
+      }
+    }
+  }
+
+  private fun lastChanges(): Long {
+    return jsonQueries.changes().executeAsOne()
+  }
+
+  override fun changes(): Long {
+    return changes
+  }
+
+  override fun insert(record: Record) {
+    jsonQueries.insertOrReplaceCompactRecord(record.key, serializer.serialize(record))
+    if (hasLegacyRecords) {
+      jsonQueries.delete(record.key)
+      if (lastChanges() > 0) {
+        checkLegacyRecords()
+      }
+    }
+    references.replace(record)
+  }
+
+  override fun update(record: Record) {
+    insert(record)
+  }
+
+  override fun selectAll(): List<Record> {
+    val records = jsonQueries.selectCompactRecords { key, bytes -> serializer.deserialize(key, bytes) }.executeAsList()
+    if (!hasLegacyRecords) {
+      return records
+    }
+    val found = records.mapTo(HashSet()) { it.key }
+    return records + jsonQueries.selectRecords().executeAsList()
+        .filter { it.key !in found }
+        .map { JsonRecordSerializer.deserialize(it.key, it.record) }
+  }
+}
@@ -1,10 +1,15 @@
 package com.apollographql.apollo.cache.normalized.sql.internal
 
+import app.cash.sqldelight.db.SqlDriver
 import com.apollographql.apollo.cache.normalized.api.Record
 import com.apollographql.apollo.cache.normalized.api.internal.JsonRecordSerializer
-import com.apollographql.apollo.cache.normalized.sql.internal.json.JsonQueries
+import com.apollographql.apollo.cache.normalized.sql.internal.json.JsonDatabase
+
+internal class JsonRecordDatabase(driver: SqlDriver): RecordDatabase {
+  private val jsonQueries = JsonDatabase(driver).jsonQueries
+  private val recordsForKeys = RecordsForKeysQuery(driver, "records")
+  private val references = RecordReferences(jsonQueries)
 
-internal class JsonRecordDatabase(private val jsonQueries: JsonQueries): RecordDatabase {
   override fun select(key: String): Record? {
     return jsonQueries.recordForKey(key).executeAsList()
         .map {
@@ -14,10 +19,9 @@ internal class JsonRecordDatabase(private val jsonQueries: JsonQueries): RecordD
   }
 
   override fun select(keys: Collection<String>): List<Record> {
-    return jsonQueries.recordsForKeys(keys).executeAsList()
-        .map {
-          JsonRecordSerializer.deserialize(it.key, it.record)
-        }
+    return recordsForKeys.execute(keys) { cursor ->
+      JsonRecordSerializer.deserialize(cursor.getString(0)!!, cursor.getString(1)!!)
+    }
   }
 
   override fun <T> transaction(noEnclosing: Boolean, body: () -> T): T {
@@ -27,27 +31,62 @@ internal class JsonRecordDatabase(private val jsonQueries: JsonQueries): RecordD
   }
 
   override fun delete(key: String) {
+    // Delete the references first so that changes() returns the number of deleted records
+    references.delete(key)
     jsonQueries.delete(key)
   }
 
   override fun deleteMatching(pattern: String) {
+    references.deleteMatching(pattern)
     jsonQueries.deleteRecordsWithKeyMatching(pattern, "\\")
   }
 
+  override fun deleteWithPrefix(prefix: String) {
+    references.deleteWithPrefix(prefix)
+    jsonQueries.deleteRecordsWithKeyPrefix(prefixToGlob(prefix))
+  }
+
   override fun deleteAll() {
+    references.deleteAll()
     jsonQueries.deleteAll()
   }
 
+  override fun deleteReachable(key: String): Long {
+    backfillReferences()
+    jsonQueries.deleteRecordsReachableFrom(key)
+    val deleted = changes()
+    jsonQueries.deleteReferencesReachableFrom(key)
+    return deleted
+  }
+
+  override fun deleteUnreachable(rootKey: String): Long {
+    backfillReferences()
+    jsonQueries.deleteUnreachableRecords(rootKey)
+    val deleted = changes()
+    jsonQueries.deleteUnreachableReferences(rootKey)
+    return deleted
+  }
+
+  private fun backfillReferences() {
+    references.backfillIfNeeded {
+      pagedRecords(::select) { afterKey, limit ->
+        jsonQueries.selectRecordsAfter(afterKey, limit, JsonRecordSerializer::deserialize).executeAsList()
+      }
+    }
+  }
+
   override fun changes(): Long {
     return jsonQueries.changes().executeAsOne()
   }
 
   override fun insert(record: Record) {
     jsonQueries.insert(record.key, JsonRecordSerializer.serialize(record))
+    references.insert(record)
   }
 
   override fun update(record: Record) {
     jsonQueries.update(JsonRecordSerializer.serialize(record), record.key)
+    references.replace(record)
   }
 
   override fun selectAll(): List<Record> {
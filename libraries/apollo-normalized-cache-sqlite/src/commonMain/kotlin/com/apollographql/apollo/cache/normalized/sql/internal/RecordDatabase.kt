@@ -18,7 +18,7 @@ internal interface RecordDatabase {
    * @return the list of records for the given ids
    * This is an optimization to avoid doing too many queries.
    *
-   * @param ids the ids to get the record for. [ids.size] must be less than 999
+   * @param ids the ids to get the record for. [ids.size] must be at most [maxKeysPerQuery]
    * @return the [Record] for the ids. If some [Record]s are missing, the returned list size might be
    * less that [ids]
    */
@@ -38,8 +38,29 @@ internal interface RecordDatabase {
 
   fun deleteMatching(pattern: String)
 
+  /**
+   * Deletes the records whose key starts with [prefix]. The matching is case-sensitive and uses the key index.
+   */
+  fun deleteWithPrefix(prefix: String)
+
   fun deleteAll()
 
+  /**
+   * Deletes the record for [key] and all the records reachable from it. The references between records are rebuilt first
+   * if they are missing after a migration.
+   *
+   * @return the number of records deleted
+   */
+  fun deleteReachable(key: String): Long
+
+  /**
+   * Deletes all the records that cannot be reached from [rootKey]. The references between records are rebuilt first if
+   * they are missing after a migration.
+   *
+   * @return the number of records deleted
+   */
+  fun deleteUnreachable(rootKey: String): Long
+
   /**
    * Returns the number of rows affected by the last query
    */
@@ -47,4 +68,21 @@ internal interface RecordDatabase {
 
   fun insert(record: Record)
   fun update(record: Record)
-}
\ No newline at end of file
+}
+/**
+ * Returns a GLOB pattern matching the strings that start with [prefix].
+ *
+ * GLOB is case-sensitive, which allows SQLite to turn a GLOB prefix into a range lookup on a key index, whereas LIKE is
+ * not optimized on columns using the default collation.
+ */
+internal fun prefixToGlob(prefix: String): String {
+  return buildString {
+    for (c in prefix) {
+      when (c) {
+        '*', '?', '[' -> append('[').append(c).append(']')
+        else -> append(c)
+      }
+    }
+    append('*')
+  }
+}
@@ -0,0 +1,90 @@
+package com.apollographql.apollo.cache.normalized.sql.internal
+
+import com.apollographql.apollo.cache.normalized.api.Record
+import com.apollographql.apollo.cache.normalized.sql.internal.json.JsonQueries
+
+/**
+ * Maintains the `record_references` table: one `(from_key, to_key)` row for every [com.apollographql.apollo.cache.normalized.api.CacheKey]
+ * found in a record.
+ *
+ * The table makes it possible to find the records reachable from a given record with a recursive query, without
+ * reading and deserializing them.
+ */
+internal class RecordReferences(private val jsonQueries: JsonQueries) {
+  /**
+   * Adds the references of a new record
+   */
+  fun insert(record: Record) {
+    for (reference in record.referencedFields()) {
+      jsonQueries.insertReference(record.key, reference.key)
+    }
+  }
+
+  /**
+   * Replaces the references of an existing record
+   */
+  fun replace(record: Record) {
+    jsonQueries.deleteReferencesFrom(record.key)
+    insert(record)
+  }
+
+  fun delete(key: String) {
+    jsonQueries.deleteReferencesFrom(key)
+  }
+
+  fun deleteMatching(pattern: String) {
+    jsonQueries.deleteReferencesWithKeyMatching(pattern, "\\")
+  }
+
+  fun deleteWithPrefix(prefix: String) {
+    jsonQueries.deleteReferencesWithKeyPrefix(prefixToGlob(prefix))
+  }
+
+  fun deleteAll() {
+    jsonQueries.deleteAllReferences()
+  }
+
+  /**
+   * Rebuilds the references from [records] if the database was migrated from a version that didn't have them.
+   *
+   * This reads all the records once, so it is only called before the references are used, in the transaction that uses
+   * them, and not when the database is opened. [records] must not hold all the records in memory at once, see
+   * [pagedRecords].
+   */
+  fun backfillIfNeeded(records: () -> Sequence<Record>) {
+    if (jsonQueries.isReferenceBackfillPending().executeAsOneOrNull() == null) {
+      return
+    }
+    jsonQueries.transaction {
+      jsonQueries.deleteAllReferences()
+      for (record in records()) {
+        insert(record)
+      }
+      jsonQueries.clearReferenceBackfill()
+    }
+  }
+}
+
+/**
+ * Returns the records of a table, read [BACKFILL_PAGE_SIZE] at a time in key order.
+ *
+ * @param selectKey returns the record with an empty key, which is not returned by [selectPage]
+ * @param selectPage returns at most `limit` records whose key is greater than `afterKey`, in key order
+ */
+internal fun pagedRecords(
+    selectKey: (key: String) -> Record?,
+    selectPage: (afterKey: String, limit: Long) -> List<Record>,
+): Sequence<Record> = sequence {
+  selectKey("")?.let { yield(it) }
+  var afterKey = ""
+  while (true) {
+    val page = selectPage(afterKey, BACKFILL_PAGE_SIZE)
+    yieldAll(page)
+    if (page.size < BACKFILL_PAGE_SIZE) {
+      break
+    }
+    afterKey = page.last().key
+  }
+}
+
+private const val BACKFILL_PAGE_SIZE = 1000L
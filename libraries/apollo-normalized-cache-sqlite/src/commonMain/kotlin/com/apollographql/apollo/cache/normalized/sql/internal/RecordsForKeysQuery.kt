@@ -0,0 +1,64 @@
+package com.apollographql.apollo.cache.normalized.sql.internal
+
+import app.cash.sqldelight.db.QueryResult
+import app.cash.sqldelight.db.SqlCursor
+import app.cash.sqldelight.db.SqlDriver
+
+/**
+ * The maximum number of keys passed to [RecordsForKeysQuery.execute], to stay below SQLite's limit on the number
+ * of parameters of a statement.
+ */
+internal const val maxKeysPerQuery = 999
+
+/**
+ * The sizes of the `IN (...)` lists used to look up keys. Every lookup uses the smallest size that fits so that
+ * at most `keyBucketSizes.size` statements are prepared for a given table.
+ */
+private val keyBucketSizes = intArrayOf(1, 4, 16, 64, 256, maxKeysPerQuery)
+
+/**
+ * `SELECT key, record FROM table WHERE key IN (...)`
+ *
+ * The SqlDelight generated `IN ?` queries have a different SQL for every number of keys and are never cached by the
+ * driver. This query pads the keys to a fixed bucket size instead by repeating the last key, and passes a stable
+ * identifier so that the driver can reuse the prepared statement.
+ */
+internal class RecordsForKeysQuery(private val driver: SqlDriver, table: String) {
+  private val statements = keyBucketSizes.map { size ->
+    "SELECT key, record FROM $table WHERE key IN (${List(size) { "?" }.joinToString(",")})"
+  }
+
+  fun <T : Any> execute(keys: Collection<String>, mapper: (SqlCursor) -> T): List<T> {
+    if (keys.isEmpty()) {
+      return emptyList()
+    }
+    val bucket = keyBucketSizes.indexOfFirst { it >= keys.size }
+    check(bucket >= 0) {
+      "Apollo: cannot look up more than $maxKeysPerQuery keys at once (found ${keys.size})"
+    }
+    val size = keyBucketSizes[bucket]
+    val sql = statements[bucket]
+
+    return driver.executeQuery(
+        identifier = sql.hashCode(),
+        sql = sql,
+        mapper = { cursor ->
+          val results = ArrayList<T>(keys.size)
+          while (cursor.next().value) {
+            results.add(mapper(cursor))
+          }
+          QueryResult.Value(results)
+        },
+        parameters = size,
+    ) {
+      var index = 0
+      for (key in keys) {
+        bindString(index++, key)
+      }
+      val last = keys.last()
+      while (index < size) {
+        bindString(index++, last)
+      }
+    }.value
+  }
+}
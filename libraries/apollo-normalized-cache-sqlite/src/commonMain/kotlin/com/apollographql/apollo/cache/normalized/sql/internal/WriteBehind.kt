@@ -0,0 +1,15 @@
+package com.apollographql.apollo.cache.normalized.sql.internal
+
+internal class WriteBehind(
+    val windowMillis: Long,
+    val maxPendingRecords: Int,
+) {
+  init {
+    require(windowMillis >= 0) {
+      "Apollo: windowMillis must be >= 0 (found '$windowMillis')"
+    }
+    require(maxPendingRecords > 0) {
+      "Apollo: maxPendingRecords must be > 0 (found '$maxPendingRecords')"
+    }
+  }
+}
@@ -2,9 +2,34 @@ package com.apollographql.apollo.cache.normalized.sql.internal
 import app.cash.sqldelight.db.QueryResult
 import app.cash.sqldelight.db.SqlDriver
 import app.cash.sqldelight.db.SqlSchema
+import com.apollographql.apollo.cache.normalized.sql.SqliteOptions
 
 
-internal expect fun createDriver(name: String?, baseDir: String?, schema: SqlSchema<QueryResult.Value<Unit>>): SqlDriver
+internal expect fun createDriver(
+    name: String?,
+    baseDir: String?,
+    schema: SqlSchema<QueryResult.Value<Unit>>,
+    options: SqliteOptions = SqliteOptions.Default,
+): SqlDriver
+
+/**
+ * The pragmas that need to be set on every connection, except `journal_mode` which is set differently by every driver.
+ */
+internal fun SqliteOptions.connectionPragmas(): Map<String, String> {
+  val pragmas = mutableMapOf<String, String>()
+  if (synchronous != null) {
+    pragmas["synchronous"] = synchronous.name.uppercase()
+  }
+  if (mmapSizeBytes != null) {
+    pragmas["mmap_size"] = mmapSizeBytes.toString()
+  }
+  if (pageCacheSizeBytes != null) {
+    // A negative cache_size is a number of KiB
+    pragmas["cache_size"] = (-(pageCacheSizeBytes / 1024)).toString()
+  }
+  return pragmas
+}
+
 /**
  * Some implementations like Native and Android take the schema when creating the driver and the driver
  * will take care of migrations
@@ -0,0 +1,143 @@
+package com.apollographql.apollo.cache.normalized.sql
+
+import com.apollographql.apollo.cache.normalized.api.ApolloCacheHeaders
+import com.apollographql.apollo.cache.normalized.api.CacheHeaders
+import com.apollographql.apollo.cache.normalized.api.CacheKey
+import com.apollographql.apollo.cache.normalized.api.Record
+import com.apollographql.apollo.cache.normalized.api.internal.JsonRecordSerializer
+import com.apollographql.apollo.cache.normalized.sql.internal.createDriver
+import com.apollographql.apollo.cache.normalized.sql.internal.createRecordDatabase
+import com.apollographql.apollo.cache.normalized.sql.internal.getSchema
+import com.apollographql.apollo.cache.normalized.sql.internal.json.JsonDatabase
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertNotNull
+import kotlin.test.assertNull
+import kotlin.test.assertTrue
+
+/**
+ * Runs all the [SqlNormalizedCacheTest] tests with [RecordFormat.Binary]
+ */
+class BinarySqlNormalizedCacheTest : SqlNormalizedCacheTest(SqlNormalizedCacheFactory(null).recordFormat(RecordFormat.Binary)) {
+  @Test
+  fun testDatesArePersisted() {
+    val cache = SqlNormalizedCacheFactory(null).recordFormat(RecordFormat.Binary).create()
+    cache.merge(
+        record = Record(
+            key = "key",
+            fields = mapOf(
+                "field1" to "value1",
+                "field2" to CacheKey("referencedKey"),
+            ),
+        ),
+        cacheHeaders = CacheHeaders.builder().addHeader(ApolloCacheHeaders.DATE, "42").build(),
+    )
+    val record = cache.loadRecord("key", CacheHeaders.NONE)
+    assertEquals(mapOf("field1" to 42L, "field2" to 42L), record?.date)
+    assertEquals(CacheKey("referencedKey"), record?.get("field2"))
+  }
+
+  @Test
+  fun testMigrationFromJson() {
+    val driver = createDriver(null, null, getSchema())
+    val jsonCache = SqlNormalizedCache(createRecordDatabase(driver, RecordFormat.Json))
+    val record1 = Record(
+        key = "key1",
+        fields = mapOf(
+            "field1" to "value1",
+            "field2" to CacheKey("key2"),
+        ),
+    )
+    val record2 = Record(
+        key = "key2",
+        fields = mapOf(
+            "field1" to "value2",
+        ),
+    )
+    jsonCache.merge(listOf(record1, record2), CacheHeaders.NONE)
+
+    val binaryCache = SqlNormalizedCache(createRecordDatabase(driver, RecordFormat.Binary))
+
+    // Legacy records are readable and moved to the binary table on first read
+    assertEquals(record1.fields, binaryCache.loadRecord(record1.key, CacheHeaders.NONE)?.fields)
+    assertNull(jsonCache.loadRecord(record1.key, CacheHeaders.NONE))
+    assertEquals(record1.fields, binaryCache.loadRecord(record1.key, CacheHeaders.NONE)?.fields)
+
+    // Both tables are visible until everything is migrated
+    assertEquals(setOf(record1.key, record2.key), binaryCache.dump()[SqlNormalizedCache::class]!!.keys)
+
+    // Deleting a legacy record reports it as deleted
+    assertTrue(binaryCache.remove(CacheKey(record2.key), cascade = false))
+    assertNull(jsonCache.loadRecord(record2.key, CacheHeaders.NONE))
+    assertNull(binaryCache.loadRecord(record2.key, CacheHeaders.NONE))
+  }
+
+  @Test
+  fun testLegacyTableIsNotReadOnceEmpty() {
+    val driver = createDriver(null, null, getSchema())
+    val jsonQueries = JsonDatabase(driver).jsonQueries
+    jsonQueries.insert("key1", JsonRecordSerializer.serialize(Record("key1", mapOf("field1" to "value1"))))
+
+    val binaryCache = SqlNormalizedCache(createRecordDatabase(driver, RecordFormat.Binary))
+    assertEquals("value1", binaryCache.loadRecord("key1", CacheHeaders.NONE)?.get("field1"))
+
+    // The legacy table is empty after the migration of key1: rows added behind the cache's back are not looked up
+    jsonQueries.insert("key2", JsonRecordSerializer.serialize(Record("key2", mapOf("field1" to "value2"))))
+    assertNull(binaryCache.loadRecord("key2", CacheHeaders.NONE))
+  }
+
+  @Test
+  fun testFieldNamesAreRolledBackWithTheTransaction() {
+    val driver = createDriver(null, null, getSchema())
+    val recordDatabase = createRecordDatabase(driver, RecordFormat.Binary)
+    assertFailsWith<IllegalStateException> {
+      recordDatabase.transaction {
+        recordDatabase.insert(Record("key1", mapOf("field1" to "value1")))
+        error("rollback")
+      }
+    }
+
+    // field1 must be allocated again, else the record can't be read from another connection
+    recordDatabase.insert(Record("key1", mapOf("field1" to "value1")))
+    val otherDatabase = createRecordDatabase(driver, RecordFormat.Binary)
+    assertEquals(mapOf("field1" to "value1"), otherDatabase.select("key1")?.fields)
+  }
+
+  @Test
+  fun testReferencesBackfill() {
+    val driver = createDriver(null, null, getSchema())
+    val jsonQueries = JsonDatabase(driver).jsonQueries
+    // Records written before the references table existed
+    jsonQueries.insert(CacheKey.rootKey().key, JsonRecordSerializer.serialize(Record(CacheKey.rootKey().key, mapOf("hero" to CacheKey("hero")))))
+    jsonQueries.insert("hero", JsonRecordSerializer.serialize(Record("hero", mapOf("name" to "R2-D2"))))
+    jsonQueries.insert("orphan", JsonRecordSerializer.serialize(Record("orphan", mapOf("name" to "Leia"))))
+    driver.execute(null, "INSERT INTO record_references_backfill (pending) VALUES (1)", 0)
+
+    val binaryCache = SqlNormalizedCache(createRecordDatabase(driver, RecordFormat.Binary))
+    // The references are only rebuilt when they are needed
+    assertNotNull(jsonQueries.isReferenceBackfillPending().executeAsOneOrNull())
+
+    assertEquals(1, binaryCache.garbageCollect())
+    assertNull(jsonQueries.isReferenceBackfillPending().executeAsOneOrNull())
+    assertEquals(setOf(CacheKey.rootKey().key, "hero"), binaryCache.dump()[SqlNormalizedCache::class]!!.keys)
+  }
+
+  @Test
+  fun testReferencesBackfillReadsAllThePages() {
+    val driver = createDriver(null, null, getSchema())
+    val jsonQueries = JsonDatabase(driver).jsonQueries
+    // A chain of records longer than a page: the chain breaks if a page is missed
+    val count = 2500
+    jsonQueries.insert(CacheKey.rootKey().key, JsonRecordSerializer.serialize(Record(CacheKey.rootKey().key, mapOf("next" to CacheKey("record0")))))
+    for (i in 0 until count) {
+      jsonQueries.insert("record$i", JsonRecordSerializer.serialize(Record("record$i", mapOf("next" to CacheKey("record${i + 1}")))))
+    }
+    jsonQueries.insert("orphan", JsonRecordSerializer.serialize(Record("orphan", mapOf("next" to CacheKey("record0")))))
+    driver.execute(null, "INSERT INTO record_references_backfill (pending) VALUES (1)", 0)
+
+    val cache = SqlNormalizedCache(createRecordDatabase(driver, RecordFormat.Json))
+    assertEquals(1, cache.garbageCollect())
+    assertEquals(count + 1, cache.dump()[SqlNormalizedCache::class]!!.size)
+  }
+}
@@ -7,7 +7,6 @@ import com.apollographql.apollo.cache.normalized.api.MemoryCacheFactory
 import com.apollographql.apollo.cache.normalized.api.NormalizedCache
 import com.apollographql.apollo.cache.normalized.api.Record
 import com.apollographql.apollo.cache.normalized.sql.internal.JsonRecordDatabase
-import com.apollographql.apollo.cache.normalized.sql.internal.json.JsonQueries
 import com.apollographql.apollo.cache.normalized.sql.internal.json.RecordForKey
 import com.apollographql.apollo.cache.normalized.sql.internal.json.Records
 import com.apollographql.apollo.cache.normalized.sql.internal.json.RecordsForKeys
@@ -23,13 +22,14 @@ import app.cash.sqldelight.db.SqlPreparedStatement
 import kotlin.test.BeforeTest
 import kotlin.test.Test
 import kotlin.test.assertEquals
+import kotlin.test.assertFalse
 import kotlin.test.assertNotNull
 import kotlin.test.assertNull
 import kotlin.test.assertTrue
 
-class SqlNormalizedCacheTest {
+open class SqlNormalizedCacheTest(cacheFactory: SqlNormalizedCacheFactory = SqlNormalizedCacheFactory(null)) {
 
-  private val cache: NormalizedCache = SqlNormalizedCacheFactory(null).create()
+  private val cache: NormalizedCache = cacheFactory.create()
 
   @BeforeTest
   fun setUp() {
@@ -66,6 +66,22 @@ class SqlNormalizedCacheTest {
     assertEquals(selectionKeys, selectedKeys)
   }
 
+  @Test
+  fun testMultipleRecordSelection_variousSizes() {
+    val keys = 0.until(1200).map { "key$it" }
+    cache.merge(keys.filterIndexed { index, _ -> index % 3 != 0 }.map { Record(it, mapOf("field" to it)) }, CacheHeaders.NONE)
+
+    // Sizes around the bucket sizes and above the SQLite limit
+    for (size in listOf(0, 1, 2, 4, 5, 16, 17, 255, 256, 257, 999, 1000, 1200)) {
+      val selectionKeys = keys.subList(0, size)
+      val records = cache.loadRecords(selectionKeys, CacheHeaders.NONE)
+      assertEquals(selectionKeys.filterIndexed { index, _ -> index % 3 != 0 }.toSet(), records.map { it.key }.toSet())
+      records.forEach {
+        assertEquals(it.key, it["field"])
+      }
+    }
+  }
+
   @Test
   fun testRecordSelection_root() {
     createRecord(QUERY_ROOT_KEY)
@@ -277,6 +293,28 @@ class SqlNormalizedCacheTest {
     assertNull(cache.loadRecord("%1", CacheHeaders.NONE))
   }
 
+  @Test
+  fun testRemoveByPrefix() {
+    createRecord("Product:1")
+    createRecord("Product:2")
+    createRecord("product:3")
+    createRecord("ProductList:1")
+    createRecord("Pro*duct:4")
+
+    assertEquals(2, cache.removeByTypename("Product"))
+    assertNull(cache.loadRecord("Product:1", CacheHeaders.NONE))
+    assertNull(cache.loadRecord("Product:2", CacheHeaders.NONE))
+    // The matching is case-sensitive
+    assertNotNull(cache.loadRecord("product:3", CacheHeaders.NONE))
+    assertNotNull(cache.loadRecord("ProductList:1", CacheHeaders.NONE))
+
+    // GLOB special characters are matched literally
+    assertEquals(1, cache.removeByPrefix("Pro*"))
+    assertNull(cache.loadRecord("Pro*duct:4", CacheHeaders.NONE))
+    assertEquals(1, cache.removeByPrefix("Pro"))
+    assertNull(cache.loadRecord("ProductList:1", CacheHeaders.NONE))
+  }
+
   @Test
   fun testManyRecords() {
     val records = 0.until(1001).map {
@@ -331,7 +369,7 @@ class SqlNormalizedCacheTest {
 
   @Test
   fun exceptionCallsExceptionHandler() {
-    val badCache = SqlNormalizedCache(JsonRecordDatabase(JsonQueries(BadDriver)))
+    val badCache = SqlNormalizedCache(JsonRecordDatabase(BadDriver))
     var throwable: Throwable? = null
     apolloExceptionHandler = {
       throwable = it
@@ -409,6 +447,128 @@ class SqlNormalizedCacheTest {
     assertNull(cache.loadRecord("key2", CacheHeaders.NONE))
   }
 
+  @Test
+  fun testGarbageCollect() {
+    cache.merge(
+        records = listOf(
+            Record(
+                key = QUERY_ROOT_KEY,
+                fields = mapOf(
+                    "hero" to CacheKey("hero"),
+                ),
+            ),
+            Record(
+                key = "hero",
+                fields = mapOf(
+                    "name" to "R2-D2",
+                    "friend" to CacheKey("friend"),
+                ),
+            ),
+            Record(
+                key = "friend",
+                fields = mapOf(
+                    "name" to "Luke",
+                    "friend" to CacheKey("hero"),
+                ),
+            ),
+            Record(
+                key = "orphan1",
+                fields = mapOf(
+                    "name" to "Leia",
+                    "friend" to CacheKey("orphan2"),
+                ),
+            ),
+            Record(
+                key = "orphan2",
+                fields = mapOf(
+                    "friend" to CacheKey("hero"),
+                ),
+            ),
+        ),
+        cacheHeaders = CacheHeaders.NONE,
+    )
+
+    assertEquals(2, cache.garbageCollect())
+    assertNotNull(cache.loadRecord(QUERY_ROOT_KEY, CacheHeaders.NONE))
+    assertNotNull(cache.loadRecord("hero", CacheHeaders.NONE))
+    assertNotNull(cache.loadRecord("friend", CacheHeaders.NONE))
+    assertNull(cache.loadRecord("orphan1", CacheHeaders.NONE))
+    assertNull(cache.loadRecord("orphan2", CacheHeaders.NONE))
+
+    // Updating a record replaces its references
+    cache.merge(
+        record = Record(
+            key = "hero",
+            fields = mapOf(
+                "friend" to "nobody",
+            ),
+        ),
+        cacheHeaders = CacheHeaders.NONE,
+    )
+    assertEquals(1, cache.garbageCollect())
+    assertNull(cache.loadRecord("friend", CacheHeaders.NONE))
+    assertEquals(0, cache.garbageCollect())
+  }
+
+  @Test
+  fun testGarbageCollectWithoutTheRootRecord() {
+    // A store that only contains fragments
+    cache.merge(
+        records = listOf(
+            Record(
+                key = "hero",
+                fields = mapOf(
+                    "friend" to CacheKey("friend"),
+                ),
+            ),
+            Record(
+                key = "friend",
+                fields = mapOf(
+                    "name" to "Luke",
+                ),
+            ),
+        ),
+        cacheHeaders = CacheHeaders.NONE,
+    )
+
+    assertEquals(0, cache.garbageCollect())
+    assertNotNull(cache.loadRecord("hero", CacheHeaders.NONE))
+    assertNotNull(cache.loadRecord("friend", CacheHeaders.NONE))
+  }
+
+  @Test
+  fun testCascadeDeleteDoesNotDeleteUnreferencedRecords() {
+    cache.merge(
+        records = listOf(
+            Record(
+                key = "key1",
+                fields = mapOf(
+                    "ref" to listOf(CacheKey("key2")),
+                ),
+            ),
+            Record(
+                key = "key2",
+                fields = mapOf(
+                    "field1" to "value2",
+                ),
+            ),
+            Record(
+                key = "key3",
+                fields = mapOf(
+                    "ref" to CacheKey("key1"),
+                ),
+            ),
+        ),
+        cacheHeaders = CacheHeaders.NONE,
+    )
+
+    assertTrue(cache.remove(cacheKey = CacheKey("key1"), cascade = true))
+    assertNull(cache.loadRecord("key1", CacheHeaders.NONE))
+    assertNull(cache.loadRecord("key2", CacheHeaders.NONE))
+    assertNotNull(cache.loadRecord("key3", CacheHeaders.NONE))
+    assertFalse(cache.remove(cacheKey = CacheKey("key1"), cascade = true))
+  }
+
   private fun createRecord(key: String) {
     cache.merge(
         record = Record(
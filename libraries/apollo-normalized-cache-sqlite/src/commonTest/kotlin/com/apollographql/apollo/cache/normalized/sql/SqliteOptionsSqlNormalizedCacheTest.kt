@@ -0,0 +1,17 @@
+package com.apollographql.apollo.cache.normalized.sql
+
+/**
+ * Runs all the [SqlNormalizedCacheTest] tests on a database opened with all the [SqliteOptions] set
+ */
+class SqliteOptionsSqlNormalizedCacheTest : SqlNormalizedCacheTest(
+    SqlNormalizedCacheFactory(
+        null,
+        SqliteOptions.Builder()
+            .writeAheadLogging(true)
+            .synchronous(SqliteOptions.Synchronous.Normal)
+            .mmapSizeBytes(1024 * 1024)
+            .pageCacheSizeBytes(1024 * 1024)
+            .statementCacheSize(10)
+            .build()
+    )
+)
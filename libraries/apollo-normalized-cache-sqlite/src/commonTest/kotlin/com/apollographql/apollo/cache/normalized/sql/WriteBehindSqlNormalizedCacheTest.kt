@@ -0,0 +1,178 @@
+package com.apollographql.apollo.cache.normalized.sql
+
+import com.apollographql.apollo.cache.normalized.api.CacheHeaders
+import com.apollographql.apollo.cache.normalized.api.Record
+import com.apollographql.apollo.cache.normalized.sql.internal.RecordDatabase
+import com.apollographql.apollo.cache.normalized.sql.internal.WriteBehind
+import com.apollographql.apollo.cache.normalized.sql.internal.createDriver
+import com.apollographql.apollo.cache.normalized.sql.internal.createRecordDatabase
+import com.apollographql.apollo.cache.normalized.sql.internal.getSchema
+import com.apollographql.apollo.exception.apolloExceptionHandler
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertNotNull
+import kotlin.test.assertNull
+
+/**
+ * Runs all the [SqlNormalizedCacheTest] tests with write-behind enabled, so that background batches run concurrently
+ * with the tests
+ */
+class WriteBehindSqlNormalizedCacheTest : SqlNormalizedCacheTest(SqlNormalizedCacheFactory(null).writeBehind(windowMillis = 1)) {
+  private val driver = createDriver(null, null, getSchema())
+
+  /**
+   * A cache that only writes when [SqlNormalizedCache.flush] is called
+   */
+  private val cache = SqlNormalizedCache(createRecordDatabase(driver), WriteBehind(windowMillis = Long.MAX_VALUE, maxPendingRecords = Int.MAX_VALUE))
+
+  /**
+   * A second cache on the same database, without write-behind, to observe what is written
+   */
+  private val database = SqlNormalizedCache(createRecordDatabase(driver))
+
+  @Test
+  fun mergesAreVisibleBeforeTheyAreWritten() {
+    cache.merge(Record(key = "key", fields = mapOf("field1" to "value1")), CacheHeaders.NONE)
+
+    assertEquals("value1", cache.loadRecord("key", CacheHeaders.NONE)?.get("field1"))
+    assertNull(database.loadRecord("key", CacheHeaders.NONE))
+
+    cache.flush()
+    assertEquals("value1", database.loadRecord("key", CacheHeaders.NONE)?.get("field1"))
+  }
+
+  @Test
+  fun mergesAreCoalesced() {
+    assertEquals(
+        setOf("key.field1", "key.field2"),
+        cache.merge(Record(key = "key", fields = mapOf("field1" to "value1", "field2" to "value2")), CacheHeaders.NONE)
+    )
+    assertEquals(
+        setOf("key.field2"),
+        cache.merge(Record(key = "key", fields = mapOf("field2" to "value2b")), CacheHeaders.NONE)
+    )
+    assertEquals(
+        emptySet(),
+        cache.merge(Record(key = "key", fields = mapOf("field1" to "value1")), CacheHeaders.NONE)
+    )
+    cache.flush()
+
+    val records = database.dump()[SqlNormalizedCache::class]!!
+    assertEquals(1, records.size)
+    assertEquals(mapOf("field1" to "value1", "field2" to "value2b"), records["key"]!!.fields)
+  }
+
+  @Test
+  fun mergesOnWrittenRecordsUseTheDatabaseValue() {
+    cache.merge(Record(key = "key", fields = mapOf("field1" to "value1")), CacheHeaders.NONE)
+    cache.flush()
+
+    assertEquals(setOf("key.field2"), cache.merge(Record(key = "key", fields = mapOf("field2" to "value2")), CacheHeaders.NONE))
+    cache.flush()
+
+    assertEquals(mapOf("field1" to "value1", "field2" to "value2"), database.loadRecord("key", CacheHeaders.NONE)?.fields)
+  }
+
+  @Test
+  fun removeWritesPendingMergesFirst() {
+    cache.merge(Record(key = "key1", fields = mapOf("field1" to "value1")), CacheHeaders.NONE)
+    cache.merge(Record(key = "key2", fields = mapOf("field1" to "value1")), CacheHeaders.NONE)
+
+    cache.remove("key1")
+
+    assertNull(cache.loadRecord("key1", CacheHeaders.NONE))
+    assertNull(database.loadRecord("key1", CacheHeaders.NONE))
+    assertNotNull(database.loadRecord("key2", CacheHeaders.NONE))
+  }
+
+  @Test
+  fun closeWritesPendingMerges() {
+    cache.merge(Record(key = "key1", fields = mapOf("field1" to "value1")), CacheHeaders.NONE)
+    cache.close()
+    assertNotNull(database.loadRecord("key1", CacheHeaders.NONE))
+
+    // After close, merges are written synchronously
+    cache.merge(Record(key = "key2", fields = mapOf("field1" to "value1")), CacheHeaders.NONE)
+    assertNotNull(database.loadRecord("key2", CacheHeaders.NONE))
+  }
+
+  @Test
+  fun crashBeforeFlushLosesOnlyTheCurrentBatch() {
+    cache.merge(Record(key = "key1", fields = mapOf("field1" to "value1")), CacheHeaders.NONE)
+    cache.flush()
+    cache.merge(Record(key = "key1", fields = mapOf("field1" to "value1b")), CacheHeaders.NONE)
+    cache.merge(Record(key = "key2", fields = mapOf("field1" to "value2")), CacheHeaders.NONE)
+
+    // Simulate a crash: drop the cache without flushing and reopen the database
+    val reopened = SqlNormalizedCache(createRecordDatabase(driver))
+
+    assertEquals("value1", reopened.loadRecord("key1", CacheHeaders.NONE)?.get("field1"))
+    assertNull(reopened.loadRecord("key2", CacheHeaders.NONE))
+  }
+
+  @Test
+  fun batchesAreAtomic() {
+    var throwable: Throwable? = null
+    val previousHandler = apolloExceptionHandler
+    apolloExceptionHandler = {
+      throwable = it
+    }
+    try {
+      cache.merge(Record(key = "key1", fields = mapOf("field1" to "value1")), CacheHeaders.NONE)
+      // This value cannot be serialized and makes the batch fail after key1 is written
+      cache.merge(Record(key = "key2", fields = mapOf("field1" to Any())), CacheHeaders.NONE)
+      cache.flush()
+    } finally {
+      apolloExceptionHandler = previousHandler
+    }
+
+    assertEquals("Unable to write records to the database", throwable!!.message)
+    assertNull(database.loadRecord("key1", CacheHeaders.NONE))
+    assertNull(database.loadRecord("key2", CacheHeaders.NONE))
+  }
+
+  @Test
+  fun crashWhileWritingABatchLosesOnlyTheCurrentBatch() {
+    val killable = KillableRecordDatabase(createRecordDatabase(driver))
+    val cache = SqlNormalizedCache(killable, WriteBehind(windowMillis = Long.MAX_VALUE, maxPendingRecords = Int.MAX_VALUE))
+
+    cache.merge(Record(key = "key1", fields = mapOf("field1" to "value1")), CacheHeaders.NONE)
+    cache.flush()
+    cache.merge(Record(key = "key1", fields = mapOf("field1" to "value1b")), CacheHeaders.NONE)
+    cache.merge(Record(key = "key2", fields = mapOf("field1" to "value2")), CacheHeaders.NONE)
+    cache.merge(Record(key = "key3", fields = mapOf("field1" to "value3")), CacheHeaders.NONE)
+
+    // Simulate a crash after key1 and key2 are written but before the transaction is committed
+    killable.killAfterWrites = 2
+    assertFailsWith<KilledError> {
+      cache.flush()
+    }
+
+    val reopened = SqlNormalizedCache(createRecordDatabase(driver))
+    assertEquals("value1", reopened.loadRecord("key1", CacheHeaders.NONE)?.get("field1"))
+    assertNull(reopened.loadRecord("key2", CacheHeaders.NONE))
+    assertNull(reopened.loadRecord("key3", CacheHeaders.NONE))
+  }
+
+  private class KilledError : Error()
+
+  /**
+   * A [RecordDatabase] that throws an [Error], which is not handled by the cache, once [killAfterWrites] records are
+   * written
+   */
+  private class KillableRecordDatabase(private val delegate: RecordDatabase) : RecordDatabase by delegate {
+    var killAfterWrites = Int.MAX_VALUE
+
+    private fun write(block: () -> Unit) {
+      if (killAfterWrites == 0) {
+        throw KilledError()
+      }
+      block()
+      killAfterWrites--
+    }
+
+    override fun insert(record: Record) = write { delegate.insert(record) }
+    override fun update(record: Record) = write { delegate.update(record) }
+  }
+}
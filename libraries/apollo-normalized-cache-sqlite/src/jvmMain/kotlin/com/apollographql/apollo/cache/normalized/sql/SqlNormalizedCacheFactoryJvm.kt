@@ -3,15 +3,19 @@ package com.apollographql.apollo.cache.normalized.sql
 import com.apollographql.apollo.cache.normalized.api.NormalizedCacheFactory
 import com.apollographql.apollo.cache.normalized.sql.internal.createDriver
 import com.apollographql.apollo.cache.normalized.sql.internal.createRecordDatabase
+import com.apollographql.apollo.cache.normalized.sql.internal.WriteBehind
 import com.apollographql.apollo.cache.normalized.sql.internal.getSchema
 import app.cash.sqldelight.db.SqlDriver
 import app.cash.sqldelight.driver.jdbc.sqlite.JdbcSqliteDriver
 import com.apollographql.apollo.cache.normalized.api.NormalizedCache
 import java.util.Properties
 
-actual class SqlNormalizedCacheFactory actual constructor(
+actual class SqlNormalizedCacheFactory private constructor(
     private val driver: SqlDriver,
+    private val recordFormat: RecordFormat,
+    private val writeBehind: WriteBehind?,
 ) : NormalizedCacheFactory() {
+  actual constructor(driver: SqlDriver) : this(driver, RecordFormat.Json, null)
   /**
    * @param url Database connection URL in the form of `jdbc:sqlite:path` where `path` is either blank
    * (creating an in-memory database) or a path to a file.
@@ -31,8 +35,24 @@ actual class SqlNormalizedCacheFactory actual constructor(
   constructor(name: String?,  baseDir: String?) : this(createDriver(name, baseDir, getSchema()), )
   actual constructor(name: String?, ) : this(name, null)
 
+  /**
+   * @param name the name of the database or null for an in-memory database
+   * @param baseDir the baseDirectory where to store the database.
+   * @param sqliteOptions the options used to open the database
+   */
+  constructor(name: String?, baseDir: String?, sqliteOptions: SqliteOptions) : this(createDriver(name, baseDir, getSchema(), sqliteOptions))
+  actual constructor(name: String?, sqliteOptions: SqliteOptions) : this(name, null, sqliteOptions)
+
+  actual fun recordFormat(recordFormat: RecordFormat): SqlNormalizedCacheFactory {
+    return SqlNormalizedCacheFactory(driver, recordFormat, writeBehind)
+  }
+
+  actual fun writeBehind(windowMillis: Long, maxPendingRecords: Int): SqlNormalizedCacheFactory {
+    return SqlNormalizedCacheFactory(driver, recordFormat, WriteBehind(windowMillis, maxPendingRecords))
+  }
+
   actual override fun create(): NormalizedCache {
-    return SqlNormalizedCache(createRecordDatabase(driver))
+    return SqlNormalizedCache(createRecordDatabase(driver, recordFormat), writeBehind)
   }
 }
 
@@ -4,6 +4,7 @@ import app.cash.sqldelight.db.QueryResult
 import app.cash.sqldelight.db.SqlDriver
 import app.cash.sqldelight.db.SqlSchema
 import app.cash.sqldelight.driver.jdbc.sqlite.JdbcSqliteDriver
+import com.apollographql.apollo.cache.normalized.sql.SqliteOptions
 import java.io.File
 import java.util.Properties
 
@@ -23,8 +24,27 @@ internal fun createDriver(name: String?, baseDir: String?, properties: Propertie
   return JdbcSqliteDriver(name.toUrl(baseDir), properties)
 }
 
-internal actual fun createDriver(name: String?, baseDir: String?, schema: SqlSchema<QueryResult.Value<Unit>>): SqlDriver {
-  return createDriver(name, baseDir, Properties())
+internal actual fun createDriver(
+    name: String?,
+    baseDir: String?,
+    schema: SqlSchema<QueryResult.Value<Unit>>,
+    options: SqliteOptions,
+): SqlDriver {
+  return createDriver(name, baseDir, options.toProperties())
+}
+
+/**
+ * sqlite-jdbc applies the pragmas found in the connection properties every time it opens a connection
+ */
+internal fun SqliteOptions.toProperties(): Properties {
+  val properties = Properties()
+  if (writeAheadLogging != null) {
+    properties.setProperty("journal_mode", if (writeAheadLogging) "WAL" else "DELETE")
+  }
+  for ((pragma, value) in connectionPragmas()) {
+    properties.setProperty(pragma, value)
+  }
+  return properties
 }
 
 internal actual fun maybeCreateOrMigrateSchema(driver: SqlDriver, schema: SqlSchema<QueryResult.Value<Unit>>) {
@@ -1,5 +1,6 @@
 package com.apollographql.apollo.cache.normalized
 
+import com.apollographql.apollo.annotations.ApolloExperimental
 import com.apollographql.apollo.api.CustomScalarAdapters
 import com.apollographql.apollo.api.Fragment
 import com.apollographql.apollo.api.Operation
@@ -12,6 +13,7 @@ import com.apollographql.apollo.cache.normalized.api.CacheResolver
 import com.apollographql.apollo.cache.normalized.api.FieldPolicyCacheResolver
 import com.apollographql.apollo.cache.normalized.api.NormalizedCache
 import com.apollographql.apollo.cache.normalized.api.NormalizedCacheFactory
+import com.apollographql.apollo.cache.normalized.api.NormalizedCacheMetrics
 import com.apollographql.apollo.cache.normalized.api.Record
 import com.apollographql.apollo.cache.normalized.api.TypePolicyCacheKeyGenerator
 import com.apollographql.apollo.cache.normalized.internal.DefaultApolloStore
@@ -238,6 +240,19 @@ interface ApolloStore {
    */
   fun remove(cacheKeys: List<CacheKey>, cascade: Boolean = true): Int
 
+  /**
+   * Remove the records that cannot be reached from the root query record by following references.
+   * This is a synchronous operation that might block if the underlying cache is doing IO
+   *
+   * See [NormalizedCache.garbageCollect]
+   *
+   * The default implementation calls [NormalizedCache.garbageCollect] through [accessCache].
+   *
+   * @return the number of records that have been removed
+   */
+  @ApolloExperimental
+  fun garbageCollect(): Int = accessCache { it.garbageCollect() }
+
   /**
    * Normalize [data] to a map of [Record] keyed by [Record.key].
    */
@@ -271,6 +286,9 @@ interface ApolloStore {
 
   /**
    * Release resources associated with this store.
+   *
+   * Also saves the snapshots of the [com.apollographql.apollo.cache.normalized.api.MemoryCache]s that have one and closes
+   * the caches of the chain that are [AutoCloseable].
    */
   fun dispose()
 }
@@ -281,6 +299,23 @@ fun ApolloStore(
     cacheResolver: CacheResolver = FieldPolicyCacheResolver,
 ): ApolloStore = DefaultApolloStore(normalizedCacheFactory, cacheKeyGenerator, cacheResolver)
 
+/**
+ * Creates an [ApolloStore] that synchronizes accesses to its cache according to [locking].
+ *
+ * @param metrics reports the time spent waiting for the locks. Use
+ * [com.apollographql.apollo.cache.normalized.api.InstrumentedNormalizedCacheFactory] to also report the activity of the
+ * cache.
+ * @see StoreLocking
+ */
+@ApolloExperimental
+fun ApolloStore(
+    normalizedCacheFactory: NormalizedCacheFactory,
+    cacheKeyGenerator: CacheKeyGenerator = TypePolicyCacheKeyGenerator,
+    cacheResolver: CacheResolver = FieldPolicyCacheResolver,
+    locking: StoreLocking,
+    metrics: NormalizedCacheMetrics = NormalizedCacheMetrics.None,
+): ApolloStore = DefaultApolloStore(normalizedCacheFactory, cacheKeyGenerator, cacheResolver, locking, metrics)
+
 internal fun ApolloStore.cacheDumpProvider(): () -> Map<String, Map<String, Pair<Int, Map<String, Any?>>>> {
   return {
     dump().map { (cacheClass, cacheRecords) ->
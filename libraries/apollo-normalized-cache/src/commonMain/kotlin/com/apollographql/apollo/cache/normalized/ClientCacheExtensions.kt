@@ -97,6 +97,8 @@ enum class FetchPolicy {
  *
  * @param writeToCacheAsynchronously set to true to write to the cache after the response has been emitted.
  * This allows to display results faster
+ *
+ * The [ApolloStore] created here is disposed when the [ApolloClient] is closed.
  */
 @JvmOverloads
 @JvmName("configureApolloClientBuilder")
@@ -106,7 +108,7 @@ fun ApolloClient.Builder.normalizedCache(
     cacheResolver: CacheResolver = FieldPolicyCacheResolver,
     writeToCacheAsynchronously: Boolean = false,
 ): ApolloClient.Builder {
-  return store(ApolloStore(normalizedCacheFactory, cacheKeyGenerator, cacheResolver), writeToCacheAsynchronously)
+  return store(ApolloStore(normalizedCacheFactory, cacheKeyGenerator, cacheResolver), writeToCacheAsynchronously, disposeOnClose = true)
 }
 
 @JvmName("-logCacheMisses")
@@ -143,7 +145,10 @@ private fun ApolloInterceptorChain.asInterceptor(): ApolloInterceptor {
     }
   }
 }
-internal class CacheInterceptor(val store: ApolloStore): ApolloInterceptor {
+/**
+ * @param disposeOnClose whether [ApolloClient.close] disposes [store]
+ */
+internal class CacheInterceptor(val store: ApolloStore, private val disposeOnClose: Boolean = false) : ApolloInterceptor, AutoCloseable {
   private val delegates = listOf(
       WatcherInterceptor(store),
       FetchPolicyRouterInterceptor,
@@ -156,11 +161,26 @@ internal class CacheInterceptor(val store: ApolloStore): ApolloInterceptor {
   ): Flow<ApolloResponse<D>> {
     return DefaultInterceptorChain(delegates + chain.asInterceptor(), 0).proceed(request)
   }
-}
 
+  override fun close() {
+    if (disposeOnClose) {
+      store.dispose()
+    }
+  }
+}
 
+/**
+ * Configures an [ApolloClient] with [store].
+ *
+ * [store] can be shared between clients and is not disposed when the [ApolloClient] is closed: call [ApolloStore.dispose]
+ * once it is not used anymore.
+ */
 fun ApolloClient.Builder.store(store: ApolloStore, writeToCacheAsynchronously: Boolean = false): ApolloClient.Builder {
-  return cacheInterceptor(CacheInterceptor(store))
+  return store(store, writeToCacheAsynchronously, disposeOnClose = false)
+}
+
+private fun ApolloClient.Builder.store(store: ApolloStore, writeToCacheAsynchronously: Boolean, disposeOnClose: Boolean): ApolloClient.Builder {
+  return cacheInterceptor(CacheInterceptor(store, disposeOnClose))
       .writeToCacheAsynchronously(writeToCacheAsynchronously)
       .addExecutionContext(CacheDumpProviderContext(store.cacheDumpProvider()))
 }
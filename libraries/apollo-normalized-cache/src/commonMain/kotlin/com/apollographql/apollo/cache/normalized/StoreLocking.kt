@@ -0,0 +1,48 @@
+package com.apollographql.apollo.cache.normalized
+
+import com.apollographql.apollo.annotations.ApolloExperimental
+
+/**
+ * How an [ApolloStore] synchronizes concurrent accesses to its cache.
+ */
+@ApolloExperimental
+sealed interface StoreLocking {
+  /**
+   * A single read/write lock guards the whole store.
+   *
+   * Reads of an operation see a consistent snapshot of the cache but any write blocks all the readers.
+   *
+   * This is the default.
+   */
+  object Global : StoreLocking
+
+  /**
+   * Accesses are synchronized at the granularity of record keys, using [stripes] read/write locks indexed by the hash of
+   * the record keys:
+   * - writes lock the stripes of the records they merge, so that writes to disjoint records proceed in parallel.
+   * - reads lock the stripes of each batch of records they load, so that readers only wait for the records they touch.
+   * - operations that can touch any record ([ApolloStore.clearAll], [ApolloStore.remove], optimistic updates,
+   * [ApolloStore.accessCache], [ApolloStore.dump]) lock all the stripes.
+   *
+   * Every operation writes the fields of its root type to the root record (`QUERY_ROOT`). To not serialize all the
+   * operation writes on the stripe of the root record, it is merged on its own, after the other records of the write.
+   *
+   * Because the locks are released between batches, a read may observe records written by concurrent writes in the
+   * middle of its execution. Each individual record is always read in a consistent state.
+   *
+   * The [com.apollographql.apollo.cache.normalized.api.NormalizedCache]s in the chain must support concurrent writes of
+   * different keys. [com.apollographql.apollo.cache.normalized.api.ConcurrentMemoryCache] merges them in parallel.
+   * [com.apollographql.apollo.cache.normalized.api.MemoryCache] and `SqlNormalizedCache` support them but merge them one
+   * at a time: use [com.apollographql.apollo.cache.normalized.api.ConcurrentMemoryCacheFactory] as the memory cache for
+   * writes to disjoint records to proceed in parallel.
+   *
+   * @param stripes the number of locks. Must be > 0.
+   */
+  class RecordLevel(val stripes: Int = 64) : StoreLocking {
+    init {
+      require(stripes > 0) {
+        "Apollo: stripes must be > 0 (found '$stripes')"
+      }
+    }
+  }
+}
@@ -12,6 +12,7 @@ import com.apollographql.apollo.cache.normalized.ApolloStore
 import com.apollographql.apollo.cache.normalized.CacheInfo
 import com.apollographql.apollo.cache.normalized.api.ApolloCacheHeaders
 import com.apollographql.apollo.cache.normalized.api.CacheHeaders
+import com.apollographql.apollo.cache.normalized.api.internal.ChangedKeys
 import com.apollographql.apollo.cache.normalized.cacheHeaders
 import com.apollographql.apollo.cache.normalized.cacheInfo
 import com.apollographql.apollo.cache.normalized.doNotStore
@@ -85,7 +86,7 @@ internal class ApolloCacheInterceptor(
       } else {
         emptySet()
       }
-      store.publish(cacheKeys + extraKeys)
+      store.publish(if (extraKeys.isEmpty()) cacheKeys else ChangedKeys().apply { addAll(cacheKeys); addAll(extraKeys) })
     }
   }
 
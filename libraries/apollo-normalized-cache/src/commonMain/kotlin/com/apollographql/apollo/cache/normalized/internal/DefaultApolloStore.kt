@@ -5,27 +5,42 @@ import com.apollographql.apollo.api.Fragment
 import com.apollographql.apollo.api.Operation
 import com.apollographql.apollo.api.variables
 import com.apollographql.apollo.cache.normalized.ApolloStore
+import com.apollographql.apollo.cache.normalized.StoreLocking
 import com.apollographql.apollo.cache.normalized.api.CacheHeaders
 import com.apollographql.apollo.cache.normalized.api.CacheKey
 import com.apollographql.apollo.cache.normalized.api.CacheKeyGenerator
 import com.apollographql.apollo.cache.normalized.api.CacheResolver
+import com.apollographql.apollo.cache.normalized.api.MemoryCache
 import com.apollographql.apollo.cache.normalized.api.NormalizedCache
 import com.apollographql.apollo.cache.normalized.api.NormalizedCacheFactory
+import com.apollographql.apollo.cache.normalized.api.NormalizedCacheMetrics
 import com.apollographql.apollo.cache.normalized.api.Record
 import com.apollographql.apollo.cache.normalized.api.internal.OptimisticCache
+import com.apollographql.apollo.cache.normalized.api.internal.ReadPlanCache
+import com.apollographql.apollo.cache.normalized.api.layers
 import com.apollographql.apollo.cache.normalized.api.normalize
 import com.apollographql.apollo.cache.normalized.api.readDataFromCacheInternal
 import com.apollographql.apollo.cache.normalized.api.toData
+import com.apollographql.apollo.exception.apolloExceptionHandler
 import com.benasher44.uuid.Uuid
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.cancel
 import kotlinx.coroutines.channels.BufferOverflow
+import kotlinx.coroutines.ensureActive
 import kotlinx.coroutines.flow.MutableSharedFlow
 import kotlinx.coroutines.flow.asSharedFlow
+import kotlinx.coroutines.launch
 import kotlin.reflect.KClass
 
 internal class DefaultApolloStore(
     normalizedCacheFactory: NormalizedCacheFactory,
     private val cacheKeyGenerator: CacheKeyGenerator,
     private val cacheResolver: CacheResolver,
+    locking: StoreLocking = StoreLocking.Global,
+    metrics: NormalizedCacheMetrics = NormalizedCacheMetrics.None,
 ) : ApolloStore {
   private val changedKeysEvents = MutableSharedFlow<Set<String>>(
       /**
@@ -51,12 +66,34 @@ internal class DefaultApolloStore(
 
   override val changedKeys = changedKeysEvents.asSharedFlow()
 
+  /**
+   * The watchers of this store, indexed by the keys they depend on. Used by [WatcherInterceptor] so that a publish only
+   * notifies the affected watchers.
+   */
+  internal val watchers = WatcherIndex()
+
   // Keeping this as lazy to avoid accessing the disk at initialization which usually happens on the main thread
-  private val cache: OptimisticCache by lazy {
-    OptimisticCache().chain(normalizedCacheFactory.createChain()) as OptimisticCache
+  private val lazyCache = lazy {
+    (OptimisticCache().chain(normalizedCacheFactory.createChain()) as OptimisticCache).also { preloadSnapshots(it) }
   }
+  private val cache: OptimisticCache by lazyCache
+
+  /**
+   * Preloads the snapshots of the [MemoryCache]s, if any. Cancelled by [dispose].
+   */
+  private val preloadScope = CoroutineScope(SupervisorJob() + Dispatchers.Default)
+
+  private val lock = StoreLock(locking, metrics)
+
+  /**
+   * The read plans of the last reads, reused by the next reads of the same operations, e.g. when watchers re-read
+   */
+  private val readPlanCache = ReadPlanCache()
 
-  private val lock = Lock()
+  /**
+   * Whether the root record is merged on its own, see [mergeRecords]
+   */
+  private val mergeRootRecordSeparately = locking is StoreLocking.RecordLevel
 
   override suspend fun publish(keys: Set<String>) {
     if (keys.isEmpty() && keys !== ApolloStore.ALL_KEYS) {
@@ -64,10 +101,11 @@ internal class DefaultApolloStore(
     }
 
     changedKeysEvents.emit(keys)
+    watchers.dispatch(keys)
   }
 
   override fun clearAll(): Boolean {
-    lock.write {
+    lock.writeAll {
       cache.clearAll()
     }
     return true
@@ -77,7 +115,7 @@ internal class DefaultApolloStore(
       cacheKey: CacheKey,
       cascade: Boolean,
   ): Boolean {
-    return lock.write {
+    return lock.writeAll {
       cache.remove(cacheKey, cascade)
     }
   }
@@ -86,7 +124,7 @@ internal class DefaultApolloStore(
       cacheKeys: List<CacheKey>,
       cascade: Boolean,
   ): Int {
-    return lock.write {
+    return lock.writeAll {
       var count = 0
       for (cacheKey in cacheKeys) {
         if (cache.remove(cacheKey, cascade = cascade)) {
@@ -97,6 +135,12 @@ internal class DefaultApolloStore(
     }
   }
 
+  override fun garbageCollect(): Int {
+    return lock.writeAll {
+      cache.garbageCollect()
+    }
+  }
+
   override fun <D : Operation.Data> normalize(
       operation: Operation<D>,
       data: D,
@@ -115,12 +159,13 @@ internal class DefaultApolloStore(
       cacheHeaders: CacheHeaders,
   ): D {
     val variables = operation.variables(customScalarAdapters, true)
-    return lock.read {
+    return lock.read(cache) { lockedCache ->
       operation.readDataFromCacheInternal(
-          cache = cache,
+          cache = lockedCache,
           cacheResolver = cacheResolver,
           cacheHeaders = cacheHeaders,
-          variables = variables
+          variables = variables,
+          readPlanCache = readPlanCache,
       )
     }.toData(operation.adapter(), customScalarAdapters, variables)
   }
@@ -132,13 +177,14 @@ internal class DefaultApolloStore(
       cacheHeaders: CacheHeaders,
   ): D {
     val variables = fragment.variables(customScalarAdapters, true)
-    return lock.read {
+    return lock.read(cache) { lockedCache ->
       fragment.readDataFromCacheInternal(
-          cache = cache,
+          cache = lockedCache,
           cacheResolver = cacheResolver,
           cacheHeaders = cacheHeaders,
           cacheKey = cacheKey,
           variables = variables,
+          readPlanCache = readPlanCache,
       )
     }.toData(fragment.adapter(), customScalarAdapters, variables)
   }
@@ -147,7 +193,7 @@ internal class DefaultApolloStore(
     /**
      * We don't know how the cache is going to be used, assume write access
      */
-    return lock.write { block(cache) }
+    return lock.writeAll { block(cache) }
   }
 
   override suspend fun <D : Operation.Data> writeOperation(
@@ -178,13 +224,36 @@ internal class DefaultApolloStore(
         cacheKeyGenerator = cacheKeyGenerator
     ).values
 
-    val changedKeys = lock.write {
-      cache.merge(records, cacheHeaders)
-    }
+    val changedKeys = mergeRecords(records, cacheHeaders)
 
     return changedKeys
   }
 
+  /**
+   * Merges the records of a write.
+   *
+   * With [StoreLocking.RecordLevel], the root record is merged after the other records and under its own stripe only:
+   * every operation writes the root record so locking it together with the other records would serialize all the
+   * operation writes. Readers still see each record in a consistent state and never see the new root record before the
+   * records it references.
+   */
+  private fun mergeRecords(records: Collection<Record>, cacheHeaders: CacheHeaders): Set<String> {
+    val rootKey = CacheKey.rootKey().key
+    val rootRecord = if (mergeRootRecordSeparately && records.size > 1) records.firstOrNull { it.key == rootKey } else null
+    if (rootRecord == null) {
+      return lock.write(records.map { it.key }) {
+        cache.merge(records, cacheHeaders)
+      }
+    }
+    val otherRecords = records.filter { it.key != rootKey }
+    val changedKeys = lock.write(otherRecords.map { it.key }) {
+      cache.merge(otherRecords, cacheHeaders)
+    }
+    return changedKeys + lock.write(listOf(rootKey)) {
+      cache.merge(rootRecord, cacheHeaders)
+    }
+  }
+
   override suspend fun <D : Fragment.Data> writeFragment(
       fragment: Fragment<D>,
       cacheKey: CacheKey,
@@ -216,9 +285,7 @@ internal class DefaultApolloStore(
         rootKey = cacheKey.key
     ).values
 
-    val changedKeys = lock.write {
-      cache.merge(records, cacheHeaders)
-    }
+    val changedKeys = mergeRecords(records, cacheHeaders)
 
     return changedKeys
   }
@@ -256,7 +323,7 @@ internal class DefaultApolloStore(
           mutationId = mutationId
       )
     }
-    val changedKeys = lock.write {
+    val changedKeys = lock.writeAll {
       /**
        * TODO: should we forward the cache headers to the optimistic store?
        */
@@ -282,7 +349,7 @@ internal class DefaultApolloStore(
   override fun rollbackOptimisticUpdatesSync(
       mutationId: Uuid,
   ): Set<String> {
-    val changedKeys = lock.write {
+    val changedKeys = lock.writeAll {
       cache.removeOptimisticUpdates(mutationId)
     }
 
@@ -290,11 +357,61 @@ internal class DefaultApolloStore(
   }
 
   override fun dump(): Map<KClass<*>, Map<String, Record>> {
-    return lock.read {
+    return lock.readAll {
       cache.dump()
     }
   }
 
-  override fun dispose() {}
+  /**
+   * Starts preloading the snapshots of the [MemoryCache]s of [cache] in the background.
+   *
+   * Each batch runs under the write lock of the store so that it never races with the store writes, including on the
+   * platforms where the [MemoryCache] lock is a no-op.
+   */
+  private fun preloadSnapshots(cache: NormalizedCache) {
+    val memoryCaches = cache.memoryCachesWithSnapshot()
+    if (memoryCaches.isEmpty()) {
+      return
+    }
+    preloadScope.launch {
+      try {
+        memoryCaches.forEach { memoryCache ->
+          memoryCache.preloadSnapshot { batch ->
+            ensureActive()
+            lock.writeAll(batch)
+          }
+        }
+      } catch (e: CancellationException) {
+        throw e
+      } catch (e: Exception) {
+        // The cache is still usable, it is only colder
+        apolloExceptionHandler(Exception("Unable to preload the memory cache", e))
+      }
+    }
+  }
+
+  override fun dispose() {
+    preloadScope.cancel()
+    if (lazyCache.isInitialized()) {
+      lock.writeAll {
+        cache.memoryCachesWithSnapshot().forEach {
+          try {
+            it.saveSnapshot()
+          } catch (e: Exception) {
+            // The next start is only colder, the caches must still be closed
+            apolloExceptionHandler(Exception("Unable to save the memory cache snapshot", e))
+          }
+        }
+        // Close the caches that hold resources, e.g. the background writer of a SqlNormalizedCache
+        cache.layers().filterIsInstance<AutoCloseable>().forEach { it.close() }
+      }
+    }
+  }
 }
 
+private fun NormalizedCache.memoryCachesWithSnapshot(): List<MemoryCache> {
+  return layers()
+      .filterIsInstance<MemoryCache>()
+      .filter { it.snapshot != null }
+      .toList()
+}
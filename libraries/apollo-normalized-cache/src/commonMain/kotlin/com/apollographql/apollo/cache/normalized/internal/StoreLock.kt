@@ -0,0 +1,111 @@
+package com.apollographql.apollo.cache.normalized.internal
+
+import com.apollographql.apollo.cache.normalized.StoreLocking
+import com.apollographql.apollo.cache.normalized.api.CacheHeaders
+import com.apollographql.apollo.cache.normalized.api.NormalizedCacheMetrics
+import com.apollographql.apollo.cache.normalized.api.ReadOnlyNormalizedCache
+import com.apollographql.apollo.cache.normalized.api.Record
+import kotlin.reflect.KClass
+import kotlin.time.TimeSource
+
+/**
+ * The locking strategy of [DefaultApolloStore]
+ */
+internal interface StoreLock {
+  /**
+   * Reads from [cache]. [block] must only access the cache through the [ReadOnlyNormalizedCache] it is given.
+   */
+  fun <T> read(cache: ReadOnlyNormalizedCache, block: (ReadOnlyNormalizedCache) -> T): T
+
+  /**
+   * Writes records with the given [keys]
+   */
+  fun <T> write(keys: Collection<String>, block: () -> T): T
+
+  fun <T> readAll(block: () -> T): T
+
+  fun <T> writeAll(block: () -> T): T
+}
+
+internal fun StoreLock(locking: StoreLocking, metrics: NormalizedCacheMetrics = NormalizedCacheMetrics.None): StoreLock {
+  return when (locking) {
+    is StoreLocking.Global -> GlobalStoreLock(metrics)
+    is StoreLocking.RecordLevel -> RecordLevelStoreLock(locking.stripes, metrics)
+  }
+}
+
+/**
+ * Returns a block that reports the time elapsed since now to [NormalizedCacheMetrics.onStoreLockAcquired] before calling
+ * [block]. Returns [block] as is if there are no metrics.
+ */
+private fun <T> NormalizedCacheMetrics.timed(write: Boolean, block: () -> T): () -> T {
+  if (this === NormalizedCacheMetrics.None) {
+    return block
+  }
+  val mark = TimeSource.Monotonic.markNow()
+  return {
+    onStoreLockAcquired(write, mark.elapsedNow().inWholeNanoseconds)
+    block()
+  }
+}
+
+private class GlobalStoreLock(private val metrics: NormalizedCacheMetrics) : StoreLock {
+  private val lock = Lock()
+
+  override fun <T> read(cache: ReadOnlyNormalizedCache, block: (ReadOnlyNormalizedCache) -> T): T {
+    return lock.read(metrics.timed(false) { block(cache) })
+  }
+
+  override fun <T> write(keys: Collection<String>, block: () -> T): T {
+    return lock.write(metrics.timed(true, block))
+  }
+
+  override fun <T> readAll(block: () -> T): T {
+    return lock.read(metrics.timed(false, block))
+  }
+
+  override fun <T> writeAll(block: () -> T): T {
+    return lock.write(metrics.timed(true, block))
+  }
+}
+
+private class RecordLevelStoreLock(stripes: Int, private val metrics: NormalizedCacheMetrics) : StoreLock {
+  private val lock = StripedLock(stripes)
+
+  override fun <T> read(cache: ReadOnlyNormalizedCache, block: (ReadOnlyNormalizedCache) -> T): T {
+    return block(LockingReadOnlyNormalizedCache(cache, lock, metrics))
+  }
+
+  override fun <T> write(keys: Collection<String>, block: () -> T): T {
+    return lock.write(keys, metrics.timed(true, block))
+  }
+
+  override fun <T> readAll(block: () -> T): T {
+    return lock.readAll(metrics.timed(false, block))
+  }
+
+  override fun <T> writeAll(block: () -> T): T {
+    return lock.writeAll(metrics.timed(true, block))
+  }
+}
+
+/**
+ * A [ReadOnlyNormalizedCache] that locks the stripes of the records for the duration of each load
+ */
+private class LockingReadOnlyNormalizedCache(
+    private val cache: ReadOnlyNormalizedCache,
+    private val lock: StripedLock,
+    private val metrics: NormalizedCacheMetrics,
+) : ReadOnlyNormalizedCache {
+  override fun loadRecord(key: String, cacheHeaders: CacheHeaders): Record? {
+    return lock.read(listOf(key), metrics.timed(false) { cache.loadRecord(key, cacheHeaders) })
+  }
+
+  override fun loadRecords(keys: Collection<String>, cacheHeaders: CacheHeaders): Collection<Record> {
+    return lock.read(keys, metrics.timed(false) { cache.loadRecords(keys, cacheHeaders) })
+  }
+
+  override fun dump(): Map<KClass<*>, Map<String, Record>> {
+    return lock.readAll(metrics.timed(false) { cache.dump() })
+  }
+}
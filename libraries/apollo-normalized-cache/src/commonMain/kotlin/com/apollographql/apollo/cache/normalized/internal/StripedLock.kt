@@ -0,0 +1,68 @@
+package com.apollographql.apollo.cache.normalized.internal
+
+/**
+ * A fixed set of [Lock]s indexed by the hash of record keys.
+ *
+ * When locking several keys, the stripes are always acquired in ascending order so that two writers touching overlapping
+ * sets of keys cannot deadlock.
+ */
+internal class StripedLock(stripes: Int) {
+  private val locks = Array(stripes) { Lock() }
+  private val allStripes = IntArray(stripes) { it }
+
+  fun <T> read(keys: Collection<String>, block: () -> T): T {
+    return withLocks(stripesFor(keys), 0, true, block)
+  }
+
+  fun <T> write(keys: Collection<String>, block: () -> T): T {
+    return withLocks(stripesFor(keys), 0, false, block)
+  }
+
+  fun <T> readAll(block: () -> T): T {
+    return withLocks(allStripes, 0, true, block)
+  }
+
+  fun <T> writeAll(block: () -> T): T {
+    return withLocks(allStripes, 0, false, block)
+  }
+
+  /**
+   * Returns the distinct stripes of [keys], sorted
+   */
+  private fun stripesFor(keys: Collection<String>): IntArray {
+    if (keys.size == 1) {
+      return intArrayOf(stripeFor(keys.first()))
+    }
+    val used = BooleanArray(locks.size)
+    var count = 0
+    for (key in keys) {
+      val stripe = stripeFor(key)
+      if (!used[stripe]) {
+        used[stripe] = true
+        count++
+      }
+    }
+    val stripes = IntArray(count)
+    var i = 0
+    for (stripe in used.indices) {
+      if (used[stripe]) {
+        stripes[i++] = stripe
+      }
+    }
+    return stripes
+  }
+
+  private fun stripeFor(key: String): Int {
+    val hash = key.hashCode()
+    return ((hash xor (hash ushr 16)) and Int.MAX_VALUE) % locks.size
+  }
+
+  private fun <T> withLocks(stripes: IntArray, index: Int, read: Boolean, block: () -> T): T {
+    if (index == stripes.size) {
+      return block()
+    }
+    val lock = locks[stripes[index]]
+    val next = { withLocks(stripes, index + 1, read, block) }
+    return if (read) lock.read(next) else lock.write(next)
+  }
+}
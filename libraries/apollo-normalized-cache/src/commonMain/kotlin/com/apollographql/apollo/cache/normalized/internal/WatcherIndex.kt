@@ -0,0 +1,198 @@
+package com.apollographql.apollo.cache.normalized.internal
+
+import com.apollographql.apollo.cache.normalized.ApolloStore
+import com.apollographql.apollo.cache.normalized.api.internal.ChangedKeys
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.channels.ClosedSendChannelException
+
+/**
+ * An inverted index of the keys watched by the watchers of a [DefaultApolloStore].
+ *
+ * Keys are in the same format as [ApolloStore.changedKeys] (`"recordKey.fieldName"`), usually as [ChangedKeys]. A publish
+ * looks up the watchers of each changed key instead of intersecting the changed keys with the keys of every watcher.
+ */
+internal class WatcherIndex {
+  /**
+   * A registered watcher. [events] receives an element every time one of its keys changes.
+   */
+  class Watcher {
+    internal var keys: Set<String>? = null
+
+    /**
+     * See the buffer of [DefaultApolloStore.changedKeys] about the '64' value
+     */
+    val events = Channel<Unit>(64)
+  }
+
+  private val lock = Lock()
+
+  /**
+   * Watchers by record key and field key. Keys of a [ChangedKeys] are looked up without building the
+   * `"recordKey.fieldKey"` strings.
+   */
+  private val watchersByField = HashMap<String, HashMap<String, MutableSet<Watcher>>>()
+
+  /**
+   * Watchers of keys that were not given as a [ChangedKeys]
+   */
+  private val watchersByPlainKey = HashMap<String, MutableSet<Watcher>>()
+
+  /**
+   * Watchers that don't know their keys yet. They are notified of every change.
+   */
+  private val watchersWithoutKeys = LinkedHashSet<Watcher>()
+  private val allWatchers = LinkedHashSet<Watcher>()
+
+  /**
+   * Registers a new watcher of [keys]. If [keys] is null, the watcher is notified of every change.
+   */
+  fun register(keys: Set<String>?): Watcher {
+    val watcher = Watcher()
+    lock.write {
+      allWatchers.add(watcher)
+      index(watcher, keys)
+    }
+    return watcher
+  }
+
+  /**
+   * Replaces the keys of [watcher]
+   */
+  fun update(watcher: Watcher, keys: Set<String>?) {
+    lock.write {
+      if (!allWatchers.contains(watcher)) {
+        // Already unregistered
+        return@write
+      }
+      unindex(watcher)
+      index(watcher, keys)
+    }
+  }
+
+  fun unregister(watcher: Watcher) {
+    lock.write {
+      if (allWatchers.remove(watcher)) {
+        unindex(watcher)
+      }
+    }
+    watcher.events.close()
+  }
+
+  /**
+   * Notifies the watchers of [changedKeys]. If [changedKeys] is [ApolloStore.ALL_KEYS], all watchers are notified.
+   *
+   * Suspends if the buffer of a watcher is full.
+   */
+  suspend fun dispatch(changedKeys: Set<String>) {
+    val affected: Collection<Watcher> = lock.read {
+      if (changedKeys === ApolloStore.ALL_KEYS) {
+        return@read allWatchers.toList()
+      }
+      val result = LinkedHashSet<Watcher>(watchersWithoutKeys)
+      if (changedKeys is ChangedKeys) {
+        changedKeys.forEachRecord { recordKey, fieldKeys ->
+          val byField = watchersByField[recordKey]
+          if (byField != null) {
+            for (fieldKey in fieldKeys) {
+              byField[fieldKey]?.let { result.addAll(it) }
+            }
+          }
+          if (watchersByPlainKey.isNotEmpty()) {
+            for (fieldKey in fieldKeys) {
+              watchersByPlainKey["$recordKey.$fieldKey"]?.let { result.addAll(it) }
+            }
+          }
+        }
+        changedKeys.forEachPlainKey { key -> collectPlain(key, result) }
+      } else {
+        for (key in changedKeys) {
+          collectPlain(key, result)
+        }
+      }
+      result
+    }
+
+    for (watcher in affected) {
+      try {
+        watcher.events.send(Unit)
+      } catch (_: ClosedSendChannelException) {
+        // The watcher was unregistered concurrently
+      }
+    }
+  }
+
+  /**
+   * Adds the watchers of [key] to [result]. Record keys may contain '.' so every split is tried.
+   */
+  private fun collectPlain(key: String, result: MutableSet<Watcher>) {
+    watchersByPlainKey[key]?.let { result.addAll(it) }
+    var index = key.indexOf('.')
+    while (index >= 0) {
+      watchersByField[key.substring(0, index)]?.get(key.substring(index + 1))?.let { result.addAll(it) }
+      index = key.indexOf('.', index + 1)
+    }
+  }
+
+  private fun index(watcher: Watcher, keys: Set<String>?) {
+    watcher.keys = keys
+    if (keys == null) {
+      watchersWithoutKeys.add(watcher)
+      return
+    }
+    forEachKey(keys,
+        onField = { recordKey, fieldKey ->
+          watchersByField.getOrPut(recordKey) { HashMap() }.getOrPut(fieldKey) { HashSet() }.add(watcher)
+        },
+        onPlainKey = { key ->
+          watchersByPlainKey.getOrPut(key) { HashSet() }.add(watcher)
+        }
+    )
+  }
+
+  private fun unindex(watcher: Watcher) {
+    val keys = watcher.keys
+    if (keys == null) {
+      watchersWithoutKeys.remove(watcher)
+      return
+    }
+    forEachKey(keys,
+        onField = { recordKey, fieldKey ->
+          val byField = watchersByField[recordKey]
+          val watchers = byField?.get(fieldKey)
+          if (watchers != null) {
+            watchers.remove(watcher)
+            if (watchers.isEmpty()) {
+              byField.remove(fieldKey)
+              if (byField.isEmpty()) {
+                watchersByField.remove(recordKey)
+              }
+            }
+          }
+        },
+        onPlainKey = { key ->
+          val watchers = watchersByPlainKey[key]
+          if (watchers != null) {
+            watchers.remove(watcher)
+            if (watchers.isEmpty()) {
+              watchersByPlainKey.remove(key)
+            }
+          }
+        }
+    )
+  }
+
+  private fun forEachKey(keys: Set<String>, onField: (recordKey: String, fieldKey: String) -> Unit, onPlainKey: (key: String) -> Unit) {
+    if (keys is ChangedKeys) {
+      keys.forEachRecord { recordKey, fieldKeys ->
+        for (fieldKey in fieldKeys) {
+          onField(recordKey, fieldKey)
+        }
+      }
+      keys.forEachPlainKey { onPlainKey(it) }
+    } else {
+      for (key in keys) {
+        onPlainKey(key)
+      }
+    }
+  }
+}
@@ -36,6 +36,10 @@ internal class WatcherInterceptor(val store: ApolloStore) : ApolloInterceptor {
     @Suppress("UNCHECKED_CAST")
     var watchedKeys: Set<String>? = watchContext.data?.let { store.normalize(request.operation, it as D, customScalarAdapters).values.dependentKeys() }
 
+    if (store is DefaultApolloStore) {
+      return watchIndexed(store.watchers, request, chain, watchedKeys, customScalarAdapters)
+    }
+
     return (store.changedKeys as SharedFlow<Any>)
         .onSubscription {
           emit(Unit)
@@ -59,6 +63,33 @@ internal class WatcherInterceptor(val store: ApolloStore) : ApolloInterceptor {
         }
         .flattenConcatPolyfill()
   }
+
+  /**
+   * Registers the watcher in [watchers] so that it is only notified when one of its keys changes
+   */
+  private fun <D : Operation.Data> watchIndexed(
+      watchers: WatcherIndex,
+      request: ApolloRequest<D>,
+      chain: ApolloInterceptorChain,
+      initialKeys: Set<String>?,
+      customScalarAdapters: CustomScalarAdapters,
+  ): Flow<ApolloResponse<D>> = flow {
+    val watcher = watchers.register(initialKeys)
+    try {
+      emit(ApolloResponse.Builder(request.operation, request.requestUuid).exception(WatcherSentinel).build())
+      while (true) {
+        watcher.events.receive()
+        chain.proceed(request).collect { response ->
+          if (response.data != null) {
+            watchers.update(watcher, store.normalize(request.operation, response.data!!, customScalarAdapters).values.dependentKeys())
+          }
+          emit(response)
+        }
+      }
+    } finally {
+      watchers.unregister(watcher)
+    }
+  }
 }
 
 /**
@@ -20,7 +20,9 @@ import com.apollographql.apollo.exception.ApolloHttpException
 import com.apollographql.apollo.interceptor.ApolloInterceptor
 import com.apollographql.apollo.interceptor.AutoPersistedQueryInterceptor
 import com.apollographql.apollo.interceptor.DefaultInterceptorChain
+import com.apollographql.apollo.interceptor.DeduplicationInterceptor
 import com.apollographql.apollo.interceptor.NetworkInterceptor
+import com.apollographql.apollo.interceptor.NonBatchedOperationsInterceptor
 import com.apollographql.apollo.interceptor.RetryOnErrorInterceptor
 import com.apollographql.apollo.internal.defaultDispatcher
 import com.apollographql.apollo.network.NetworkTransport
@@ -83,6 +85,7 @@ private constructor(
   private val retryOnErrorInterceptor: ApolloInterceptor? = builder.retryOnErrorInterceptor
   private val failFastIfOffline = builder.failFastIfOffline
   private val sendEnhancedClientAwareness = builder.sendEnhancedClientAwareness
+  private val deduplicationInterceptor: ApolloInterceptor? = if (builder.deduplicateQueries) DeduplicationInterceptor() else null
 
   override val executionContext: ExecutionContext = builder.executionContext
   override val httpMethod: HttpMethod? = builder.httpMethod
@@ -207,11 +210,14 @@ private constructor(
   /**
    * Disposes resources held by this [ApolloClient]. On JVM platforms, resources are ultimately garbage collected but calling [close] is necessary
    * on other platform or to reclaim those resources earlier.
+   *
+   * Also closes [cacheInterceptor] if it is [AutoCloseable], which disposes the store created by `normalizedCache()`.
    */
   override fun close() {
     concurrencyInfo.coroutineScope.cancel()
     networkTransport.dispose()
     subscriptionNetworkTransport.dispose()
+    (cacheInterceptor as? AutoCloseable)?.close()
   }
 
   private val networkInterceptor = NetworkInterceptor(
@@ -298,6 +304,9 @@ private constructor(
         add(autoPersistedQueryInterceptor)
       }
       add(retryOnErrorInterceptor ?: RetryOnErrorInterceptor())
+      if (deduplicationInterceptor != null) {
+        add(deduplicationInterceptor)
+      }
       add(networkInterceptor)
     }
     return DefaultInterceptorChain(allInterceptors, 0)
@@ -397,6 +406,10 @@ private constructor(
     var sendEnhancedClientAwareness: Boolean = true
       private set
 
+    @ApolloExperimental
+    var deduplicateQueries: Boolean = false
+      private set
+
     /**
      * Configures whether client library metadata is sent in each request `extensions` key.
      * Client library metadata is the Apollo Kotlin library name and version.
@@ -406,6 +419,23 @@ private constructor(
       this.sendEnhancedClientAwareness = sendEnhancedClientAwareness
     }
 
+    /**
+     * Configures whether identical queries executed concurrently share the same network call.
+     *
+     * Queries are identical if they have the same operation id, variables, HTTP method, HTTP headers and options changing
+     * the request sent. A query executed while an identical one is in flight doesn't send a new request and receives the
+     * responses of the in flight one. The network call is cancelled when all the queries sharing it are cancelled.
+     *
+     * This happens after the cache: queries that are read from the cache don't use the network. Mutations and
+     * subscriptions are never deduplicated.
+     *
+     * Default: false
+     */
+    @ApolloExperimental
+    fun deduplicateQueries(deduplicateQueries: Boolean): Builder = apply {
+      this.deduplicateQueries = deduplicateQueries
+    }
+
     /**
      * Whether to fail fast if the device is offline.
      * Requires setting an interceptor that is aware of the network state with [retryOnErrorInterceptor].
@@ -815,6 +845,7 @@ private constructor(
      * - cacheInterceptor
      * - autoPersistedQueriesInterceptor
      * - retryOnErrorInterceptor
+     * - deduplication interceptor if [deduplicateQueries] is set
      * - networkInterceptor
      *
      * @see cacheInterceptor
@@ -925,15 +956,32 @@ private constructor(
      *
      * @param batchIntervalMillis the interval between two batches
      * @param maxBatchSize always send the batch when this threshold is reached
+     * @param maxBatchSizeBytes always send the batch when the size of its request bodies reaches this threshold
+     * @param adaptiveBatchInterval whether to adapt the batch interval to the load and round trip times. See [BatchingHttpInterceptor]
+     * @param nonBatchedOperations the names of the operations that are never batched unless [ApolloCall.canBeBatched] is set for a call
      */
     @JvmOverloads
     fun httpBatching(
         batchIntervalMillis: Long = 10,
         maxBatchSize: Int = 10,
         enableByDefault: Boolean = true,
+        maxBatchSizeBytes: Long = Long.MAX_VALUE,
+        adaptiveBatchInterval: Boolean = false,
+        nonBatchedOperations: Set<String> = emptySet(),
     ) = apply {
       _httpInterceptors.removeAll { it is BatchingHttpInterceptor }
-      addHttpInterceptor(BatchingHttpInterceptor(batchIntervalMillis, maxBatchSize))
+      addHttpInterceptor(
+          BatchingHttpInterceptor(
+              batchIntervalMillis = batchIntervalMillis,
+              maxBatchSize = maxBatchSize,
+              maxBatchSizeBytes = maxBatchSizeBytes,
+              adaptiveBatchInterval = adaptiveBatchInterval,
+          )
+      )
+      _interceptors.removeAll { it is NonBatchedOperationsInterceptor }
+      if (nonBatchedOperations.isNotEmpty()) {
+        addInterceptor(NonBatchedOperationsInterceptor(nonBatchedOperations))
+      }
       canBeBatched(enableByDefault)
     }
 
@@ -977,6 +1025,7 @@ private constructor(
           .autoPersistedQueriesInterceptor(autoPersistedQueryInterceptor)
           .failFastIfOffline(failFastIfOffline)
           .sendEnhancedClientAwareness(sendEnhancedClientAwareness)
+          .deduplicateQueries(deduplicateQueries)
     }
   }
 }
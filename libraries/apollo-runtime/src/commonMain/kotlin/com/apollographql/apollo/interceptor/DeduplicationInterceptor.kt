@@ -0,0 +1,163 @@
+package com.apollographql.apollo.interceptor
+
+import com.apollographql.apollo.ConcurrencyInfo
+import com.apollographql.apollo.api.ApolloRequest
+import com.apollographql.apollo.api.ApolloResponse
+import com.apollographql.apollo.api.CustomScalarAdapters
+import com.apollographql.apollo.api.Operation
+import com.apollographql.apollo.api.Query
+import com.apollographql.apollo.api.http.HttpHeader
+import com.apollographql.apollo.api.http.HttpMethod
+import com.apollographql.apollo.api.variables
+import com.apollographql.apollo.exception.ApolloNetworkException
+import kotlinx.atomicfu.locks.reentrantLock
+import kotlinx.atomicfu.locks.withLock
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CoroutineStart
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.MutableSharedFlow
+import kotlinx.coroutines.flow.emitAll
+import kotlinx.coroutines.flow.flow
+import kotlinx.coroutines.flow.transformWhile
+import kotlinx.coroutines.launch
+
+/**
+ * An [ApolloInterceptor] that shares the network call of identical queries executed concurrently.
+ *
+ * Queries are identical if they have the same operation id, variables, HTTP method, HTTP headers and options
+ * changing the request sent. The first query starts the network call in the [ApolloClient][com.apollographql.apollo.ApolloClient]
+ * scope. Queries executed while it is in flight receive the same responses, including the ones already received.
+ *
+ * The network call is cancelled when all its collectors are cancelled. A collector that is cancelled doesn't cancel it
+ * for the other collectors.
+ *
+ * Mutations and subscriptions are never deduplicated.
+ *
+ * @see com.apollographql.apollo.ApolloClient.Builder.deduplicateQueries
+ */
+internal class DeduplicationInterceptor : ApolloInterceptor {
+  private val lock = reentrantLock()
+  private val inFlightCalls = mutableMapOf<DeduplicationKey, InFlightCall>()
+
+  private data class DeduplicationKey(
+      val operationId: String,
+      val variables: Map<String, Any?>,
+      val httpMethod: HttpMethod?,
+      val httpHeaders: List<HttpHeader>?,
+      val sendApqExtensions: Boolean?,
+      val sendDocument: Boolean?,
+      val enableAutoPersistedQueries: Boolean?,
+      val ignoreUnknownKeys: Boolean?,
+  )
+
+  private sealed interface Event {
+    class Response(val response: ApolloResponse<*>) : Event
+    class Failure(val cause: Throwable) : Event
+    class Cancelled(val cause: CancellationException) : Event
+    object Completed : Event
+  }
+
+  private class InFlightCall {
+    /**
+     * All the events of the call so that collectors joining late receive the previous responses
+     */
+    val events = MutableSharedFlow<Event>(replay = Int.MAX_VALUE)
+    var collectors = 0
+    lateinit var job: Job
+  }
+
+  override fun <D : Operation.Data> intercept(request: ApolloRequest<D>, chain: ApolloInterceptorChain): Flow<ApolloResponse<D>> {
+    if (request.operation !is Query) {
+      return chain.proceed(request)
+    }
+    val concurrencyInfo = request.executionContext[ConcurrencyInfo] ?: return chain.proceed(request)
+    val customScalarAdapters = request.executionContext[CustomScalarAdapters] ?: CustomScalarAdapters.Empty
+
+    val key = DeduplicationKey(
+        operationId = request.operation.id(),
+        variables = request.operation.variables(customScalarAdapters).valueMap,
+        httpMethod = request.httpMethod,
+        httpHeaders = request.httpHeaders,
+        sendApqExtensions = request.sendApqExtensions,
+        sendDocument = request.sendDocument,
+        enableAutoPersistedQueries = request.enableAutoPersistedQueries,
+        ignoreUnknownKeys = request.ignoreUnknownKeys,
+    )
+
+    return flow {
+      val call = lock.withLock {
+        inFlightCalls.getOrPut(key) {
+          InFlightCall().also { call ->
+            call.job = concurrencyInfo.coroutineScope.launch(start = CoroutineStart.LAZY) {
+              execute(call, chain.proceed(request))
+            }
+            call.job.invokeOnCompletion { cause ->
+              if (cause is CancellationException) {
+                // The ApolloClient was closed, or there are no collectors left
+                call.events.tryEmit(Event.Cancelled(cause))
+              }
+              lock.withLock {
+                // Queries executed from now on start a new call
+                if (inFlightCalls[key] === call) {
+                  inFlightCalls.remove(key)
+                }
+              }
+            }
+          }
+        }.also {
+          it.collectors++
+        }
+      }
+      call.job.start()
+
+      try {
+        val responses = call.events.transformWhile { event ->
+          when (event) {
+            is Event.Response -> {
+              @Suppress("UNCHECKED_CAST")
+              val response = event.response as ApolloResponse<D>
+              emit(response.newBuilder().requestUuid(request.requestUuid).build())
+              true
+            }
+
+            is Event.Failure -> throw event.cause
+            is Event.Cancelled -> {
+              emit(
+                  ApolloResponse.Builder(request.operation, request.requestUuid)
+                      .exception(ApolloNetworkException("The deduplicated network call was cancelled", event.cause))
+                      .build()
+              )
+              false
+            }
+
+            Event.Completed -> false
+          }
+        }
+        emitAll(responses)
+      } finally {
+        lock.withLock {
+          call.collectors--
+          if (call.collectors == 0 && inFlightCalls[key] === call) {
+            // Nobody is interested in this call anymore
+            inFlightCalls.remove(key)
+            call.job.cancel()
+          }
+        }
+      }
+    }
+  }
+
+  private suspend fun execute(call: InFlightCall, upstream: Flow<ApolloResponse<*>>) {
+    try {
+      upstream.collect {
+        call.events.emit(Event.Response(it))
+      }
+      call.events.emit(Event.Completed)
+    } catch (e: CancellationException) {
+      throw e
+    } catch (e: Throwable) {
+      call.events.emit(Event.Failure(e))
+    }
+  }
+}
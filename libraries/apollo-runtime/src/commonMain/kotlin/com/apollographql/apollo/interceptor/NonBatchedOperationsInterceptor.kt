@@ -0,0 +1,28 @@
+package com.apollographql.apollo.interceptor
+
+import com.apollographql.apollo.api.ApolloRequest
+import com.apollographql.apollo.api.ApolloResponse
+import com.apollographql.apollo.api.ExecutionOptions
+import com.apollographql.apollo.api.Operation
+import com.apollographql.apollo.api.http.HttpHeader
+import kotlinx.coroutines.flow.Flow
+
+/**
+ * An [ApolloInterceptor] that opts the operations named in [operationNames] out of HTTP batching.
+ *
+ * Batching is decided at the HTTP level where operations are not known anymore, so the decision is carried by the
+ * [ExecutionOptions.CAN_BE_BATCHED] header. Calls that set [ApolloRequest.canBeBatched] explicitly keep their value.
+ *
+ * @see com.apollographql.apollo.ApolloClient.Builder.httpBatching
+ */
+internal class NonBatchedOperationsInterceptor(private val operationNames: Set<String>) : ApolloInterceptor {
+  override fun <D : Operation.Data> intercept(request: ApolloRequest<D>, chain: ApolloInterceptorChain): Flow<ApolloResponse<D>> {
+    if (request.canBeBatched != null || request.operation.name() !in operationNames) {
+      return chain.proceed(request)
+    }
+
+    val headers = request.httpHeaders.orEmpty().filter { it.name != ExecutionOptions.CAN_BE_BATCHED } +
+        HttpHeader(ExecutionOptions.CAN_BE_BATCHED, "false")
+    return chain.proceed(request.newBuilder().httpHeaders(headers).build())
+  }
+}
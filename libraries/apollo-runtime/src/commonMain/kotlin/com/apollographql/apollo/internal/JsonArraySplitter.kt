@@ -0,0 +1,154 @@
+package com.apollographql.apollo.internal
+
+import com.apollographql.apollo.exception.JsonDataException
+import okio.Buffer
+import okio.BufferedSource
+import okio.EOFException
+import okio.use
+
+/**
+ * Splits a top-level JSON array into its elements as they are received, without parsing them.
+ *
+ * The bytes of each element are moved from [source] to the returned [Buffer] as is. Moving whole segments between okio
+ * buffers doesn't copy them so the elements are slices of the bytes read from the network rather than re-encoded copies.
+ *
+ * Elements are only scanned to find where they end: strings and nesting are tracked but the content is not validated.
+ */
+internal class JsonArraySplitter(private val source: BufferedSource) {
+  private var state = STATE_BEFORE_ARRAY
+  private val cursor = Buffer.UnsafeCursor()
+
+  /**
+   * Returns the next element of the array or null if the array is over
+   */
+  fun nextElement(): Buffer? {
+    when (state) {
+      STATE_BEFORE_ARRAY -> {
+        if (readNonWhitespace() != '['.code.toByte()) {
+          throw JsonDataException("Expected BEGIN_ARRAY")
+        }
+        state = STATE_FIRST_ELEMENT
+      }
+
+      STATE_END -> return null
+    }
+
+    var next = peekNonWhitespace()
+    if (next == ']'.code.toByte()) {
+      source.skip(1)
+      state = STATE_END
+      return null
+    }
+    if (state == STATE_NEXT_ELEMENT) {
+      if (next != ','.code.toByte()) {
+        throw JsonDataException("Expected ',' or ']' between array elements")
+      }
+      source.skip(1)
+      next = peekNonWhitespace()
+    }
+    state = STATE_NEXT_ELEMENT
+
+    val element = Buffer()
+    source.read(element, elementSize(next))
+    return element
+  }
+
+  /**
+   * Checks that there is nothing but whitespace after the array
+   */
+  fun endDocument() {
+    check(state == STATE_END)
+    while (source.request(1)) {
+      if (!isWhitespace(source.buffer[0])) {
+        throw JsonDataException("Expected END_DOCUMENT")
+      }
+      source.skip(1)
+    }
+  }
+
+  /**
+   * Returns the size of the element at the start of [source], requesting more bytes as needed.
+   *
+   * The bytes are scanned segment by segment with an [Buffer.UnsafeCursor] so that each byte is only looked at once.
+   */
+  private fun elementSize(first: Byte): Long {
+    val buffer = source.buffer
+    var depth = 0
+    var inString = false
+    var escaped = false
+    var index = 0L
+
+    val isScalar = first != '{'.code.toByte() && first != '['.code.toByte() && first != '"'.code.toByte()
+    while (true) {
+      if (index == buffer.size && !source.request(index + 1)) {
+        if (isScalar && index > 0) {
+          // A scalar at the end of the stream, the array is truncated but let the caller find out
+          return index
+        }
+        throw EOFException("Unterminated JSON array element")
+      }
+      buffer.readUnsafe(cursor).use {
+        var length = it.seek(index)
+        while (length != -1) {
+          val data = it.data!!
+          for (i in it.start until it.end) {
+            val byte = data[i]
+            if (inString) {
+              when {
+                escaped -> escaped = false
+                byte == '\\'.code.toByte() -> escaped = true
+                byte == '"'.code.toByte() -> {
+                  inString = false
+                  if (depth == 0) {
+                    return index + 1
+                  }
+                }
+              }
+            } else if (isScalar) {
+              if (byte == ','.code.toByte() || byte == ']'.code.toByte() || isWhitespace(byte)) {
+                return index
+              }
+            } else {
+              when (byte) {
+                '"'.code.toByte() -> inString = true
+                '{'.code.toByte(), '['.code.toByte() -> depth++
+                '}'.code.toByte(), ']'.code.toByte() -> {
+                  depth--
+                  if (depth == 0) {
+                    return index + 1
+                  }
+                }
+              }
+            }
+            index++
+          }
+          length = it.next()
+        }
+      }
+    }
+  }
+
+  private fun peekNonWhitespace(): Byte {
+    while (true) {
+      source.require(1)
+      val byte = source.buffer[0]
+      if (!isWhitespace(byte)) {
+        return byte
+      }
+      source.skip(1)
+    }
+  }
+
+  private fun readNonWhitespace(): Byte {
+    return peekNonWhitespace().also { source.skip(1) }
+  }
+
+  private fun isWhitespace(byte: Byte): Boolean {
+    return byte == ' '.code.toByte() || byte == '\n'.code.toByte() || byte == '\r'.code.toByte() || byte == '\t'.code.toByte()
+  }
+}
+
+private const val STATE_BEFORE_ARRAY = 0
+private const val STATE_FIRST_ELEMENT = 1
+private const val STATE_NEXT_ELEMENT = 2
+private const val STATE_END = 3
@@ -21,9 +21,12 @@ import com.apollographql.apollo.exception.ApolloException
 import com.apollographql.apollo.exception.ApolloHttpException
 import com.apollographql.apollo.exception.DefaultApolloException
 import com.apollographql.apollo.exception.JsonDataException
+import com.apollographql.apollo.internal.JsonArraySplitter
+import com.apollographql.apollo.internal.defaultDispatcher
 import kotlinx.coroutines.CompletableDeferred
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
 import kotlinx.coroutines.async
 import kotlinx.coroutines.cancel
 import kotlinx.coroutines.delay
@@ -32,6 +35,8 @@ import kotlinx.coroutines.sync.Mutex
 import kotlinx.coroutines.sync.withLock
 import okio.Buffer
 import okio.BufferedSink
+import okio.BufferedSource
+import okio.ByteString.Companion.encodeUtf8
 import okio.use
 import kotlin.jvm.JvmOverloads
 import kotlin.jvm.JvmStatic
@@ -47,10 +52,12 @@ import kotlin.time.TimeSource.Monotonic.markNow
  * Because [com.apollographql.apollo.ApolloCall.execute] suspends, it only makes sense to use query batching when queries are
  * executed from different coroutines. Use [async] to create a new coroutine if needed
  *
- * [BatchingHttpInterceptor] buffers the whole response, so it might additionally introduce some
- * client-side latency as it cannot amortize parsing/building the models during network I/O.
+ * By default, [BatchingHttpInterceptor] buffers the whole response, so it might additionally introduce some
+ * client-side latency as it cannot amortize parsing/building the models during network I/O. Set [streamResponse] to
+ * return each response as soon as it is received instead.
  *
- * [BatchingHttpInterceptor] only works with Post requests. Trying to batch a Get request is undefined.
+ * [BatchingHttpInterceptor] only works with Post requests. Trying to batch a Get request is undefined. Requests with a
+ * compressed body (a `Content-Encoding` header) are not batched.
  *
  * HTTP headers will be merged from all requests in the batch by keeping the ones that have the same name and value in all requests. Any
  * headers present in only some requests, or with different values in some requests will be dropped.
@@ -65,18 +72,56 @@ import kotlin.time.TimeSource.Monotonic.markNow
  * to avoid sockets and other resources leaking.
  *
  * Default: false
+ * @param streamResponse configures whether to split the response while it is received. Each request of the batch gets
+ * its response as soon as its element of the response array is fully received, with the bytes of that element as body,
+ * without parsing it. If the response fails after some elements, the requests that received their element keep it and
+ * only the remaining ones fail.
+ *
+ * Default: false
+ * @param maxBatchSizeBytes the maximum size of the request bodies of a batch. A request that would make the batch exceed
+ * it is queued in a new batch and the current batch is sent. A request larger than [maxBatchSizeBytes] is sent alone.
+ * Bodies of unknown length are not counted.
+ *
+ * Default: [Long.MAX_VALUE]
+ * @param adaptiveBatchInterval configures whether to adapt the batch interval to the load. The interval starts at
+ * [batchIntervalMillis]. It is halved, down to 1ms, when a batch contains a single request: no other request came in
+ * during the window so waiting only added latency. It is doubled when a batch is at least half full. It may grow above
+ * [batchIntervalMillis], up to a quarter of the average round trip time of the batches, so that the time spent waiting
+ * stays small compared to the time spent on the network.
+ *
+ * Default: false
  */
 class BatchingHttpInterceptor @JvmOverloads constructor(
     private val batchIntervalMillis: Long = 10,
     private val maxBatchSize: Int = 10,
     private val exposeErrorBody: Boolean = false,
+    private val streamResponse: Boolean = false,
+    private val maxBatchSizeBytes: Long = Long.MAX_VALUE,
+    private val adaptiveBatchInterval: Boolean = false,
 ) : HttpInterceptor {
   private val startMark = markNow()
+
+  /**
+   * Runs the batch timers. The batches themselves run on [defaultDispatcher] so that they execute in parallel and that
+   * reading a response body never delays a timer.
+   */
   private val dispatcher = Dispatchers.Default.limitedParallelism(1)
   private val scope = CoroutineScope(dispatcher)
   private val mutex = Mutex()
   private var disposed = false
 
+  /**
+   * The state below is guarded by [mutex]
+   */
+  private var pendingBytes = 0L
+
+  /**
+   * The timer of the current window. There is at most one, started by the first request of the window.
+   */
+  private var batchTimer: Job? = null
+  private var intervalMillis = batchIntervalMillis
+  private var averageRoundTripMillis = -1.0
+
   private var interceptorChain: HttpInterceptorChain? = null
 
   class PendingRequest(
@@ -89,7 +134,9 @@ class BatchingHttpInterceptor @JvmOverloads constructor(
 
   override suspend fun intercept(request: HttpRequest, chain: HttpInterceptorChain): HttpResponse {
     // Batching is enabled by default, unless explicitly disabled
-    val canBeBatched = request.headers.valueOf(ExecutionOptions.CAN_BE_BATCHED)?.toBoolean() ?: true
+    // Compressed bodies cannot be put in the array of a batch
+    val canBeBatched = (request.headers.valueOf(ExecutionOptions.CAN_BE_BATCHED)?.toBoolean() ?: true) &&
+        request.headers.valueOf("Content-Encoding") == null
 
     if (!canBeBatched) {
       // Remove the CAN_BE_BATCHED header and forward directly
@@ -100,40 +147,76 @@ class BatchingHttpInterceptor @JvmOverloads constructor(
     interceptorChain = chain
 
     val pendingRequest = PendingRequest(request)
+    val size = request.body?.contentLength?.coerceAtLeast(0) ?: 0
 
-    val sendNow = mutex.withLock {
-      // if there was an error, the previous job was already canceled, ignore that error
-      pendingRequests.add(pendingRequest)
-      val batchFull = pendingRequests.size >= maxBatchSize
-      if (batchFull) {
-        executePendingRequests(needLock = false)
+    val batches = mutex.withLock {
+      buildList {
+        if (pendingRequests.isNotEmpty() && pendingBytes + size > maxBatchSizeBytes) {
+          // This request doesn't fit in the current batch, send it and start a new one
+          add(takePendingRequests())
+        }
+        pendingRequests.add(pendingRequest)
+        pendingBytes += size
+        if (pendingRequests.size >= maxBatchSize || pendingBytes >= maxBatchSizeBytes) {
+          add(takePendingRequests())
+        } else if (batchTimer == null) {
+          val delayMillis = intervalMillis - (startMark.elapsedNow().inWholeMilliseconds % intervalMillis) - 1
+          batchTimer = scope.launch {
+            delay(delayMillis)
+            val pending = mutex.withLock {
+              batchTimer = null
+              takePendingRequests()
+            }
+            sendBatch(pending)
+          }
+        }
       }
-      batchFull
     }
 
-    if (!sendNow) {
-      scope.launch {
-        delay(batchIntervalMillis - (startMark.elapsedNow().inWholeMilliseconds % batchIntervalMillis) - 1)
-        executePendingRequests(needLock = true)
-      }
+    batches.forEach {
+      sendBatch(it)
     }
 
     return pendingRequest.deferred.await()
   }
 
-  private suspend fun executePendingRequests(needLock: Boolean) {
-    val pending = if (needLock) {
-      mutex.withLock {
-        val copy = pendingRequests.toList()
-        pendingRequests.clear()
-        copy
-      }
+  /**
+   * Must be called while holding [mutex]
+   */
+  private fun takePendingRequests(): List<PendingRequest> {
+    val copy = pendingRequests.toList()
+    pendingRequests.clear()
+    pendingBytes = 0
+    // The batch is sent before the end of the window, a new window starts with the next request
+    batchTimer?.cancel()
+    batchTimer = null
+    return copy
+  }
+
+  private fun sendBatch(pending: List<PendingRequest>) {
+    scope.launch(defaultDispatcher) { executePendingRequests(pending) }
+  }
+
+  /**
+   * Updates the batch interval after a batch of [batchSize] requests took [roundTripMillis] to execute.
+   *
+   * Must be called while holding [mutex]
+   */
+  private fun adaptBatchInterval(batchSize: Int, roundTripMillis: Long) {
+    averageRoundTripMillis = if (averageRoundTripMillis < 0) {
+      roundTripMillis.toDouble()
     } else {
-      val copy = pendingRequests.toList()
-      pendingRequests.clear()
-      copy
+      averageRoundTripMillis + (roundTripMillis - averageRoundTripMillis) * ROUND_TRIP_SMOOTHING
     }
+    val maxIntervalMillis = maxOf(batchIntervalMillis, (averageRoundTripMillis / 4).toLong())
+    intervalMillis = when {
+      batchSize <= 1 -> intervalMillis / 2
+      batchSize * 2 >= maxBatchSize -> intervalMillis * 2
+      else -> intervalMillis
+    }.coerceIn(1, maxIntervalMillis)
+  }
 
+  private suspend fun executePendingRequests(pending: List<PendingRequest>) {
     if (pending.isEmpty()) {
       return
     }
@@ -179,7 +262,12 @@ class BatchingHttpInterceptor @JvmOverloads constructor(
     var exception: ApolloException? = null
     var responseHeader = emptyList<HttpHeader>()
     val result = try {
+      val roundTripMark = markNow()
       val response = interceptorChain!!.proceed(request)
+      if (adaptiveBatchInterval) {
+        val roundTripMillis = roundTripMark.elapsedNow().inWholeMilliseconds
+        mutex.withLock { adaptBatchInterval(pending.size, roundTripMillis) }
+      }
       if (response.statusCode !in 200..299) {
         val maybeBody = if (exposeErrorBody) {
           response.body
@@ -197,6 +285,11 @@ class BatchingHttpInterceptor @JvmOverloads constructor(
       val responseBody = response.body ?: throw DefaultApolloException("null body when executing batched query")
       responseHeader = response.headers
 
+      if (streamResponse) {
+        responseBody.use { streamResponses(it, responseHeader, pending) }
+        return
+      }
+
       val list = BufferedSourceJsonReader(responseBody).use { jsonReader ->
         // TODO: this is most likely going to transform BigNumbers into strings, not sure how much of an issue that is
         AnyAdapter.fromJson(jsonReader, CustomScalarAdapters.Empty).also {
@@ -249,6 +342,35 @@ class BatchingHttpInterceptor @JvmOverloads constructor(
     }
   }
 
+  /**
+   * Completes the requests of [pending] one by one, as soon as their element of the response array is received.
+   */
+  private fun streamResponses(responseBody: BufferedSource, responseHeader: List<HttpHeader>, pending: List<PendingRequest>) {
+    val splitter = JsonArraySplitter(responseBody)
+    var count = 0
+    while (true) {
+      val element = splitter.nextElement() ?: break
+      if (count == pending.size) {
+        throw DefaultApolloException("batched query response count (more than ${pending.size}) does not match the requested queries (${pending.size})")
+      }
+      if (element.size == NULL.size.toLong() && element.rangeEquals(0, NULL)) {
+        throw DefaultApolloException("batched query response contains a null item")
+      }
+      // This works because the server must return the responses in order
+      pending[count].deferred.complete(
+          HttpResponse.Builder(statusCode = 200)
+              .body(element)
+              .headers(responseHeader)
+              .build()
+      )
+      count++
+    }
+    splitter.endDocument()
+    if (count != pending.size) {
+      throw DefaultApolloException("batched query response count ($count) does not match the requested queries (${pending.size})")
+    }
+  }
+
   /**
    * Cancels pending requests.
    *
@@ -263,6 +385,9 @@ class BatchingHttpInterceptor @JvmOverloads constructor(
   }
 
   companion object {
+    private val NULL = "null".encodeUtf8()
+    private const val ROUND_TRIP_SMOOTHING = 0.2
+
     @JvmStatic
     fun configureApolloClientBuilder(apolloClientBuilder: ApolloClient.Builder, canBeBatched: Boolean) {
       apolloClientBuilder.canBeBatched(canBeBatched)
@@ -11,6 +11,7 @@ import com.apollographql.apollo.api.json.jsonReader
 import com.apollographql.apollo.api.json.readAny
 import com.apollographql.apollo.api.json.writeAny
 import com.apollographql.apollo.api.toJsonString
+import com.apollographql.apollo.network.websocket.internal.jsonResponseServerMessageOrNull
 import okio.Buffer
 
 /**
@@ -60,6 +61,17 @@ class AppSyncWsProtocol(
   }
 
   override fun parseServerMessage(text: String): ServerMessage {
+    return parseServerMessage(Buffer().writeUtf8(text))
+  }
+
+  /**
+   * Responses are returned as [JsonResponseServerMessage] so that their payload is parsed directly from [message]
+   */
+  override fun parseServerMessage(message: Buffer): ServerMessage {
+    return jsonResponseServerMessageOrNull(message, "data") ?: parseServerMessageMap(message.readUtf8())
+  }
+
+  private fun parseServerMessageMap(text: String): ServerMessage {
     val map = try {
       @Suppress("UNCHECKED_CAST")
       Buffer().writeUtf8(text).jsonReader().readAny() as Map<String, Any?>
@@ -6,6 +6,7 @@ import com.apollographql.apollo.api.Operation
 import com.apollographql.apollo.api.http.DefaultHttpRequestComposer
 import com.apollographql.apollo.api.json.jsonReader
 import com.apollographql.apollo.api.json.readAny
+import com.apollographql.apollo.network.websocket.internal.jsonResponseServerMessageOrNull
 import okio.Buffer
 
 /**
@@ -55,6 +56,17 @@ class GraphQLWsProtocol(
   }
 
   override fun parseServerMessage(text: String): ServerMessage {
+    return parseServerMessage(Buffer().writeUtf8(text))
+  }
+
+  /**
+   * Responses are returned as [JsonResponseServerMessage] so that their payload is parsed directly from [message]
+   */
+  override fun parseServerMessage(message: Buffer): ServerMessage {
+    return jsonResponseServerMessageOrNull(message, "next") ?: parseServerMessageMap(message.readUtf8())
+  }
+
+  private fun parseServerMessageMap(text: String): ServerMessage {
     val map = try {
       @Suppress("UNCHECKED_CAST")
       Buffer().writeUtf8(text).jsonReader().readAny() as Map<String, Any?>
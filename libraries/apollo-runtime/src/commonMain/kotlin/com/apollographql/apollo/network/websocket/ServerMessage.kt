@@ -2,6 +2,11 @@ package com.apollographql.apollo.network.websocket
 
 import com.apollographql.apollo.annotations.ApolloExperimental
 import com.apollographql.apollo.api.json.ApolloJsonElement
+import com.apollographql.apollo.api.json.BufferedSourceJsonReader
+import com.apollographql.apollo.api.json.JsonReader
+import com.apollographql.apollo.api.json.readAny
+import okio.Buffer
+import okio.use
 
 /**
  * A WebSocket [message](https://datatracker.ietf.org/doc/html/rfc6455#section-1.2) sent by the server
@@ -27,6 +32,36 @@ class ConnectionErrorServerMessage(val payload: ApolloJsonElement) : ServerMessa
 @ApolloExperimental
 class ResponseServerMessage(val id: String, val response: ApolloJsonElement) : ServerMessage
 
+/**
+ * A GraphQL response was received and is kept as the bytes of the message.
+ *
+ * Contrary to [ResponseServerMessage], the response is not parsed into a Map: [payloadReader] reads it directly from the
+ * bytes of the message so that it can be parsed by the operation adapters in a single pass.
+ */
+@ApolloExperimental
+class JsonResponseServerMessage internal constructor(
+    val id: String,
+    private val message: Buffer,
+) : ServerMessage {
+  /**
+   * Returns a new [JsonReader] positioned at the GraphQL response. The bytes of the message are not copied.
+   */
+  fun payloadReader(): JsonReader {
+    val reader = BufferedSourceJsonReader(message.peek())
+    reader.beginObject()
+    while (reader.nextName() != "payload") {
+      reader.skipValue()
+    }
+    return reader
+  }
+
+  /**
+   * The GraphQL response, parsed into a Map
+   */
+  val response: ApolloJsonElement
+    get() = payloadReader().use { it.readAny() }
+}
+
 /**
  * The subscription completed normally
  * This is a terminal message for the given operation.
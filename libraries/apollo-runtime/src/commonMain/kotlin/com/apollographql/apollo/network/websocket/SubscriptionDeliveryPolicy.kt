@@ -0,0 +1,95 @@
+package com.apollographql.apollo.network.websocket
+
+import com.apollographql.apollo.annotations.ApolloExperimental
+import com.apollographql.apollo.api.ApolloRequest
+import com.apollographql.apollo.api.ExecutionContext
+import com.apollographql.apollo.api.MutableExecutionOptions
+import kotlin.time.Duration
+
+/**
+ * How the responses of a subscription are delivered when the collector is slower than the server.
+ *
+ * Responses are queued as received and only parsed when they are collected so that the responses skipped by a policy
+ * are never parsed.
+ *
+ * Terminal errors, like an `error` message or a closed WebSocket, end the subscription and are always delivered. `next`
+ * payloads that contain GraphQL `errors` are responses like the other ones and may be dropped by a policy.
+ *
+ * Incremental (`@defer`) payloads are merged as they are received and the policy applies to the merged responses.
+ *
+ * Policies are only supported by [WebSocketNetworkTransport].
+ *
+ * @see subscriptionDeliveryPolicy
+ */
+@ApolloExperimental
+sealed interface SubscriptionDeliveryPolicy {
+  /**
+   * Every response is delivered and buffered without upper bound. This is the default.
+   */
+  object All : SubscriptionDeliveryPolicy
+
+  /**
+   * Keeps the last [capacity] responses and drops the oldest ones when the collector is too slow.
+   */
+  class DropOldest(val capacity: Int) : SubscriptionDeliveryPolicy {
+    init {
+      require(capacity > 0) {
+        "Apollo: 'capacity' must be > 0"
+      }
+    }
+  }
+
+  /**
+   * Only keeps the latest response: the collector always gets the most recent state.
+   */
+  object ConflateLatest : SubscriptionDeliveryPolicy
+
+  /**
+   * Delivers the latest response at most once every [interval].
+   *
+   * The completion of the subscription may be delayed by up to [interval].
+   */
+  class Sample(val interval: Duration) : SubscriptionDeliveryPolicy {
+    init {
+      require(interval.isPositive()) {
+        "Apollo: 'interval' must be positive"
+      }
+    }
+  }
+
+  /**
+   * Buffers up to [capacity] responses. When the buffer is full, new responses are dropped and [onOverflow] is called
+   * from the WebSocket thread.
+   */
+  class BoundedBuffer(val capacity: Int, val onOverflow: () -> Unit) : SubscriptionDeliveryPolicy {
+    init {
+      require(capacity > 0) {
+        "Apollo: 'capacity' must be > 0"
+      }
+    }
+  }
+}
+
+/**
+ * Sets the [SubscriptionDeliveryPolicy] of this subscription.
+ *
+ * ```kotlin
+ * apolloClient.subscription(LiveScoresSubscription())
+ *     .subscriptionDeliveryPolicy(SubscriptionDeliveryPolicy.ConflateLatest)
+ *     .toFlow()
+ * ```
+ */
+@ApolloExperimental
+fun <T> MutableExecutionOptions<T>.subscriptionDeliveryPolicy(subscriptionDeliveryPolicy: SubscriptionDeliveryPolicy) = addExecutionContext(
+    SubscriptionDeliveryPolicyContext(subscriptionDeliveryPolicy)
+)
+
+internal class SubscriptionDeliveryPolicyContext(val subscriptionDeliveryPolicy: SubscriptionDeliveryPolicy) : ExecutionContext.Element {
+  override val key: ExecutionContext.Key<*>
+    get() = Key
+
+  companion object Key : ExecutionContext.Key<SubscriptionDeliveryPolicyContext>
+}
+
+internal val ApolloRequest<*>.subscriptionDeliveryPolicy: SubscriptionDeliveryPolicy
+  get() = executionContext[SubscriptionDeliveryPolicyContext]?.subscriptionDeliveryPolicy ?: SubscriptionDeliveryPolicy.All
@@ -5,6 +5,8 @@ import com.apollographql.apollo.api.ApolloRequest
 import com.apollographql.apollo.api.ApolloResponse
 import com.apollographql.apollo.api.Operation
 import com.apollographql.apollo.api.json.ApolloJsonElement
+import com.apollographql.apollo.api.json.JsonReader
+import com.apollographql.apollo.api.json.readAny
 
 /**
  * A [SubscriptionParser] transforms JSON responses contained in WebSocket messages into parsed [ApolloResponse]
@@ -12,6 +14,16 @@ import com.apollographql.apollo.api.json.ApolloJsonElement
 @ApolloExperimental
 interface SubscriptionParser<D : Operation.Data> {
   fun parse(response: ApolloJsonElement): ApolloResponse<D>?
+
+  /**
+   * Parses a response read from [jsonReader], positioned at the start of the response. [jsonReader] reads the bytes of
+   * the WebSocket message directly, see [JsonResponseServerMessage]. The caller closes [jsonReader].
+   *
+   * The default implementation reads the response into a Map and calls [parse].
+   */
+  fun parse(jsonReader: JsonReader): ApolloResponse<D>? {
+    return parse(jsonReader.readAny())
+  }
 }
 
 /**
@@ -7,6 +7,7 @@ import com.apollographql.apollo.api.Operation
 import com.apollographql.apollo.api.http.DefaultHttpRequestComposer
 import com.apollographql.apollo.api.json.jsonReader
 import com.apollographql.apollo.api.json.readAny
+import com.apollographql.apollo.network.websocket.internal.jsonResponseServerMessageOrNull
 import com.apollographql.apollo.network.ws.GraphQLWsProtocol
 import okio.Buffer
 
@@ -59,6 +60,17 @@ class SubscriptionWsProtocol(
   }
 
   override fun parseServerMessage(text: String): ServerMessage {
+    return parseServerMessage(Buffer().writeUtf8(text))
+  }
+
+  /**
+   * Responses are returned as [JsonResponseServerMessage] so that their payload is parsed directly from [message]
+   */
+  override fun parseServerMessage(message: Buffer): ServerMessage {
+    return jsonResponseServerMessageOrNull(message, "data") ?: parseServerMessageMap(message.readUtf8())
+  }
+
+  private fun parseServerMessageMap(text: String): ServerMessage {
     val map = try {
       @Suppress("UNCHECKED_CAST")
       Buffer().writeUtf8(text).jsonReader().readAny() as Map<String, Any?>
@@ -6,7 +6,9 @@ import com.apollographql.apollo.api.ApolloResponse
 import com.apollographql.apollo.api.CustomScalarAdapters
 import com.apollographql.apollo.api.Operation
 import com.apollographql.apollo.api.json.ApolloJsonElement
+import com.apollographql.apollo.api.json.JsonReader
 import com.apollographql.apollo.api.json.jsonReader
+import com.apollographql.apollo.api.parseResponse
 import com.apollographql.apollo.api.toApolloResponse
 import com.apollographql.apollo.exception.ApolloException
 import com.apollographql.apollo.exception.ApolloWebSocketForceCloseException
@@ -17,12 +19,17 @@ import com.apollographql.apollo.network.NetworkTransport
 import com.apollographql.apollo.network.websocket.internal.OperationListener
 import com.apollographql.apollo.network.websocket.internal.WebSocketPool
 import com.benasher44.uuid.uuid4
+import kotlinx.coroutines.channels.BufferOverflow
 import kotlinx.coroutines.channels.Channel
 import kotlinx.coroutines.channels.ProducerScope
 import kotlinx.coroutines.channels.awaitClose
+import kotlinx.coroutines.delay
 import kotlinx.coroutines.flow.Flow
 import kotlinx.coroutines.flow.buffer
 import kotlinx.coroutines.flow.callbackFlow
+import kotlinx.coroutines.flow.transform
+import kotlinx.coroutines.launch
+import okio.use
 import kotlin.time.Duration
 import kotlin.time.Duration.Companion.seconds
 
@@ -57,7 +64,8 @@ class WebSocketNetworkTransport private constructor(
    * Executes the given [ApolloRequest] using WebSockets
    *
    * @return a cold [Flow] that subscribes when started and unsubscribes when cancelled.
-   * The returned [Flow] buffers responses without upper bound.
+   * The returned [Flow] buffers responses according to the request [SubscriptionDeliveryPolicy], without upper bound by
+   * default.
    *
    * Else, the [Flow] will emit a response with a non-null [ApolloResponse.exception] and terminate normally.
    */
@@ -66,8 +74,9 @@ class WebSocketNetworkTransport private constructor(
   ): Flow<ApolloResponse<D>> {
 
     var renewUuid = false
+    val deliveryPolicy = request.subscriptionDeliveryPolicy
 
-    val flow = callbackFlow {
+    val flow = callbackFlow<ResponseFrame<D>> {
       val newRequest = if (renewUuid) {
         request.newBuilder().requestUuid(uuid4()).build()
       } else {
@@ -75,7 +84,7 @@ class WebSocketNetworkTransport private constructor(
       }
       renewUuid = true
 
-      val operationListener = DefaultOperationListener(newRequest, this, parserFactory.createParser(request))
+      val operationListener = DefaultOperationListener(newRequest, this, parserFactory.createParser(request), deliveryPolicy)
 
       val webSocket = pool.acquire(newRequest.httpHeaders.orEmpty())
 
@@ -87,7 +96,21 @@ class WebSocketNetworkTransport private constructor(
     }
 
     // buffer because we're emitting from websocket callbacks and we can't suspend there
-    return flow.buffer(Channel.UNLIMITED)
+    val bufferedFlow = when (deliveryPolicy) {
+      SubscriptionDeliveryPolicy.All -> flow.buffer(Channel.UNLIMITED)
+      is SubscriptionDeliveryPolicy.DropOldest -> flow.buffer(deliveryPolicy.capacity, BufferOverflow.DROP_OLDEST)
+      SubscriptionDeliveryPolicy.ConflateLatest, is SubscriptionDeliveryPolicy.Sample -> flow.buffer(Channel.CONFLATED)
+      is SubscriptionDeliveryPolicy.BoundedBuffer -> flow.buffer(deliveryPolicy.capacity)
+    }
+
+    // parse in the collector so that the frames dropped by the buffer are never parsed
+    return bufferedFlow.transform { frame ->
+      frame.parse()?.let { emit(it) }
+      if (deliveryPolicy is SubscriptionDeliveryPolicy.Sample) {
+        // new frames are conflated while waiting
+        delay(deliveryPolicy.interval)
+      }
+    }
   }
 
   override fun dispose() {
@@ -237,16 +260,78 @@ private class DefaultSubscriptionParser<D : Operation.Data>(private val request:
       apolloResponse
     }
   }
+
+  override fun parse(jsonReader: JsonReader): ApolloResponse<D>? {
+    return jsonReader.parseResponse(
+        operation = request.operation,
+        requestUuid = request.requestUuid,
+        customScalarAdapters = requestCustomScalarAdapters,
+    )
+  }
+}
+
+/**
+ * A response as received from the WebSocket. Parsing is deferred until the response is collected.
+ */
+private fun interface ResponseFrame<D : Operation.Data> {
+  fun parse(): ApolloResponse<D>?
 }
 
 private class DefaultOperationListener<D : Operation.Data>(
     private val request: ApolloRequest<D>,
-    private val producerScope: ProducerScope<ApolloResponse<D>>,
-    private val parser: SubscriptionParser<D>
+    private val producerScope: ProducerScope<ResponseFrame<D>>,
+    private val parser: SubscriptionParser<D>,
+    private val deliveryPolicy: SubscriptionDeliveryPolicy,
 ) : OperationListener {
   override fun onResponse(response: ApolloJsonElement) {
-    parser.parse(response)?.let {
-      producerScope.trySend(it)
+    @Suppress("UNCHECKED_CAST")
+    val responseMap = response as? Map<String, Any?>
+    if (responseMap?.isDeferred() == true) {
+      // Incremental payloads are merged as they are received so that no payload is skipped
+      val apolloResponse = parser.parse(response) ?: return
+      send { apolloResponse }
+    } else {
+      send { parser.parse(response) }
+    }
+  }
+
+  /**
+   * Whether the server may send incremental payloads. They are merged as Maps so the responses of such operations are
+   * not parsed from the message bytes.
+   */
+  private val mayBeDeferred = request.operation.mayBeDeferred()
+
+  override fun onResponse(message: JsonResponseServerMessage) {
+    if (mayBeDeferred) {
+      onResponse(message.response)
+    } else {
+      send { message.payloadReader().use { parser.parse(it) } }
+    }
+  }
+
+  private fun send(frame: ResponseFrame<D>) {
+    val result = producerScope.trySend(frame)
+    if (result.isFailure && !result.isClosed) {
+      // Only a BoundedBuffer can be full
+      (deliveryPolicy as? SubscriptionDeliveryPolicy.BoundedBuffer)?.onOverflow?.invoke()
+    }
+  }
+
+  /**
+   * Sends a terminal response. Contrary to regular responses, it is never dropped.
+   */
+  private fun sendLast(response: ApolloResponse<D>) {
+    val frame = ResponseFrame { response }
+    val result = producerScope.trySend(frame)
+    when {
+      result.isSuccess || result.isClosed -> producerScope.close()
+      else -> {
+        // The buffer is full, wait for the collector to make room
+        producerScope.launch {
+          producerScope.send(frame)
+          producerScope.close()
+        }
+      }
     }
   }
 
@@ -261,13 +346,11 @@ private class DefaultOperationListener<D : Operation.Data>(
   }
 
   override fun onError(payload: ApolloJsonElement) {
-    producerScope.trySend(errorResponse(SubscriptionOperationException(request.operation.name(), payload)))
-    producerScope.close()
+    sendLast(errorResponse(SubscriptionOperationException(request.operation.name(), payload)))
   }
 
   override fun onTransportError(cause: ApolloException) {
-    producerScope.trySend(errorResponse(cause))
-    producerScope.close()
+    sendLast(errorResponse(cause))
   }
 }
 
@@ -275,6 +358,18 @@ private fun Map<String, Any?>.isDeferred(): Boolean {
   return keys.contains("hasNext")
 }
 
+/**
+ * Whether the document of this operation uses `@defer`. If the document was not generated, assume it does.
+ */
+private fun Operation<*>.mayBeDeferred(): Boolean {
+  val document = try {
+    document()
+  } catch (e: IllegalStateException) {
+    return true
+  }
+  return document.contains("@defer")
+}
+
 /**
  * Closes the websocket connection if the transport is a [WebSocketNetworkTransport].
  *
@@ -3,6 +3,7 @@ package com.apollographql.apollo.network.websocket
 import com.apollographql.apollo.annotations.ApolloExperimental
 import com.apollographql.apollo.api.ApolloRequest
 import com.apollographql.apollo.api.Operation
+import okio.Buffer
 
 /**
  * A [WsProtocol] manages different flavours of WebSocket protocols.
@@ -20,5 +21,17 @@ interface WsProtocol {
   fun pong(): ClientMessage?
 
   fun parseServerMessage(text: String): ServerMessage
+
+  /**
+   * Parses a message received as UTF-8 bytes, from a text or a binary frame.
+   *
+   * The returned [ServerMessage] may keep a reference to [message], for example a [JsonResponseServerMessage] that
+   * reads its payload later. [message] must not be modified afterwards.
+   *
+   * The default implementation decodes [message] and calls [parseServerMessage].
+   */
+  fun parseServerMessage(message: Buffer): ServerMessage {
+    return parseServerMessage(message.readUtf8())
+  }
 }
 
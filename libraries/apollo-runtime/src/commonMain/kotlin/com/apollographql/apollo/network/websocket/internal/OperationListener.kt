@@ -2,6 +2,7 @@ package com.apollographql.apollo.network.websocket.internal
 
 import com.apollographql.apollo.api.json.ApolloJsonElement
 import com.apollographql.apollo.exception.ApolloException
+import com.apollographql.apollo.network.websocket.JsonResponseServerMessage
 
 internal interface OperationListener {
   /**
@@ -18,6 +19,11 @@ internal interface OperationListener {
    */
   fun onResponse(response: ApolloJsonElement)
 
+  /**
+   * A response was received as JSON bytes
+   */
+  fun onResponse(message: JsonResponseServerMessage)
+
   /**
    * The operation terminated successfully. No future calls to this listener are made.
    */
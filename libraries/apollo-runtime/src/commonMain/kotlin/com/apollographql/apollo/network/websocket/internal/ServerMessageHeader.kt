@@ -0,0 +1,77 @@
+package com.apollographql.apollo.network.websocket.internal
+
+import com.apollographql.apollo.api.json.BufferedSourceJsonReader
+import com.apollographql.apollo.api.json.JsonReader
+import com.apollographql.apollo.network.websocket.JsonResponseServerMessage
+import okio.Buffer
+import okio.use
+
+/**
+ * The type and id of a server message, read without parsing its payload
+ */
+internal class ServerMessageHeader(
+    val type: String?,
+    val id: String?,
+    val payloadIsObject: Boolean,
+)
+
+/**
+ * Reads the header of the JSON message in [message] without consuming it.
+ *
+ * Reading stops at the payload if the type and id are known by then, which is the case for the usual key order. Else
+ * the payload is skipped to read the keys after it.
+ *
+ * @throws Exception if [message] is not a JSON object
+ */
+internal fun readServerMessageHeader(message: Buffer): ServerMessageHeader {
+  var type: String? = null
+  var id: String? = null
+  var payloadIsObject = false
+
+  BufferedSourceJsonReader(message.peek()).use { reader ->
+    reader.beginObject()
+    while (reader.hasNext()) {
+      when (reader.nextName()) {
+        "type" -> type = reader.nextStringOrSkip()
+        "id" -> id = reader.nextStringOrSkip()
+        "payload" -> {
+          payloadIsObject = reader.peek() == JsonReader.Token.BEGIN_OBJECT
+          if (type != null && id != null) {
+            return ServerMessageHeader(type, id, payloadIsObject)
+          }
+          reader.skipValue()
+        }
+
+        else -> reader.skipValue()
+      }
+    }
+    reader.endObject()
+  }
+
+  return ServerMessageHeader(type, id, payloadIsObject)
+}
+
+private fun JsonReader.nextStringOrSkip(): String? {
+  if (peek() != JsonReader.Token.STRING) {
+    skipValue()
+    return null
+  }
+  return nextString()
+}
+
+/**
+ * Returns a [JsonResponseServerMessage] if [message] is a response message of type [responseType] with an object
+ * payload, or null if it is another message that needs to be parsed fully.
+ */
+internal fun jsonResponseServerMessageOrNull(message: Buffer, responseType: String): JsonResponseServerMessage? {
+  val header = try {
+    readServerMessageHeader(message)
+  } catch (e: Exception) {
+    // Invalid JSON, let the full parser report it
+    return null
+  }
+  if (header.type != responseType || header.id == null || !header.payloadIsObject) {
+    return null
+  }
+  return JsonResponseServerMessage(header.id, message)
+}
@@ -15,11 +15,13 @@ import com.apollographql.apollo.network.websocket.ConnectionAckServerMessage
 import com.apollographql.apollo.network.websocket.ConnectionErrorServerMessage
 import com.apollographql.apollo.network.websocket.ConnectionKeepAliveServerMessage
 import com.apollographql.apollo.network.websocket.DataClientMessage
+import com.apollographql.apollo.network.websocket.JsonResponseServerMessage
 import com.apollographql.apollo.network.websocket.OperationErrorServerMessage
 import com.apollographql.apollo.network.websocket.ParseErrorServerMessage
 import com.apollographql.apollo.network.websocket.PingServerMessage
 import com.apollographql.apollo.network.websocket.PongServerMessage
 import com.apollographql.apollo.network.websocket.ResponseServerMessage
+import com.apollographql.apollo.network.websocket.ServerMessage
 import com.apollographql.apollo.network.websocket.TextClientMessage
 import com.apollographql.apollo.network.websocket.WebSocket
 import com.apollographql.apollo.network.websocket.WebSocketEngine
@@ -33,6 +35,7 @@ import kotlinx.coroutines.Job
 import kotlinx.coroutines.cancel
 import kotlinx.coroutines.delay
 import kotlinx.coroutines.launch
+import okio.Buffer
 import kotlin.time.Duration
 
 /**
@@ -164,7 +167,15 @@ internal class SubscribableWebSocket(
   }
 
   override fun onMessage(text: String) {
-    when (val message = wsProtocol.parseServerMessage(text)) {
+    onServerMessage(wsProtocol.parseServerMessage(text))
+  }
+
+  override fun onMessage(data: ByteArray) {
+    onServerMessage(wsProtocol.parseServerMessage(Buffer().write(data)))
+  }
+
+  private fun onServerMessage(message: ServerMessage) {
+    when (message) {
       ConnectionAckServerMessage -> {
         ackTimeoutJob?.cancel()
         ackTimeoutJob = null
@@ -201,6 +212,10 @@ internal class SubscribableWebSocket(
         lock.withLock { activeListeners.get(message.id) }?.onResponse(message.response)
       }
 
+      is JsonResponseServerMessage -> {
+        lock.withLock { activeListeners.get(message.id) }?.onResponse(message)
+      }
+
       is CompleteServerMessage -> {
         lock.withLock { activeListeners.get(message.id) }?.onComplete()
       }
@@ -231,10 +246,6 @@ internal class SubscribableWebSocket(
     }
   }
 
-  override fun onMessage(data: ByteArray) {
-    onMessage(data.decodeToString())
-  }
-
   override fun onError(cause: ApolloException) {
     shutdownInternal(cause)
   }
@@ -0,0 +1,65 @@
+package test
+
+import com.apollographql.apollo.annotations.ApolloExperimental
+import com.apollographql.mockserver.MockResponse
+import com.apollographql.mockserver.assertNoRequest
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
+import test.network.mockServerTest
+import kotlin.test.Test
+import kotlin.test.assertEquals
+
+@OptIn(ApolloExperimental::class)
+class DeduplicationTest {
+  private fun delayedSuccessResponse() = MockResponse.Builder()
+      .body(FooQuery.successResponse)
+      .delayMillis(300)
+      .build()
+
+  @Test
+  fun identicalQueriesShareTheNetworkCall() = mockServerTest(clientBuilder = { deduplicateQueries(true) }) {
+    mockServer.enqueue(delayedSuccessResponse())
+
+    val responses = List(5) {
+      scope.async { apolloClient.query(FooQuery()).execute() }
+    }.awaitAll()
+
+    responses.forEach {
+      assertEquals(42, it.data?.foo)
+    }
+    // Each response keeps the uuid of its request
+    assertEquals(5, responses.map { it.requestUuid }.toSet().size)
+
+    mockServer.takeRequest()
+    mockServer.assertNoRequest()
+  }
+
+  @Test
+  fun cancellingOneQueryDoesNotCancelTheOthers() = mockServerTest(clientBuilder = { deduplicateQueries(true) }) {
+    mockServer.enqueue(delayedSuccessResponse())
+
+    val cancelled = scope.launch { apolloClient.query(FooQuery()).execute() }
+    val other = scope.async { apolloClient.query(FooQuery()).execute() }
+    delay(100)
+    cancelled.cancel()
+
+    assertEquals(42, other.await().data?.foo)
+    mockServer.takeRequest()
+    mockServer.assertNoRequest()
+  }
+
+  @Test
+  fun queriesAreNotDeduplicatedByDefault() = mockServerTest {
+    mockServer.enqueue(delayedSuccessResponse())
+    mockServer.enqueue(delayedSuccessResponse())
+
+    List(2) {
+      scope.async { apolloClient.query(FooQuery()).execute() }
+    }.awaitAll()
+
+    mockServer.takeRequest()
+    mockServer.takeRequest()
+  }
+}
@@ -0,0 +1,77 @@
+package test.network
+
+import com.apollographql.apollo.internal.JsonArraySplitter
+import okio.Buffer
+import okio.Source
+import okio.Timeout
+import okio.buffer
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFails
+import kotlin.test.assertNull
+
+class JsonArraySplitterTest {
+  /**
+   * A source that returns one byte at a time, like a slow network
+   */
+  private class SlowSource(private val buffer: Buffer) : Source {
+    override fun read(sink: Buffer, byteCount: Long): Long {
+      if (buffer.exhausted()) {
+        return -1
+      }
+      return buffer.read(sink, 1)
+    }
+
+    override fun timeout() = Timeout.NONE
+    override fun close() {}
+  }
+
+  private fun split(json: String): List<String> {
+    val splitter = JsonArraySplitter(SlowSource(Buffer().writeUtf8(json)).buffer())
+    val elements = mutableListOf<String>()
+    while (true) {
+      elements.add(splitter.nextElement()?.readUtf8() ?: break)
+    }
+    splitter.endDocument()
+    return elements
+  }
+
+  @Test
+  fun splitsTheElements() {
+    val elements = listOf(
+        """{"data":{"a":[1,{"b":"]}"}]}}""",
+        """{"data":{"s":"an \"escaped\" quote and a \\"}}""",
+        """"a string"""",
+        "42",
+        "null",
+        "[]",
+    )
+    assertEquals(elements, split(elements.joinToString(separator = " ,\n", prefix = " [ ", postfix = " ]\n")))
+  }
+
+  @Test
+  fun emptyArray() {
+    assertEquals(emptyList(), split("[]"))
+  }
+
+  @Test
+  fun elementsLargerThanASegment() {
+    val element = """{"data":"${"a".repeat(50_000)}"}"""
+    assertEquals(listOf(element, element), split("[$element,$element]"))
+  }
+
+  @Test
+  fun truncatedArray() {
+    val splitter = JsonArraySplitter(Buffer().writeUtf8("""[{"data":{}},{"data":"""))
+    assertEquals("""{"data":{}}""", splitter.nextElement()?.readUtf8())
+    assertFails { splitter.nextElement() }
+  }
+
+  @Test
+  fun notAnArray() {
+    assertFails { JsonArraySplitter(Buffer().writeUtf8("""{"data":{}}""")).nextElement() }
+    val splitter = JsonArraySplitter(Buffer().writeUtf8("""[] {}"""))
+    assertNull(splitter.nextElement())
+    assertFails { splitter.endDocument() }
+  }
+}
@@ -1,5 +1,7 @@
 package test.network
 
+import app.cash.turbine.Event
+import app.cash.turbine.ReceiveTurbine
 import app.cash.turbine.test
 import com.apollographql.apollo.ApolloClient
 import com.apollographql.apollo.api.ApolloRequest
@@ -13,8 +15,10 @@ import com.apollographql.apollo.exception.SubscriptionOperationException
 import com.apollographql.apollo.interceptor.ApolloInterceptor
 import com.apollographql.apollo.interceptor.ApolloInterceptorChain
 import com.apollographql.apollo.network.websocket.GraphQLWsProtocol
+import com.apollographql.apollo.network.websocket.SubscriptionDeliveryPolicy
 import com.apollographql.apollo.network.websocket.WebSocketNetworkTransport
 import com.apollographql.apollo.network.websocket.closeConnection
+import com.apollographql.apollo.network.websocket.subscriptionDeliveryPolicy
 import com.apollographql.apollo.testing.internal.runTest
 import com.apollographql.mockserver.CloseFrame
 import com.apollographql.mockserver.MockServer
@@ -24,16 +28,20 @@ import com.apollographql.mockserver.WebsocketMockRequest
 import com.apollographql.mockserver.awaitWebSocketRequest
 import com.apollographql.mockserver.enqueueWebSocket
 import com.apollographql.mockserver.headerValueOf
+import kotlinx.coroutines.CompletableDeferred
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.async
 import kotlinx.coroutines.delay
 import kotlinx.coroutines.flow.Flow
 import kotlinx.coroutines.flow.emitAll
+import kotlinx.coroutines.flow.first
 import kotlinx.coroutines.flow.flow
 import kotlinx.coroutines.flow.merge
 import kotlinx.coroutines.flow.onEach
 import kotlinx.coroutines.flow.retryWhen
 import okio.use
+import test.FooOperation
 import test.FooSubscription
 import test.FooSubscription.Companion.completeMessage
 import test.FooSubscription.Companion.errorMessage
@@ -127,6 +135,112 @@ class WebSocketNetworkTransportTest {
         }
   }
 
+  @Test
+  fun conflateLatest() = mockServerWebSocketTest {
+    // The first response is collected, the other ones are conflated while the collector is blocked
+    assertEquals(listOf(0, 99), awaitFoosOfBlockedCollector(SubscriptionDeliveryPolicy.ConflateLatest))
+  }
+
+  @Test
+  fun dropOldest() = mockServerWebSocketTest {
+    assertEquals(listOf(0) + (90 until 100), awaitFoosOfBlockedCollector(SubscriptionDeliveryPolicy.DropOldest(10)))
+  }
+
+  @Test
+  fun sample() = mockServerWebSocketTest {
+    val interval = 1.seconds
+    apolloClient.subscription(FooSubscription())
+        .subscriptionDeliveryPolicy(SubscriptionDeliveryPolicy.Sample(interval))
+        .toFlow()
+        .test {
+          awaitConnectionInit()
+          val operationId = serverReader.awaitSubscribe()
+
+          // Responses sent more than one interval apart are all delivered
+          serverWriter.enqueueMessage(nextMessage(operationId, 0))
+          assertEquals(0, awaitItem().data?.foo)
+          delay(interval * 2)
+          serverWriter.enqueueMessage(nextMessage(operationId, 1))
+          assertEquals(1, awaitItem().data?.foo)
+
+          // Responses sent within the interval that follows a delivered response are conflated
+          for (foo in 2 until 100) {
+            serverWriter.enqueueMessage(nextMessage(operationId, foo))
+          }
+          assertEquals(99, awaitItem().data?.foo)
+
+          serverWriter.enqueueMessage(completeMessage(operationId))
+          awaitComplete()
+        }
+  }
+
+  @Test
+  fun boundedBuffer() = mockServerWebSocketTest {
+    var overflows = 0
+    val foos = awaitFoosOfBlockedCollector(SubscriptionDeliveryPolicy.BoundedBuffer(10) { overflows++ })
+
+    // The oldest responses are kept
+    assertEquals((0..10).toList(), foos)
+    assertEquals(89, overflows)
+  }
+
+  /**
+   * Subscribes with [policy] and sends 100 responses while the collector is blocked on the first one.
+   *
+   * The collector is only released once a response of another subscription sharing the WebSocket is received: at that
+   * point, all the responses have been handed to the policy.
+   *
+   * @return the foos that were collected
+   */
+  private suspend fun MockServerWebSocketTest.awaitFoosOfBlockedCollector(policy: SubscriptionDeliveryPolicy): List<Int> {
+    val firstReceived = CompletableDeferred<Unit>()
+    val gate = CompletableDeferred<Unit>()
+    var foos = emptyList<Int>()
+
+    apolloClient.subscription(FooSubscription())
+        .subscriptionDeliveryPolicy(policy)
+        .toFlow()
+        .onEach {
+          if (it.data?.foo == 0) {
+            firstReceived.complete(Unit)
+            gate.await()
+          }
+        }
+        .test {
+          awaitConnectionInit()
+          val operationId = serverReader.awaitSubscribe()
+          val barrier = coroutineScope.async {
+            apolloClient.subscription(FooSubscription()).toFlow().first()
+          }
+          val barrierOperationId = serverReader.awaitSubscribe()
+
+          serverWriter.enqueueMessage(nextMessage(operationId, 0))
+          firstReceived.await()
+          for (foo in 1 until 100) {
+            serverWriter.enqueueMessage(nextMessage(operationId, foo))
+          }
+          serverWriter.enqueueMessage(completeMessage(operationId))
+          serverWriter.enqueueMessage(nextMessage(barrierOperationId, 0))
+          barrier.await()
+
+          gate.complete(Unit)
+          foos = awaitFoos()
+        }
+
+    return foos
+  }
+
+  private suspend fun ReceiveTurbine<ApolloResponse<FooOperation.Data>>.awaitFoos(): List<Int> {
+    val foos = mutableListOf<Int>()
+    while (true) {
+      when (val event = awaitEvent()) {
+        is Event.Item -> foos.add(event.value.data!!.foo)
+        is Event.Error -> throw event.throwable
+        Event.Complete -> return foos
+      }
+    }
+  }
+
   @Test
   fun operationError() = mockServerWebSocketTest {
     apolloClient.subscription(FooSubscription())
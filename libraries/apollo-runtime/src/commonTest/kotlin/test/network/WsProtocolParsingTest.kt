@@ -0,0 +1,56 @@
+package test.network
+
+import com.apollographql.apollo.api.json.readAny
+import com.apollographql.apollo.network.websocket.CompleteServerMessage
+import com.apollographql.apollo.network.websocket.GraphQLWsProtocol
+import com.apollographql.apollo.network.websocket.JsonResponseServerMessage
+import com.apollographql.apollo.network.websocket.ParseErrorServerMessage
+import com.apollographql.apollo.network.websocket.ResponseServerMessage
+import com.apollographql.apollo.network.websocket.SubscriptionWsProtocol
+import com.apollographql.apollo.network.websocket.internal.readServerMessageHeader
+import okio.Buffer
+import okio.use
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertIs
+import kotlin.test.assertTrue
+
+class WsProtocolParsingTest {
+  private fun parse(text: String) = GraphQLWsProtocol().parseServerMessage(Buffer().writeUtf8(text))
+
+  @Test
+  fun responsesAreReadFromTheMessageBytes() {
+    val message = parse("""{"payload":{"data":{"foo":"bar"}},"type":"next","id":"1"}""")
+
+    assertIs<JsonResponseServerMessage>(message)
+    assertEquals("1", message.id)
+    assertEquals(mapOf("data" to mapOf("foo" to "bar")), message.payloadReader().use { it.readAny() })
+    // The payload can be read several times
+    assertEquals(mapOf("data" to mapOf("foo" to "bar")), message.response)
+  }
+
+  @Test
+  fun headerReadingStopsAtThePayload() {
+    // The payload is not read: the truncated payload doesn't fail
+    val header = readServerMessageHeader(Buffer().writeUtf8("""{"type":"next","id":"1","payload":{"data":{"foo"""))
+
+    assertEquals("next", header.type)
+    assertEquals("1", header.id)
+    assertTrue(header.payloadIsObject)
+  }
+
+  @Test
+  fun otherMessagesAreParsedFully() {
+    assertIs<CompleteServerMessage>(parse("""{"type":"complete","id":"1"}"""))
+    assertIs<ParseErrorServerMessage>(parse("""{"type":"next","""))
+    // Without an object payload, the message goes through the Map path
+    assertIs<ResponseServerMessage>(parse("""{"type":"next","id":"1","payload":null}"""))
+  }
+
+  @Test
+  fun textMessagesUseTheSamePath() {
+    assertIs<JsonResponseServerMessage>(
+        SubscriptionWsProtocol().parseServerMessage("""{"type":"data","id":"1","payload":{"data":null}}""")
+    )
+  }
+}
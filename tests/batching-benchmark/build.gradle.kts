@@ -0,0 +1,23 @@
+plugins {
+  id("org.jetbrains.kotlin.jvm")
+  id("org.jetbrains.kotlinx.benchmark")
+}
+
+apolloTest()
+
+sourceSets.create("jmh")
+
+benchmark {
+  targets {
+    register("jmh")
+  }
+}
+
+dependencies {
+  implementation("com.apollographql.apollo:apollo-runtime")
+  implementation(libs.apollo.mockserver)
+  implementation(libs.kotlinx.coroutines)
+
+  add("jmhImplementation", libs.kotlinx.benchmark.runtime)
+  add("jmhImplementation", sourceSets.main.get().output + sourceSets.main.get().runtimeClasspath)
+}
@@ -0,0 +1,149 @@
+package benchmark
+
+import com.apollographql.apollo.api.http.ByteStringHttpBody
+import com.apollographql.apollo.api.http.HttpMethod
+import com.apollographql.apollo.api.http.HttpRequest
+import com.apollographql.apollo.api.http.HttpResponse
+import com.apollographql.apollo.network.http.BatchingHttpInterceptor
+import com.apollographql.apollo.network.http.DefaultHttpEngine
+import com.apollographql.apollo.network.http.HttpEngine
+import com.apollographql.apollo.network.http.HttpInterceptorChain
+import com.apollographql.mockserver.MockRequest
+import com.apollographql.mockserver.MockRequestBase
+import com.apollographql.mockserver.MockResponse
+import com.apollographql.mockserver.MockServer
+import com.apollographql.mockserver.MockServerHandler
+import kotlinx.coroutines.runBlocking
+import okio.Buffer
+import okio.BufferedSource
+import okio.Source
+import okio.buffer
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Fork
+import org.openjdk.jmh.annotations.Measurement
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.TearDown
+import org.openjdk.jmh.annotations.Threads
+import org.openjdk.jmh.annotations.Warmup
+import java.util.concurrent.TimeUnit
+
+/**
+ * Compares the fixed and adaptive batching policies against a local [MockServer] answering after [SERVER_DELAY_MILLIS].
+ *
+ * Each benchmark thread is a caller executing queries one after the other. [lowLoad] has a single caller, so batching
+ * can only add latency, while [highLoad] has enough concurrent callers to fill batches. [highLoadSlowBody] is
+ * [highLoad] with response bodies that take [SLOW_BODY_CHUNK_DELAY_MILLIS] to read every [SLOW_BODY_CHUNK_SIZE] bytes,
+ * like on a slow network: batches must be read in parallel and the batch windows must not wait for the reads.
+ *
+ * Throughput is reported in queries per second and the sample time mode reports the latency percentiles (p99).
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5, time = 2, timeUnit = TimeUnit.SECONDS)
+@BenchmarkMode(Mode.Throughput, Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+open class Benchmark {
+  @Param("fixed", "adaptive")
+  var policy = ""
+
+  private lateinit var mockServer: MockServer
+  private lateinit var engine: HttpEngine
+  private lateinit var interceptor: BatchingHttpInterceptor
+  private lateinit var chain: HttpInterceptorChain
+  private lateinit var slowBodyChain: HttpInterceptorChain
+  private lateinit var request: HttpRequest
+
+  @Setup
+  fun setUp() {
+    mockServer = MockServer.Builder().handler(BatchHandler()).build()
+    engine = DefaultHttpEngine()
+    interceptor = BatchingHttpInterceptor(
+        batchIntervalMillis = 10,
+        maxBatchSize = 10,
+        adaptiveBatchInterval = policy == "adaptive",
+    )
+    chain = object : HttpInterceptorChain {
+      override suspend fun proceed(request: HttpRequest): HttpResponse {
+        return engine.execute(request)
+      }
+    }
+    slowBodyChain = object : HttpInterceptorChain {
+      override suspend fun proceed(request: HttpRequest): HttpResponse {
+        val response = engine.execute(request)
+        return HttpResponse.Builder(response.statusCode)
+            .headers(response.headers)
+            .body(SlowSource(response.body!!).buffer())
+            .build()
+      }
+    }
+    request = HttpRequest.Builder(HttpMethod.Post, runBlocking { mockServer.url() })
+        .body(ByteStringHttpBody("application/json", """{"query":"{ launch(id: \"83\") { id } }"}"""))
+        .build()
+  }
+
+  @TearDown
+  fun tearDown() {
+    interceptor.dispose()
+    engine.close()
+    mockServer.close()
+  }
+
+  private fun executeQuery(chain: HttpInterceptorChain = this.chain): Int {
+    return runBlocking {
+      interceptor.intercept(request, chain).body!!.use { it.readByteString().size }
+    }
+  }
+
+  @Benchmark
+  @Threads(1)
+  fun lowLoad(): Int {
+    return executeQuery()
+  }
+
+  @Benchmark
+  @Threads(32)
+  fun highLoad(): Int {
+    return executeQuery()
+  }
+
+  @Benchmark
+  @Threads(32)
+  fun highLoadSlowBody(): Int {
+    return executeQuery(slowBodyChain)
+  }
+
+  /**
+   * Returns at most [SLOW_BODY_CHUNK_SIZE] bytes of [source] per read, after blocking for [SLOW_BODY_CHUNK_DELAY_MILLIS]
+   */
+  private class SlowSource(private val source: BufferedSource) : Source by source {
+    override fun read(sink: Buffer, byteCount: Long): Long {
+      Thread.sleep(SLOW_BODY_CHUNK_DELAY_MILLIS)
+      return source.read(sink, minOf(byteCount, SLOW_BODY_CHUNK_SIZE))
+    }
+  }
+
+  /**
+   * Answers each batch with as many responses as it contains queries
+   */
+  private class BatchHandler : MockServerHandler {
+    override fun handle(request: MockRequestBase): MockResponse {
+      val body = (request as MockRequest).body.utf8()
+      val count = body.split("\"query\"").size - 1
+      return MockResponse.Builder()
+          .body(List(count) { """{"data":{"launch":{"id":"83"}}}""" }.joinToString(prefix = "[", postfix = "]"))
+          .delayMillis(SERVER_DELAY_MILLIS)
+          .build()
+    }
+  }
+}
+
+private const val SERVER_DELAY_MILLIS = 20L
+private const val SLOW_BODY_CHUNK_SIZE = 64L
+private const val SLOW_BODY_CHUNK_DELAY_MILLIS = 2L
@@ -34,6 +34,7 @@ import kotlinx.coroutines.CoroutineStart
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.ExperimentalCoroutinesApi
 import kotlinx.coroutines.TimeoutCancellationException
+import kotlinx.coroutines.async
 import kotlinx.coroutines.cancelAndJoin
 import kotlinx.coroutines.channels.Channel
 import kotlinx.coroutines.delay
@@ -657,6 +658,36 @@ class WatcherTest {
           assertIs<CacheMissException>(awaitItem().exception)
         }
   }
+
+  @Test
+  fun publishOnlyNotifiesAffectedWatchers() = runTest(before = { setUp() }) {
+    val query = EpisodeHeroNameWithIdQuery(Episode.EMPIRE)
+    apolloClient.enqueueTestResponse(query, episodeHeroNameWithIdData)
+    apolloClient.query(query).fetchPolicy(FetchPolicy.NetworkOnly).execute()
+
+    val channel = Channel<EpisodeHeroNameWithIdQuery.Data?>()
+    val job = launch {
+      apolloClient.query(query)
+          .fetchPolicy(FetchPolicy.CacheOnly)
+          .watch()
+          .collect {
+            channel.send(it.data)
+          }
+    }
+    assertEquals("R2-D2", channel.awaitElement()?.hero?.name)
+
+    // Unrelated keys do not trigger the watcher
+    store.publish(setOf("1002.name"))
+    channel.assertEmpty()
+
+    // The changed keys are still emitted for the listeners of changedKeys
+    val changedKeys = async(start = CoroutineStart.UNDISPATCHED) { store.changedKeys.first() }
+    store.publish(setOf("2001.name"))
+    assertEquals(setOf("2001.name"), changedKeys.await())
+    assertEquals("R2-D2", channel.awaitElement()?.hero?.name)
+
+    job.cancel()
+  }
 }
 
 internal suspend fun <D> Channel<D>.assertCount(count: Int) {
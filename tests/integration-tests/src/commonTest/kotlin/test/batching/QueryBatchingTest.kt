@@ -8,7 +8,9 @@ import com.apollographql.apollo.api.ApolloResponse
 import com.apollographql.apollo.api.CustomScalarAdapters
 import com.apollographql.apollo.api.ExecutionOptions.Companion.CAN_BE_BATCHED
 import com.apollographql.apollo.api.http.HttpHeader
+import com.apollographql.apollo.api.json.JsonReader
 import com.apollographql.apollo.api.json.jsonReader
+import com.apollographql.apollo.network.http.BatchingHttpInterceptor
 import com.apollographql.apollo.testing.internal.runTest
 import com.apollographql.mockserver.MockRequest
 import com.apollographql.mockserver.MockRequestBase
@@ -28,6 +30,7 @@ import kotlin.test.assertEquals
 import kotlin.test.assertFails
 import kotlin.test.assertFalse
 import kotlin.test.assertIs
+import kotlin.test.assertNotEquals
 import kotlin.test.assertNotNull
 import kotlin.test.assertTrue
 import kotlin.time.Duration.Companion.seconds
@@ -103,6 +106,26 @@ class QueryBatchingTest {
     }
   }
 
+  @Test
+  fun streamedResponses() = runTest(before = { setUp() }, after = { tearDown() }) {
+    mockServer.enqueueString("""[{"data":{"launch":{"id":"83"}}} , {"data":{"launch":{"id":"84"}}}]""")
+    apolloClient = ApolloClient.Builder()
+        .serverUrl(mockServer.url())
+        .addHttpInterceptor(BatchingHttpInterceptor(batchIntervalMillis = 1000, streamResponse = true))
+        .build()
+
+    val result1 = async {
+      apolloClient.query(GetLaunchQuery()).execute()
+    }
+    val result2 = async {
+      delay(50)
+      apolloClient.query(GetLaunch2Query()).execute()
+    }
+
+    assertEquals("83", result1.await().data?.launch?.id)
+    assertEquals("84", result2.await().data?.launch?.id)
+  }
+
   @Test
   fun queriesAreNotBatchedIfSubmittedFarApart() = runTest(before = { setUp() }, after = { tearDown() }) {
     mockServer.enqueueString("""[{"data":{"launch":{"id":"83"}}}]""")
@@ -346,4 +369,91 @@ class QueryBatchingTest {
       assertNotNull(apolloResponse.data)
     }
   }
+
+  /**
+   * Answers batches with the size of the batch as launch id and single requests with "single"
+   */
+  private fun batchSizeMockServer(): MockServer {
+    return MockServer.Builder().handler(object : MockServerHandler {
+      override fun handle(request: MockRequestBase): MockResponse {
+        val jsonReader = Buffer().write((request as MockRequest).body).jsonReader()
+        if (jsonReader.peek() != JsonReader.Token.BEGIN_ARRAY) {
+          return MockResponse.Builder()
+              .body("""{"data":{"launch":{"id":"single"}}}""")
+              .build()
+        }
+        jsonReader.beginArray()
+        var arrayLength = 0
+        while (jsonReader.hasNext()) {
+          jsonReader.skipValue()
+          arrayLength++
+        }
+        return MockResponse.Builder()
+            .body("[" + List(arrayLength) { """{"data":{"launch":{"id":"$arrayLength"}}}""" }.joinToString() + "]")
+            .build()
+      }
+    }).build()
+  }
+
+  @Test
+  fun nonBatchedOperationsAreSentAlone() = runTest(before = { setUp() }, after = { tearDown() }) {
+    mockServer.close()
+    mockServer = batchSizeMockServer()
+    apolloClient = ApolloClient.Builder()
+        .serverUrl(mockServer.url())
+        .httpBatching(batchIntervalMillis = 300, nonBatchedOperations = setOf("GetLaunch2"))
+        .build()
+
+    val result1 = async { apolloClient.query(GetLaunchQuery()).execute() }
+    val result2 = async { apolloClient.query(GetLaunch2Query()).execute() }
+    val result3 = async { apolloClient.query(GetLaunchQuery()).execute() }
+    // An explicit value on the call wins over the list
+    val result4 = async { apolloClient.query(GetLaunch2Query()).canBeBatched(true).execute() }
+
+    assertEquals("single", result2.await().data?.launch?.id)
+    assertNotEquals("single", result1.await().data?.launch?.id)
+    assertNotEquals("single", result3.await().data?.launch?.id)
+    assertNotEquals("single", result4.await().data?.launch?.id)
+  }
+
+  @Test
+  fun batchesAreSplitByBytes() = runTest(before = { setUp() }, after = { tearDown() }) {
+    mockServer.close()
+    mockServer = batchSizeMockServer()
+    apolloClient = ApolloClient.Builder()
+        .serverUrl(mockServer.url())
+        // Every request is larger than the budget and is sent alone
+        .httpBatching(batchIntervalMillis = 300, maxBatchSizeBytes = 1)
+        .build()
+
+    val deferredResults = List(5) {
+      async { apolloClient.query(GetLaunchQuery()).execute() }
+    }
+    for (apolloResponse in deferredResults.awaitAll()) {
+      assertEquals("1", apolloResponse.data?.launch?.id)
+    }
+  }
+
+  @Test
+  fun adaptiveBatchInterval() = runTest(before = { setUp() }, after = { tearDown() }) {
+    mockServer.close()
+    mockServer = batchSizeMockServer()
+    apolloClient = ApolloClient.Builder()
+        .serverUrl(mockServer.url())
+        .httpBatching(maxBatchSize = 10, batchIntervalMillis = 10, adaptiveBatchInterval = true)
+        .build()
+
+    repeat(3) {
+      // Bursts of queries followed by isolated ones
+      val deferredResults = List(30) {
+        async { apolloClient.query(GetLaunchQuery()).execute() }
+      }
+      for (apolloResponse in deferredResults.awaitAll()) {
+        assertTrue(apolloResponse.data!!.launch!!.id.toInt() <= 10)
+      }
+      repeat(3) {
+        assertNotNull(apolloClient.query(GetLaunchQuery()).execute().data)
+      }
+    }
+  }
 }
@@ -2,23 +2,102 @@ package test
 
 import com.apollographql.apollo.ApolloClient
 import com.apollographql.apollo.cache.normalized.ApolloStore
+import com.apollographql.apollo.cache.normalized.StoreLocking
+import com.apollographql.apollo.cache.normalized.api.CacheKey
+import com.apollographql.apollo.cache.normalized.api.ConcurrentMemoryCacheFactory
+import com.apollographql.apollo.cache.normalized.api.InstrumentedNormalizedCacheFactory
 import com.apollographql.apollo.cache.normalized.api.MemoryCacheFactory
+import com.apollographql.apollo.cache.normalized.api.NormalizedCacheMetrics
 import com.apollographql.apollo.cache.normalized.store
 import com.apollographql.apollo.integration.normalizer.CharacterNameByIdQuery
 import com.apollographql.apollo.testing.QueueTestNetworkTransport
 import com.apollographql.apollo.testing.enqueueTestResponse
 import com.apollographql.apollo.testing.internal.runTest
 import kotlinx.coroutines.asCoroutineDispatcher
+import kotlinx.coroutines.coroutineScope
 import kotlinx.coroutines.joinAll
 import kotlinx.coroutines.launch
+import java.util.concurrent.CyclicBarrier
 import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
 import kotlin.test.Test
+import kotlin.test.assertEquals
 
 class CacheConcurrencyTest {
 
   @Test
   fun storeConcurrently() = runTest {
-    val store = ApolloStore(MemoryCacheFactory(maxSizeBytes = 1000))
+    storeConcurrently(ApolloStore(MemoryCacheFactory(maxSizeBytes = 1000)))
+  }
+
+  @Test
+  fun storeConcurrentlyWithRecordLevelLocking() = runTest {
+    storeConcurrently(ApolloStore(MemoryCacheFactory(maxSizeBytes = 1000), locking = StoreLocking.RecordLevel(stripes = 4)))
+  }
+
+  @Test
+  fun readWriteConcurrentlyWithRecordLevelLocking() = runTest {
+    val store = ApolloStore(MemoryCacheFactory(), locking = StoreLocking.RecordLevel())
+    val executor = Executors.newFixedThreadPool(10)
+    val dispatcher = executor.asCoroutineDispatcher()
+
+    val concurrency = 100
+
+    0.until(concurrency).map {
+      launch(dispatcher) {
+        val query = CharacterNameByIdQuery((it % 10).toString())
+        val data = CharacterNameByIdQuery.Data(CharacterNameByIdQuery.Character(name = "name${it % 10}"))
+        repeat(10) {
+          store.writeOperationSync(query, data)
+          assertEquals(data, store.readOperation(query))
+        }
+      }
+    }.joinAll()
+
+    executor.shutdown()
+  }
+
+  /**
+   * Each write waits inside the critical section of the memory cache until the other one is there too: this only
+   * completes if neither the store nor the cache serialize the writes. The wait times out if they do.
+   */
+  @Test
+  fun writesToDisjointRecordsAreParallel() = runTest {
+    val barrier = CyclicBarrier(2)
+    val remainingWrites = AtomicInteger(2)
+    val metrics = object : NormalizedCacheMetrics {
+      override fun onRecordEvicted(cacheName: String, key: String, sizeInBytes: Int) {
+        // Called while holding the lock of the segment of the record
+        if (key != CacheKey.rootKey().key && remainingWrites.getAndDecrement() > 0) {
+          barrier.await(5, TimeUnit.SECONDS)
+        }
+      }
+    }
+    // The memory cache is too small to keep any record: every merge evicts the record it adds. The records are kept by
+    // the next cache.
+    val store = ApolloStore(
+        InstrumentedNormalizedCacheFactory(ConcurrentMemoryCacheFactory(maxSizeBytes = 1).chain(MemoryCacheFactory()), metrics),
+        locking = StoreLocking.RecordLevel()
+    )
+    val executor = Executors.newFixedThreadPool(2)
+    val dispatcher = executor.asCoroutineDispatcher()
+
+    // The records of ids 1 and 2 use different stripes and different segments
+    listOf("1", "2").map { id ->
+      launch(dispatcher) {
+        val query = CharacterNameByIdQuery(id)
+        val data = CharacterNameByIdQuery.Data(CharacterNameByIdQuery.Character(name = "name$id"))
+        store.writeOperationSync(query, data)
+      }
+    }.joinAll()
+
+    executor.shutdown()
+    assertEquals(CharacterNameByIdQuery.Data(CharacterNameByIdQuery.Character(name = "name1")), store.readOperation(CharacterNameByIdQuery("1")))
+    assertEquals(CharacterNameByIdQuery.Data(CharacterNameByIdQuery.Character(name = "name2")), store.readOperation(CharacterNameByIdQuery("2")))
+  }
+
+  private suspend fun storeConcurrently(store: ApolloStore) = coroutineScope {
     val executor = Executors.newFixedThreadPool(10)
     val dispatcher = executor.asCoroutineDispatcher()
 
@@ -0,0 +1,123 @@
+package test
+
+import com.apollographql.apollo.api.ApolloRequest
+import com.apollographql.apollo.api.CustomScalarAdapters
+import com.apollographql.apollo.api.apolloApiVersion
+import com.apollographql.apollo.api.http.DefaultHttpRequestComposer
+import com.apollographql.apollo.api.http.HttpBody
+import com.apollographql.apollo.api.http.HttpBodyEncoding
+import com.apollographql.apollo.api.http.HttpRequest
+import com.apollographql.apollo.api.http.valueOf
+import com.apollographql.apollo.api.json.JsonWriter
+import com.apollographql.apollo.api.json.writeObject
+import com.apollographql.apollo.integration.httpcache.AllPlanetsQuery
+import okio.Buffer
+import okio.ByteString
+import okio.GzipSource
+import okio.InflaterSource
+import okio.buffer
+import java.util.zip.Inflater
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertNull
+
+class RequestCompressionTest {
+  private val operation = AllPlanetsQuery()
+  private val apolloRequest = ApolloRequest.Builder(operation).build()
+
+  private fun HttpBody.bytes() = Buffer().also { writeTo(it) }.readByteString()
+  private fun HttpRequest.bodyBytes() = body!!.bytes()
+
+  /**
+   * The body as built by [DefaultHttpRequestComposer.buildPostBody], without the template
+   */
+  private fun expectedBody(
+      sendDocument: Boolean = true,
+      sendApqExtensions: Boolean = false,
+      sendEnhancedClientAwareness: Boolean = true,
+  ): ByteString {
+    val extensionsWriter: JsonWriter.() -> Unit = {
+      if (sendApqExtensions || sendEnhancedClientAwareness) {
+        name("extensions")
+        writeObject {
+          if (sendApqExtensions) {
+            name("persistedQuery")
+            writeObject {
+              name("version").value(1)
+              name("sha256Hash").value(operation.id())
+            }
+          }
+          if (sendEnhancedClientAwareness) {
+            name("clientLibrary")
+            writeObject {
+              name("name").value("apollo-kotlin")
+              name("version").value(apolloApiVersion)
+            }
+          }
+        }
+      }
+    }
+
+    return DefaultHttpRequestComposer.buildPostBody(
+        operation,
+        CustomScalarAdapters.Empty,
+        if (sendDocument) operation.document() else null,
+        extensionsWriter
+    ).bytes()
+  }
+
+  @Test
+  fun bodiesAreTheSameWhenReusingTheTemplate() {
+    val composer = DefaultHttpRequestComposer("/")
+    val first = composer.compose(apolloRequest)
+    val second = composer.compose(apolloRequest)
+
+    assertEquals(expectedBody(), first.bodyBytes())
+    assertEquals(expectedBody(), second.bodyBytes())
+    assertEquals(first.bodyBytes().size.toLong(), first.body!!.contentLength)
+    assertNull(first.headers.valueOf("Content-Encoding"))
+  }
+
+  @Test
+  fun apqBodiesAreTheSameAsWithoutTheTemplate() {
+    val composer = DefaultHttpRequestComposer("/")
+    val apqRequest = apolloRequest.newBuilder().sendApqExtensions(true).build()
+
+    assertEquals(expectedBody(sendApqExtensions = true), composer.compose(apqRequest).bodyBytes())
+    // The template is keyed by the options: the default request must not reuse the APQ template
+    assertEquals(expectedBody(), composer.compose(apolloRequest).bodyBytes())
+  }
+
+  @Test
+  fun bodiesWithoutTheDocumentAreTheSameAsWithoutTheTemplate() {
+    val composer = DefaultHttpRequestComposer("/")
+    val request = apolloRequest.newBuilder().sendApqExtensions(true).sendDocument(false).build()
+
+    assertEquals(expectedBody(sendDocument = false, sendApqExtensions = true), composer.compose(request).bodyBytes())
+  }
+
+  @Test
+  fun bodiesWithoutExtensionsAreTheSameAsWithoutTheTemplate() {
+    val composer = DefaultHttpRequestComposer("/")
+    val request = apolloRequest.newBuilder().sendEnhancedClientAwareness(false).build()
+
+    assertEquals(expectedBody(sendEnhancedClientAwareness = false), composer.compose(request).bodyBytes())
+  }
+
+  @Test
+  fun gzip() {
+    val httpRequest = DefaultHttpRequestComposer("/", HttpBodyEncoding.Gzip).compose(apolloRequest)
+
+    assertEquals("gzip", httpRequest.headers.valueOf("Content-Encoding"))
+    assertEquals(-1, httpRequest.body!!.contentLength)
+    assertEquals(expectedBody(), GzipSource(Buffer().write(httpRequest.bodyBytes())).buffer().readByteString())
+  }
+
+  @Test
+  fun deflate() {
+    val httpRequest = DefaultHttpRequestComposer("/", HttpBodyEncoding.Deflate).compose(apolloRequest)
+
+    assertEquals("deflate", httpRequest.headers.valueOf("Content-Encoding"))
+    assertEquals(expectedBody(), InflaterSource(Buffer().write(httpRequest.bodyBytes()), Inflater()).buffer().readByteString())
+  }
+}
@@ -0,0 +1,68 @@
+package test
+
+import com.apollographql.apollo.cache.normalized.ApolloStore
+import com.apollographql.apollo.cache.normalized.api.CacheHeaders
+import com.apollographql.apollo.cache.normalized.api.CacheKey
+import com.apollographql.apollo.cache.normalized.api.MemoryCacheFactory
+import com.apollographql.apollo.cache.normalized.api.MemoryCacheSnapshot
+import com.apollographql.apollo.cache.normalized.api.NormalizedCache
+import com.apollographql.apollo.cache.normalized.api.NormalizedCacheFactory
+import com.apollographql.apollo.cache.normalized.api.Record
+import com.apollographql.apollo.exception.apolloExceptionHandler
+import com.apollographql.apollo.integration.normalizer.CharacterNameByIdQuery
+import java.io.IOException
+import kotlin.reflect.KClass
+import kotlin.test.Test
+import kotlin.test.assertIs
+import kotlin.test.assertTrue
+
+class StoreDisposeTest {
+  @Test
+  fun cachesAreClosedWhenTheSnapshotCannotBeSaved() {
+    val snapshot = object : MemoryCacheSnapshot {
+      override fun readKeys(): List<String> = emptyList()
+      override fun writeKeys(keys: List<String>) {
+        throw IOException("No space left on device")
+      }
+    }
+    val closeableCache = CloseableNormalizedCache()
+    val store = ApolloStore(
+        MemoryCacheFactory(snapshot = snapshot).chain(object : NormalizedCacheFactory() {
+          override fun create(): NormalizedCache = closeableCache
+        })
+    )
+    store.writeOperationSync(
+        CharacterNameByIdQuery("1"),
+        CharacterNameByIdQuery.Data(CharacterNameByIdQuery.Character(name = "name1"))
+    )
+
+    val exceptions = mutableListOf<Throwable>()
+    val previousHandler = apolloExceptionHandler
+    apolloExceptionHandler = { exceptions.add(it) }
+    try {
+      store.dispose()
+    } finally {
+      apolloExceptionHandler = previousHandler
+    }
+
+    assertTrue(closeableCache.closed)
+    assertIs<IOException>(exceptions.single().cause)
+  }
+
+  private class CloseableNormalizedCache : NormalizedCache(), AutoCloseable {
+    var closed = false
+
+    override fun close() {
+      closed = true
+    }
+
+    override fun merge(record: Record, cacheHeaders: CacheHeaders): Set<String> = emptySet()
+    override fun merge(records: Collection<Record>, cacheHeaders: CacheHeaders): Set<String> = emptySet()
+    override fun loadRecord(key: String, cacheHeaders: CacheHeaders): Record? = null
+    override fun loadRecords(keys: Collection<String>, cacheHeaders: CacheHeaders): Collection<Record> = emptyList()
+    override fun clearAll() {}
+    override fun remove(cacheKey: CacheKey, cascade: Boolean): Boolean = false
+    override fun remove(pattern: String): Int = 0
+    override fun dump(): Map<KClass<*>, Map<String, Record>> = emptyMap()
+  }
+}
@@ -8,6 +8,7 @@ rootProject.name = "apollo-tests"
 
 listOf(
     "ast-benchmark",
+    "batching-benchmark",
     "browser-tests",
     "cache-variables-arguments",
     "catch",
@@ -74,6 +75,7 @@ listOf(
     "schema-transform/plugin",
     "semantic-non-null",
     "shared-framework",
+    "sqlite-benchmark",
     "strict-mode",
     "termination",
     "test-network-transport",
@@ -0,0 +1,122 @@
+package benchmark
+
+import com.apollographql.apollo.cache.normalized.api.CacheHeaders
+import com.apollographql.apollo.cache.normalized.api.CacheKey
+import com.apollographql.apollo.cache.normalized.api.NormalizedCache
+import com.apollographql.apollo.cache.normalized.api.Record
+import com.apollographql.apollo.cache.normalized.mmap.MmapNormalizedCache
+import com.apollographql.apollo.cache.normalized.mmap.MmapNormalizedCacheFactory
+import com.apollographql.apollo.cache.normalized.sql.SqlNormalizedCacheFactory
+import com.apollographql.apollo.cache.normalized.sql.SqliteOptions
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.Fork
+import org.openjdk.jmh.annotations.Measurement
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.TearDown
+import org.openjdk.jmh.annotations.Warmup
+import java.io.File
+import java.nio.file.Files
+import java.util.concurrent.TimeUnit
+
+/**
+ * Compares the read and write throughput of SqlNormalizedCache for different [SqliteOptions], and of MmapNormalizedCache
+ * ("mmap")
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 1)
+@Measurement(iterations = 10, time = 1, timeUnit = TimeUnit.SECONDS)
+open class Benchmark {
+  @Param("default", "wal", "walNormal", "tuned", "mmap")
+  var options: String = "default"
+
+  private lateinit var dir: File
+  private lateinit var cache: NormalizedCache
+  private var generation = 0
+
+  @Setup
+  fun setUp() {
+    dir = Files.createTempDirectory("sqlite-benchmark").toFile()
+    cache = if (options == "mmap") {
+      MmapNormalizedCacheFactory(dir).create()
+    } else {
+      SqlNormalizedCacheFactory("benchmark.db", dir.absolutePath, sqliteOptions(options)).create()
+    }
+    cache.merge(records(generation), CacheHeaders.NONE)
+  }
+
+  @TearDown
+  fun tearDown() {
+    (cache as? MmapNormalizedCache)?.close()
+    dir.deleteRecursively()
+  }
+
+  @Benchmark
+  fun write(): Int {
+    // Change the values so that every record is written
+    generation++
+    return cache.merge(records(generation), CacheHeaders.NONE).size
+  }
+
+  @Benchmark
+  fun readOne(): Int {
+    return cache.loadRecord(keys[0], CacheHeaders.NONE)!!.size
+  }
+
+  @Benchmark
+  fun readMany(): Int {
+    return cache.loadRecords(keys, CacheHeaders.NONE).size
+  }
+
+  @Benchmark
+  fun readManyUneven(): Int {
+    // Different number of keys every time
+    return (1..unevenSizes).sumOf { cache.loadRecords(keys.subList(0, it * 7), CacheHeaders.NONE).size }
+  }
+
+  companion object {
+    private const val recordCount = 500
+    private const val unevenSizes = 20
+
+    private val keys = (0 until recordCount).map { "key$it" }
+
+    private fun records(generation: Int): List<Record> {
+      return keys.mapIndexed { index, key ->
+        Record(
+            key = key,
+            fields = mapOf(
+                "__typename" to "Item",
+                "id" to index.toString(),
+                "name" to "Item $index ($generation)",
+                "price" to index * 1.5,
+                "tags" to listOf("tag1", "tag2", "tag3"),
+                "next" to CacheKey(keys[(index + 1) % recordCount]),
+            )
+        )
+      }
+    }
+
+    private fun sqliteOptions(name: String): SqliteOptions {
+      return when (name) {
+        "default" -> SqliteOptions.Default
+        "wal" -> SqliteOptions.Builder()
+            .writeAheadLogging(true)
+            .build()
+        "walNormal" -> SqliteOptions.Builder()
+            .writeAheadLogging(true)
+            .synchronous(SqliteOptions.Synchronous.Normal)
+            .build()
+        "tuned" -> SqliteOptions.Builder()
+            .writeAheadLogging(true)
+            .synchronous(SqliteOptions.Synchronous.Normal)
+            .mmapSizeBytes(64L * 1024 * 1024)
+            .pageCacheSizeBytes(8L * 1024 * 1024)
+            .build()
+        else -> error("Unknown options '$name'")
+      }
+    }
+  }
+}